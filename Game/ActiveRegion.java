@@ -0,0 +1,853 @@
+import java.awt.Point;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The chunks around the chunks the players are in that are kept loaded and simulated.
+ * Every chunk within the radius of a chunk with a player is resident, so with several players
+ * the resident chunks are the union of the chunks around each of them. The chunks with a player
+ * are simulated by Simulation every update, the others (the ring) every RING_PERIOD updates.
+ * Enemies in the ring that are chasing a player walk around the walls towards the closest
+ * player and move into the next chunk when they reach its border, so they can follow players
+ * between chunks. Enemies only move into the next chunk after every chunk of the ring is updated, so an
+ * enemy is never moved twice in one update.
+ * Chunks that leave the radius are no longer simulated but keep their state. The KEPT_CHUNKS
+ * chunks that left it last are kept as they are, the others are evicted: only the state of
+ * their enemies is kept, in a compact form, and the chunk is built from it when it is needed
+ * again. So the heap only grows by the enemies of the chunks visited, not by their stores.
+ */
+class ActiveRegion {
+    // Number of updates between two updates of a chunk in the ring
+    static final int RING_PERIOD = 4;
+
+    // Number of chunks outside the radius that are kept as they are, the others are evicted
+    static final int KEPT_CHUNKS = 16;
+
+    // Width and height of a chunk in pixels
+    private static final int CHUNK_PIXEL_WIDTH = GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+    private static final int CHUNK_PIXEL_HEIGHT = GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE;
+
+    private static final int TILE_COUNT = GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
+
+    // Distance of a tile that can't reach the target of the ring enemies
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final String world;
+
+    // Journal the changes to enemies are saved in, null to not save them
+    private final WorldJournal journal;
+
+    // HP of enemies by spawn id applied to chunks loaded from their files, null to load them as they are
+    private Map<Integer, Integer> restoredEnemyHp;
+
+    private final ChunkLoader chunkLoader = new ChunkLoader();
+    private final CollisionCheck collisionChecker = new CollisionCheck();
+
+    // Number of chunks around each chunk with a player that are resident, in each direction
+    private int radius = 1;
+
+    /* The resident chunks and the chunks kept outside the radius by coordinates. Chunks that
+     * don't exist are stored as null while they are within the radius */
+    private final HashMap<Point, ChunkState> chunks = new HashMap<Point, ChunkState>();
+
+    /* The state of the evicted chunks by coordinates: the last update the chunk was simulated in,
+     * then its enemies as written by EnemyStore.writeState */
+    private final HashMap<Point, byte[]> evicted = new HashMap<Point, byte[]>();
+
+    // Number of times the resident chunks changed, the chunk that left the radius first is evicted first
+    private long residentChanges = 0;
+
+    // The chunks within the radius of a chunk with a player, including those chunks. Their tiles are pinned
+    private final ArrayList<ChunkState> resident = new ArrayList<ChunkState>();
+
+    // The chunks with a player, which Simulation updates every update. The first is the current chunk
+    private final ArrayList<ChunkState> occupied = new ArrayList<ChunkState>();
+
+    // The chunks that were resident, while the resident chunks are updated
+    private final ArrayList<ChunkState> leaving = new ArrayList<ChunkState>();
+
+    private ChunkState current;
+
+    // Number of enemies that walked into a chunk with a player from the ring
+    private long enteredCount = 0;
+
+    /* Number of steps from every tile of the chunk being updated to the tile the enemies in it
+     * walk to, and the queue to find them with. Ring enemies walk to the next tile closer to it */
+    private final int[] stepsToTarget = new int[TILE_COUNT];
+    private final int[] tileQueue = new int[TILE_COUNT];
+
+    /* Enemies that reached the border during the ring update, moved into the next chunk after
+     * the update: the chunk they are in, by handle, the chunk they go to and where they enter it */
+    private int handOverCount = 0;
+    private ChunkState[] handOverFrom = new ChunkState[16];
+    private int[] handOverHandle = new int[16];
+    private ChunkState[] handOverTo = new ChunkState[16];
+    private int[] handOverX = new int[16];
+    private int[] handOverY = new int[16];
+
+    /**
+     * Initiates an empty region.
+     *
+     * @param world The name of the world the chunks are in
+     * @param journal The journal to restore and save the enemies with, or null
+     */
+    public ActiveRegion(String world, WorldJournal journal) {
+        this.world = world;
+        this.journal = journal;
+        this.restoredEnemyHp = journal != null ? journal.getRestoredEnemyHp() : null;
+    }
+
+    public Map<Integer, Integer> getRestoredEnemyHp() {
+        return restoredEnemyHp;
+    }
+
+    /**
+     * Sets the HP of enemies applied to chunks loaded from their files from now on, e.g. those
+     * of the journal a recording was made with, see WorldJournal.getRestoredEnemyHp.
+     *
+     * @param newRestoredEnemyHp The HP by spawn id, or null to load chunks as they are
+     */
+    public void setRestoredEnemyHp(Map<Integer, Integer> newRestoredEnemyHp) {
+        restoredEnemyHp = newRestoredEnemyHp;
+    }
+
+    /**
+     * Gets the current chunk: the chunk of the first player, see setOccupied.
+     *
+     * @return The chunk, or null if no chunk has a player
+     */
+    public ChunkState getCurrent() {
+        return current;
+    }
+
+    public int getOccupiedCount() {
+        return occupied.size();
+    }
+
+    /**
+     * Checks if a player is in a chunk.
+     *
+     * @param state The chunk
+     * @return True if the chunk is one of the chunks set by setOccupied
+     */
+    public boolean isOccupied(ChunkState state) {
+        return occupied.contains(state);
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Sets the number of chunks around each chunk with a player that are resident, in each direction.
+     *
+     * @param newRadius The radius, 0 to only simulate the chunks with a player
+     */
+    public void setRadius(int newRadius) {
+        radius = Math.max(0, newRadius);
+
+        if (current != null) {
+            updateResident();
+        }
+    }
+
+    public long getEnteredCount() {
+        return enteredCount;
+    }
+
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Gets a resident chunk.
+     *
+     * @param n A number from 0 up to the number of resident chunks
+     * @return The chunk
+     */
+    public ChunkState getResident(int n) {
+        return resident.get(n);
+    }
+
+    /**
+     * Gets the number of chunks that are loaded: the resident chunks and those kept outside the radius.
+     *
+     * @return The number of chunks
+     */
+    public int getLoadedCount() {
+        int count = 0;
+
+        for (ChunkState state : chunks.values()) {
+            if (state != null) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets every chunk that is loaded, resident or not, ordered by their coordinates.
+     * Evicted chunks are not loaded, see getEvictedChunks.
+     *
+     * @return A new list with the chunks
+     */
+    public ArrayList<ChunkState> getLoadedChunks() {
+        ArrayList<ChunkState> loaded = new ArrayList<ChunkState>();
+
+        for (ChunkState state : chunks.values()) {
+            if (state != null) {
+                loaded.add(state);
+            }
+        }
+
+        loaded.sort((a, b) -> a.chunkY != b.chunkY
+            ? Integer.compare(a.chunkY, b.chunkY) : Integer.compare(a.chunkX, b.chunkX));
+
+        return loaded;
+    }
+
+    public int getEvictedCount() {
+        return evicted.size();
+    }
+
+    /**
+     * Gets the coordinates of every evicted chunk, ordered like getLoadedChunks.
+     *
+     * @return A new list with the coordinates
+     */
+    public ArrayList<Point> getEvictedChunks() {
+        ArrayList<Point> coordinates = new ArrayList<Point>(evicted.keySet());
+
+        coordinates.sort((a, b) -> a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x));
+
+        return coordinates;
+    }
+
+    /**
+     * Gets the state kept of an evicted chunk: the last update it was simulated in as a long,
+     * then its enemies as written by EnemyStore.writeState.
+     *
+     * @param coordinates The coordinates of the chunk
+     * @return The state, which must not be changed, or null if the chunk isn't evicted
+     */
+    public byte[] getEvictedState(Point coordinates) {
+        return evicted.get(coordinates);
+    }
+
+    /**
+     * Forgets every loaded and evicted chunk except some, so the others are loaded from their
+     * files again the next time they are needed. Must be followed by enter.
+     *
+     * @param keep The chunks to keep
+     */
+    public void unloadExcept(ChunkState[] keep) {
+        evicted.clear();
+
+        chunks.values().removeIf(state -> {
+            if (state == null) {
+                return false;
+            }
+
+            for (ChunkState kept : keep) {
+                if (kept == state) {
+                    return false;
+                }
+            }
+
+            return true;
+        });
+    }
+
+    /**
+     * Unpins the tiles of the resident chunks, so the TileStore can give their slots to other
+     * chunks once the region is no longer used. Entering a chunk pins them again.
+     */
+    public void release() {
+        for (int n = 0; n < resident.size(); n++) {
+            resident.get(n).setPinned(false);
+        }
+    }
+
+    /**
+     * Estimates the number of bytes used by the resident chunks.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateResidentBytes() {
+        long bytes = 0;
+
+        for (int n = 0; n < resident.size(); n++) {
+            bytes += resident.get(n).estimateBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Makes a chunk the current chunk and the only chunk with a player, loading it and the
+     * chunks around it if needed. Nothing changes if the chunk doesn't exist.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @return The chunk, or null if it doesn't exist
+     */
+    public ChunkState enter(int chunkX, int chunkY) {
+        ChunkState state = getOrLoad(chunkX, chunkY);
+        if (state == null) {
+            return null;
+        }
+
+        occupied.clear();
+        occupied.add(state);
+        current = state;
+        updateResident();
+
+        return state;
+    }
+
+    /**
+     * Sets the chunks with a player, e.g. after a player entered another chunk, joined or left,
+     * and makes the chunks within the radius of any of them resident, loading them if needed.
+     * The first chunk becomes the current chunk.
+     *
+     * @param chunks The chunks, as returned by getChunk, each once. Copied
+     */
+    public void setOccupied(ArrayList<ChunkState> chunks) {
+        // Copied one by one, as addAll allocates
+        occupied.clear();
+        for (int n = 0; n < chunks.size(); n++) {
+            occupied.add(chunks.get(n));
+        }
+
+        current = occupied.isEmpty() ? null : occupied.get(0);
+        updateResident();
+    }
+
+    /**
+     * Gets a chunk, loading it if it hasn't been loaded yet.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @return The chunk, or null if it doesn't exist
+     */
+    public ChunkState getChunk(int chunkX, int chunkY) {
+        return getOrLoad(chunkX, chunkY);
+    }
+
+    /**
+     * Checks whether a chunk exists, without loading it into the region.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @return True if the chunk is loaded, evicted or has a chunk file
+     */
+    public boolean exists(int chunkX, int chunkY) {
+        Point coordinates = new Point(chunkX, chunkY);
+
+        if (chunks.containsKey(coordinates)) {
+            return chunks.get(coordinates) != null;
+        }
+
+        return evicted.containsKey(coordinates)
+            || ChunkLibrary.get().getTemplate(world + "_" + chunkX + "_" + chunkY) != null;
+    }
+
+    /**
+     * Finds a loaded chunk by its name.
+     *
+     * @param name The name of the chunk, e.g. OW_0_0
+     * @return The chunk, or null if it hasn't been loaded
+     */
+    public ChunkState findLoaded(String name) {
+        for (ChunkState state : chunks.values()) {
+            if (state != null && state.name.equals(name)) {
+                return state;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Forgets a chunk that doesn't exist, so it is looked for again the next time it is needed,
+     * e.g. when its file has been created while the game runs.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     */
+    public void forgetMissing(int chunkX, int chunkY) {
+        Point coordinates = new Point(chunkX, chunkY);
+
+        if (chunks.containsKey(coordinates) && chunks.get(coordinates) == null) {
+            chunks.remove(coordinates);
+
+            if (current != null) {
+                updateResident();
+            }
+        }
+    }
+
+    /**
+     * Updates the chunks in the ring if it is their turn. Enemies that reached the border
+     * move into the next chunk once every chunk has been updated.
+     *
+     * @param players The players, which enemies chasing a player walk towards
+     * @param tick The number of the update
+     */
+    public void updateRing(ArrayList<PlayerState> players, long tick) {
+        if (tick % RING_PERIOD != 0) {
+            return;
+        }
+
+        for (int n = 0; n < resident.size(); n++) {
+            ChunkState state = resident.get(n);
+
+            if (!occupied.contains(state)) {
+                updateChunk(state, players, tick);
+            }
+        }
+
+        handOverEnemies();
+    }
+
+    /**
+     * Updates the enemies of a chunk in the ring. Enemies that are chasing a player walk
+     * towards the point of the chunk closest to the player closest to the chunk, tile by tile
+     * around the walls. Enemies that can't reach it and enemies that aren't chasing a player
+     * stay put.
+     *
+     * @param state The chunk
+     * @param players The players
+     * @param tick The number of the update
+     */
+    private void updateChunk(ChunkState state, ArrayList<PlayerState> players, long tick) {
+        int elapsed = (int) Math.min(RING_PERIOD, tick - state.lastUpdateTick);
+        state.lastUpdateTick = tick;
+
+        // The centre of the player closest to the chunk in the coordinates of this chunk. Y of chunks grows upwards
+        int playerX = 0;
+        int playerY = 0;
+        long closest = Long.MAX_VALUE;
+
+        for (int n = 0; n < players.size(); n++) {
+            PlayerState other = players.get(n);
+            int x = other.player.getCentreX() + (other.chunk.chunkX - state.chunkX) * CHUNK_PIXEL_WIDTH;
+            int y = other.player.getCentreY() - (other.chunk.chunkY - state.chunkY) * CHUNK_PIXEL_HEIGHT;
+
+            // Distance to the chunk, 0 inside it
+            long outsideX = x < 0 ? -x : Math.max(0, x - (CHUNK_PIXEL_WIDTH - 1));
+            long outsideY = y < 0 ? -y : Math.max(0, y - (CHUNK_PIXEL_HEIGHT - 1));
+            long distance = outsideX * outsideX + outsideY * outsideY;
+
+            if (distance < closest) {
+                closest = distance;
+                playerX = x;
+                playerY = y;
+            }
+        }
+
+        EnemyStore enemies = state.enemies;
+
+        // The tile of the chunk closest to the player
+        int targetColumn = Math.max(0, Math.min(CHUNK_PIXEL_WIDTH - 1, playerX)) / GamePanel.TILESIZE;
+        int targetRow = Math.max(0, Math.min(CHUNK_PIXEL_HEIGHT - 1, playerY)) / GamePanel.TILESIZE;
+        boolean stepsFound = false;
+
+        for (int i = 0; i < enemies.size; i++) {
+            Enemy type = Enemy.getType(enemies.typeId[i]);
+            type.updateSprite(enemies, i, elapsed);
+
+            if (!enemies.aggro[i]) {
+                continue;
+            }
+
+            // Only chunks with enemies chasing the player need the steps
+            if (!stepsFound) {
+                findStepsToTarget(state.walls, targetColumn, targetRow);
+                stepsFound = true;
+            }
+
+            int tile = enemies.centreY(i) / GamePanel.TILESIZE * GamePanel.CHUNKWIDTH
+                + enemies.centreX(i) / GamePanel.TILESIZE;
+            int steps = stepsToTarget[tile];
+
+            if (steps == UNREACHABLE) {
+                continue;
+            }
+
+            int targetX;
+            int targetY;
+
+            if (steps == 0) {
+                // In the tile closest to the player, walk to the border
+                targetX = Math.max(0,
+                    Math.min(CHUNK_PIXEL_WIDTH - type.getWidth(), playerX - type.getWidth() / 2));
+                targetY = Math.max(0,
+                    Math.min(CHUNK_PIXEL_HEIGHT - type.getHeight(), playerY - type.getHeight() / 2));
+            } else {
+                // Walk to a neighbouring tile one step closer, like an enemy following its path
+                int next = nextTileTowardsTarget(tile, steps);
+                targetX = next % GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+                targetY = next / GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+            }
+
+            type.moveTowards(enemies, i, targetX, targetY, 0, 0, state.walls, elapsed);
+            enemies.setPosition(i, enemies.nextX[i], enemies.nextY[i]);
+
+            queueHandOver(state, i, type, playerX, playerY);
+        }
+    }
+
+    /**
+     * Finds the number of steps from every tile of a chunk to a target tile, going through
+     * the tiles that aren't walls, with a breadth-first search.
+     *
+     * @param walls The walls of the chunk
+     * @param targetColumn The column of the target tile
+     * @param targetRow The row of the target tile
+     */
+    private void findStepsToTarget(WallMask walls, int targetColumn, int targetRow) {
+        Arrays.fill(stepsToTarget, UNREACHABLE);
+
+        int target = targetRow * GamePanel.CHUNKWIDTH + targetColumn;
+        stepsToTarget[target] = 0;
+        tileQueue[0] = target;
+        int head = 0;
+        int tail = 1;
+
+        while (head < tail) {
+            int tile = tileQueue[head];
+            head++;
+
+            int column = tile % GamePanel.CHUNKWIDTH;
+            int row = tile / GamePanel.CHUNKWIDTH;
+            int steps = stepsToTarget[tile] + 1;
+
+            for (int direction = 0; direction < 4; direction++) {
+                int nextColumn = column + (direction == 0 ? 1 : direction == 1 ? -1 : 0);
+                int nextRow = row + (direction == 2 ? 1 : direction == 3 ? -1 : 0);
+
+                if (nextColumn < 0 || nextColumn >= GamePanel.CHUNKWIDTH
+                    || nextRow < 0 || nextRow >= GamePanel.CHUNKHEIGHT
+                    || walls.isWall(nextColumn, nextRow)) {
+                    continue;
+                }
+
+                int next = nextRow * GamePanel.CHUNKWIDTH + nextColumn;
+                if (stepsToTarget[next] == UNREACHABLE) {
+                    stepsToTarget[next] = steps;
+                    tileQueue[tail] = next;
+                    tail++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a neighbouring tile that is one step closer to the target, see findStepsToTarget.
+     *
+     * @param tile The tile of the enemy
+     * @param steps The number of steps from the tile to the target
+     * @return The neighbouring tile
+     */
+    private int nextTileTowardsTarget(int tile, int steps) {
+        int column = tile % GamePanel.CHUNKWIDTH;
+        int row = tile / GamePanel.CHUNKWIDTH;
+
+        if (column + 1 < GamePanel.CHUNKWIDTH && stepsToTarget[tile + 1] == steps - 1) {
+            return tile + 1;
+        }
+        if (column > 0 && stepsToTarget[tile - 1] == steps - 1) {
+            return tile - 1;
+        }
+        if (row + 1 < GamePanel.CHUNKHEIGHT && stepsToTarget[tile + GamePanel.CHUNKWIDTH] == steps - 1) {
+            return tile + GamePanel.CHUNKWIDTH;
+        }
+
+        return tile - GamePanel.CHUNKWIDTH;
+    }
+
+    /**
+     * Queues an enemy to move into the neighbouring chunk if it stands against the border of its
+     * chunk and the player is on the other side, see handOverEnemies.
+     *
+     * @param state The chunk the enemy is in
+     * @param i The index of the enemy
+     * @param type The type of the enemy
+     * @param playerX The X coordinate of the centre of the player in the chunk
+     * @param playerY The Y coordinate of the centre of the player in the chunk
+     */
+    private void queueHandOver(ChunkState state, int i, Enemy type, int playerX, int playerY) {
+        EnemyStore enemies = state.enemies;
+        int x = enemies.x[i];
+        int y = enemies.y[i];
+        int right = CHUNK_PIXEL_WIDTH - type.getWidth();
+        int bottom = CHUNK_PIXEL_HEIGHT - type.getHeight();
+
+        ChunkState neighbour;
+        int newX = x;
+        int newY = y;
+
+        if (playerX < 0 && x == 0) {
+            neighbour = findResident(state.chunkX - 1, state.chunkY);
+            newX = right;
+        } else if (playerX >= CHUNK_PIXEL_WIDTH && x == right) {
+            neighbour = findResident(state.chunkX + 1, state.chunkY);
+            newX = 0;
+        } else if (playerY < 0 && y == 0) {
+            neighbour = findResident(state.chunkX, state.chunkY + 1);
+            newY = bottom;
+        } else if (playerY >= CHUNK_PIXEL_HEIGHT && y == bottom) {
+            neighbour = findResident(state.chunkX, state.chunkY - 1);
+            newY = 0;
+        } else {
+            return;
+        }
+
+        // Wait at the border if the other side is blocked
+        if (neighbour == null || !collisionChecker.canMove(
+            newX, newY, type.getWidth(), type.getHeight(), neighbour.walls)) {
+            return;
+        }
+
+        if (handOverCount == handOverHandle.length) {
+            int capacity = handOverCount * 2;
+            handOverFrom = Arrays.copyOf(handOverFrom, capacity);
+            handOverHandle = Arrays.copyOf(handOverHandle, capacity);
+            handOverTo = Arrays.copyOf(handOverTo, capacity);
+            handOverX = Arrays.copyOf(handOverX, capacity);
+            handOverY = Arrays.copyOf(handOverY, capacity);
+        }
+
+        handOverFrom[handOverCount] = state;
+        handOverHandle[handOverCount] = enemies.handle[i];
+        handOverTo[handOverCount] = neighbour;
+        handOverX[handOverCount] = newX;
+        handOverY[handOverCount] = newY;
+        handOverCount++;
+    }
+
+    /**
+     * Moves the enemies queued by queueHandOver into the neighbouring chunks. The enemies are
+     * found by handle, as moving an enemy out of a chunk moves another enemy to its index.
+     * An enemy has to look for the players again when it enters a chunk with a player.
+     */
+    private void handOverEnemies() {
+        for (int n = 0; n < handOverCount; n++) {
+            EnemyStore enemies = handOverFrom[n].enemies;
+            ChunkState neighbour = handOverTo[n];
+            int i = enemies.indexOf(handOverHandle[n]);
+
+            int j = enemies.transferTo(i, neighbour.enemies, handOverX[n], handOverY[n]);
+
+            if (occupied.contains(neighbour)) {
+                neighbour.enemies.aggro[j] = false;
+                enteredCount++;
+            }
+
+            handOverFrom[n] = null;
+            handOverTo[n] = null;
+        }
+
+        handOverCount = 0;
+    }
+
+    /**
+     * Finds a resident chunk by its coordinates.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @return The chunk, or null if it isn't resident
+     */
+    private ChunkState findResident(int chunkX, int chunkY) {
+        for (int n = 0; n < resident.size(); n++) {
+            ChunkState state = resident.get(n);
+
+            if (state.chunkX == chunkX && state.chunkY == chunkY) {
+                return state;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Makes the chunks within the radius of the chunks with a player resident, loading them if needed.
+     */
+    private void updateResident() {
+        // Chunks that stay resident are pinned before the others are unpinned, so they keep their slot
+        // Copied one by one, as addAll allocates
+        leaving.clear();
+        for (int n = 0; n < resident.size(); n++) {
+            leaving.add(resident.get(n));
+        }
+        resident.clear();
+        residentChanges++;
+
+        for (int n = 0; n < occupied.size(); n++) {
+            ChunkState centre = occupied.get(n);
+
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    ChunkState state = getOrLoad(centre.chunkX + dx, centre.chunkY + dy);
+
+                    if (state != null) {
+                        // Chunks that become resident continue from the current update
+                        if (!resident.contains(state)) {
+                            resident.add(state);
+                            state.setPinned(true);
+                        }
+
+                        state.lastResident = residentChanges;
+                    }
+                }
+            }
+        }
+
+        for (int n = 0; n < leaving.size(); n++) {
+            if (!resident.contains(leaving.get(n))) {
+                leaving.get(n).setPinned(false);
+            }
+        }
+        leaving.clear();
+
+        evictChunks();
+    }
+
+    /**
+     * Evicts the chunks that left the radius first while more than KEPT_CHUNKS chunks are
+     * loaded outside it, and forgets the chunks outside the radius that don't exist.
+     */
+    private void evictChunks() {
+        // Nothing to evict yet, so walking back and forth over a border doesn't allocate
+        int side = 2 * radius + 1;
+        if (chunks.size() <= Math.max(1, occupied.size()) * side * side + KEPT_CHUNKS) {
+            return;
+        }
+
+        int outside = 0;
+
+        Iterator<Map.Entry<Point, ChunkState>> entries = chunks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Point, ChunkState> entry = entries.next();
+            Point coordinates = entry.getKey();
+
+            if (entry.getValue() == null) {
+                if (!isNearOccupied(coordinates.x, coordinates.y)) {
+                    entries.remove();
+                }
+            } else if (entry.getValue().lastResident != residentChanges) {
+                outside++;
+            }
+        }
+
+        for (; outside > KEPT_CHUNKS; outside--) {
+            ChunkState oldest = null;
+
+            for (ChunkState state : chunks.values()) {
+                if (state != null && state.lastResident != residentChanges
+                    && (oldest == null || state.lastResident < oldest.lastResident)) {
+                    oldest = state;
+                }
+            }
+
+            evict(oldest);
+        }
+    }
+
+    /**
+     * Checks if a chunk is within the radius of a chunk with a player.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @return True if the chunk is within the radius
+     */
+    private boolean isNearOccupied(int chunkX, int chunkY) {
+        for (int n = 0; n < occupied.size(); n++) {
+            ChunkState centre = occupied.get(n);
+
+            if (Math.abs(chunkX - centre.chunkX) <= radius && Math.abs(chunkY - centre.chunkY) <= radius) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Replaces a chunk outside the radius by the state of its enemies, see getEvictedState.
+     * The entry table of its template is dropped too, it is built again if the chunk is entered.
+     *
+     * @param state The chunk, its tiles are not pinned
+     */
+    private void evict(ChunkState state) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + state.enemies.snapshotBytes());
+        buffer.putLong(state.lastUpdateTick);
+        state.enemies.writeState(buffer);
+
+        Point coordinates = new Point(state.chunkX, state.chunkY);
+        chunks.remove(coordinates);
+        evicted.put(coordinates, buffer.array());
+        state.template.dropEntries();
+    }
+
+    /**
+     * Gets a chunk, loading it with its enemies the first time it is requested.
+     * Enemies that were killed in an earlier game are left out. An evicted chunk is built
+     * again with the enemies it had.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @return The chunk, or null if it doesn't exist
+     */
+    private ChunkState getOrLoad(int chunkX, int chunkY) {
+        Point coordinates = new Point(chunkX, chunkY);
+
+        if (chunks.containsKey(coordinates)) {
+            return chunks.get(coordinates);
+        }
+
+        String name = world + "_" + chunkX + "_" + chunkY;
+        ChunkTemplate template = ChunkLibrary.get().getTemplate(name);
+        byte[] saved = evicted.remove(coordinates);
+
+        ChunkState state = null;
+        if (template != null && saved != null) {
+            state = new ChunkState(chunkX, chunkY, template);
+
+            // Enemy types stay registered, so their ids are the same as when the chunk was evicted
+            int[] typeIds = new int[Enemy.getTypeCount()];
+            for (int type = 0; type < typeIds.length; type++) {
+                typeIds[type] = type;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(saved);
+            state.lastUpdateTick = buffer.getLong();
+            state.enemies.readState(buffer, typeIds);
+            state.enemies.journal = journal;
+        } else if (template != null) {
+            state = new ChunkState(chunkX, chunkY, template);
+            EnemyStore enemies = state.enemies;
+            chunkLoader.loadEnemies(name, enemies);
+
+            // Number the enemies in the order of the chunk file, so they can be found in the journal
+            for (int i = 0; i < enemies.size; i++) {
+                enemies.spawnId[i] = WorldJournal.spawnId(chunkX, chunkY, i + 1);
+            }
+
+            enemies.journal = journal;
+            if (restoredEnemyHp != null) {
+                WorldJournal.restore(enemies, restoredEnemyHp);
+            }
+        }
+
+        chunks.put(coordinates, state);
+
+        return state;
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the chunks around the player: simulating the chunks next to the current chunk
+ * ("region"), entering chunks through their borders ("entry") and walking over many chunks
+ * without the heap growing ("explore").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark region".
+ */
+class ActiveRegionBenchmark {
+    /* Updates run in every chunk of the explore benchmark, more than the cooldown of entering a
+     * chunk, and the bytes the heap may grow by per chunk explored before it fails */
+    private static final int EXPLORE_TICKS_PER_CHUNK = 40;
+    private static final long EXPLORE_BYTES_PER_CHUNK = 1024;
+
+    /**
+     * Measures the update time and memory with only the current chunk simulated and with
+     * the chunks around it simulated as well. Every simulated chunk gets the same number of
+     * enemies, those around the current chunk chase the player, so some of them walk into
+     * the current chunk. Then checks that enemies in the ring find their way around walls and
+     * move only once in an update in which they walk into another chunk of the ring.
+     *
+     * @return True if the ring enemies got around the walls and moved only once
+     */
+    static boolean benchmarkRegion() {
+        int enemiesPerChunk = 2000;
+
+        System.out.println("radius  chunks  enemies    ns/tick  entered current chunk  estimated KB");
+
+        for (int radius = 0; radius <= 1; radius++) {
+            Simulation simulation = Benchmark.createSimulation(enemiesPerChunk, 42);
+            simulation.setActiveRadius(radius);
+
+            ActiveRegion region = simulation.getRegion();
+            Random random = new Random(7);
+            int enemyCount = 0;
+
+            for (int n = 0; n < region.getResidentCount(); n++) {
+                ChunkState state = region.getResident(n);
+
+                if (state != region.getCurrent()) {
+                    state.enemies.clear();
+                    Benchmark.spawnEnemies(state.enemies, state.tiles, enemiesPerChunk, random);
+
+                    // Enemies around the current chunk have already seen the player
+                    Arrays.fill(state.enemies.aggro, 0, state.enemies.size(), true);
+                }
+
+                enemyCount += state.enemies.size();
+            }
+
+            long nanosPerTick = Benchmark.measureTicks(simulation);
+
+            System.out.printf("%6d %7d %8d %10d %22d %13d%n",
+                radius, region.getResidentCount(), enemyCount, nanosPerTick,
+                region.getEnteredCount(),
+                region.estimateResidentBytes() / 1024);
+        }
+
+        return checkRingWalls() & checkRingHandOver();
+    }
+
+    /**
+     * Puts a chasing enemy on every free tile of a chunk in the ring shaped like a maze, and
+     * checks that every enemy finds its way out into the current chunk.
+     *
+     * @return True if no enemy got stuck behind a wall
+     */
+    private static boolean checkRingWalls() {
+        ActiveRegion region = new ActiveRegion("OW", null);
+        region.enter(0, 0);
+        ArrayList<PlayerState> players = playerInCurrent(region, new Player(175, 175, new KeyHandler()));
+
+        // The chunk below the current chunk
+        ChunkState maze = region.getChunk(0, -1);
+        maze.enemies.clear();
+
+        Enemy sword = EnemyRegistry.get("SwordEnemy");
+        int spawned = 0;
+        for (int row = 0; row < GamePanel.CHUNKHEIGHT; row++) {
+            for (int column = 0; column < GamePanel.CHUNKWIDTH; column++) {
+                if (!maze.walls.isWall(column, row)) {
+                    int i = sword.spawn(maze.enemies, column * GamePanel.TILESIZE, row * GamePanel.TILESIZE);
+                    maze.enemies.aggro[i] = true;
+                    spawned++;
+                }
+            }
+        }
+
+        for (long tick = 1; tick <= 4000; tick++) {
+            region.updateRing(players, tick);
+        }
+
+        int stuck = maze.enemies.size();
+        region.release();
+
+        System.out.printf("ring enemies walking out of a maze: %d of %d stuck behind a wall%n", stuck, spawned);
+
+        return stuck == 0;
+    }
+
+    /**
+     * Makes the players of a region without a simulation: one player in the current chunk.
+     *
+     * @param region The region
+     * @param player The player
+     * @return A list with the player
+     */
+    private static ArrayList<PlayerState> playerInCurrent(ActiveRegion region, Player player) {
+        ChunkState current = region.getCurrent();
+        PlayerState state = new PlayerState(player, current.chunkX, current.chunkY, 1);
+        state.chunk = current;
+
+        ArrayList<PlayerState> players = new ArrayList<PlayerState>();
+        players.add(state);
+
+        return players;
+    }
+
+    /**
+     * Puts a chasing enemy against the border of a chunk in the ring that is updated before
+     * the chunk next to it, and checks that after walking into that chunk it stays where it
+     * entered until the next update of the ring.
+     *
+     * @return True if the enemy moved only once
+     */
+    private static boolean checkRingHandOver() {
+        ActiveRegion region = new ActiveRegion("FIELD", null);
+        region.enter(0, 0);
+        ArrayList<PlayerState> players = playerInCurrent(region, new Player(175, 175, new KeyHandler()));
+
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            region.getResident(n).enemies.clear();
+        }
+
+        // The chunk left below the current chunk is updated before the chunk right of it
+        ChunkState from = region.getChunk(-1, -1);
+        ChunkState to = region.getChunk(0, -1);
+        Enemy sword = EnemyRegistry.get("SwordEnemy");
+        // In the corner closest to the player, so it walks into the next chunk right away
+        int i = sword.spawn(from.enemies, GameRenderer.SCREENWIDTH - sword.getWidth(), 0);
+        from.enemies.aggro[i] = true;
+
+        region.updateRing(players, ActiveRegion.RING_PERIOD);
+
+        boolean once = from.enemies.size() == 0 && to.enemies.size() == 1
+            && to.enemies.x[0] == 0 && to.enemies.y[0] == 0;
+        region.release();
+
+        System.out.printf("ring enemy walking into the next chunk of the ring: %s%n",
+            once ? "moved once" : "MOVED TWICE or not at all");
+
+        return once;
+    }
+
+    /**
+     * Measures building the entry tables of the chunks around the start and looking up entries,
+     * and checks every entry against searching for a free place next to it. Then walks the
+     * player into every border of the starting chunk at a place where the other side is blocked
+     * and at a place where it is open, and checks that only the open places change the chunk.
+     *
+     * @return True if the tables match the search and blocked borders change nothing
+     */
+    static boolean benchmarkEntry() {
+        Simulation simulation = Benchmark.createSimulation(0, 42);
+        Player player = simulation.getPlayer();
+        ActiveRegion region = simulation.getRegion();
+        CollisionCheck collisionChecker = new CollisionCheck();
+        boolean ok = true;
+
+        System.out.println("chunk    build ns  lookup ns  open lookups  blocked places");
+
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            ChunkState state = region.getResident(n);
+
+            // Build the table a number of times, as it is only built once per chunk
+            int builds = 100;
+            ChunkEntries entries = null;
+            long start = System.nanoTime();
+            for (int build = 0; build < builds; build++) {
+                entries = new ChunkEntries(state.walls, player.getWidth(), player.getHeight());
+            }
+            long buildNanos = (System.nanoTime() - start) / builds;
+
+            int lookups = 0;
+            int openLookups = 0;
+            int blocked = 0;
+            start = System.nanoTime();
+            for (int repetition = 0; repetition < 100; repetition++) {
+                for (int edge = 0; edge < 4; edge++) {
+                    for (int along = 0; along < GamePanel.CHUNKWIDTH * GamePanel.TILESIZE; along++) {
+                        if (entries.find(edge, along) >= 0) {
+                            openLookups++;
+                        }
+                        lookups++;
+                    }
+                }
+            }
+            long lookupNanos = System.nanoTime() - start;
+
+            // Compare every entry with the nearest free place, searching outwards from it
+            for (int edge = 0; edge < 4; edge++) {
+                int length = (edge < 2 ? GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE - player.getHeight()
+                    : GamePanel.CHUNKWIDTH * GamePanel.TILESIZE - player.getWidth()) + 1;
+
+                for (int along = 0; along < length; along++) {
+                    int expected = -1;
+
+                    for (int shift = 0; shift <= ChunkEntries.MAX_SHIFT && expected < 0; shift++) {
+                        for (int candidate : new int[] {along - shift, along + shift}) {
+                            if (expected < 0 && candidate >= 0 && candidate < length
+                                && collisionChecker.canMove(entries.getX(edge, candidate),
+                                    entries.getY(edge, candidate), player.getWidth(), player.getHeight(), state.walls)) {
+                                expected = candidate;
+                            }
+                        }
+                    }
+
+                    if (entries.find(edge, along) != expected) {
+                        System.out.println(state.name + " edge " + edge + " at " + along + ": table has "
+                            + entries.find(edge, along) + ", search found " + expected);
+                        ok = false;
+                    }
+
+                    if (expected < 0) {
+                        blocked++;
+                    }
+                }
+            }
+
+            System.out.printf("%-8s %8d %10.1f %12.0f%% %15d%n", state.name, buildNanos,
+                (double) lookupNanos / lookups, 100.0 * openLookups / lookups, blocked);
+        }
+
+        // Walk into every border of the starting chunk where the other side is blocked and where it is open
+        ChunkState start = region.getCurrent();
+        int right = GamePanel.CHUNKWIDTH * GamePanel.TILESIZE - player.getWidth() - 2;
+        int bottom = GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE - player.getHeight() - 2;
+        int[][] exits = {
+            // Exit X, exit Y for along = 0, the X and Y of the neighbour, the edge entered through
+            {2, -1, -1, 0, ChunkEntries.EDGE_RIGHT},
+            {right, -1, 1, 0, ChunkEntries.EDGE_LEFT},
+            {-1, 2, 0, 1, ChunkEntries.EDGE_BOTTOM},
+            {-1, bottom, 0, -1, ChunkEntries.EDGE_TOP},
+        };
+
+        int blockedTries = 0;
+        int openTries = 0;
+
+        for (int[] exit : exits) {
+            ChunkState neighbour = region.getChunk(start.chunkX + exit[2], start.chunkY + exit[3]);
+            if (neighbour == null) {
+                continue;
+            }
+
+            ChunkEntries entries = neighbour.getEntries(player.getWidth(), player.getHeight());
+
+            for (boolean open : new boolean[] {false, true}) {
+                // Find a place along the border that is blocked or open on the other side
+                int along = -1;
+                for (int candidate = 5; candidate < GamePanel.CHUNKWIDTH * GamePanel.TILESIZE - 50; candidate += 5) {
+                    if ((entries.find(exit[4], candidate) >= 0) == open) {
+                        along = candidate;
+                        break;
+                    }
+                }
+
+                if (along < 0) {
+                    continue;
+                }
+
+                ByteBuffer before = simulation.captureSnapshot();
+                int exitX = exit[0] >= 0 ? exit[0] : along;
+                int exitY = exit[1] >= 0 ? exit[1] : along;
+                player.setCoordinates(exitX, exitY);
+                simulation.tick();
+
+                boolean entered = region.getCurrent() == neighbour && simulation.getChunk() == neighbour.tiles;
+                boolean stayed = region.getCurrent() == start && simulation.getChunk() == start.tiles
+                    && player.getX() == exitX && player.getY() == exitY;
+
+                if (open ? !entered : !stayed) {
+                    System.out.println("walking into " + neighbour.name + " at " + along + " (open: " + open
+                        + ") entered the wrong chunk or moved the player");
+                    ok = false;
+                }
+
+                if (open) {
+                    openTries++;
+                } else {
+                    blockedTries++;
+                }
+
+                simulation.restoreSnapshot(before);
+            }
+        }
+
+        System.out.println("walked into " + blockedTries + " blocked and " + openTries + " open borders: "
+            + (ok ? "ok" : "FAILED"));
+
+        return ok;
+    }
+
+    /**
+     * Walks a simulation over every chunk of a generated world of 24 by 24 chunks with a few
+     * enemies each, running a number of updates in every chunk, and measures the heap after
+     * every row of chunks. The heap may only grow by a little per chunk once the first rows
+     * are explored, as chunks that were left long ago only keep their enemies. The heap is
+     * compared between the smallest of 4 rows at the start and at the end, as collecting
+     * garbage doesn't leave the same heap after every row.
+     *
+     * @return True if the heap grew by less than EXPLORE_BYTES_PER_CHUNK per chunk
+     */
+    static boolean benchmarkExplore() {
+        int worldSize = 24;
+        Path directory;
+        try {
+            directory = createExploreWorld(worldSize);
+        } catch (IOException e) {
+            System.out.println("Unable to create the world: " + e.getMessage());
+            return false;
+        }
+
+        ResourceRoot.use(directory);
+        Runtime runtime = Runtime.getRuntime();
+        boolean ok;
+
+        try {
+            Simulation simulation = new Simulation("EXPLORE", 0, 0, new Player(175, 175, new KeyHandler()));
+            Player player = simulation.getPlayer();
+            ActiveRegion region = simulation.getRegion();
+            int right = GamePanel.CHUNKWIDTH * GamePanel.TILESIZE - player.getWidth() - 2;
+            int bottom = GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE - player.getHeight() - 2;
+
+            System.out.println("chunks  heap KB  loaded  evicted  templates  template KB");
+
+            int hp = player.getHP();
+            int visited = 1;
+            long firstHeap = Long.MAX_VALUE;
+            int firstVisited = 0;
+            long lastHeap = Long.MAX_VALUE;
+            int lastVisited = 0;
+
+            for (int row = 0; row < worldSize; row++) {
+                for (int step = 0; step < worldSize; step++) {
+                    for (int tick = 0; tick < EXPLORE_TICKS_PER_CHUNK; tick++) {
+                        player.setHP(hp);
+                        simulation.tick();
+                    }
+
+                    if (step == worldSize - 1) {
+                        break;
+                    }
+
+                    // Serpentine: right on even rows, left on odd rows
+                    player.setCoordinates(row % 2 == 0 ? right : 2, 175);
+                    simulation.tick();
+                    visited++;
+                }
+
+                Benchmark.settleHeap();
+                long heap = runtime.totalMemory() - runtime.freeMemory();
+
+                // The first row fills the chunks that are kept whole, the heap is compared from there
+                if (row >= 1 && row <= 4 && heap < firstHeap) {
+                    firstHeap = heap;
+                    firstVisited = visited;
+                }
+                if (row >= worldSize - 4 && heap < lastHeap) {
+                    lastHeap = heap;
+                    lastVisited = visited;
+                }
+
+                ChunkLibrary library = ChunkLibrary.get();
+                System.out.printf("%6d %8d %7d %8d %10d %12d%n", visited, heap / 1024,
+                    region.getLoadedCount(), region.getEvictedCount(), library.size(), library.estimateBytes() / 1024);
+
+                if (row < worldSize - 1) {
+                    // Down into the next row
+                    player.setCoordinates(175, bottom);
+                    simulation.tick();
+                    visited++;
+                }
+            }
+
+            long bytesPerChunk = (lastHeap - firstHeap) / (lastVisited - firstVisited);
+            ok = visited == worldSize * worldSize && bytesPerChunk < EXPLORE_BYTES_PER_CHUNK;
+
+            System.out.printf("visited %d of %d chunks, heap grew by %d bytes per chunk from %d to %d chunks (limit %d): %s%n",
+                visited, worldSize * worldSize, bytesPerChunk, firstVisited, lastVisited, EXPLORE_BYTES_PER_CHUNK,
+                ok ? "ok" : "TOO MUCH");
+
+            /* A copy restored from a snapshot walks back into evicted chunks with the original.
+             * Their enemies moved before they were evicted, so the copy only ends in the same
+             * state if the snapshot holds the evicted chunks instead of loading them from files */
+            Simulation copy = new Simulation("EXPLORE", 0, 0, new Player(175, 175, new KeyHandler()));
+            boolean restored = copy.restoreSnapshot(simulation.captureSnapshot());
+            int evictedBefore = region.getEvictedCount();
+
+            for (int step = 0; step < 3; step++) {
+                for (Simulation walker : new Simulation[] {simulation, copy}) {
+                    walker.getPlayer().setCoordinates(175, 2);
+                    walker.tick();
+
+                    for (int tick = 0; tick < EXPLORE_TICKS_PER_CHUNK; tick++) {
+                        walker.getPlayer().setHP(hp);
+                        walker.tick();
+                    }
+                }
+            }
+
+            boolean same = restored && simulation.stateHash() == copy.stateHash();
+            ok &= same && region.getEvictedCount() < evictedBefore;
+
+            System.out.printf("walked back into %d evicted chunks, copy restored from a snapshot ends the same: %s%n",
+                evictedBefore - region.getEvictedCount(), same);
+        } finally {
+            try {
+                Benchmark.deleteDirectory(directory);
+            } catch (IOException e) {
+                System.out.println("Unable to delete " + directory + ": " + e.getMessage());
+            }
+        }
+
+        return ok;
+    }
+
+    /**
+     * Creates the resources of a world of open chunks with 4 goblins each, EXPLORE_0_0 to
+     * EXPLORE_(size - 1)_(1 - size), with a copy of the assets of the game.
+     *
+     * @param size The number of chunks in each direction
+     * @return The folder with the chunks and assets folders
+     * @throws IOException If a file can't be written
+     */
+    static Path createExploreWorld(int size) throws IOException {
+        Path directory = Files.createTempDirectory("explore");
+
+        Path assets = ResourceRoot.get().getDirectory().resolve("assets");
+        try (Stream<Path> files = Files.walk(assets)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, directory.resolve("assets").resolve(assets.relativize(file).toString()));
+            }
+        }
+
+        String tiles = String.join("\n", Collections.nCopies(GamePanel.CHUNKHEIGHT, "G G G G G G G G"));
+        String enemies = "GoblinEnemy 40 40\nGoblinEnemy 320 40\nGoblinEnemy 40 320\nGoblinEnemy 320 320";
+
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y > -size; y--) {
+                Path chunk = Files.createDirectories(directory.resolve("chunks").resolve("EXPLORE_" + x + "_" + y));
+                Files.writeString(chunk.resolve("tiles.txt"), tiles);
+                Files.writeString(chunk.resolve("enemies.txt"), enemies);
+            }
+        }
+
+        return directory;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Decides which enemies think (move, calculate paths, count down sprites) in an update.
+ * Enemies near the player think every update, enemies further away every few updates.
+ * Enemies of a band are spread over the updates by the slot of their handle, which stays the
+ * same when other enemies are removed, so about the same number of enemies think in every
+ * update and every enemy thinks exactly once per period. An enemy that thinks is given the number of updates
+ * since it last thought, so far enemies still move at their normal speed.
+ * The chunk is the whole screen, so the distance to the player is the only measure.
+ */
+class AiScheduler {
+    // Number of updates between two thinks of an enemy in each band
+    static final int NEAR_PERIOD = 1;
+    static final int MIDDLE_PERIOD = 2;
+    static final int FAR_PERIOD = 4;
+
+    // Maximum distance to the player in pixels of the near and the middle band
+    private volatile int nearRadius = 100;
+    private volatile int middleRadius = 200;
+
+    // Number of updates between two path calculations of an enemy
+    private volatile int pathInterval = 31;
+
+    // False to let every enemy think every update
+    private volatile boolean enabled = true;
+
+    public int getNearRadius() {
+        return nearRadius;
+    }
+
+    public int getMiddleRadius() {
+        return middleRadius;
+    }
+
+    /**
+     * Sets the size of the bands.
+     *
+     * @param newNearRadius Maximum distance to the player of enemies that think every update
+     * @param newMiddleRadius Maximum distance to the player of enemies that think every
+     *     MIDDLE_PERIOD updates. Enemies further away think every FAR_PERIOD updates
+     */
+    public void setBandRadii(int newNearRadius, int newMiddleRadius) {
+        nearRadius = newNearRadius;
+        middleRadius = Math.max(newNearRadius, newMiddleRadius);
+    }
+
+    public int getPathInterval() {
+        return pathInterval;
+    }
+
+    public void setPathInterval(int newPathInterval) {
+        pathInterval = Math.max(1, newPathInterval);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean newEnabled) {
+        enabled = newEnabled;
+    }
+
+    /**
+     * Gets the number of updates between two thinks of an enemy.
+     *
+     * @param distanceSquared The squared distance of the enemy to the player
+     * @return The number of updates
+     */
+    public int periodFor(long distanceSquared) {
+        if (!enabled || distanceSquared <= (long) nearRadius * nearRadius) {
+            return NEAR_PERIOD;
+        }
+
+        if (distanceSquared <= (long) middleRadius * middleRadius) {
+            return MIDDLE_PERIOD;
+        }
+
+        return FAR_PERIOD;
+    }
+
+    /**
+     * Checks if an enemy thinks in an update.
+     *
+     * @param phase The handle slot of the enemy, see EnemyStore.slotOf
+     * @param period The number of updates between two thinks of the enemy
+     * @param tick The number of the update
+     * @return True if the enemy thinks
+     */
+    public boolean isDue(int phase, int period, long tick) {
+        return (tick + phase) % period == 0;
+    }
+
+    /**
+     * Checks if an enemy should calculate a new path. Path calculations are spread over
+     * the updates by handle slot as well. An enemy that doesn't think every update calculates
+     * its path the first time it thinks after its turn.
+     *
+     * @param phase The handle slot of the enemy, see EnemyStore.slotOf
+     * @param lastTick The update in which the enemy last thought
+     * @param tick The number of the update
+     * @return True if the enemy should calculate a new path
+     */
+    public boolean isPathDue(int phase, long lastTick, long tick) {
+        int interval = pathInterval;
+
+        return (tick + phase) / interval != (lastTick + phase) / interval;
+    }
+}
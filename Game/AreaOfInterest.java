@@ -0,0 +1,430 @@
+import java.util.Arrays;
+
+/**
+ * Keeps track of what one observer, e.g. a network client, sees: the chunks and the enemies
+ * within its view radius. Every update finds the enemies near the observer with the spatial
+ * grid of each chunk in view and compares them with the ones it saw before, and tells an
+ * InterestListener which enemies entered, changed or left. The work of an update is
+ * proportional to the number of enemies near the observer, not to the number of enemies in
+ * the chunks.
+ *
+ * <p>The observer looks from the chunk of its player. The resident chunks next to it are in
+ * view when the view radius reaches over the border. Positions are in pixels relative to the
+ * chunk of the player, so enemies of the chunk to the left have a negative X coordinate.
+ * Every enemy in view gets a small number of its own, which is given to another enemy once
+ * it left. Updates don't allocate once the arrays have grown to the number of enemies in view.
+ */
+class AreaOfInterest {
+    private static final int CHUNK_PIXEL_WIDTH = GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+    private static final int CHUNK_PIXEL_HEIGHT = GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE;
+
+    /* Number of chunk slots: the chunk of the player and the ones around it, and as many
+     * chunks that were in view before the player entered another chunk and leave at the end
+     * of the update */
+    private static final int MAX_CHUNKS = 2 * 9;
+
+    // Marks an empty place in the table of keys
+    private static final long EMPTY = -1;
+
+    private int radius;
+
+    // The chunks in view by slot, null for a free slot, and the update each was last in view
+    private final ChunkState[] chunks = new ChunkState[MAX_CHUNKS];
+    private final long[] chunkSeen = new long[MAX_CHUNKS];
+
+    // Per id: the chunk slot and handle of the enemy as a key, and the values last reported
+    private long[] keys = new long[0];
+    private int[] type = new int[0];
+    private int[] x = new int[0];
+    private int[] y = new int[0];
+    private int[] hp = new int[0];
+    private byte[] sprite = new byte[0];
+    private long[] seen = new long[0];
+
+    // The ids in use, in no particular order, and the place of each id in the list
+    private int[] live = new int[0];
+    private int[] livePosition = new int[0];
+    private int liveCount = 0;
+
+    // Ids that were used and are free again
+    private int[] freeIds = new int[0];
+    private int freeCount = 0;
+    private int nextId = 0;
+
+    // Open addressing table from key to id, with linear probing
+    private long[] tableKeys = new long[16];
+    private int[] tableIds = new int[16];
+
+    // Number of updates
+    private long round = 0;
+
+    /**
+     * Initiates an area that sees nothing yet.
+     *
+     * @param radius The distance in pixels from the observer within which enemies are in view
+     */
+    public AreaOfInterest(int radius) {
+        this.radius = radius;
+        Arrays.fill(tableKeys, EMPTY);
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public void setRadius(int newRadius) {
+        radius = newRadius;
+    }
+
+    /**
+     * Gets the number of enemies in view.
+     *
+     * @return The number of enemies
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * Gets the id of an enemy in view.
+     *
+     * @param n The number of the enemy, from 0 to size
+     * @return The id
+     */
+    public int getId(int n) {
+        return live[n];
+    }
+
+    public int getType(int id) {
+        return type[id];
+    }
+
+    public int getX(int id) {
+        return x[id];
+    }
+
+    public int getY(int id) {
+        return y[id];
+    }
+
+    public int getHp(int id) {
+        return hp[id];
+    }
+
+    public byte getSprite(int id) {
+        return sprite[id];
+    }
+
+    /**
+     * Forgets everything in view without telling the listener, e.g. when the observer was told
+     * to forget it in another way. Everything in view enters again at the next update.
+     */
+    public void clear() {
+        Arrays.fill(chunks, null);
+        Arrays.fill(tableKeys, EMPTY);
+        liveCount = 0;
+        freeCount = 0;
+        nextId = 0;
+    }
+
+    /**
+     * Finds what the observer sees now and tells the listener what changed since the last update.
+     *
+     * @param region The chunks of the simulation
+     * @param current The chunk of the player of the observer
+     * @param observerX The X coordinate of the observer in the chunk of the player
+     * @param observerY The Y coordinate of the observer in the chunk of the player
+     * @param listener The listener to tell the changes
+     */
+    public void update(ActiveRegion region, ChunkState current, int observerX, int observerY,
+        InterestListener listener) {
+        round++;
+
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            ChunkState chunk = region.getResident(n);
+            int chunkDistanceX = chunk.chunkX - current.chunkX;
+            int chunkDistanceY = chunk.chunkY - current.chunkY;
+
+            if (Math.abs(chunkDistanceX) > 1 || Math.abs(chunkDistanceY) > 1) {
+                continue;
+            }
+
+            // Chunk Y grows upwards, so the chunk above is at negative Y
+            int offsetX = chunkDistanceX * CHUNK_PIXEL_WIDTH;
+            int offsetY = -chunkDistanceY * CHUNK_PIXEL_HEIGHT;
+
+            if (!reaches(observerX, observerY, offsetX, offsetY)) {
+                continue;
+            }
+
+            int slot = slotOf(chunk, listener);
+            chunkSeen[slot] = round;
+            updateEnemies(chunk.enemies, slot, observerX - offsetX, observerY - offsetY, offsetX, offsetY, listener);
+        }
+
+        // Enemies that weren't in view this time left the view, or were removed
+        for (int n = liveCount - 1; n >= 0; n--) {
+            int id = live[n];
+
+            if (seen[id] != round) {
+                listener.entityLeft(id);
+                release(id);
+            }
+        }
+
+        for (int slot = 0; slot < MAX_CHUNKS; slot++) {
+            if (chunks[slot] != null && chunkSeen[slot] != round) {
+                listener.chunkLeft(chunks[slot]);
+                chunks[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * Compares the enemies of a chunk near the observer with the ones seen before.
+     *
+     * @param enemies The enemies of the chunk
+     * @param slot The slot of the chunk
+     * @param localX The X coordinate of the observer in the chunk
+     * @param localY The Y coordinate of the observer in the chunk
+     * @param offsetX The X coordinate of the chunk relative to the chunk of the player
+     * @param offsetY The Y coordinate of the chunk relative to the chunk of the player
+     * @param listener The listener to tell the changes
+     */
+    private void updateEnemies(EnemyStore enemies, int slot, int localX, int localY,
+        int offsetX, int offsetY, InterestListener listener) {
+        int nearby = enemies.grid.queryRadius(localX, localY, radius);
+
+        // In order of index, so the listener hears about the enemies in the same order every time
+        enemies.grid.sortResults(nearby);
+        int[] results = enemies.grid.results;
+
+        for (int r = 0; r < nearby; r++) {
+            int i = results[r];
+            long key = (long) slot << 32 | enemies.handle[i] & 0xFFFFFFFFL;
+
+            int newX = enemies.x[i] + offsetX;
+            int newY = enemies.y[i] + offsetY;
+            int newHp = Math.max(0, enemies.hp[i]);
+            byte newSprite = enemies.sprite[i];
+
+            int id = find(key);
+
+            if (id < 0) {
+                id = acquire(key);
+                type[id] = enemies.typeId[i];
+                x[id] = newX;
+                y[id] = newY;
+                hp[id] = newHp;
+                sprite[id] = newSprite;
+                seen[id] = round;
+
+                listener.entityEntered(id);
+                continue;
+            }
+
+            seen[id] = round;
+
+            int changed = (newX != x[id] ? NetProtocol.CHANGED_X : 0)
+                | (newY != y[id] ? NetProtocol.CHANGED_Y : 0)
+                | (newHp != hp[id] ? NetProtocol.CHANGED_HP : 0)
+                | (newSprite != sprite[id] ? NetProtocol.CHANGED_SPRITE : 0);
+
+            if (changed != 0) {
+                int deltaX = newX - x[id];
+                int deltaY = newY - y[id];
+                x[id] = newX;
+                y[id] = newY;
+                hp[id] = newHp;
+                sprite[id] = newSprite;
+
+                listener.entityUpdated(id, changed, deltaX, deltaY);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the view radius reaches into a chunk.
+     *
+     * @param observerX The X coordinate of the observer
+     * @param observerY The Y coordinate of the observer
+     * @param offsetX The X coordinate of the chunk relative to the chunk of the player
+     * @param offsetY The Y coordinate of the chunk relative to the chunk of the player
+     * @return True if a point of the chunk is within the radius
+     */
+    private boolean reaches(int observerX, int observerY, int offsetX, int offsetY) {
+        long distanceX = Math.max(0, Math.max(offsetX - observerX, observerX - (offsetX + CHUNK_PIXEL_WIDTH)));
+        long distanceY = Math.max(0, Math.max(offsetY - observerY, observerY - (offsetY + CHUNK_PIXEL_HEIGHT)));
+
+        return distanceX * distanceX + distanceY * distanceY <= (long) radius * radius;
+    }
+
+    /**
+     * Gets the slot of a chunk in view, giving it a free slot if it just came into view.
+     *
+     * @param chunk The chunk
+     * @param listener The listener to tell a chunk came into view
+     * @return The slot
+     */
+    private int slotOf(ChunkState chunk, InterestListener listener) {
+        int free = -1;
+
+        for (int slot = 0; slot < MAX_CHUNKS; slot++) {
+            if (chunks[slot] == chunk) {
+                return slot;
+            }
+
+            if (chunks[slot] == null && free < 0) {
+                free = slot;
+            }
+        }
+
+        chunks[free] = chunk;
+        listener.chunkEntered(chunk);
+
+        return free;
+    }
+
+    /**
+     * Finds the id of an enemy in view.
+     *
+     * @param key The chunk slot and handle of the enemy
+     * @return The id, or -1 if the enemy isn't in view
+     */
+    private int find(long key) {
+        int mask = tableKeys.length - 1;
+
+        for (int place = hash(key) & mask; tableKeys[place] != EMPTY; place = place + 1 & mask) {
+            if (tableKeys[place] == key) {
+                return tableIds[place];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gives an enemy that came into view an id.
+     *
+     * @param key The chunk slot and handle of the enemy
+     * @return The id
+     */
+    private int acquire(long key) {
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+
+        if (id >= keys.length) {
+            grow(Math.max(16, keys.length * 2));
+        }
+
+        // Keep the table at most half full
+        if (2 * (liveCount + 1) > tableKeys.length) {
+            rehash(tableKeys.length * 2);
+        }
+
+        keys[id] = key;
+        live[liveCount] = id;
+        livePosition[id] = liveCount;
+        liveCount++;
+
+        int mask = tableKeys.length - 1;
+        int place = hash(key) & mask;
+        while (tableKeys[place] != EMPTY) {
+            place = place + 1 & mask;
+        }
+        tableKeys[place] = key;
+        tableIds[place] = id;
+
+        return id;
+    }
+
+    /**
+     * Frees the id of an enemy that left the view.
+     *
+     * @param id The id
+     */
+    private void release(int id) {
+        // Move the last id into the place of this one
+        int position = livePosition[id];
+        int last = live[liveCount - 1];
+        live[position] = last;
+        livePosition[last] = position;
+        liveCount--;
+
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+        }
+        freeIds[freeCount++] = id;
+
+        // Remove the key, moving later keys of the same run back so they can still be found
+        int mask = tableKeys.length - 1;
+        int place = hash(keys[id]) & mask;
+        while (tableKeys[place] != keys[id]) {
+            place = place + 1 & mask;
+        }
+
+        int empty = place;
+        for (place = empty + 1 & mask; tableKeys[place] != EMPTY; place = place + 1 & mask) {
+            int home = hash(tableKeys[place]) & mask;
+
+            // Move the key back if its home isn't between the empty place and its place
+            if ((place - home & mask) >= (place - empty & mask)) {
+                tableKeys[empty] = tableKeys[place];
+                tableIds[empty] = tableIds[place];
+                empty = place;
+            }
+        }
+        tableKeys[empty] = EMPTY;
+    }
+
+    /**
+     * Makes room for more ids.
+     *
+     * @param capacity The number of ids
+     */
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        type = Arrays.copyOf(type, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        hp = Arrays.copyOf(hp, capacity);
+        sprite = Arrays.copyOf(sprite, capacity);
+        seen = Arrays.copyOf(seen, capacity);
+        live = Arrays.copyOf(live, capacity);
+        livePosition = Arrays.copyOf(livePosition, capacity);
+    }
+
+    /**
+     * Makes the table of keys larger and puts every key in it again.
+     *
+     * @param size The new size of the table, a power of two
+     */
+    private void rehash(int size) {
+        tableKeys = new long[size];
+        tableIds = new int[size];
+        Arrays.fill(tableKeys, EMPTY);
+
+        int mask = size - 1;
+        for (int n = 0; n < liveCount; n++) {
+            int id = live[n];
+            int place = hash(keys[id]) & mask;
+
+            while (tableKeys[place] != EMPTY) {
+                place = place + 1 & mask;
+            }
+            tableKeys[place] = keys[id];
+            tableIds[place] = id;
+        }
+    }
+
+    /**
+     * Spreads the bits of a key over an int.
+     *
+     * @param key The key
+     * @return The hash
+     */
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (mixed >>> 32);
+    }
+}
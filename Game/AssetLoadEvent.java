@@ -0,0 +1,33 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of reading the images of a sprite or a tile.
+ */
+@Name("cbl.AssetLoad")
+@Label("Asset Load")
+@Category({"CBL Game", "Resources"})
+@Description("Reading the images of a sprite or a tile")
+@StackTrace(false)
+class AssetLoadEvent extends jdk.jfr.Event {
+    static final String KIND_SPRITE = "sprite";
+    static final String KIND_TILE = "tile";
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Name")
+    String name;
+
+    @Label("Images")
+    int images;
+
+    @Label("Pixel Bytes")
+    @Description("Bytes of the pixels of the images, 4 per pixel")
+    @DataAmount
+    long bytes;
+}
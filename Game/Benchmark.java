@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the simulation. They run without a window and print their results.
+ * Run from the Game folder with the name of the benchmark, e.g. "java Benchmark enemies".
+ * The benchmarks are in classes named after the code they measure, e.g. TileStoreBenchmark;
+ * this class runs one by name and holds what they share.
+ */
+class Benchmark {
+    // Number of updates to run before and during measuring
+    static final int WARMUP_TICKS = 200;
+    static final int MEASURED_TICKS = 300;
+
+    // Used to measure the bytes allocated by a thread
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0] : "enemies";
+
+        switch (name) {
+            case "enemies":
+                SimulationBenchmark.benchmarkEnemies();
+                break;
+            case "grid":
+                SpatialGridBenchmark.benchmarkGrid();
+                break;
+            case "interest":
+                if (!SpatialGridBenchmark.benchmarkInterest()) {
+                    System.exit(1);
+                }
+                break;
+            case "parallel":
+                if (!SimulationBenchmark.benchmarkParallel()) {
+                    System.exit(1);
+                }
+                break;
+            case "collision":
+                CollisionBenchmark.benchmarkCollision();
+                break;
+            case "crowd":
+                if (!CollisionBenchmark.benchmarkCrowd()) {
+                    System.exit(1);
+                }
+                break;
+            case "projectiles":
+                if (!CollisionBenchmark.benchmarkProjectiles()) {
+                    System.exit(1);
+                }
+                break;
+            case "sight":
+                if (!LineOfSightBenchmark.benchmarkSight()) {
+                    System.exit(1);
+                }
+                break;
+            case "lod":
+                if (!SimulationBenchmark.benchmarkLevelOfDetail()) {
+                    System.exit(1);
+                }
+                break;
+            case "region":
+                if (!ActiveRegionBenchmark.benchmarkRegion()) {
+                    System.exit(1);
+                }
+                break;
+            case "entry":
+                if (!ActiveRegionBenchmark.benchmarkEntry()) {
+                    System.exit(1);
+                }
+                break;
+            case "reload":
+                if (!ChunkLoaderBenchmark.benchmarkReload()) {
+                    System.exit(1);
+                }
+                break;
+            case "resources":
+                ChunkLoaderBenchmark.benchmarkResources();
+                break;
+            case "spawn":
+                ChunkLoaderBenchmark.benchmarkSpawn();
+                break;
+            case "journal":
+                if (!WorldJournalBenchmark.benchmarkJournal()) {
+                    System.exit(1);
+                }
+                break;
+            case "replay":
+                if (!WorldJournalBenchmark.benchmarkReplay(args.length > 1 ? args[1] : null)) {
+                    System.exit(1);
+                }
+                break;
+            case "snapshot":
+                if (!WorldJournalBenchmark.benchmarkSnapshot()) {
+                    System.exit(1);
+                }
+                break;
+            case "server":
+                if (!GameServerBenchmark.benchmarkServer()) {
+                    System.exit(1);
+                }
+                break;
+            case "sessions":
+                if (!GameServerBenchmark.benchmarkSessions()) {
+                    System.exit(1);
+                }
+                break;
+            case "jfr":
+                if (!SimulationMonitorBenchmark.benchmarkFlightRecording()) {
+                    System.exit(1);
+                }
+                break;
+            case "jmx":
+                if (!SimulationMonitorBenchmark.benchmarkMonitor()) {
+                    System.exit(1);
+                }
+                break;
+            case "tiles":
+                if (!TileStoreBenchmark.benchmarkTiles()) {
+                    System.exit(1);
+                }
+                break;
+            case "explore":
+                if (!ActiveRegionBenchmark.benchmarkExplore()) {
+                    System.exit(1);
+                }
+                break;
+            case "allocation":
+                if (!SimulationBenchmark.benchmarkAllocation()) {
+                    System.exit(1);
+                }
+                break;
+            default:
+                System.out.println("Unknown benchmark \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Collects garbage a few times, so the used heap can be compared.
+     */
+    static void settleHeap() {
+        for (int n = 0; n < 3; n++) {
+            System.gc();
+        }
+    }
+
+    /**
+     * Deletes a directory with everything in it.
+     *
+     * @param directory The directory
+     * @throws IOException If a file can't be deleted
+     */
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Presses up for 10 updates and then down for 10 updates, so the player stays near
+     * the middle of the chunk.
+     *
+     * @param keyHandler The key handler of the player
+     * @param tick The number of the update
+     */
+    static void walkUpAndDown(KeyHandler keyHandler, int tick) {
+        keyHandler.up = tick % 20 < 10;
+        keyHandler.down = !keyHandler.up;
+    }
+
+    /**
+     * Gets the number of bytes the current thread has allocated so far.
+     *
+     * @return The number of bytes
+     */
+    static long allocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs the warm-up updates and measures the average time of an update.
+     *
+     * @param simulation The simulation to update
+     * @return The average time of one update in nanoseconds
+     */
+    static long measureTicks(Simulation simulation) {
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            simulation.tick();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_TICKS; i++) {
+            simulation.tick();
+        }
+
+        return (System.nanoTime() - start) / MEASURED_TICKS;
+    }
+
+    /**
+     * Creates a simulation in the starting chunk with enemies spread over its walkable tiles.
+     *
+     * @param enemyCount The number of enemies to add
+     * @param seed The seed for the enemy positions
+     * @return The simulation
+     */
+    static Simulation createSimulation(int enemyCount, long seed) {
+        Simulation simulation = new Simulation("OW", 0, 0, new Player(188, 188, new KeyHandler()));
+
+        spawnEnemies(simulation.getEnemies(), simulation.getChunk(), enemyCount, new Random(seed));
+
+        return simulation;
+    }
+
+    /**
+     * Adds goblins and sword enemies at random places on the walkable tiles of a chunk.
+     *
+     * @param enemies The store to add the enemies to
+     * @param chunk The walls of the chunk
+     * @param enemyCount The number of enemies the store should hold
+     * @param random The random generator for the enemy positions
+     */
+    static void spawnEnemies(EnemyStore enemies, WallMask chunk, int enemyCount, Random random) {
+        Enemy[] types = {EnemyRegistry.get("GoblinEnemy"), EnemyRegistry.get("SwordEnemy")};
+
+        while (enemies.size() < enemyCount) {
+            int row = random.nextInt(GamePanel.CHUNKHEIGHT);
+            int column = random.nextInt(GamePanel.CHUNKWIDTH);
+
+            if (chunk.isWall(column, row)) {
+                continue;
+            }
+
+            Enemy type = types[enemies.size() % types.length];
+            type.spawn(enemies,
+                column * GamePanel.TILESIZE + random.nextInt(GamePanel.TILESIZE - type.getWidth()),
+                row * GamePanel.TILESIZE + random.nextInt(GamePanel.TILESIZE - type.getHeight()));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Decides which keys a bot holds down. Bots are used to test how many players the game can
+ * handle, see LoadGenerator. A policy belongs to one bot and is asked once per update in the
+ * same JVM, or once per poll over the network.
+ */
+interface BotPolicy {
+    /**
+     * Chooses the keys to hold down.
+     *
+     * @param view What the bot sees of its game
+     * @return The keys as an input mask, see KeyHandler.getInputMask
+     */
+    int chooseInput(BotView view);
+
+    /**
+     * Creates a policy by its name.
+     *
+     * @param name random, chase or explore
+     * @param seed The seed for the random choices of the policy
+     * @return The policy, or null if there is no policy with the name
+     */
+    static BotPolicy forName(String name, long seed) {
+        switch (name) {
+            case "random":
+                return new RandomWalkPolicy(seed);
+            case "chase":
+                return new ChaseEnemyPolicy(seed);
+            case "explore":
+                return new ExplorerPolicy(seed);
+            default:
+                return null;
+        }
+    }
+}
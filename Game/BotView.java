@@ -0,0 +1,47 @@
+/**
+ * What a bot sees of its game: the player, the tiles of its chunk and the enemies around it.
+ * Implemented by SimulationView for bots playing in the same JVM and by GameClient for bots
+ * playing over the network, so a BotPolicy works the same in both.
+ * Positions are the top left corner in pixels within the chunk.
+ */
+interface BotView {
+    int getPlayerX();
+
+    int getPlayerY();
+
+    int getChunkX();
+
+    int getChunkY();
+
+    /**
+     * Gets a tile of the chunk of the player.
+     *
+     * @param column The column of the tile
+     * @param row The row of the tile
+     * @return The type of the tile, or null if there is no tile
+     */
+    TileType getTile(int column, int row);
+
+    /**
+     * Gets the number of enemies the bot sees.
+     *
+     * @return The number of enemies
+     */
+    int getEnemyCount();
+
+    /**
+     * Gets the X coordinate of an enemy.
+     *
+     * @param n The number of the enemy, from 0 to getEnemyCount
+     * @return The X coordinate
+     */
+    int getEnemyX(int n);
+
+    /**
+     * Gets the Y coordinate of an enemy.
+     *
+     * @param n The number of the enemy, from 0 to getEnemyCount
+     * @return The Y coordinate
+     */
+    int getEnemyY(int n);
+}
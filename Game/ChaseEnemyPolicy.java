@@ -0,0 +1,64 @@
+/**
+ * Walks to the nearest enemy and attacks it once in reach. Walks at random while there are no
+ * enemies in view. As the bot walks straight at the enemy, a wall in between stops it until
+ * the enemy moves.
+ */
+class ChaseEnemyPolicy implements BotPolicy {
+    // Distance in pixels at which the bot attacks, a little below the reach of the player
+    private static final int ATTACK_DISTANCE = 40;
+
+    // Distance along an axis within which the bot doesn't move along it, so it doesn't jitter
+    private static final int DEAD_ZONE = 4;
+
+    private final RandomWalkPolicy wander;
+
+    public ChaseEnemyPolicy(long seed) {
+        wander = new RandomWalkPolicy(seed);
+    }
+
+    @Override
+    public int chooseInput(BotView view) {
+        int playerX = view.getPlayerX();
+        int playerY = view.getPlayerY();
+
+        int nearest = -1;
+        long nearestDistance = Long.MAX_VALUE;
+
+        for (int n = 0; n < view.getEnemyCount(); n++) {
+            long distanceX = view.getEnemyX(n) - playerX;
+            long distanceY = view.getEnemyY(n) - playerY;
+            long distance = distanceX * distanceX + distanceY * distanceY;
+
+            if (distance < nearestDistance) {
+                nearest = n;
+                nearestDistance = distance;
+            }
+        }
+
+        if (nearest < 0) {
+            return wander.chooseInput(view);
+        }
+
+        int distanceX = view.getEnemyX(nearest) - playerX;
+        int distanceY = view.getEnemyY(nearest) - playerY;
+        int input = 0;
+
+        if (distanceX < -DEAD_ZONE) {
+            input |= KeyHandler.INPUT_LEFT;
+        } else if (distanceX > DEAD_ZONE) {
+            input |= KeyHandler.INPUT_RIGHT;
+        }
+
+        if (distanceY < -DEAD_ZONE) {
+            input |= KeyHandler.INPUT_UP;
+        } else if (distanceY > DEAD_ZONE) {
+            input |= KeyHandler.INPUT_DOWN;
+        }
+
+        if (nearestDistance <= (long) ATTACK_DISTANCE * ATTACK_DISTANCE) {
+            input |= KeyHandler.INPUT_SPACE;
+        }
+
+        return input;
+    }
+}
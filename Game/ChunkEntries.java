@@ -0,0 +1,163 @@
+/**
+ * The places along the edges of a chunk where the player can enter it.
+ * For every edge and every position along it, the table holds the nearest position within
+ * MAX_SHIFT pixels where the player fits at ENTRY_DEPTH pixels from the edge, or -1 if there
+ * is none. Built once per chunk and player size, so entering a chunk is a lookup in the table
+ * and a border the player can't pass is known before anything is changed.
+ */
+class ChunkEntries {
+    // Edges of a chunk, the edge of the new chunk the player enters through
+    static final int EDGE_LEFT = 0;
+    static final int EDGE_RIGHT = 1;
+    static final int EDGE_TOP = 2;
+    static final int EDGE_BOTTOM = 3;
+
+    // Distance in pixels between the player and the edge the player entered through
+    static final int ENTRY_DEPTH = 10;
+
+    // Furthest the player is moved along the edge to get around a wall
+    static final int MAX_SHIFT = 30;
+
+    // Size of the player the table is built for
+    private final int width;
+    private final int height;
+
+    // Per edge, per position along the edge: the position the player enters at, -1 if blocked
+    private final short[][] entries = new short[4][];
+
+    /**
+     * Builds the entry table of a chunk for the player.
+     *
+     * @param walls The walls of the chunk
+     * @param width The width of the player
+     * @param height The height of the player
+     */
+    public ChunkEntries(WallMask walls, int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        CollisionCheck collisionChecker = new CollisionCheck();
+
+        for (int edge = 0; edge < entries.length; edge++) {
+            int length = getLength(edge);
+            short[] edgeEntries = new short[length];
+
+            // Nearest free position at or before each position, then at or after it
+            int nearest = -1;
+            for (int along = 0; along < length; along++) {
+                if (collisionChecker.canMove(getX(edge, along), getY(edge, along), width, height, walls)) {
+                    nearest = along;
+                }
+                edgeEntries[along] = (short) nearest;
+            }
+
+            nearest = -1;
+            for (int along = length - 1; along >= 0; along--) {
+                if (edgeEntries[along] == along) {
+                    nearest = along;
+                }
+
+                // Take the closest of the two, the one before it if they are equally close
+                int before = edgeEntries[along];
+                int best = before;
+                if (nearest >= 0 && (before < 0 || nearest - along < along - before)) {
+                    best = nearest;
+                }
+
+                edgeEntries[along] = (short) (best >= 0 && Math.abs(best - along) <= MAX_SHIFT ? best : -1);
+            }
+
+            entries[edge] = edgeEntries;
+        }
+    }
+
+    /**
+     * Checks whether the table was built for a player of a size.
+     *
+     * @param playerWidth The width of the player
+     * @param playerHeight The height of the player
+     * @return True if the table is for this size
+     */
+    public boolean isFor(int playerWidth, int playerHeight) {
+        return width == playerWidth && height == playerHeight;
+    }
+
+    /**
+     * Finds where the player enters through an edge.
+     *
+     * @param edge The edge the player enters through
+     * @param along The position of the player along the edge: Y for the left and right
+     *     edges, X for the top and bottom edges
+     * @return The position along the edge the player enters at, or -1 if the player can't enter
+     */
+    public int find(int edge, int along) {
+        short[] edgeEntries = entries[edge];
+
+        return edgeEntries[Math.max(0, Math.min(edgeEntries.length - 1, along))];
+    }
+
+    /**
+     * Gets the X coordinate of the player entering at a position along an edge.
+     *
+     * @param edge The edge the player enters through
+     * @param along The position along the edge
+     * @return The X coordinate
+     */
+    public int getX(int edge, int along) {
+        switch (edge) {
+            case EDGE_LEFT:
+                return ENTRY_DEPTH;
+            case EDGE_RIGHT:
+                return GamePanel.CHUNKWIDTH * GamePanel.TILESIZE - width - ENTRY_DEPTH;
+            default:
+                return along;
+        }
+    }
+
+    /**
+     * Gets the Y coordinate of the player entering at a position along an edge.
+     *
+     * @param edge The edge the player enters through
+     * @param along The position along the edge
+     * @return The Y coordinate
+     */
+    public int getY(int edge, int along) {
+        switch (edge) {
+            case EDGE_TOP:
+                return ENTRY_DEPTH;
+            case EDGE_BOTTOM:
+                return GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE - height - ENTRY_DEPTH;
+            default:
+                return along;
+        }
+    }
+
+    /**
+     * Estimates the number of bytes used by the table.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateBytes() {
+        long bytes = 0;
+
+        for (short[] edgeEntries : entries) {
+            bytes += 2L * edgeEntries.length;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Gets the number of positions along an edge where the player fits within the chunk.
+     *
+     * @param edge The edge
+     * @return The number of positions
+     */
+    private int getLength(int edge) {
+        if (edge == EDGE_LEFT || edge == EDGE_RIGHT) {
+            return GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE - height + 1;
+        }
+
+        return GamePanel.CHUNKWIDTH * GamePanel.TILESIZE - width + 1;
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the templates of the chunks that have been loaded, shared by every simulation in the
+ * JVM. A chunk is read and parsed the first time any simulation needs it, simulations that
+ * need it later get the same template. Used from any thread. Its counts can be watched over
+ * JMX, see SimulationMonitor.
+ */
+class ChunkLibrary implements ChunkLibraryMBean {
+    private static final ChunkLibrary instance = new ChunkLibrary();
+
+    private final ChunkLoader chunkLoader = new ChunkLoader();
+
+    // The templates of the chunks that were loaded, by name
+    private final Map<String, ChunkTemplate> templates = new ConcurrentHashMap<String, ChunkTemplate>();
+
+    // Number of times a chunk was parsed
+    private volatile long loadCount = 0;
+
+    // Number of templates asked for, and how many of them had been loaded before
+    private volatile long requestCount = 0;
+    private volatile long hitCount = 0;
+
+    private ChunkLibrary() {
+    }
+
+    /**
+     * Gets the library of the JVM.
+     *
+     * @return The library
+     */
+    public static ChunkLibrary get() {
+        return instance;
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    @Override
+    public int getTemplateCount() {
+        return templates.size();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    @Override
+    public double getHitRatio() {
+        long requests = requestCount;
+
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimateBytes();
+    }
+
+    /**
+     * Gets the template of a chunk, loading it the first time it is requested.
+     * Recorded as a ChunkLoadEvent when the flight recorder records it.
+     *
+     * @param name The name of the chunk, e.g. OW_0_0
+     * @return The template, or null if the chunk doesn't exist
+     */
+    public ChunkTemplate getTemplate(String name) {
+        ChunkLoadEvent event = new ChunkLoadEvent();
+        event.begin();
+
+        ChunkTemplate template = templates.get(name);
+        boolean cacheHit = template != null;
+
+        synchronized (this) {
+            requestCount++;
+            hitCount += cacheHit ? 1 : 0;
+        }
+
+        if (template == null) {
+            // Chunks that don't exist are not kept, ResourceRoot knows they don't exist without reading
+            template = load(name);
+
+            if (template != null) {
+                ChunkTemplate other = templates.putIfAbsent(name, template);
+                template = other != null ? other : template;
+            }
+        }
+
+        commitEvent(event, name, cacheHit, template);
+
+        return template;
+    }
+
+    /**
+     * Loads a chunk again, e.g. because its file changed. Simulations keep the old template
+     * until they are given the new one, so its tiles are retired: they keep their own tiles
+     * instead of those of the new file. Recorded as a ChunkLoadEvent like getTemplate.
+     *
+     * @param name The name of the chunk
+     * @return The new template, or null if the chunk doesn't exist anymore
+     */
+    public ChunkTemplate reload(String name) {
+        ChunkLoadEvent event = new ChunkLoadEvent();
+        event.begin();
+
+        ChunkTemplate template = load(name);
+
+        ChunkTemplate old;
+        if (template != null) {
+            old = templates.put(name, template);
+        } else {
+            old = templates.remove(name);
+        }
+
+        if (old != null) {
+            old.tiles.retire();
+        }
+
+        commitEvent(event, name, false, template);
+
+        return template;
+    }
+
+    /**
+     * Estimates the number of bytes used by the templates.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateBytes() {
+        long bytes = 0;
+
+        for (ChunkTemplate template : templates.values()) {
+            bytes += template.estimateBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Ends and commits the event of getting a template, if the flight recorder records it.
+     *
+     * @param event The event, begun before getting the template
+     * @param name The name of the chunk
+     * @param cacheHit Whether the template had been loaded before
+     * @param template The template, null if the chunk doesn't exist
+     */
+    private static void commitEvent(ChunkLoadEvent event, String name, boolean cacheHit,
+        ChunkTemplate template) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.chunk = name;
+            event.cacheHit = cacheHit;
+            event.found = template != null;
+            event.bytes = template != null ? template.estimateBytes() : 0;
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads and parses a chunk.
+     *
+     * @param name The name of the chunk
+     * @return The template, or null if the chunk doesn't exist
+     */
+    private ChunkTemplate load(String name) {
+        TileType[][] tiles = chunkLoader.loadChunk(name);
+
+        if (tiles == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            loadCount++;
+        }
+
+        return new ChunkTemplate(name, TileStore.get().add(name, tiles));
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * The counts of the ChunkLibrary shown over JMX, as CBLGame:type=ChunkLibrary.
+ */
+public interface ChunkLibraryMBean {
+    /**
+     * Gets the number of chunks the library holds.
+     *
+     * @return The number of templates
+     */
+    int getTemplateCount();
+
+    /**
+     * Gets the number of times a chunk was read and parsed, including reloads.
+     *
+     * @return The number of loads
+     */
+    long getLoadCount();
+
+    /**
+     * Gets the number of times a simulation asked for a chunk.
+     *
+     * @return The number of requests
+     */
+    long getRequestCount();
+
+    /**
+     * Gets the number of requests for chunks the library already held.
+     *
+     * @return The number of hits
+     */
+    long getHitCount();
+
+    /**
+     * Gets the share of the requests for chunks the library already held.
+     *
+     * @return The hits divided by the requests, 0 without requests
+     */
+    double getHitRatio();
+
+    /**
+     * Gets the estimated memory used by the chunks the library holds.
+     *
+     * @return The estimated number of bytes
+     */
+    long getEstimatedBytes();
+}
@@ -0,0 +1,31 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of getting the template of a chunk from the ChunkLibrary, either
+ * from the templates already loaded or by reading and parsing the chunk.
+ */
+@Name("cbl.ChunkLoad")
+@Label("Chunk Load")
+@Category({"CBL Game", "Resources"})
+@Description("Getting the template of a chunk, loading it if it wasn't loaded yet")
+@StackTrace(false)
+class ChunkLoadEvent extends jdk.jfr.Event {
+    @Label("Chunk")
+    String chunk;
+
+    @Label("Cache Hit")
+    @Description("The chunk was loaded before, so nothing was read")
+    boolean cacheHit;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+}
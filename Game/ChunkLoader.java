@@ -1,7 +1,5 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 /**
@@ -19,14 +17,20 @@ class ChunkLoader {
         String tileLetter;
 
         // The file with the data for the chunk
-        File chunkFile = FileUtils.resolveExistingFile("chunks/" + chunkName + "/tiles.txt");
+        String chunkFile = "chunks/" + chunkName + "/tiles.txt";
+        ResourceRoot resources = ResourceRoot.get();
+
+        // Chunks that don't exist are not in the index, so this doesn't touch the file system
+        if (!resources.exists(chunkFile)) {
+            return null;
+        }
 
         // Initialise the chunk
         TileType[][] chunk = new TileType[GamePanel.CHUNKHEIGHT][GamePanel.CHUNKWIDTH];
 
         try {
-            // Use scanner to read the file
-            Scanner scanner = new Scanner(chunkFile);
+            // Use scanner to read the file. It isn't kept, the tiles are kept in the TileStore
+            Scanner scanner = new Scanner(resources.openOnce(chunkFile));
 
             // Loop over each tile in a chunk
             for (int i = 0; i < GamePanel.CHUNKHEIGHT; i++) {
@@ -45,8 +49,8 @@ class ChunkLoader {
 
             // Close the scanner
             scanner.close();
-        } catch (FileNotFoundException e) {
-            // Unable to load chunk, return null
+        } catch (IOException | NoSuchElementException e) {
+            // Unable to load chunk, or the file has fewer tiles than a chunk, e.g. while it is written. Return null
             return null;
         }
 
@@ -54,24 +58,25 @@ class ChunkLoader {
     }
 
     /**
-     * Loads in enemies in a chunk. 
+     * Loads in enemies in a chunk and adds them to a store.
      * 
      * @param chunkName The name of the chunk the player is entering
-     * @return ArrayList of enemies
+     * @param enemies The store to add the enemies to
      */
-    public ArrayList<Enemy> loadEnemies(String chunkName) {
-        // Initialise array
-        ArrayList<Enemy> enemies = new ArrayList<Enemy>();
-
-        // Create the parameter types that are used for initialising the enemy class
-        Class<?>[] paramTypes = {int.class, int.class};
-
+    public void loadEnemies(String chunkName, EnemyStore enemies) {
         // The file with the data for the enemies in a chunk
-        File enemiesFile = FileUtils.resolveExistingFile("chunks/" + chunkName + "/enemies.txt");
+        String enemiesFile = "chunks/" + chunkName + "/enemies.txt";
+        ResourceRoot resources = ResourceRoot.get();
+
+        /* If there is no enemies.txt file in the chunk folder, the chunk has no enemies.
+         * Therefore, leave the store empty. */
+        if (!resources.exists(enemiesFile)) {
+            return;
+        }
 
         try {
-            // Use scanner to read the file
-            Scanner scanner = new Scanner(enemiesFile);
+            // Use scanner to read the file. It isn't kept, evicted chunks keep their enemies in ActiveRegion
+            Scanner scanner = new Scanner(resources.openOnce(enemiesFile));
 
             // Iterate over lines in the file.
             while (scanner.hasNextLine()) {
@@ -82,45 +87,23 @@ class ChunkLoader {
                 int x = scanner.nextInt();
                 int y = scanner.nextInt();
 
-                // Initiate enemy class variable
-                Class<?> enemyClass;
-                try {
-                    // Get the class of the enemy type by name
-                    enemyClass = Class.forName(enemyName);
-
-                } catch (ClassNotFoundException e) {
-                    System.out.println("Enemy type does not exist!");
-                    e.printStackTrace();
-                    continue; // Continue with while loop
-                }
-                
-                // Initiate enemy variable
-                Enemy enemy;
-                try {
-                    // Create new instance of enemy
-                    enemy = (Enemy) enemyClass
-                        .getDeclaredConstructor(paramTypes).newInstance(x, y);
-                } catch (InstantiationException | IllegalAccessException | IllegalArgumentException
-                        | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+                // Get the enemy type by name
+                Enemy type = EnemyRegistry.get(enemyName);
 
+                if (type == null) {
                     System.out.println("Unable to load in enemy \"" + enemyName 
                         + "\" located on (" + x + ", " + y + ").");
-                    e.printStackTrace();
                     continue; // Continue with while loop
                 }
-                    
-                // Add newly intiated enemy to enemies array
-                enemies.add(enemy);                          
+
+                // Add the enemy to the store
+                type.spawn(enemies, x, y);
             }
 
             // Close the scanner
             scanner.close();
-        } catch (FileNotFoundException e) {
-            /* If there is no enemies.txt file in the chunk folder, the chunk has no enemies.
-             * Therefore, return the empty enemies array list. */
-            return enemies;
+        } catch (IOException e) {
+            System.out.println("Unable to read the enemies of chunk " + chunkName + ": " + e.getMessage());
         }
-
-        return enemies;
     }
 }
\ No newline at end of file
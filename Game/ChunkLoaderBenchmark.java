@@ -0,0 +1,184 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of loading chunks: reading their files ("resources"), spawning their enemies by
+ * name ("spawn") and swapping in changed files while the game runs ("reload").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark resources".
+ */
+class ChunkLoaderBenchmark {
+    /**
+     * Changes the tiles of the current chunk and a sprite in a copy of the resources while the
+     * simulation runs at 60 updates per second, and checks that they are swapped in once,
+     * between two updates, in less time than an update may take. The tiles file is written in two
+     * steps, like some editors do, so the debouncing is checked as well.
+     *
+     * @return True if both changes were swapped in once and swapping took less than an update
+     */
+    static boolean benchmarkReload() {
+        Path directory;
+        try {
+            directory = Files.createTempDirectory("resources");
+
+            for (String folder : ResourceRoot.getIndexedFolders()) {
+                Path source = ResourceRoot.get().getDirectory().resolve(folder);
+
+                try (Stream<Path> files = Files.walk(source)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.copy(file, directory.resolve(folder).resolve(source.relativize(file).toString()));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to copy the resources: " + e.getMessage());
+            return false;
+        }
+
+        // Use the copy from now on
+        ResourceRoot.use(directory);
+
+        boolean ok = true;
+        HotReloader reloader = null;
+
+        try {
+            Simulation simulation = Benchmark.createSimulation(2000, 42);
+            reloader = new HotReloader(ResourceRoot.get());
+            long nanosPerTick = 1_000_000_000L / 60;
+
+            // Warm up, so the updates measured below are not slowed down by compiling
+            for (int tick = 0; tick < Benchmark.WARMUP_TICKS; tick++) {
+                simulation.tick();
+            }
+
+            BufferedImage oldSprite = EnemyRegistry.get("GoblinEnemy").getImage(EnemyStore.SPRITE_IDLE);
+            boolean wallBefore = simulation.getWalls().isWall(0, 0);
+
+            // Turn the top left tile into grass, writing the file in two steps
+            Path tilesFile = directory.resolve("chunks/OW_0_0/tiles.txt");
+            byte[] tiles = Files.readAllBytes(tilesFile);
+            tiles[0] = 'G';
+            Files.write(tilesFile, Arrays.copyOf(tiles, tiles.length / 2));
+            long written = System.nanoTime();
+
+            Path spriteFile = directory.resolve("assets/sprites/GoblinEnemy/idle.png");
+            Files.write(spriteFile, Files.readAllBytes(spriteFile));
+
+            long swappedAt = 0;
+            long maxUpdateNanos = 0;
+            long start = System.nanoTime();
+
+            for (int tick = 1; tick <= 60; tick++) {
+                if (tick == 3) {
+                    Files.write(tilesFile, tiles);
+                }
+
+                long updateStart = System.nanoTime();
+                boolean changed = reloader.applyPending(simulation, null);
+                simulation.tick();
+                maxUpdateNanos = Math.max(maxUpdateNanos, System.nanoTime() - updateStart);
+
+                if (changed && swappedAt == 0) {
+                    swappedAt = System.nanoTime();
+                }
+
+                long due = start + tick * nanosPerTick;
+                while (System.nanoTime() < due) {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+            }
+
+            boolean tilesSwapped = wallBefore && !simulation.getWalls().isWall(0, 0)
+                && simulation.getChunk().getType(0, 0) == TileType.Grass;
+            boolean spriteSwapped =
+                EnemyRegistry.get("GoblinEnemy").getImage(EnemyStore.SPRITE_IDLE) != oldSprite;
+
+            System.out.printf("tiles swapped: %b after %.0f ms, sprite swapped: %b%n",
+                tilesSwapped, (swappedAt - written) / 1e6, spriteSwapped);
+            System.out.printf("reloads applied: %d, longest swap %.1f us, longest update %.2f ms (budget %.2f ms)%n",
+                reloader.getAppliedCount(), reloader.getMaxApplyNanos() / 1e3,
+                maxUpdateNanos / 1e6, nanosPerTick / 1e6);
+
+            ok = tilesSwapped && spriteSwapped && reloader.getAppliedCount() == 2
+                && reloader.getMaxApplyNanos() < nanosPerTick;
+        } catch (IOException e) {
+            System.out.println("Unable to change the resources: " + e.getMessage());
+            ok = false;
+        } finally {
+            if (reloader != null) {
+                reloader.close();
+            }
+
+            try {
+                Benchmark.deleteDirectory(directory);
+            } catch (IOException e) {
+                System.out.println("Unable to delete " + directory + ": " + e.getMessage());
+            }
+        }
+
+        return ok;
+    }
+
+    /**
+     * Measures loading the chunks around the start of the world again and again, together with
+     * the chunks next to them that don't exist, and counts the files read while doing so.
+     * Chunk files are read every round, as they aren't kept once they are parsed. Assets are
+     * only read in the first round.
+     */
+    static void benchmarkResources() {
+        ChunkLoader chunkLoader = new ChunkLoader();
+        EnemyStore enemies = new EnemyStore();
+        int loadsPerRound = 1000;
+
+        System.out.println("round  ns/chunk  files read");
+
+        for (int round = 1; round <= 5; round++) {
+            long readsBefore = ResourceRoot.get().getReadCount();
+            long start = System.nanoTime();
+
+            for (int n = 0; n < loadsPerRound; n++) {
+                // A 5 by 5 area around the start, most of which doesn't exist
+                String name = "OW_" + (n % 5 - 2) + "_" + (n / 5 % 5 - 2);
+
+                if (chunkLoader.loadChunk(name) != null) {
+                    enemies.clear();
+                    chunkLoader.loadEnemies(name, enemies);
+                }
+            }
+
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%5d %9d %11d%n", round, elapsed / loadsPerRound,
+                ResourceRoot.get().getReadCount() - readsBefore);
+        }
+    }
+
+    /**
+     * Measures spawning enemies by the names used in chunk files, which is what loading
+     * the enemies of a chunk does for every line.
+     */
+    static void benchmarkSpawn() {
+        String[] names = {"GoblinEnemy", "SwordEnemy", "ArcherEnemy"};
+        int spawnsPerRound = 100000;
+        EnemyStore enemies = new EnemyStore();
+
+        System.out.println("round   ns/spawn");
+
+        for (int round = 1; round <= 5; round++) {
+            enemies.clear();
+
+            long start = System.nanoTime();
+            for (int n = 0; n < spawnsPerRound; n++) {
+                Enemy type = EnemyRegistry.get(names[n % names.length]);
+                type.spawn(enemies, n % 300, n / 300 % 300);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%5d %10.1f%n", round, (double) elapsed / spawnsPerRound);
+        }
+    }
+}
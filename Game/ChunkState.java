@@ -0,0 +1,100 @@
+/**
+ * A loaded chunk with its tiles, its walls and the enemies in it.
+ * The tiles are pinned in the TileStore while the chunk is resident in an ActiveRegion.
+ * The state is kept when the player leaves the chunk, so its enemies keep
+ * their position and HP instead of being loaded again.
+ */
+class ChunkState {
+    // Coordinates of the chunk in the world. Y grows upwards
+    final int chunkX;
+    final int chunkY;
+
+    final String name;
+
+    // Shared with other simulations, replaced by replaceTiles when the chunk file is changed while the game runs
+    ChunkTemplate template;
+    ChunkTiles tiles;
+    WallMask walls;
+
+    // Whether the tiles are pinned in the TileStore, while the chunk is resident
+    private boolean pinned = false;
+
+    final EnemyStore enemies = new EnemyStore();
+
+    // The last update in which the chunk was simulated
+    long lastUpdateTick = 0;
+
+    // The last change of the resident chunks of its ActiveRegion at which the chunk was resident
+    long lastResident = 0;
+
+    /**
+     * Initiates the state of a chunk without enemies.
+     *
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkY The Y coordinate of the chunk
+     * @param template The tiles and walls of the chunk
+     */
+    public ChunkState(int chunkX, int chunkY, ChunkTemplate template) {
+        this.chunkX = chunkX;
+        this.chunkY = chunkY;
+        this.name = template.name;
+        this.template = template;
+        this.tiles = template.tiles;
+        this.walls = template.walls;
+    }
+
+    /**
+     * Replaces the tiles of the chunk, e.g. when its file was changed. The enemies stay where
+     * they are. Must be called between updates.
+     *
+     * @param newTemplate The template with the new tiles
+     */
+    public void replaceTiles(ChunkTemplate newTemplate) {
+        if (pinned) {
+            newTemplate.tiles.pin();
+            tiles.unpin();
+        }
+
+        this.template = newTemplate;
+        this.tiles = newTemplate.tiles;
+        this.walls = newTemplate.walls;
+    }
+
+    /**
+     * Pins or unpins the tiles of the chunk in the TileStore, so they can be read while the
+     * chunk is resident. Nothing changes if they already are.
+     *
+     * @param pin True to pin the tiles, false to unpin them
+     */
+    public void setPinned(boolean pin) {
+        if (pin && !pinned) {
+            tiles.pin();
+        } else if (!pin && pinned) {
+            tiles.unpin();
+        }
+
+        pinned = pin;
+    }
+
+    /**
+     * Gets the places along the edges where the player can enter the chunk.
+     * The table is built the first time and kept with the template until the tiles change.
+     *
+     * @param playerWidth The width of the player
+     * @param playerHeight The height of the player
+     * @return The entry table
+     */
+    public ChunkEntries getEntries(int playerWidth, int playerHeight) {
+        return template.getEntries(playerWidth, playerHeight);
+    }
+
+    /**
+     * Estimates the number of bytes used by the chunk: the template and the enemies.
+     * The template may be shared with other simulations.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateBytes() {
+        return template.estimateBytes() + enemies.estimateBytes();
+    }
+}
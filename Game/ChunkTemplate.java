@@ -0,0 +1,79 @@
+/**
+ * The parts of a chunk that don't change while the game runs: its tiles, its walls and
+ * where the player can enter it. Loaded once by ChunkLibrary and shared by every simulation
+ * that has the chunk loaded, so many simulations in one JVM hold each chunk once.
+ * The tiles and walls are kept outside the heap in the TileStore.
+ * A changed chunk file gets a new template instead of changing this one.
+ */
+class ChunkTemplate {
+    // Bytes on the heap of the handle of the tiles
+    private static final long HANDLE_BYTES = 48;
+
+    final String name;
+    final ChunkTiles tiles;
+
+    // The same handle as tiles, for the readers of walls
+    final WallMask walls;
+
+    // Where the player can enter the chunk, built the first time it is needed
+    private volatile ChunkEntries entries;
+
+    /**
+     * Initiates the template of a chunk.
+     *
+     * @param name The name of the chunk, e.g. OW_0_0
+     * @param tiles The tiles of the chunk in the TileStore
+     */
+    public ChunkTemplate(String name, ChunkTiles tiles) {
+        this.name = name;
+        this.tiles = tiles;
+        this.walls = tiles;
+    }
+
+    /**
+     * Gets the places along the edges where the player can enter the chunk.
+     * The table is built the first time and kept. Simulations on different threads may both
+     * build it the first time, which gives the same table.
+     *
+     * @param playerWidth The width of the player
+     * @param playerHeight The height of the player
+     * @return The entry table
+     */
+    public ChunkEntries getEntries(int playerWidth, int playerHeight) {
+        ChunkEntries table = entries;
+
+        if (table == null || !table.isFor(playerWidth, playerHeight)) {
+            // The chunk may not be resident, so keep the walls while reading them
+            tiles.pin();
+            try {
+                table = new ChunkEntries(walls, playerWidth, playerHeight);
+            } finally {
+                tiles.unpin();
+            }
+            entries = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * Drops the entry table, e.g. because the chunk was left long ago. It is built again the
+     * next time it is needed, also by simulations that still have the chunk loaded.
+     */
+    public void dropEntries() {
+        entries = null;
+    }
+
+    /**
+     * Estimates the number of bytes on the heap used by the template: the handle of the tiles
+     * and the entry table. The tiles and walls themselves are in the TileStore.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateBytes() {
+        ChunkEntries table = entries;
+        long entryBytes = table != null ? table.estimateBytes() : 0;
+
+        return HANDLE_BYTES + entryBytes;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * The tiles and walls of a chunk, kept outside the heap in a slot of a TileStore.
+ * Readers like CollisionCheck, ShortestPathCalculator and GamePanel read through this
+ * handle instead of holding the tiles themselves. The slot can be given to another chunk
+ * while the chunk isn't pinned, and is filled again from the chunk file when it is pinned
+ * again, so the tiles may only be read while pinned. ActiveRegion pins its resident chunks.
+ * A revision replaced by a changed file keeps a copy of its tiles, see TileStore.retire.
+ *
+ * <p>A slot holds the walls first, as the rows of a WallMask, then one byte per tile:
+ * the ordinal of its TileType plus one, or 0 for no tile.
+ */
+class ChunkTiles extends WallMask {
+    private static final TileType[] TYPES = TileType.values();
+
+    final String name;
+
+    // The key of the chunk in the page table of the store, see TileStore.key
+    final long key;
+
+    private final TileStore store;
+
+    // Checksum of the tiles the chunk was added with, guarded by the store
+    long checksum;
+
+    // Copy of the slot of a retired revision, paged in instead of the file, guarded by the store
+    byte[] retiredTiles;
+
+    /**
+     * Initiates the handle of a chunk. Called by TileStore, which pages in the tiles.
+     *
+     * @param store The store that holds the tiles
+     * @param name The name of the chunk, e.g. OW_0_0
+     * @param key The key of the chunk in the store
+     */
+    ChunkTiles(TileStore store, String name, long key) {
+        this.store = store;
+        this.name = name;
+        this.key = key;
+    }
+
+    /**
+     * Gets the type of a tile. The chunk must be pinned.
+     *
+     * @param column The column of the tile
+     * @param row The row of the tile
+     * @return The type, or null if the chunk file has no tile there
+     */
+    public TileType getType(int column, int row) {
+        int value = rows.get(BYTES + row * GamePanel.CHUNKWIDTH + column);
+
+        return value == 0 ? null : TYPES[value - 1];
+    }
+
+    /**
+     * Keeps the tiles in the store until unpin is called as often, paging them in if they
+     * were given up.
+     */
+    public void pin() {
+        store.pin(this);
+    }
+
+    /**
+     * Lets the store give the slot of the tiles to another chunk once nothing pins them.
+     */
+    public void unpin() {
+        store.unpin(this);
+    }
+
+    /**
+     * Retires the revision, because its file changed or was removed, see TileStore.retire.
+     */
+    public void retire() {
+        store.retire(this);
+    }
+
+    /**
+     * Checks if the tiles are in the store.
+     *
+     * @return True if the tiles are paged in
+     */
+    public boolean isPagedIn() {
+        return store.isPagedIn(this);
+    }
+}
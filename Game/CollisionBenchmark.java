@@ -0,0 +1,291 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmarks of collisions: entities moving against walls ("collision"), enemies pushed apart
+ * ("crowd") and projectiles hitting walls and enemies ("projectiles").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark collision".
+ */
+class CollisionBenchmark {
+    /**
+     * Measures moving 10k entities against the walls of a chunk with many walls.
+     * One in ten entities moves fast enough to cross more than a tile in one update.
+     */
+    static void benchmarkCollision() {
+        int entityCount = 10000;
+        int width = 30;
+        int height = 30;
+
+        WallMask walls = new WallMask(new ChunkLoader().loadChunk("OW_1_0"));
+        CollisionCheck collisionChecker = new CollisionCheck();
+        Random random = new Random(42);
+
+        int[] x = new int[entityCount];
+        int[] y = new int[entityCount];
+        int[] velocityX = new int[entityCount];
+        int[] velocityY = new int[entityCount];
+
+        for (int i = 0; i < entityCount; i++) {
+            // Place the entity somewhere it doesn't touch a wall
+            do {
+                x[i] = random.nextInt(GameRenderer.SCREENWIDTH - width);
+                y[i] = random.nextInt(GameRenderer.SCREENHEIGHT - height);
+            } while (!collisionChecker.canMove(x[i], y[i], width, height, walls));
+
+            int speed = i % 10 == 0 ? 60 : 10;
+            velocityX[i] = random.nextInt(speed * 2 + 1) - speed;
+            velocityY[i] = random.nextInt(speed * 2 + 1) - speed;
+        }
+
+        long before = Benchmark.allocatedBytes();
+        long start = System.nanoTime();
+        for (int tick = 0; tick < Benchmark.WARMUP_TICKS + Benchmark.MEASURED_TICKS; tick++) {
+            if (tick == Benchmark.WARMUP_TICKS) {
+                before = Benchmark.allocatedBytes();
+                start = System.nanoTime();
+            }
+
+            for (int i = 0; i < entityCount; i++) {
+                int newX = collisionChecker.sweepX(x[i], y[i], width, height, velocityX[i], walls);
+                int newY = collisionChecker.sweepY(newX, y[i], width, height, velocityY[i], walls);
+
+                // Bounce off whatever blocked the entity
+                if (newX != x[i] + velocityX[i]) {
+                    velocityX[i] = -velocityX[i];
+                }
+                if (newY != y[i] + velocityY[i]) {
+                    velocityY[i] = -velocityY[i];
+                }
+
+                x[i] = newX;
+                y[i] = newY;
+            }
+        }
+        long nanosPerTick = (System.nanoTime() - start) / Benchmark.MEASURED_TICKS;
+        long allocated = Benchmark.allocatedBytes() - before;
+
+        System.out.printf("%d entities: %d ns/tick, %.1f ns/entity, %d bytes allocated%n",
+            entityCount, nanosPerTick, (double) nanosPerTick / entityCount, allocated);
+    }
+
+    /**
+     * Measures finding and pushing apart overlapping enemies for 1k to 20k enemies in one chunk.
+     * For smaller crowds, also counts the overlapping pairs after the measured updates,
+     * with and without pushing enemies apart, and checks that the sweep finds every pair
+     * that checking every pair finds.
+     *
+     * @return True if the sweep missed no overlapping pair
+     */
+    static boolean benchmarkCrowd() {
+        int[] enemyCounts = {1000, 2000, 5000, 10000, 20000};
+        CollisionCheck collisionChecker = new CollisionCheck();
+        CrowdSeparation crowdSeparation = new CrowdSeparation();
+        boolean noneMissed = true;
+
+        System.out.println("enemies  separate ns  ns/enemy    ns/tick  overlaps  without separation  missed");
+
+        for (int enemyCount : enemyCounts) {
+            Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+            EnemyStore enemies = simulation.getEnemies();
+
+            long nanosPerTick = Benchmark.measureTicks(simulation);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < Benchmark.MEASURED_TICKS; i++) {
+                crowdSeparation.separate(enemies, collisionChecker);
+            }
+            long separateNanos = (System.nanoTime() - start) / Benchmark.MEASURED_TICKS;
+
+            // Counting overlaps checks every pair, which takes too long for large crowds
+            String overlaps = "-";
+            String overlapsWithout = "-";
+            String missed = "-";
+
+            if (enemyCount <= 5000) {
+                long overlapCount = CrowdSeparation.countOverlaps(enemies, collisionChecker);
+                long missedCount = overlapCount - crowdSeparation.countSweptOverlaps(enemies, collisionChecker);
+                noneMissed &= missedCount == 0;
+                overlaps = Long.toString(overlapCount);
+                missed = Long.toString(missedCount);
+
+                Simulation without = Benchmark.createSimulation(enemyCount, 42);
+                without.setCrowdSeparation(false);
+                for (int i = 0; i < Benchmark.WARMUP_TICKS + Benchmark.MEASURED_TICKS; i++) {
+                    without.tick();
+                }
+                overlapsWithout = Long.toString(
+                    CrowdSeparation.countOverlaps(without.getEnemies(), collisionChecker));
+            }
+
+            System.out.printf("%7d %12d %9.1f %10d %9s %19s %7s%n",
+                enemyCount, separateNanos, (double) separateNanos / enemyCount, nanosPerTick,
+                overlaps, overlapsWithout, missed);
+        }
+
+        System.out.println(noneMissed ? "the sweep found every overlapping pair" : "MISSED OVERLAPPING PAIRS");
+
+        return noneMissed;
+    }
+
+    /**
+     * Measures updating 1k to 20k projectiles in flight between 2000 enemies.
+     * Projectiles that disappear are replaced right away, so the number in flight stays the same.
+     * The projectiles deal no damage, so the enemies and the player stay alive.
+     * Then checks that fast projectiles stop at every wall they cross and hit an enemy they
+     * pass between two updates.
+     *
+     * @return True if no projectile flew through a wall or past an enemy it should hit
+     */
+    static boolean benchmarkProjectiles() {
+        int[] projectileCounts = {1000, 5000, 10000, 20000};
+
+        System.out.println("projectiles    ns/tick  ns/projectile  fired/tick  bytes allocated");
+
+        for (int projectileCount : projectileCounts) {
+            Simulation simulation = Benchmark.createSimulation(2000, 42);
+            ProjectilePool projectiles = new ProjectilePool(projectileCount);
+            Random random = new Random(42);
+
+            long fired = 0;
+            long before = Benchmark.allocatedBytes();
+            long start = System.nanoTime();
+            for (int tick = 0; tick < Benchmark.WARMUP_TICKS + Benchmark.MEASURED_TICKS; tick++) {
+                if (tick == Benchmark.WARMUP_TICKS) {
+                    fired = 0;
+                    before = Benchmark.allocatedBytes();
+                    start = System.nanoTime();
+                }
+
+                while (projectiles.size() < projectileCount) {
+                    int x = random.nextInt(GameRenderer.SCREENWIDTH);
+                    int y = random.nextInt(GameRenderer.SCREENHEIGHT);
+
+                    if (simulation.getWalls().isWall(x / GamePanel.TILESIZE, y / GamePanel.TILESIZE)) {
+                        continue;
+                    }
+
+                    byte owner = fired % 2 == 0 ? ProjectilePool.OWNER_PLAYER : ProjectilePool.OWNER_ENEMY;
+                    projectiles.fire(owner, x, y,
+                        random.nextInt(21) - 10, random.nextInt(21) - 10, 2 + random.nextInt(6), 0);
+                    fired++;
+                }
+
+                projectiles.update(simulation.getWalls(), simulation.getEnemies(), simulation.getPlayer());
+            }
+            long nanosPerTick = (System.nanoTime() - start) / Benchmark.MEASURED_TICKS;
+            long allocated = Benchmark.allocatedBytes() - before;
+
+            System.out.printf("%11d %10d %14.1f %11d %16d%n",
+                projectileCount, nanosPerTick, (double) nanosPerTick / projectileCount,
+                fired / Benchmark.MEASURED_TICKS, allocated);
+        }
+
+        return checkProjectileWalls() & checkProjectileHits();
+    }
+
+    /**
+     * Fires fast projectiles in random directions in a chunk with many walls and follows each
+     * flight in small steps to find where it really meets a wall. A projectile that is still
+     * flying after crossing a wall is counted as missed. Projectiles stopped by a wall corner
+     * the steps passed by are counted apart, as the steps can go between the corner tiles.
+     *
+     * @return True if no projectile flew through a wall
+     */
+    private static boolean checkProjectileWalls() {
+        WallMask walls = new WallMask(new ChunkLoader().loadChunk("OW_0_-1"));
+        EnemyStore noEnemies = new EnemyStore();
+        Player player = new Player(-1000, -1000, new KeyHandler());
+        Random random = new Random(11);
+        int steps = 256;
+        int shots = 20000;
+        long missed = 0;
+        long stoppedEarly = 0;
+
+        for (int shot = 0; shot < shots; shot++) {
+            ProjectilePool pool = new ProjectilePool(1);
+            int startX = random.nextInt(GameRenderer.SCREENWIDTH);
+            int startY = random.nextInt(GameRenderer.SCREENHEIGHT);
+
+            if (walls.isWall(startX / GamePanel.TILESIZE, startY / GamePanel.TILESIZE)) {
+                continue;
+            }
+
+            pool.fire(ProjectilePool.OWNER_PLAYER, startX, startY, random.nextInt(201) - 100,
+                random.nextInt(201) - 100, ProjectilePool.MAX_SPEED, 0);
+
+            while (pool.size() > 0) {
+                int fromX = pool.x[0];
+                int fromY = pool.y[0];
+                int toX = fromX + pool.velocityX[0];
+                int toY = fromY + pool.velocityY[0];
+                boolean lastUpdate = pool.ticksLeft[0] == 1 || toX < 0 || toY < 0
+                    || toX / ProjectilePool.SUBPIXELS >= GameRenderer.SCREENWIDTH
+                    || toY / ProjectilePool.SUBPIXELS >= GameRenderer.SCREENHEIGHT;
+
+                // Where the flight of this update really meets a wall, in whole pixels like the pool
+                boolean crossesWall = false;
+                for (int step = 1; step <= steps && !crossesWall; step++) {
+                    int pixelX = Math.floorDiv(fromX / ProjectilePool.SUBPIXELS * steps
+                        + (toX / ProjectilePool.SUBPIXELS - fromX / ProjectilePool.SUBPIXELS) * step, steps);
+                    int pixelY = Math.floorDiv(fromY / ProjectilePool.SUBPIXELS * steps
+                        + (toY / ProjectilePool.SUBPIXELS - fromY / ProjectilePool.SUBPIXELS) * step, steps);
+                    crossesWall = walls.isWall(Math.floorDiv(pixelX, GamePanel.TILESIZE),
+                        Math.floorDiv(pixelY, GamePanel.TILESIZE));
+                }
+
+                pool.update(walls, noEnemies, player);
+
+                if (crossesWall && pool.size() > 0) {
+                    missed++;
+                    break;
+                }
+                if (!crossesWall && !lastUpdate && pool.size() == 0) {
+                    stoppedEarly++;
+                }
+            }
+        }
+
+        System.out.printf("%d fast shots: %d flew through a wall, %d stopped at a wall corner%n",
+            shots, missed, stoppedEarly);
+
+        return missed == 0;
+    }
+
+    /**
+     * Fires a projectile at full speed past an enemy, so it is too far from the enemy before
+     * and after the update in which it passes it, and checks that the enemy is hit.
+     *
+     * @return True if the enemy was hit
+     */
+    private static boolean checkProjectileHits() {
+        TileType[][] grass = new TileType[GamePanel.CHUNKHEIGHT][GamePanel.CHUNKWIDTH];
+        for (TileType[] row : grass) {
+            Arrays.fill(row, TileType.Grass);
+        }
+        WallMask walls = new WallMask(grass);
+
+        EnemyStore enemies = new EnemyStore();
+        Enemy goblin = EnemyRegistry.get("GoblinEnemy");
+        goblin.spawn(enemies, 185, 185);
+        int centreX = enemies.centreX(0);
+        int centreY = enemies.centreY(0);
+        int hpBefore = enemies.hp[0];
+
+        // Passes the centre 14 pixels away, the updates end 13 pixels before and 12 after it
+        ProjectilePool pool = new ProjectilePool(1);
+        pool.fire(ProjectilePool.OWNER_PLAYER, centreX - 38, centreY + 14, 1, 0, ProjectilePool.MAX_SPEED, 1);
+        Player player = new Player(-1000, -1000, new KeyHandler());
+
+        int updates = 0;
+        while (pool.size() > 0 && updates < 5) {
+            pool.update(walls, enemies, player);
+            updates++;
+        }
+
+        boolean hit = enemies.size() == 0 || enemies.hp[0] < hpBefore;
+        System.out.printf("shot passing an enemy between two updates: %s after %d updates%n",
+            hit ? "hit" : "MISSED", updates);
+
+        return hit;
+    }
+}
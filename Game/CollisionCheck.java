@@ -1,28 +1,49 @@
 /**
- * CollsionCheck determines if the player can move to the new location.
+ * CollsionCheck determines if an entity can move to a new location.
+ * Entities are checked as a box of a width and height at a location,
+ * so the player and enemies (which are kept in an EnemyStore) use the same checks.
+ * The walls of the chunk are read from its WallMask. Nothing is allocated.
  */
 public class CollisionCheck {
     // Number of pixels to inset the collision bounding box from left/right and top/bottom.
     // These are tuned to make the collision box more centered inside the player sprite.
     private static final int COLLISION_INSET_X = 12; // horizontal inset
     private static final int COLLISION_INSET_Y = 10; // vertical inset
+
+    // Parts a line is divided in by traceLine
+    static final int LINE_PARTS = 1024;
+
     /**
      * Checks if the player can move to the new location.
-     * 
+     *
      * @param player Player instance
      * @param newX New player x coordinate
      * @param newY New player y coordinate
-     * @param chunk Chunk of the player
+     * @param walls Walls of the chunk of the player
      * @return True if the player can move, false if not
      */
-    public boolean canMove(Player player, int newX, int newY, TileType[][] chunk) {
-        // First check if the player will go out of bounds (avoid array index errors)
-        if (checkOutOfBounds(player, newX, newY)) {
+    public boolean canMove(Player player, int newX, int newY, WallMask walls) {
+        return canMove(newX, newY, player.getWidth(), player.getHeight(), walls);
+    }
+
+    /**
+     * Checks if an entity can move to the new location.
+     *
+     * @param newX New x coordinate
+     * @param newY New y coordinate
+     * @param width Width of the entity
+     * @param height Height of the entity
+     * @param walls Walls of the chunk of the entity
+     * @return True if the entity can move, false if not
+     */
+    public boolean canMove(int newX, int newY, int width, int height, WallMask walls) {
+        // First check if the entity will go out of bounds (avoid array index errors)
+        if (checkOutOfBounds(newX, newY, width, height)) {
             return false;
         }
 
-        // Then check if the player's bounding box would overlap any wall tiles
-        if (checkForWalls(player, newX, newY, chunk)) {
+        // Then check if the entity's bounding box would overlap any wall tiles
+        if (checkForWalls(newX, newY, width, height, walls)) {
             return false;
         }
 
@@ -31,80 +52,254 @@ public class CollisionCheck {
     }
 
     /**
-     * Checks if the new location is a wall tile.
-     * 
-     * @param player Player instance
-     * @param newX New player x coordinate
-     * @param newY New player y coordinate
-     * @param chunk Chunk of the player
-     * @return True if the new location is a wall tile, false if not
+     * Moves an entity along the X axis as far as it can go, up to a distance.
+     * Every column of tiles the entity passes is checked, so fast entities don't skip walls.
+     *
+     * @param x Current x coordinate
+     * @param y Current y coordinate
+     * @param width Width of the entity
+     * @param height Height of the entity
+     * @param distance Number of pixels to move, negative to move to the left
+     * @param walls Walls of the chunk of the entity
+     * @return The x coordinate after moving
      */
-    private boolean checkForWalls(Player player, int newX, int newY, TileType[][] chunk) {
-        // If chunk is null, treat as blocked
-        if (chunk == null) return true;
-
-        // Compute player's bounding box after moving, inset to allow slight overlap for smoother movement
-        int left = newX + COLLISION_INSET_X;
-        int top = newY + COLLISION_INSET_Y;
-        int right = newX + player.getWidth() - 1 - COLLISION_INSET_X;
-        int bottom = newY + player.getHeight() - 1 - COLLISION_INSET_Y;
-
-        // If inset is larger than half the size, fall back to full box
-        if (right < left) {
-            left = newX;
-            right = newX + player.getWidth() - 1;
+    public int sweepX(int x, int y, int width, int height, int distance, WallMask walls) {
+        // Rows of tiles the bounding box overlaps
+        int top = (y + insetTop(height)) / GamePanel.TILESIZE;
+        int bottom = (y + insetBottom(height)) / GamePanel.TILESIZE;
+
+        if (distance > 0) {
+            // Stop at the right border of the chunk
+            int newX = Math.max(x, Math.min(x + distance, GameRenderer.SCREENWIDTH - width));
+
+            int right = insetRight(width);
+            for (int column = (x + right) / GamePanel.TILESIZE + 1;
+                column <= (newX + right) / GamePanel.TILESIZE; column++) {
+
+                if (walls.anyWall(column, top, column, bottom)) {
+                    // Stop right before the wall
+                    return column * GamePanel.TILESIZE - 1 - right;
+                }
+            }
+
+            return newX;
         }
-        if (bottom < top) {
-            top = newY;
-            bottom = newY + player.getHeight() - 1;
+
+        if (distance < 0) {
+            // Stop at the left border of the chunk
+            int newX = Math.min(x, Math.max(x + distance, 0));
+
+            int left = insetLeft(width);
+            for (int column = (x + left) / GamePanel.TILESIZE - 1;
+                column >= (newX + left) / GamePanel.TILESIZE; column--) {
+
+                if (walls.anyWall(column, top, column, bottom)) {
+                    // Stop right after the wall
+                    return (column + 1) * GamePanel.TILESIZE - left;
+                }
+            }
+
+            return newX;
         }
 
-        // Convert pixel bounds to tile indices
-        int tileLeft = left / GamePanel.TILESIZE;
-        int tileTop = top / GamePanel.TILESIZE;
-        int tileRight = right / GamePanel.TILESIZE;
-        int tileBottom = bottom / GamePanel.TILESIZE;
-
-        // Clamp tile indices to chunk bounds to be safe
-        tileLeft = Math.max(0, tileLeft);
-        tileTop = Math.max(0, tileTop);
-        tileRight = Math.min(GamePanel.CHUNKWIDTH - 1, tileRight);
-        tileBottom = Math.min(GamePanel.CHUNKHEIGHT - 1, tileBottom);
-
-        // Check every tile overlapped by the player's bounding box
-        for (int ty = tileTop; ty <= tileBottom; ty++) {
-            for (int tx = tileLeft; tx <= tileRight; tx++) {
-                TileType t = chunk[ty][tx];
-                if (t != null && t.isWall) {
-                    return true;
+        return x;
+    }
+
+    /**
+     * Moves an entity along the Y axis as far as it can go, up to a distance.
+     * Every row of tiles the entity passes is checked, so fast entities don't skip walls.
+     *
+     * @param x Current x coordinate
+     * @param y Current y coordinate
+     * @param width Width of the entity
+     * @param height Height of the entity
+     * @param distance Number of pixels to move, negative to move up
+     * @param walls Walls of the chunk of the entity
+     * @return The y coordinate after moving
+     */
+    public int sweepY(int x, int y, int width, int height, int distance, WallMask walls) {
+        // Columns of tiles the bounding box overlaps
+        int left = (x + insetLeft(width)) / GamePanel.TILESIZE;
+        int right = (x + insetRight(width)) / GamePanel.TILESIZE;
+
+        if (distance > 0) {
+            // Stop at the bottom border of the chunk
+            int newY = Math.max(y, Math.min(y + distance, GameRenderer.SCREENHEIGHT - height));
+
+            int bottom = insetBottom(height);
+            for (int row = (y + bottom) / GamePanel.TILESIZE + 1;
+                row <= (newY + bottom) / GamePanel.TILESIZE; row++) {
+
+                if (walls.anyWall(left, row, right, row)) {
+                    // Stop right above the wall
+                    return row * GamePanel.TILESIZE - 1 - bottom;
                 }
             }
+
+            return newY;
         }
 
-        return false;
+        if (distance < 0) {
+            // Stop at the top border of the chunk
+            int newY = Math.min(y, Math.max(y + distance, 0));
+
+            int top = insetTop(height);
+            for (int row = (y + top) / GamePanel.TILESIZE - 1;
+                row >= (newY + top) / GamePanel.TILESIZE; row--) {
+
+                if (walls.anyWall(left, row, right, row)) {
+                    // Stop right beneath the wall
+                    return (row + 1) * GamePanel.TILESIZE - top;
+                }
+            }
+
+            return newY;
+        }
+
+        return y;
     }
 
     /**
-     * Checks if a player goes out of bounds when moving.
-     * 
-     * @param player Player instance
-     * @param newX New player x coordinate
-     * @param newY New player y coordinate
-     * @return True if the player goes out of bounds, false if not
+     * Follows a line from one point to another over every tile it crosses, in the order it
+     * crosses them, like sweepX and sweepY do for boxes, so a line can't skip a wall or cut
+     * through the corner of one. A line through the exact corner of two tiles is blocked if
+     * either of them is a wall.
+     *
+     * @param x0 The X coordinate of the start in pixels
+     * @param y0 The Y coordinate of the start in pixels
+     * @param x1 The X coordinate of the end in pixels
+     * @param y1 The Y coordinate of the end in pixels
+     * @param walls Walls of the chunk
+     * @return How much of the line lies before the first wall, from 0 to LINE_PARTS - 1.
+     *     LINE_PARTS if the line crosses no wall
      */
-    private boolean checkOutOfBounds(Player player, int newX, int newY) {
+    public int traceLine(int x0, int y0, int x1, int y1, WallMask walls) {
+        int column = Math.floorDiv(x0, GamePanel.TILESIZE);
+        int row = Math.floorDiv(y0, GamePanel.TILESIZE);
+        int endColumn = Math.floorDiv(x1, GamePanel.TILESIZE);
+        int endRow = Math.floorDiv(y1, GamePanel.TILESIZE);
+
+        if (walls.isWall(column, row)) {
+            return 0;
+        }
+
+        long lengthX = Math.abs((long) x1 - x0);
+        long lengthY = Math.abs((long) y1 - y0);
+        int stepX = Integer.signum(x1 - x0);
+        int stepY = Integer.signum(y1 - y0);
+
+        while (column != endColumn || row != endRow) {
+            // Pixels to go along each axis until the line enters the next column or row
+            long toColumn = stepX > 0 ? (long) (column + 1) * GamePanel.TILESIZE - x0
+                : stepX < 0 ? x0 - (long) column * GamePanel.TILESIZE : Long.MAX_VALUE;
+            long toRow = stepY > 0 ? (long) (row + 1) * GamePanel.TILESIZE - y0
+                : stepY < 0 ? y0 - (long) row * GamePanel.TILESIZE : Long.MAX_VALUE;
+
+            // Compare toColumn / lengthX with toRow / lengthY without dividing
+            long columnFirst = stepY == 0 ? -1 : stepX == 0 ? 1 : toColumn * lengthY - toRow * lengthX;
+
+            // A line that ends on the corner only enters the tile it ends in
+            if (row == endRow) {
+                columnFirst = -1;
+            } else if (column == endColumn) {
+                columnFirst = 1;
+            }
+            int parts;
+
+            if (columnFirst < 0) {
+                column += stepX;
+                parts = (int) (LINE_PARTS * toColumn / lengthX);
+            } else if (columnFirst > 0) {
+                row += stepY;
+                parts = (int) (LINE_PARTS * toRow / lengthY);
+            } else {
+                // Through the corner, so both tiles next to it are touched
+                parts = (int) (LINE_PARTS * toColumn / lengthX);
+                if (walls.isWall(column + stepX, row) || walls.isWall(column, row + stepY)) {
+                    return Math.min(LINE_PARTS - 1, parts);
+                }
+                column += stepX;
+                row += stepY;
+            }
+
+            if (walls.isWall(column, row)) {
+                return Math.min(LINE_PARTS - 1, parts);
+            }
+        }
+
+        return LINE_PARTS;
+    }
+
+    /**
+     * Checks if the new location is a wall tile.
+     *
+     * @param newX New x coordinate
+     * @param newY New y coordinate
+     * @param width Width of the entity
+     * @param height Height of the entity
+     * @param walls Walls of the chunk of the entity
+     * @return True if the new location is a wall tile, false if not
+     */
+    private boolean checkForWalls(int newX, int newY, int width, int height, WallMask walls) {
+        // If there are no walls loaded, treat as blocked
+        if (walls == null) return true;
+
+        // Compute the bounding box after moving, inset to allow slight overlap for smoother movement
+        // and convert pixel bounds to tile indices
+        int tileLeft = (newX + insetLeft(width)) / GamePanel.TILESIZE;
+        int tileTop = (newY + insetTop(height)) / GamePanel.TILESIZE;
+        int tileRight = (newX + insetRight(width)) / GamePanel.TILESIZE;
+        int tileBottom = (newY + insetBottom(height)) / GamePanel.TILESIZE;
+
+        // Check every tile overlapped by the bounding box
+        return walls.anyWall(tileLeft, tileTop, tileRight, tileBottom);
+    }
+
+    /**
+     * Checks if an entity goes out of bounds when moving.
+     *
+     * @param newX New x coordinate
+     * @param newY New y coordinate
+     * @param width Width of the entity
+     * @param height Height of the entity
+     * @return True if the entity goes out of bounds, false if not
+     */
+    private boolean checkOutOfBounds(int newX, int newY, int width, int height) {
         if (newX < 0) {
             return true;
-        } else if (newX + player.getWidth() > GameRenderer.SCREENWIDTH) {
+        } else if (newX + width > GameRenderer.SCREENWIDTH) {
             return true;
         }
 
         if (newY < 0) {
             return true;
-        } else if (newY + player.getHeight() > GameRenderer.SCREENHEIGHT) {
+        } else if (newY + height > GameRenderer.SCREENHEIGHT) {
             return true;
         }
 
         return false;
     }
+
+    /*
+     * Offsets of the edges of the bounding box from the x and y of an entity.
+     * If the inset is larger than half the size, fall back to the full box.
+     */
+
+    int insetLeft(int width) {
+        return width - 1 - COLLISION_INSET_X < COLLISION_INSET_X ? 0 : COLLISION_INSET_X;
+    }
+
+    int insetRight(int width) {
+        return width - 1 - COLLISION_INSET_X < COLLISION_INSET_X
+            ? width - 1 : width - 1 - COLLISION_INSET_X;
+    }
+
+    int insetTop(int height) {
+        return height - 1 - COLLISION_INSET_Y < COLLISION_INSET_Y ? 0 : COLLISION_INSET_Y;
+    }
+
+    int insetBottom(int height) {
+        return height - 1 - COLLISION_INSET_Y < COLLISION_INSET_Y
+            ? height - 1 : height - 1 - COLLISION_INSET_Y;
+    }
 }
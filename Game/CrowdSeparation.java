@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/**
+ * Pushes overlapping enemies apart so they don't stack on top of each other.
+ * Overlapping pairs are found with sort-and-sweep: the enemies are sorted on the left edge
+ * of their collision box, after which every enemy only has to be compared with the enemies
+ * after it whose left edge is before its right edge. This finds every overlapping pair in
+ * O(n + k) after sorting, with k the number of pairs that overlap on X. The boxes are the
+ * inset boxes CollisionCheck uses. The pushes are put in the separation columns of the EnemyStore
+ * and added to the movement of the enemies in Enemy.decideMove.
+ * Only enemies that think during the update move, so pairs of which neither enemy thinks
+ * are skipped.
+ */
+class CrowdSeparation {
+    // Maximum number of pixels an enemy is pushed in one update in each direction
+    private static final int MAX_PUSH = 2;
+
+    // Indices of the enemies sorted on the left edge of their box
+    private int[] order = new int[0];
+
+    // Edges of the box of each enemy, by index
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] top = new int[0];
+    private int[] bottom = new int[0];
+
+    // Edges of the boxes in sorted order, so the sweep reads them one after the other
+    private int[] sortedLeft = new int[0];
+    private int[] sortedTop = new int[0];
+    private int[] sortedBottom = new int[0];
+
+    // Number of enemies per left edge, used for sorting. Boxes are inside the chunk
+    private final int[] counts = new int[GameRenderer.SCREENWIDTH + 2];
+
+    /**
+     * Calculates how far every enemy in a store is pushed by the enemies overlapping it.
+     *
+     * @param enemies The store with the enemies
+     * @param collisionChecker The collision check of which the boxes are used
+     */
+    public void separate(EnemyStore enemies, CollisionCheck collisionChecker) {
+        int size = enemies.size;
+
+        Arrays.fill(enemies.separationX, 0, size, 0);
+        Arrays.fill(enemies.separationY, 0, size, 0);
+
+        sortBoxes(enemies, collisionChecker);
+
+        // Sweep over the enemies from left to right
+        for (int p = 0; p < size; p++) {
+            int a = order[p];
+            int rightA = right[a];
+            int topA = top[a];
+            int bottomA = bottom[a];
+
+            // The boxes of the enemies after q start even further to the right
+            for (int q = p + 1; q < size && sortedLeft[q] <= rightA; q++) {
+                // The boxes overlap on X, check if they overlap on Y as well
+                if (sortedTop[q] > bottomA || topA > sortedBottom[q]) {
+                    continue;
+                }
+
+                int b = order[q];
+
+                // Neither enemy moves this update, so the push would not be used
+                if (enemies.thinkElapsed[a] == 0 && enemies.thinkElapsed[b] == 0) {
+                    continue;
+                }
+
+                push(enemies, a, b);
+            }
+        }
+
+        // Limit the total push so crowded enemies don't jump around
+        for (int i = 0; i < size; i++) {
+            enemies.separationX[i] = Math.max(-MAX_PUSH, Math.min(MAX_PUSH, enemies.separationX[i]));
+            enemies.separationY[i] = Math.max(-MAX_PUSH, Math.min(MAX_PUSH, enemies.separationY[i]));
+        }
+    }
+
+    /**
+     * Counts the overlapping pairs the sweep of separate finds, whether the enemies think or not.
+     * Used to check that the sweep misses no pair, see countOverlaps.
+     *
+     * @param enemies The store with the enemies
+     * @param collisionChecker The collision check of which the boxes are used
+     * @return The number of overlapping pairs
+     */
+    public long countSweptOverlaps(EnemyStore enemies, CollisionCheck collisionChecker) {
+        int size = enemies.size;
+        long overlaps = 0;
+
+        sortBoxes(enemies, collisionChecker);
+
+        for (int p = 0; p < size; p++) {
+            int a = order[p];
+
+            for (int q = p + 1; q < size && sortedLeft[q] <= right[a]; q++) {
+                if (sortedTop[q] <= bottom[a] && top[a] <= sortedBottom[q]) {
+                    overlaps++;
+                }
+            }
+        }
+
+        return overlaps;
+    }
+
+    /**
+     * Calculates the box of every enemy and sorts the enemies on the left edge of their box.
+     *
+     * @param enemies The store with the enemies
+     * @param collisionChecker The collision check of which the boxes are used
+     */
+    private void sortBoxes(EnemyStore enemies, CollisionCheck collisionChecker) {
+        int size = enemies.size;
+
+        if (order.length < enemies.capacity()) {
+            int capacity = enemies.capacity();
+            order = new int[capacity];
+            left = new int[capacity];
+            right = new int[capacity];
+            top = new int[capacity];
+            bottom = new int[capacity];
+            sortedLeft = new int[capacity];
+            sortedTop = new int[capacity];
+            sortedBottom = new int[capacity];
+        }
+
+        for (int i = 0; i < size; i++) {
+            Enemy type = Enemy.getType(enemies.typeId[i]);
+
+            left[i] = enemies.x[i] + collisionChecker.insetLeft(type.getWidth());
+            right[i] = enemies.x[i] + collisionChecker.insetRight(type.getWidth());
+            top[i] = enemies.y[i] + collisionChecker.insetTop(type.getHeight());
+            bottom[i] = enemies.y[i] + collisionChecker.insetBottom(type.getHeight());
+        }
+
+        sortOnLeftEdge(size);
+
+        for (int p = 0; p < size; p++) {
+            int i = order[p];
+            sortedLeft[p] = left[i];
+            sortedTop[p] = top[i];
+            sortedBottom[p] = bottom[i];
+        }
+    }
+
+    /**
+     * Counts the pairs of enemies of which the boxes overlap by checking every pair.
+     * Slow, only used to check the separation works.
+     *
+     * @param enemies The store with the enemies
+     * @param collisionChecker The collision check of which the boxes are used
+     * @return The number of overlapping pairs
+     */
+    public static long countOverlaps(EnemyStore enemies, CollisionCheck collisionChecker) {
+        long overlaps = 0;
+
+        for (int a = 0; a < enemies.size; a++) {
+            Enemy typeA = Enemy.getType(enemies.typeId[a]);
+
+            for (int b = a + 1; b < enemies.size; b++) {
+                Enemy typeB = Enemy.getType(enemies.typeId[b]);
+
+                if (enemies.x[a] + collisionChecker.insetLeft(typeA.getWidth())
+                        <= enemies.x[b] + collisionChecker.insetRight(typeB.getWidth())
+                    && enemies.x[b] + collisionChecker.insetLeft(typeB.getWidth())
+                        <= enemies.x[a] + collisionChecker.insetRight(typeA.getWidth())
+                    && enemies.y[a] + collisionChecker.insetTop(typeA.getHeight())
+                        <= enemies.y[b] + collisionChecker.insetBottom(typeB.getHeight())
+                    && enemies.y[b] + collisionChecker.insetTop(typeB.getHeight())
+                        <= enemies.y[a] + collisionChecker.insetBottom(typeA.getHeight())) {
+                    overlaps++;
+                }
+            }
+        }
+
+        return overlaps;
+    }
+
+    /**
+     * Sorts the enemies on the left edge of their box with a counting sort.
+     * Enemies with the same left edge stay in index order, so the result is always the same.
+     *
+     * @param size The number of enemies
+     */
+    private void sortOnLeftEdge(int size) {
+        Arrays.fill(counts, 0);
+
+        for (int i = 0; i < size; i++) {
+            counts[sortKey(i) + 1]++;
+        }
+
+        // Turn the counts into the position of the first enemy with each left edge
+        for (int key = 1; key < counts.length; key++) {
+            counts[key] += counts[key - 1];
+        }
+
+        for (int i = 0; i < size; i++) {
+            int key = sortKey(i);
+            order[counts[key]] = i;
+            counts[key]++;
+        }
+    }
+
+    /**
+     * Gets the left edge of the box of an enemy, kept within the chunk.
+     *
+     * @param i The index of the enemy
+     * @return The left edge
+     */
+    private int sortKey(int i) {
+        return Math.max(0, Math.min(GameRenderer.SCREENWIDTH, left[i]));
+    }
+
+    /**
+     * Pushes two overlapping enemies apart along the axis on which they overlap the least.
+     *
+     * @param enemies The store with the enemies
+     * @param a The index of the first enemy
+     * @param b The index of the second enemy
+     */
+    private void push(EnemyStore enemies, int a, int b) {
+        int overlapX = Math.min(right[a], right[b]) - Math.max(left[a], left[b]) + 1;
+        int overlapY = Math.min(bottom[a], bottom[b]) - Math.max(top[a], top[b]) + 1;
+
+        if (overlapX <= overlapY) {
+            // Push the enemy on the left further to the left. If they are on the same spot,
+            // push the enemy with the lowest index to the left
+            int direction = Integer.signum((left[b] + right[b]) - (left[a] + right[a]));
+            if (direction == 0) {
+                direction = a < b ? 1 : -1;
+            }
+
+            int amount = Math.min(MAX_PUSH, (overlapX + 1) / 2);
+            enemies.separationX[a] -= direction * amount;
+            enemies.separationX[b] += direction * amount;
+        } else {
+            int direction = Integer.signum((top[b] + bottom[b]) - (top[a] + bottom[a]));
+            if (direction == 0) {
+                direction = a < b ? 1 : -1;
+            }
+
+            int amount = Math.min(MAX_PUSH, (overlapY + 1) / 2);
+            enemies.separationY[a] -= direction * amount;
+            enemies.separationY[b] += direction * amount;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+class ArcherEnemy extends Enemy {
+    public ArcherEnemy(EnemyStats stats) {
+        super(stats);
+    }
+}
\ No newline at end of file
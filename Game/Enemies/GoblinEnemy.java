@@ -1,5 +1,5 @@
 class GoblinEnemy extends Enemy {
-    public GoblinEnemy(int x, int y) {
-        super(x, y, 15, 3, 25, 1);
+    public GoblinEnemy(EnemyStats stats) {
+        super(stats);
     }
 }
\ No newline at end of file
@@ -1,5 +1,5 @@
 class SwordEnemy extends Enemy {
-    public SwordEnemy(int x, int y) {
-        super(x, y, 10, 2, 30, 2);
+    public SwordEnemy(EnemyStats stats) {
+        super(stats);
     }
 }
\ No newline at end of file
@@ -1,170 +1,357 @@
-import java.awt.Point;
-import java.util.LinkedList;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * The Enemy class. Supports multiple different enemy types.
+ * One instance exists per enemy type and holds the stats, sprites and behaviour of that type.
+ * The state of the individual enemies is kept in an EnemyStore.
  */
-abstract class Enemy extends Entity {
-    // Distance of enemy to player
-    private double distanceToPlayer;
+abstract class Enemy {
+    // Number of updates an enemy has to wait after attacking before it can attack again
+    static final int ATTACK_COOLDOWN = 60;
 
-    private int attackCooldown = 0;
+    // Every enemy type that has been created, indexed by type id
+    private static final ArrayList<Enemy> types = new ArrayList<Enemy>();
 
-    // The path the enemy has to take to reach the player
-    private LinkedList<Node> path; 
+    // The largest attack range of all enemy types
+    private static volatile int maxAttackRange = 0;
+
+    private final int typeId;
+
+    // Class name of the type, which is how chunk files, the stats file and snapshots refer to it
+    private final String name;
+
+    // Starting Hit Points of an enemy of this type
+    private final int hp;
+
+    // The damage the enemy deals with an attack
+    private final int damage;
+
+    // The maximum amount of distance to the player to be able to attack
+    private final int attackRange;
 
     // Maximum movement speed
-    private int maxVelocity;
+    private final int maxVelocity;
+
+    // Speed of the projectiles the enemy fires, 0 if the enemy attacks in melee
+    private final int projectileSpeed;
+
+    // Sprites of the type, indexed by EnemyStore sprite state
+    private final BufferedImage[] images = new BufferedImage[3];
+
+    // Height and width of an enemy of this type
+    private final int width;
+    private final int height;
+
+    private final CollisionCheck collisionChecker = new CollisionCheck();
+
+    /**
+     * Initiates an enemy type and loads in the images of the type.
+     * Types are created by EnemyRegistry with the stats from the stats file.
+     *
+     * @param stats The stats of the type
+     */
+    public Enemy(EnemyStats stats) {
+        this.hp = stats.hp;
+        this.damage = stats.damage;
+        this.attackRange = stats.attackRange;
+        this.maxVelocity = stats.maxVelocity;
+        this.projectileSpeed = stats.projectileSpeed;
+
+        this.name = this.getClass().getSimpleName();
+
+        // Load sprite images
+        replaceImages(Entity.getEntityImages(name));
+
+        this.width = images[EnemyStore.SPRITE_IDLE].getWidth();
+        this.height = images[EnemyStore.SPRITE_IDLE].getHeight();
+
+        synchronized (types) {
+            this.typeId = types.size();
+            types.add(this);
+            maxAttackRange = Math.max(maxAttackRange, attackRange);
+        }
+    }
+
+    /**
+     * Gets an enemy type by its id.
+     *
+     * @param typeId The id of the type
+     * @return The enemy type
+     */
+    public static Enemy getType(int typeId) {
+        return types.get(typeId);
+    }
+
+    public static int getMaxAttackRange() {
+        return maxAttackRange;
+    }
+
+    public int getTypeId() {
+        return typeId;
+    }
+
+    public int getHP() {
+        return hp;
+    }
+
+    public int getDamage() {
+        return damage;
+    }
+
+    public int getAttackRange() {
+        return attackRange;
+    }
+
+    public int getMaxVelocity() {
+        return maxVelocity;
+    }
+
+    public int getProjectileSpeed() {
+        return projectileSpeed;
+    }
+
+    public boolean isRanged() {
+        return projectileSpeed > 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of enemy types that have been created.
+     *
+     * @return The number of types, type ids are below this number
+     */
+    public static int getTypeCount() {
+        synchronized (types) {
+            return types.size();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the image of an enemy of this type.
+     *
+     * @param sprite The sprite state of the enemy
+     * @return The image to draw
+     */
+    public BufferedImage getImage(byte sprite) {
+        return images[sprite];
+    }
+
+    /**
+     * Replaces the sprites of the type, e.g. when its sprite files were changed.
+     * The size of the enemies stays the same.
+     *
+     * @param cachedImages The images by name, with at least an idle image
+     */
+    void replaceImages(Map<String, BufferedImage> cachedImages) {
+        BufferedImage idle = cachedImages.get("idle");
+        images[EnemyStore.SPRITE_IDLE] = idle;
+        images[EnemyStore.SPRITE_ATTACKING] = cachedImages.getOrDefault("attacking", idle);
+        images[EnemyStore.SPRITE_DAMAGED] = cachedImages.getOrDefault("damaged", idle);
+    }
 
     /**
-     * Initiate an enemy and loads in the image of the enemy.
+     * Adds an enemy of this type to a store.
+     *
+     * @param enemies The store to add the enemy to
      * @param x x coordinate of the enemy
      * @param y y coordinate of the enemy
+     * @return The index of the new enemy
      */
-    public Enemy(int x, int y, int hp, int damage, int attackRange, int maxVelocity) {
-        super(x, y, hp, damage, attackRange);
-
-        this.maxVelocity = maxVelocity;
+    public int spawn(EnemyStore enemies, int x, int y) {
+        return enemies.add(typeId, x, y, hp);
     }
 
     /**
      * Makes an enemy attack.
-     * 
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
+     * @param distanceSquared The squared distance of the centre of the enemy to the player
+     * @param tick The number of the current update
      * @return True if the attack was succesful, false if not.
      */
-    public boolean attack() {
-        if (attackCooldown > 0) {
-            attackCooldown--;
+    public boolean attack(EnemyStore enemies, int i, long distanceSquared, long tick) {
+        if (tick < enemies.attackReadyTick[i]) {
             return false;
         }
 
         // If the player is not in range for the enemy to 'reach' the player, return
-        if (this.distanceToPlayer > this.getAttackRange()) {
+        if (distanceSquared > (long) attackRange * attackRange) {
             return false;
         }
-        
-        attackCooldown = 60;
 
-        this.switchSprite("attacking", attackCooldown);
+        // The enemy is unable to attack for the next ATTACK_COOLDOWN updates
+        enemies.attackReadyTick[i] = tick + ATTACK_COOLDOWN + 1;
 
-        return true;
-    }
+        switchSprite(enemies, i, EnemyStore.SPRITE_ATTACKING, ATTACK_COOLDOWN);
 
-    public double getDistanceToPlayer() {
-        return distanceToPlayer;
+        return true;
     }
 
     /**
-     * Calculates distance of the player to the enemy.
-     * 
-     * @param playerCentreX The X coordinate of the centre of the player
-     * @param playerCentreY The Y coordinate of the centre of the player
+     * Makes an enemy take damage.
+     * If the attack was powerful enough to kill the enemy, returns true. Returns false otherwise.
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
+     * @param damageTaken The amount of damage the attack dealt
+     * @return true if the attack was powerful enough to kill the enemy, else false
      */
-    public void calculateDistancePlayer(int playerCentreX, int playerCentreY) {
-        // Calculates the distance from the centre of the enemy to the centre of the player
-        this.distanceToPlayer = Math.sqrt(
-            Math.pow(playerCentreX - (this.getCentreX()), 2)
-            + Math.pow(playerCentreY - (this.getCentreY()), 2)
-            );
-    }
+    public boolean takeDamage(EnemyStore enemies, int i, int damageTaken) {
+        // Switch to damaged sprite for 30 updates
+        switchSprite(enemies, i, EnemyStore.SPRITE_DAMAGED, 30);
 
-    /**
-     * Sets the path to the player.
-     * 
-     * @param path LinkedList of Node with path to player
-     */
-    public void setPath(LinkedList<Node> path) {
-        this.path = path;
+        // Decrease hp. HP minimum is 0
+        enemies.hp[i] = Math.max(0, enemies.hp[i] - damageTaken);
+
+        // Save the new HP, so killed enemies stay dead when the game is started again
+        if (enemies.journal != null && enemies.spawnId[i] != 0) {
+            enemies.journal.recordEnemyHp(enemies.spawnId[i], enemies.hp[i]);
+        }
+
+        return enemies.hp[i] <= 0;
     }
 
     /**
-     * Moves to the player using the calculated path.
-     * 
+     * Decides where an enemy moves this update using its calculated path.
+     * Sets the velocity of the enemy and puts its new position in nextX and nextY.
+     * Only changes the state of this enemy, so enemies can decide at the same time.
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
      * @param player Player instance
+     * @param walls The walls of the chunk the enemy is in
+     * @param elapsed The number of updates since the enemy last moved, see AiScheduler
      */
-    public void moveToPlayer(Player player) {
-        // Get own tile
-        Point selfTile = this.getTile();
-
-        // The x and y the enemy should move to
-        int targetX;
-        int targetY;
+    public void decideMove(EnemyStore enemies, int i, Player player, WallMask walls, int elapsed) {
+        // Determine where to move to. The target is put in nextX and nextY
+        setMovementTarget(enemies, i, player);
 
-        // The velocity of the enemy after determining where to move
-        int newVelocityX;
-        int newVelocityY;
+        moveTowards(enemies, i, enemies.nextX[i], enemies.nextY[i],
+            enemies.separationX[i], enemies.separationY[i], walls, elapsed);
+    }
 
-        // Determine where to move to
-        Point target = getMovementTarget(player, selfTile);
+    /**
+     * Decides where an enemy moves this update to get closer to a target.
+     * Sets the velocity of the enemy and puts its new position in nextX and nextY.
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
+     * @param targetX The X coordinate to move the enemy to
+     * @param targetY The Y coordinate to move the enemy to
+     * @param pushX Extra movement along X, e.g. away from overlapping enemies
+     * @param pushY Extra movement along Y
+     * @param walls The walls of the chunk the enemy is in
+     * @param elapsed The number of updates since the enemy last moved
+     */
+    public void moveTowards(EnemyStore enemies, int i, int targetX, int targetY,
+        int pushX, int pushY, WallMask walls, int elapsed) {
 
-        targetX = (int) target.getX();
-        targetY = (int) target.getY();
+        int x = enemies.x[i];
+        int y = enemies.y[i];
 
-        /* Check if enemy is on the left or on the right of the target 
-         * and set X velocity accordingly */
-        if (this.getX() < target.getX()) {
-            /* The enemy should not move further than the current target
-             * therefore cap the velocity at either the maximum enemy speed 
-             * or the distance left between the target and the enemy */
-            newVelocityX = Math.min(targetX - this.getX(), maxVelocity);
+        // Move as far as the enemy could have moved in the updates since it last moved
+        int maxDistance = maxVelocity * elapsed;
 
+        /* Check if enemy is on the left or on the right of the target
+         * and set X velocity accordingly.
+         * The enemy should not move further than the current target
+         * therefore cap the velocity at either the maximum enemy speed
+         * or the distance left between the target and the enemy */
+        if (x < targetX) {
+            enemies.velocityX[i] = Math.min(targetX - x, maxDistance);
         } else {
-            newVelocityX = Math.max(targetX - this.getX(), -maxVelocity);
+            enemies.velocityX[i] = Math.max(targetX - x, -maxDistance);
         }
-        this.setVelocityX(newVelocityX);
 
         // Check if enemy is above or below of the target and set Y velocity accordingly
-        if (this.getY() < targetY) {
-            newVelocityY = Math.min(targetY - this.getY(), maxVelocity);
-            
+        if (y < targetY) {
+            enemies.velocityY[i] = Math.min(targetY - y, maxDistance);
         } else {
-            newVelocityY = Math.max(targetY - this.getY(), -maxVelocity);
+            enemies.velocityY[i] = Math.max(targetY - y, -maxDistance);
         }
-        this.setVelocityY(newVelocityY);
 
-        // Set new X and Y
-        this.setX(this.getVelocityX() + this.getX());
-        this.setY(this.getVelocityY() + this.getY());
+        // Add the push, e.g. away from overlapping enemies
+        enemies.velocityX[i] += pushX;
+        enemies.velocityY[i] += pushY;
+
+        // Set new X and Y, moving along each axis separately so the enemy slides along walls
+        enemies.nextX[i] = collisionChecker.sweepX(x, y, width, height, enemies.velocityX[i], walls);
+        enemies.nextY[i] = collisionChecker.sweepY(
+            enemies.nextX[i], y, width, height, enemies.velocityY[i], walls);
     }
 
     /**
-     * Determines where to enemy should move to.
-     * 
+     * Counts down the sprite timer of an enemy and switches back to idle once it runs out.
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
+     * @param elapsed The number of updates since the timer was last counted down
+     */
+    public void updateSprite(EnemyStore enemies, int i, int elapsed) {
+        if (enemies.spriteTimer[i] > 0) {
+            enemies.spriteTimer[i] = Math.max(0, enemies.spriteTimer[i] - elapsed);
+
+            if (enemies.spriteTimer[i] == 0) {
+                enemies.sprite[i] = EnemyStore.SPRITE_IDLE;
+            }
+        }
+    }
+
+    /**
+     * Determines where to enemy should move to and puts it in nextX and nextY.
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
      * @param player Player instance
-     * @param selfTile The tile the enemy is on
-     * @return Point with x and y coordinates of where to move to
      */
-    private Point getMovementTarget(Player player, Point selfTile) {
-        // Get the player tile
-        Point playerTile = player.getCentreTile();
-        
+    private void setMovementTarget(EnemyStore enemies, int i, Player player) {
         // Check if enemy is in the player's tile
-        if (selfTile.getX() == playerTile.getX() && selfTile.getY() == playerTile.getY()) {
-            return new Point(player.getX(), player.getY());
+        if (enemies.x[i] / GamePanel.TILESIZE == player.getCentreTileX()
+            && enemies.y[i] / GamePanel.TILESIZE == player.getCentreTileY()) {
+            enemies.nextX[i] = player.getX();
+            enemies.nextY[i] = player.getY();
+            return;
         }
 
-        /* If the enemy reached the player tile (and it was thus reached) 
+        /* If the enemy reached the player tile (and it was thus reached)
          * before a new calculation occured */
-        if (path.size() == 0) { 
+        if (enemies.pathCursor[i] == enemies.pathLength[i]) {
             // Stop moving as we can't be sure of the path anymore (fail-safe)
-            return new Point(this.getX(), this.getY());
+            enemies.nextX[i] = enemies.x[i];
+            enemies.nextY[i] = enemies.y[i];
+            return;
         }
-        
-        Node targetNode = path.getFirst();
-        
-        int targetX = targetNode.getColumn() * GamePanel.TILESIZE;
-        int targetY = targetNode.getRow() * GamePanel.TILESIZE;
+
+        int offset = i * EnemyStore.MAX_PATH;
+        int targetTile = enemies.pathTiles[offset + enemies.pathCursor[i]];
+
+        int targetX = targetTile % GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+        int targetY = targetTile / GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
 
         // Check if enemy has reached the target during last move
-        if (targetX == this.getX() && targetY == this.getY()) {
+        if (targetX == enemies.x[i] && targetY == enemies.y[i]) {
             // Remove tile from path
-            path.removeFirst();
+            enemies.pathCursor[i]++;
 
-            if (path.size() > 0) {
+            if (enemies.pathCursor[i] < enemies.pathLength[i]) {
                 // Get new target x and y
-                targetNode = path.getFirst();
-                targetX = targetNode.getColumn() * GamePanel.TILESIZE;
-                targetY = targetNode.getRow() * GamePanel.TILESIZE;
+                targetTile = enemies.pathTiles[offset + enemies.pathCursor[i]];
+                targetX = targetTile % GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+                targetY = targetTile / GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
 
             // Player tile reached
             } else {
@@ -173,6 +360,23 @@ abstract class Enemy extends Entity {
             }
         }
 
-        return new Point(targetX, targetY);
+        enemies.nextX[i] = targetX;
+        enemies.nextY[i] = targetY;
+    }
+
+    /**
+     * Switches the sprite of an enemy for a number of updates.
+     * Does nothing if the sprite is already being switched.
+     *
+     * @param enemies The store with the enemy
+     * @param i The index of the enemy
+     * @param newSprite The sprite state to switch to
+     * @param duration The number of updates the sprite should be shown
+     */
+    private void switchSprite(EnemyStore enemies, int i, byte newSprite, int duration) {
+        if (enemies.spriteTimer[i] == 0) {
+            enemies.sprite[i] = newSprite;
+            enemies.spriteTimer[i] = duration;
+        }
     }
-}
\ No newline at end of file
+}
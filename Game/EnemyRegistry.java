@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.function.Function;
+
+/**
+ * The registry of enemy types. Every enemy type registers a factory under its name, and the
+ * stats of the types are read from the enemy stats file. All types are created together the
+ * first time a type is requested, after which finding a type by its name is a table lookup.
+ *
+ * <p>The stats file has a line per type with the name of the type followed by its HP, damage,
+ * attack range, maximum velocity and projectile speed. Lines starting with # are ignored.
+ */
+class EnemyRegistry {
+    // The file with the stats of the enemy types
+    static final String STATS_FILE = "assets/enemies.txt";
+
+    // Factories of the enemy types by name, in the order they were registered
+    private static final Map<String, Function<EnemyStats, Enemy>> factories =
+        new LinkedHashMap<String, Function<EnemyStats, Enemy>>();
+
+    // The enemy types by name, null until the types have been created
+    private static volatile Map<String, Enemy> types = null;
+
+    static {
+        register("GoblinEnemy", GoblinEnemy::new);
+        register("SwordEnemy", SwordEnemy::new);
+        register("ArcherEnemy", ArcherEnemy::new);
+    }
+
+    /**
+     * Registers an enemy type, so chunk files can spawn it by its name.
+     * Must be called before the first enemy type is requested.
+     *
+     * @param name The name of the type, as used in chunk files and the stats file
+     * @param factory Creates the type from its stats
+     */
+    static synchronized void register(String name, Function<EnemyStats, Enemy> factory) {
+        if (types != null) {
+            throw new IllegalStateException("Enemy type " + name + " registered after the types were created");
+        }
+
+        factories.put(name, factory);
+    }
+
+    /**
+     * Gets an enemy type by its name.
+     *
+     * @param name The name of the type
+     * @return The enemy type, or null if there is no enemy type with that name
+     */
+    public static Enemy get(String name) {
+        Map<String, Enemy> loaded = types;
+
+        if (loaded == null) {
+            loaded = createTypes();
+        }
+
+        return loaded.get(name);
+    }
+
+    /**
+     * Reads the stats file and creates every registered type that has stats.
+     * Does nothing if the types were already created.
+     *
+     * @return The enemy types by name
+     */
+    private static synchronized Map<String, Enemy> createTypes() {
+        if (types != null) {
+            return types;
+        }
+
+        Map<String, EnemyStats> stats = loadStats();
+        Map<String, Enemy> created = new HashMap<String, Enemy>();
+
+        for (Map.Entry<String, Function<EnemyStats, Enemy>> factory : factories.entrySet()) {
+            EnemyStats typeStats = stats.get(factory.getKey());
+
+            if (typeStats == null) {
+                System.out.println("No stats for enemy type \"" + factory.getKey() + "\" in " + STATS_FILE + ".");
+                continue;
+            }
+
+            created.put(factory.getKey(), factory.getValue().apply(typeStats));
+        }
+
+        types = created;
+
+        return created;
+    }
+
+    /**
+     * Reads the stats of the enemy types from the stats file.
+     *
+     * @return The stats by the name of the type, empty if the file can't be read
+     */
+    private static Map<String, EnemyStats> loadStats() {
+        Map<String, EnemyStats> stats = new HashMap<String, EnemyStats>();
+        try {
+            Scanner scanner = new Scanner(ResourceRoot.get().open(STATS_FILE));
+
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine().trim();
+
+                // Skip empty lines and comments
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+
+                try {
+                    stats.put(fields[0], new EnemyStats(
+                        Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                        Integer.parseInt(fields[5])));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.out.println("Unable to read the stats \"" + line + "\" in " + STATS_FILE + ".");
+                }
+            }
+
+            scanner.close();
+        } catch (IOException e) {
+            System.out.println("Unable to read the enemy stats file " + STATS_FILE + ".");
+        }
+
+        return stats;
+    }
+}
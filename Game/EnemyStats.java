@@ -0,0 +1,36 @@
+/**
+ * The stats of an enemy type, as read from the enemy stats file by EnemyRegistry.
+ */
+class EnemyStats {
+    // Starting Hit Points of an enemy of the type
+    final int hp;
+
+    // The damage the enemy deals with an attack
+    final int damage;
+
+    // The maximum amount of distance to the player to be able to attack
+    final int attackRange;
+
+    // Maximum movement speed
+    final int maxVelocity;
+
+    // Speed of the projectiles the enemy fires, 0 if the enemy attacks in melee
+    final int projectileSpeed;
+
+    /**
+     * Initiates the stats of an enemy type.
+     *
+     * @param hp Starting Hit Points
+     * @param damage Damage enemy deals with an attack
+     * @param attackRange Maximum amount of pixels the player should be away to attack
+     * @param maxVelocity Maximum movement speed
+     * @param projectileSpeed Speed of the projectiles in pixels per update, 0 to attack in melee
+     */
+    public EnemyStats(int hp, int damage, int attackRange, int maxVelocity, int projectileSpeed) {
+        this.hp = hp;
+        this.damage = damage;
+        this.attackRange = attackRange;
+        this.maxVelocity = maxVelocity;
+        this.projectileSpeed = projectileSpeed;
+    }
+}
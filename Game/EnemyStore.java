@@ -0,0 +1,563 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores the state of every enemy in a chunk in parallel primitive arrays.
+ * The arrays are package-private so update loops can walk them linearly by index.
+ * Removing an enemy moves the last enemy into its slot (swap-remove), so indices are
+ * not stable. Handles are stable and can be used to refer to one enemy across updates.
+ * The centres of the enemies are kept in a SpatialGrid with the index as id.
+ */
+class EnemyStore {
+    // Maximum number of tiles in a path (every tile of a chunk)
+    static final int MAX_PATH = GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
+
+    // Sprite states an enemy can show
+    static final byte SPRITE_IDLE = 0;
+    static final byte SPRITE_ATTACKING = 1;
+    static final byte SPRITE_DAMAGED = 2;
+
+    // A handle is a slot in the handle table in the low bits with a generation in the high bits
+    private static final int HANDLE_SLOT_BITS = 20;
+    private static final int HANDLE_SLOT_MASK = (1 << HANDLE_SLOT_BITS) - 1;
+    private static final int HANDLE_GENERATION_MASK = 0x7FF;
+
+    // Bytes writeState writes per enemy, without its path
+    private static final int SNAPSHOT_BYTES_PER_ENEMY = 11 * 4 + 2 * 8 + 2;
+
+    // Number of enemies in the store
+    int size;
+
+    // Position and speed of each enemy
+    int[] x;
+    int[] y;
+    int[] velocityX;
+    int[] velocityY;
+
+    // Position decided for an enemy during the current update, see Enemy.decideMove
+    int[] nextX;
+    int[] nextY;
+
+    // Push away from overlapping enemies during the current update, see CrowdSeparation
+    int[] separationX;
+    int[] separationY;
+
+    int[] hp;
+
+    // The first update in which the enemy is able to attack again
+    long[] attackReadyTick;
+
+    // The last update in which the enemy thought, see AiScheduler
+    long[] lastThinkTick;
+
+    // Updates since the enemy last thought if it thinks during the current update, else 0
+    int[] thinkElapsed;
+
+    // Index of the enemy type, see Enemy.getType
+    int[] typeId;
+
+    // Whether the enemy has seen the player and is chasing them
+    boolean[] aggro;
+
+    // Currently shown sprite and the updates left before it switches back to idle
+    byte[] sprite;
+    int[] spriteTimer;
+
+    // Path to the player. Each enemy owns MAX_PATH entries holding row * CHUNKWIDTH + column
+    short[] pathTiles;
+    int[] pathLength;
+    int[] pathCursor;
+
+    // Handle of the enemy at each index
+    int[] handle;
+
+    // Where the enemy was loaded from, see WorldJournal.spawnId. 0 if it wasn't loaded from a chunk file
+    int[] spawnId;
+
+    // Index of the enemy of each handle slot and the current generation of the slot
+    private int[] slotIndex;
+    private int[] slotGeneration;
+
+    // Grid with the centre of each enemy, used to find enemies near a location
+    final SpatialGrid grid;
+
+    // Journal to record HP changes of enemies with a spawn id in, null to not record them
+    WorldJournal journal;
+
+    // Handle slots that are no longer in use
+    private int[] freeSlots;
+    private int freeSlotCount;
+    private int slotCount;
+
+    /**
+     * Initiates an empty store.
+     */
+    public EnemyStore() {
+        this(16);
+    }
+
+    /**
+     * Initiates an empty store with room for a number of enemies.
+     *
+     * @param capacity The number of enemies the store can hold before growing
+     */
+    public EnemyStore(int capacity) {
+        capacity = Math.max(1, capacity);
+
+        x = new int[capacity];
+        y = new int[capacity];
+        velocityX = new int[capacity];
+        velocityY = new int[capacity];
+        nextX = new int[capacity];
+        nextY = new int[capacity];
+        separationX = new int[capacity];
+        separationY = new int[capacity];
+        hp = new int[capacity];
+        attackReadyTick = new long[capacity];
+        lastThinkTick = new long[capacity];
+        thinkElapsed = new int[capacity];
+        typeId = new int[capacity];
+        aggro = new boolean[capacity];
+        sprite = new byte[capacity];
+        spriteTimer = new int[capacity];
+        pathTiles = new short[capacity * MAX_PATH];
+        pathLength = new int[capacity];
+        pathCursor = new int[capacity];
+        handle = new int[capacity];
+        spawnId = new int[capacity];
+
+        slotIndex = new int[capacity];
+        slotGeneration = new int[capacity];
+        freeSlots = new int[capacity];
+
+        grid = new SpatialGrid(GamePanel.TILESIZE, 1024, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * Estimates the number of bytes used by the arrays of the store, including its grid.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateBytes() {
+        // 19 int columns (including the handle table), 2 long columns, 2 byte columns and the path
+        long perEnemy = 19 * 4 + 2 * 8 + 2 + MAX_PATH * 2;
+
+        return perEnemy * capacity() + grid.estimateBytes();
+    }
+
+    /**
+     * Adds an enemy to the store.
+     *
+     * @param type The type of the enemy
+     * @param newX Starting X coordinate
+     * @param newY Starting Y coordinate
+     * @param newHp Starting Hit Points
+     * @return The index of the new enemy
+     */
+    public int add(int type, int newX, int newY, int newHp) {
+        if (size == x.length) {
+            grow(size * 2);
+        }
+
+        int i = size;
+        size++;
+
+        x[i] = newX;
+        y[i] = newY;
+        velocityX[i] = 0;
+        velocityY[i] = 0;
+        hp[i] = newHp;
+        attackReadyTick[i] = 0;
+        lastThinkTick[i] = 0;
+        typeId[i] = type;
+        aggro[i] = false;
+        sprite[i] = SPRITE_IDLE;
+        spriteTimer[i] = 0;
+        pathLength[i] = 0;
+        pathCursor[i] = 0;
+        spawnId[i] = 0;
+
+        // Take a free handle slot, or a new one if there are none
+        int slot;
+        if (freeSlotCount > 0) {
+            freeSlotCount--;
+            slot = freeSlots[freeSlotCount];
+        } else {
+            slot = slotCount;
+            slotCount++;
+        }
+
+        slotIndex[slot] = i;
+        handle[i] = (slotGeneration[slot] << HANDLE_SLOT_BITS) | slot;
+
+        grid.insert(i, centreX(i), centreY(i));
+
+        return i;
+    }
+
+    /**
+     * Removes the enemy at an index by moving the last enemy into its place.
+     * The handle of the removed enemy becomes invalid.
+     *
+     * @param i The index of the enemy to remove
+     */
+    public void remove(int i) {
+        int slot = handle[i] & HANDLE_SLOT_MASK;
+
+        // Invalidate the handle and make the slot available again
+        slotGeneration[slot] = (slotGeneration[slot] + 1) & HANDLE_GENERATION_MASK;
+        freeSlots[freeSlotCount] = slot;
+        freeSlotCount++;
+
+        grid.remove(i);
+
+        size--;
+        if (i != size) {
+            moveEnemy(size, i);
+            grid.changeId(size, i);
+        }
+    }
+
+    /**
+     * Removes every enemy from the store. Handles of removed enemies become invalid.
+     */
+    public void clear() {
+        while (size > 0) {
+            remove(size - 1);
+        }
+    }
+
+    /**
+     * Gets the slot of the handle of an enemy. Unlike its index, the slot doesn't change when
+     * other enemies are removed, as long as the enemy stays in the store.
+     *
+     * @param i The index of the enemy
+     * @return The slot
+     */
+    public int slotOf(int i) {
+        return handle[i] & HANDLE_SLOT_MASK;
+    }
+
+    /**
+     * Gets the index of the enemy with a handle.
+     *
+     * @param enemyHandle The handle of the enemy
+     * @return The index of the enemy, or -1 if the enemy was removed
+     */
+    public int indexOf(int enemyHandle) {
+        int slot = enemyHandle & HANDLE_SLOT_MASK;
+
+        if (slot >= slotCount || slotGeneration[slot] != enemyHandle >>> HANDLE_SLOT_BITS) {
+            return -1;
+        }
+
+        return slotIndex[slot];
+    }
+
+    /**
+     * Moves an enemy to another store, e.g. when it walks into another chunk.
+     * The enemy keeps its HP, cooldown, sprite, spawn id and whether it is chasing the player,
+     * but not its path. It gets a new handle in the other store.
+     *
+     * @param i The index of the enemy
+     * @param other The store to move the enemy to
+     * @param newX The X coordinate of the enemy in the other store
+     * @param newY The Y coordinate of the enemy in the other store
+     * @return The index of the enemy in the other store
+     */
+    public int transferTo(int i, EnemyStore other, int newX, int newY) {
+        int j = other.add(typeId[i], newX, newY, hp[i]);
+
+        other.attackReadyTick[j] = attackReadyTick[i];
+        other.lastThinkTick[j] = lastThinkTick[i];
+        other.aggro[j] = aggro[i];
+        other.sprite[j] = sprite[i];
+        other.spriteTimer[j] = spriteTimer[i];
+        other.spawnId[j] = spawnId[i];
+
+        remove(i);
+
+        return j;
+    }
+
+    /**
+     * Gets the number of bytes writeState writes.
+     *
+     * @return The number of bytes
+     */
+    public int snapshotBytes() {
+        int bytes = 3 * 4 + (slotCount + freeSlotCount) * 4;
+
+        for (int i = 0; i < size; i++) {
+            bytes += SNAPSHOT_BYTES_PER_ENEMY + pathLength[i] * 2;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes every enemy and the handle table to a snapshot, so handles stay valid after
+     * restoring. Values that are recalculated in every update (next position, push,
+     * thinkElapsed) are not written.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(size);
+        buffer.putInt(slotCount);
+        buffer.putInt(freeSlotCount);
+
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(typeId[i]);
+            buffer.putInt(x[i]);
+            buffer.putInt(y[i]);
+            buffer.putInt(velocityX[i]);
+            buffer.putInt(velocityY[i]);
+            buffer.putInt(hp[i]);
+            buffer.putLong(attackReadyTick[i]);
+            buffer.putLong(lastThinkTick[i]);
+            buffer.put((byte) (aggro[i] ? 1 : 0));
+            buffer.put(sprite[i]);
+            buffer.putInt(spriteTimer[i]);
+            buffer.putInt(spawnId[i]);
+            buffer.putInt(handle[i]);
+            buffer.putInt(pathCursor[i]);
+            buffer.putInt(pathLength[i]);
+
+            for (int n = 0; n < pathLength[i]; n++) {
+                buffer.putShort(pathTiles[i * MAX_PATH + n]);
+            }
+        }
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            buffer.putInt(slotGeneration[slot]);
+        }
+
+        for (int n = 0; n < freeSlotCount; n++) {
+            buffer.putInt(freeSlots[n]);
+        }
+    }
+
+    /**
+     * Checks that a buffer holds a state written by writeState that readState can read, and
+     * moves the buffer past it. Nothing is changed, so a corrupt snapshot can be refused
+     * before anything is restored.
+     *
+     * @param buffer The buffer to read from
+     * @param typeCount The number of enemy types in the snapshot
+     * @return True if the state can be read, false if it is cut off or a count or index is out of range
+     */
+    static boolean checkState(ByteBuffer buffer, int typeCount) {
+        if (buffer.remaining() < 3 * 4) {
+            return false;
+        }
+
+        int count = buffer.getInt();
+        int newSlotCount = buffer.getInt();
+        int newFreeSlotCount = buffer.getInt();
+
+        if (count < 0 || count > buffer.remaining() / SNAPSHOT_BYTES_PER_ENEMY
+            || newSlotCount < count || newSlotCount > HANDLE_SLOT_MASK + 1
+            || newFreeSlotCount < 0 || newFreeSlotCount > newSlotCount) {
+            return false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < SNAPSHOT_BYTES_PER_ENEMY) {
+                return false;
+            }
+
+            // The type, then the values up to the handle, which can't be out of range
+            int type = buffer.getInt();
+            buffer.position(buffer.position() + SNAPSHOT_BYTES_PER_ENEMY - 4 * 4);
+            int enemyHandle = buffer.getInt();
+            int cursor = buffer.getInt();
+            int length = buffer.getInt();
+
+            if (type < 0 || type >= typeCount || (enemyHandle & HANDLE_SLOT_MASK) >= newSlotCount
+                || length < 0 || length > MAX_PATH || cursor < 0 || cursor > length
+                || buffer.remaining() < length * 2) {
+                return false;
+            }
+
+            buffer.position(buffer.position() + length * 2);
+        }
+
+        // The generation of every slot, then the free slots
+        if (buffer.remaining() < (newSlotCount + newFreeSlotCount) * 4) {
+            return false;
+        }
+        buffer.position(buffer.position() + newSlotCount * 4);
+
+        for (int n = 0; n < newFreeSlotCount; n++) {
+            int slot = buffer.getInt();
+
+            if (slot < 0 || slot >= newSlotCount) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Replaces the enemies with those written by writeState.
+     *
+     * @param buffer The buffer to read from
+     * @param typeIds The current type id of each type id in the snapshot
+     */
+    public void readState(ByteBuffer buffer, int[] typeIds) {
+        clear();
+
+        int count = buffer.getInt();
+        int newSlotCount = buffer.getInt();
+        int newFreeSlotCount = buffer.getInt();
+
+        if (Math.max(count, newSlotCount) > x.length) {
+            grow(Math.max(count, newSlotCount));
+        }
+
+        for (int i = 0; i < count; i++) {
+            typeId[i] = typeIds[buffer.getInt()];
+            x[i] = buffer.getInt();
+            y[i] = buffer.getInt();
+            velocityX[i] = buffer.getInt();
+            velocityY[i] = buffer.getInt();
+            hp[i] = buffer.getInt();
+            attackReadyTick[i] = buffer.getLong();
+            lastThinkTick[i] = buffer.getLong();
+            aggro[i] = buffer.get() != 0;
+            sprite[i] = buffer.get();
+            spriteTimer[i] = buffer.getInt();
+            spawnId[i] = buffer.getInt();
+            handle[i] = buffer.getInt();
+            pathCursor[i] = buffer.getInt();
+            pathLength[i] = buffer.getInt();
+
+            for (int n = 0; n < pathLength[i]; n++) {
+                pathTiles[i * MAX_PATH + n] = buffer.getShort();
+            }
+
+            nextX[i] = x[i];
+            nextY[i] = y[i];
+            slotIndex[handle[i] & HANDLE_SLOT_MASK] = i;
+
+            size = i + 1;
+            grid.insert(i, centreX(i), centreY(i));
+        }
+
+        slotCount = newSlotCount;
+        for (int slot = 0; slot < slotCount; slot++) {
+            slotGeneration[slot] = buffer.getInt();
+        }
+
+        freeSlotCount = newFreeSlotCount;
+        for (int n = 0; n < freeSlotCount; n++) {
+            freeSlots[n] = buffer.getInt();
+        }
+    }
+
+    /**
+     * Moves an enemy to a new location and updates its place in the grid.
+     *
+     * @param i The index of the enemy
+     * @param newX The new X coordinate
+     * @param newY The new Y coordinate
+     */
+    public void setPosition(int i, int newX, int newY) {
+        x[i] = newX;
+        y[i] = newY;
+
+        grid.update(i, centreX(i), centreY(i));
+    }
+
+    public int centreX(int i) {
+        return x[i] + Enemy.getType(typeId[i]).getWidth() / 2;
+    }
+
+    public int centreY(int i) {
+        return y[i] + Enemy.getType(typeId[i]).getHeight() / 2;
+    }
+
+    /**
+     * Calculates a new path of an enemy to the player and writes it to the path of the enemy.
+     *
+     * @param i The index of the enemy
+     * @param pathCalculator The calculator to use
+     */
+    public void calculatePath(int i, ShortestPathCalculator pathCalculator) {
+        pathLength[i] = pathCalculator.calculateShortestPath(
+            centreX(i), centreY(i), pathTiles, i * MAX_PATH);
+        pathCursor[i] = 0;
+    }
+
+    /**
+     * Copies the state of the enemy at one index to another index.
+     *
+     * @param from The index to copy from
+     * @param to The index to copy to
+     */
+    private void moveEnemy(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        velocityX[to] = velocityX[from];
+        velocityY[to] = velocityY[from];
+        hp[to] = hp[from];
+        attackReadyTick[to] = attackReadyTick[from];
+        lastThinkTick[to] = lastThinkTick[from];
+        typeId[to] = typeId[from];
+        aggro[to] = aggro[from];
+        sprite[to] = sprite[from];
+        spriteTimer[to] = spriteTimer[from];
+        pathLength[to] = pathLength[from];
+        pathCursor[to] = pathCursor[from];
+        System.arraycopy(pathTiles, from * MAX_PATH, pathTiles, to * MAX_PATH, pathLength[from]);
+        spawnId[to] = spawnId[from];
+
+        handle[to] = handle[from];
+        slotIndex[handle[to] & HANDLE_SLOT_MASK] = to;
+    }
+
+    /**
+     * Grows all arrays to a new capacity.
+     *
+     * @param capacity The new capacity
+     */
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        velocityX = Arrays.copyOf(velocityX, capacity);
+        velocityY = Arrays.copyOf(velocityY, capacity);
+        nextX = Arrays.copyOf(nextX, capacity);
+        nextY = Arrays.copyOf(nextY, capacity);
+        separationX = Arrays.copyOf(separationX, capacity);
+        separationY = Arrays.copyOf(separationY, capacity);
+        hp = Arrays.copyOf(hp, capacity);
+        attackReadyTick = Arrays.copyOf(attackReadyTick, capacity);
+        lastThinkTick = Arrays.copyOf(lastThinkTick, capacity);
+        thinkElapsed = Arrays.copyOf(thinkElapsed, capacity);
+        typeId = Arrays.copyOf(typeId, capacity);
+        aggro = Arrays.copyOf(aggro, capacity);
+        sprite = Arrays.copyOf(sprite, capacity);
+        spriteTimer = Arrays.copyOf(spriteTimer, capacity);
+        pathTiles = Arrays.copyOf(pathTiles, capacity * MAX_PATH);
+        pathLength = Arrays.copyOf(pathLength, capacity);
+        pathCursor = Arrays.copyOf(pathCursor, capacity);
+        handle = Arrays.copyOf(handle, capacity);
+        spawnId = Arrays.copyOf(spawnId, capacity);
+
+        slotIndex = Arrays.copyOf(slotIndex, capacity);
+        slotGeneration = Arrays.copyOf(slotGeneration, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+
+        grid.ensureCapacity(capacity);
+    }
+}
@@ -1,13 +1,15 @@
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.imageio.ImageIO;
 
 /**
- * Entity class used for enemies and player.
+ * Entity class used for the player. Enemies keep their state in an EnemyStore instead.
  */
 abstract class Entity {
     // x and y coordinates of entity
@@ -23,11 +25,20 @@ abstract class Entity {
     private int height;
 
     private BufferedImage image;
+    private String imageName = "idle";
     protected Map<String, BufferedImage> cachedImages;
 
+    // Images an entity can show, by their number in a snapshot
+    private static final String[] SNAPSHOT_IMAGES = {"idle", "attacking", "damaged"};
+
+    // The images of every sprite that was loaded by name, shared by all entities using the sprite
+    private static final Map<String, Map<String, BufferedImage>> sharedImages =
+        new ConcurrentHashMap<String, Map<String, BufferedImage>>();
+
     private int hp;
 
-    private boolean switchingSprite = false;
+    // Updates left before a switched image switches back to idle, 0 if not switched
+    private int spriteTimer = 0;
 
 
     // The damage the entity deals with an attack
@@ -53,7 +64,7 @@ abstract class Entity {
         this.attackRange = attackRange;
 
         // Load sprite images
-        this.cachedImages = loadEntityImages();
+        this.cachedImages = getEntityImages(this.getClass().getSimpleName());
 
         // Set default image
         this.image = cachedImages.get("idle");
@@ -90,6 +101,10 @@ abstract class Entity {
         return hp;
     }
 
+    public void setHP(int newHp) {
+        this.hp = newHp;
+    }
+
     public int getDamage() {
         return damage;
     }
@@ -119,20 +134,35 @@ abstract class Entity {
     }
 
     /**
-     * Gets the tile the entity is standing on determined from the top left.
-     * @return Point with tile coordinates
+     * Gets the column of the tile the entity is standing on determined from the top left.
+     * @return Column of the tile
+     */
+    public int getTileX() {
+        return x / GamePanel.TILESIZE;
+    }
+
+    /**
+     * Gets the row of the tile the entity is standing on determined from the top left.
+     * @return Row of the tile
      */
-    public Point getTile() {
-        return new Point(x / GamePanel.TILESIZE, y / GamePanel.TILESIZE);
+    public int getTileY() {
+        return y / GamePanel.TILESIZE;
     }
 
     /**
-     * Gets the tile the entity is standing on determined from the middle.
-     * @return Point with tile coordinates
+     * Gets the column of the tile the entity is standing on determined from the middle.
+     * @return Column of the tile
      */
-    public Point getCentreTile() {
-        return new Point(this.getCentreX() / GamePanel.TILESIZE,
-            this.getCentreY() / GamePanel.TILESIZE);
+    public int getCentreTileX() {
+        return this.getCentreX() / GamePanel.TILESIZE;
+    }
+
+    /**
+     * Gets the row of the tile the entity is standing on determined from the middle.
+     * @return Row of the tile
+     */
+    public int getCentreTileY() {
+        return this.getCentreY() / GamePanel.TILESIZE;
     }
 
     /**
@@ -159,27 +189,138 @@ abstract class Entity {
 
     public void setImage(String imageName) {
         this.image = cachedImages.get(imageName);
+        this.imageName = imageName;
+    }
+
+    /**
+     * Replaces the images of the entity, e.g. when its sprite files were changed.
+     * The size of the entity stays the same.
+     * 
+     * @param images The new images by name, with at least an idle image
+     */
+    void replaceImages(Map<String, BufferedImage> images) {
+        this.cachedImages = images;
+        this.image = images.getOrDefault(imageName, images.get("idle"));
+    }
+
+    /**
+     * Gets the number of bytes writeState writes.
+     * 
+     * @return The number of bytes
+     */
+    int snapshotBytes() {
+        return 6 * 4 + 1;
+    }
+
+    /**
+     * Writes the position, speed, HP and shown image of the entity to a snapshot.
+     * 
+     * @param buffer The buffer to write to
+     */
+    void writeState(ByteBuffer buffer) {
+        buffer.putInt(x);
+        buffer.putInt(y);
+        buffer.putInt(velocityX);
+        buffer.putInt(velocityY);
+        buffer.putInt(hp);
+        buffer.putInt(spriteTimer);
+
+        byte imageNumber = 0;
+        for (byte n = 0; n < SNAPSHOT_IMAGES.length; n++) {
+            if (SNAPSHOT_IMAGES[n].equals(imageName)) {
+                imageNumber = n;
+            }
+        }
+        buffer.put(imageNumber);
     }
 
     /**
-     * Loads the images of an entity.
+     * Reads the state written by writeState.
      * 
+     * @param buffer The buffer to read from
+     */
+    void readState(ByteBuffer buffer) {
+        x = buffer.getInt();
+        y = buffer.getInt();
+        velocityX = buffer.getInt();
+        velocityY = buffer.getInt();
+        hp = buffer.getInt();
+        spriteTimer = buffer.getInt();
+
+        int imageNumber = buffer.get();
+        setImage(SNAPSHOT_IMAGES[imageNumber >= 0 && imageNumber < SNAPSHOT_IMAGES.length ? imageNumber : 0]);
+    }
+
+    /**
+     * Gets the images of a sprite, loading them the first time. Every entity with the sprite,
+     * also in other simulations, gets the same images.
+     *
+     * @param spriteName The name of the sprite directory, usually the class name of the entity
+     * @return The images by name, not to be changed
+     */
+    static Map<String, BufferedImage> getEntityImages(String spriteName) {
+        return sharedImages.computeIfAbsent(spriteName,
+            name -> Collections.unmodifiableMap(loadEntityImages(name)));
+    }
+
+    /**
+     * Replaces the shared images of a sprite, e.g. when they were changed while the game runs.
+     * Entities that exist keep their images until they are given the new ones.
+     *
+     * @param spriteName The name of the sprite directory
+     * @param images The new images by name
+     */
+    static void replaceEntityImages(String spriteName, Map<String, BufferedImage> images) {
+        sharedImages.put(spriteName, Collections.unmodifiableMap(images));
+    }
+
+    /**
+     * Loads the images of an entity. Recorded as an AssetLoadEvent when the flight recorder
+     * records it.
+     * 
+     * @param spriteName The name of the sprite directory, usually the class name of the entity
      * @return Map with keys in String and values in BufferedImage
      */
-    private Map<String, BufferedImage> loadEntityImages() {
+    static Map<String, BufferedImage> loadEntityImages(String spriteName) {
+        AssetLoadEvent event = new AssetLoadEvent();
+        event.begin();
+
+        Map<String, BufferedImage> images = readEntityImages(spriteName);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = AssetLoadEvent.KIND_SPRITE;
+            event.name = spriteName;
+            event.images = images.size();
+            for (BufferedImage image : images.values()) {
+                event.bytes += 4L * image.getWidth() * image.getHeight();
+            }
+            event.commit();
+        }
+
+        return images;
+    }
+
+    /**
+     * Reads the images of an entity from the resources.
+     * 
+     * @param spriteName The name of the sprite directory, usually the class name of the entity
+     * @return Map with keys in String and values in BufferedImage
+     */
+    private static Map<String, BufferedImage> readEntityImages(String spriteName) {
         // Create map with loaded images
         Map<String, BufferedImage> images = new HashMap<String, BufferedImage>();
 
         // Get the directory path where the images are stored in
-        String dirPath = "assets/sprites/" + this.getClass().getSimpleName();
+        String dirPath = "assets/sprites/" + spriteName;
 
-        // Set directory (resolve in case the working directory is different)
-        File dir = FileUtils.resolveExistingFile(dirPath);
+        // The images in the directory, from the index of the resources
+        ResourceRoot resources = ResourceRoot.get();
+        List<String> files = resources.list(dirPath);
 
-        // Guard: listFiles returns null when the path doesn't exist or isn't a directory
-        File[] files = dir.listFiles();
-        if (files == null || files.length == 0) {
-            System.err.println("Sprite directory missing or empty: " + dir.getAbsolutePath());
+        // Guard: the list is empty when the directory doesn't exist
+        if (files.isEmpty()) {
+            System.err.println("Sprite directory missing or empty: " + dirPath);
             // Provide a tiny transparent placeholder so callers don't NPE when accessing dimensions
             BufferedImage placeholder = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
             images.put("idle", placeholder);
@@ -187,12 +328,7 @@ abstract class Entity {
         }
 
         // Loop through images in the directory
-        for (File img : files) {
-            if (!img.isFile()) continue;
-
-            // Get file name
-            String imgName = img.getName();
-
+        for (String imgName : files) {
             // Get location of extension
             int extensionIndex = imgName.lastIndexOf('.');
             if (extensionIndex <= 0) continue;
@@ -201,14 +337,16 @@ abstract class Entity {
             BufferedImage bufferedImage = null;
 
             try {
-                // Read image directly from the file
-                bufferedImage = ImageIO.read(img);
+                // Read image from the file
+                bufferedImage = ImageIO.read(resources.open(dirPath + "/" + imgName));
             } catch (IOException e) {
                 bufferedImage = null;
             }
 
-            // Put image in map under the file name without extension
-            images.put(imgName.substring(0, extensionIndex), bufferedImage);
+            // Put image in map under the file name without extension, skipping files that aren't images
+            if (bufferedImage != null) {
+                images.put(imgName.substring(0, extensionIndex), bufferedImage);
+            }
         }
 
         // Ensure there's always an "idle" image available
@@ -226,30 +364,32 @@ abstract class Entity {
     }
 
     /**
-     * Switches the currently used image of an entity for a duration of time.
+     * Switches the currently used image of an entity for a number of updates.
      * 
      * @param newImageName The name of the image that should be swapped in
-     * @param duration The duration the image should be active
+     * @param duration The number of updates the image should be active
      */
     protected void switchSprite(String newImageName, int duration) {
-        // Check if the image isn't already being switched
-        if (!this.switchingSprite) {
-            // Create instance to prepare to switch image
-            ImageSwitcher imageSwitcher = new ImageSwitcher("idle", newImageName, duration, this);
-        
-            imageSwitcher.switchImage();
-
-            /* Stop image switching in order to prevent player confusion
-             * Image switching is enabled again by ImageSwitcher after the swapping has finished */
-            this.switchingSprite = true;
+        /* Check if the image isn't already being switched,
+         * in order to prevent player confusion */
+        if (spriteTimer == 0) {
+            setImage(newImageName);
+            spriteTimer = duration;
         }
     }
 
     /**
-     * Sets switchingSprite back to false. Should only be called by ImageSwitcher.
+     * Counts down the updates left for a switched image and switches back to idle once it runs out.
+     * Should be called once every update.
      */
-    protected void finishedSwitchingSprite() {
-        this.switchingSprite = false;
+    public void updateSprite() {
+        if (spriteTimer > 0) {
+            spriteTimer--;
+
+            if (spriteTimer == 0) {
+                setImage("idle");
+            }
+        }
     }
 
     public BufferedImage getImage() {
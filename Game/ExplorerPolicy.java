@@ -0,0 +1,126 @@
+import java.awt.Point;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Walks from chunk to chunk, preferring chunks it hasn't been in. In every chunk it picks an
+ * edge to leave through and walks towards it. When a wall stops it, it walks sideways for a
+ * while, and after being stopped too often it picks another edge.
+ */
+class ExplorerPolicy implements BotPolicy {
+    // The directions towards the edges, and the change of the chunk coordinates. Chunk Y grows upwards
+    private static final int[] DIRECTIONS = {
+        KeyHandler.INPUT_LEFT, KeyHandler.INPUT_RIGHT, KeyHandler.INPUT_UP, KeyHandler.INPUT_DOWN};
+    private static final int[] CHUNK_CHANGE_X = {-1, 1, 0, 0};
+    private static final int[] CHUNK_CHANGE_Y = {0, 0, 1, -1};
+
+    // Number of choices without moving after which the bot is stopped
+    private static final int STUCK_CHOICES = 10;
+
+    // Number of choices the bot walks sideways around a wall
+    private static final int SIDESTEP_CHOICES = 40;
+
+    // Number of times the bot may be stopped in a chunk before it picks another edge
+    private static final int MAX_STOPS = 4;
+
+    private final Random random;
+    private final Set<Point> visited = new HashSet<Point>();
+
+    // The chunk the bot is in and the direction it walks in, -1 before the first choice
+    private int chunkX = 0;
+    private int chunkY = 0;
+    private int direction = -1;
+
+    private int lastX = -1;
+    private int lastY = -1;
+    private int stillChoices = 0;
+    private int stops = 0;
+    private int sidestep = 0;
+    private int sidestepChoices = 0;
+
+    public ExplorerPolicy(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Gets the number of chunks the bot has been in.
+     *
+     * @return The number of chunks
+     */
+    public int getVisitedCount() {
+        return visited.size();
+    }
+
+    @Override
+    public int chooseInput(BotView view) {
+        if (direction < 0 || view.getChunkX() != chunkX || view.getChunkY() != chunkY) {
+            chunkX = view.getChunkX();
+            chunkY = view.getChunkY();
+            visited.add(new Point(chunkX, chunkY));
+            stops = 0;
+            sidestepChoices = 0;
+            pickDirection(-1);
+        }
+
+        // Notice being stopped by a wall
+        if (view.getPlayerX() == lastX && view.getPlayerY() == lastY) {
+            stillChoices++;
+        } else {
+            stillChoices = 0;
+        }
+        lastX = view.getPlayerX();
+        lastY = view.getPlayerY();
+
+        if (stillChoices >= STUCK_CHOICES && sidestepChoices == 0) {
+            stillChoices = 0;
+            stops++;
+
+            if (stops > MAX_STOPS) {
+                stops = 0;
+                pickDirection(direction);
+            } else {
+                // Walk along the wall, perpendicular to the direction
+                boolean horizontal = direction < 2;
+                sidestep = DIRECTIONS[(horizontal ? 2 : 0) + random.nextInt(2)];
+                sidestepChoices = SIDESTEP_CHOICES;
+            }
+        }
+
+        if (sidestepChoices > 0) {
+            sidestepChoices--;
+
+            return sidestep;
+        }
+
+        return DIRECTIONS[direction];
+    }
+
+    /**
+     * Picks an edge to walk towards, one to a chunk that wasn't visited if there is one.
+     *
+     * @param except The direction not to pick, -1 for none
+     */
+    private void pickDirection(int except) {
+        int start = random.nextInt(DIRECTIONS.length);
+        int fallback = -1;
+
+        for (int n = 0; n < DIRECTIONS.length; n++) {
+            int candidate = (start + n) % DIRECTIONS.length;
+            if (candidate == except) {
+                continue;
+            }
+
+            if (!visited.contains(new Point(chunkX + CHUNK_CHANGE_X[candidate], chunkY + CHUNK_CHANGE_Y[candidate]))) {
+                direction = candidate;
+                return;
+            }
+
+            if (fallback < 0) {
+                fallback = candidate;
+            }
+        }
+
+        direction = fallback;
+    }
+}
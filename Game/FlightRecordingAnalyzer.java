@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarises a flight recording of the game, e.g. one made with game.jfc: the update time and
+ * its phases, chunk and asset loads, slow path searches, garbage collection pauses, and the
+ * methods that used the most CPU and allocated the most.
+ *
+ * <p>Run from the Game folder with "java FlightRecordingAnalyzer [recording]".
+ */
+class FlightRecordingAnalyzer {
+    private static final long NANOS_PER_TICK = 1_000_000_000L / GameServer.TICKS_PER_SECOND;
+
+    // Number of methods printed for the CPU samples and the allocations
+    private static final int TOP_METHODS = 10;
+
+    // Updates
+    private final LatencyHistogram tickMicros = new LatencyHistogram();
+    private long slowTicks = 0;
+    private long chunkSwitches = 0;
+    private long enemySum = 0;
+    private final long[] phaseNanos = new long[5];
+
+    // Chunk loads of chunks that were loaded before, that were read, and that don't exist
+    private long chunkHits = 0;
+    private long chunkMisses = 0;
+    private long chunksMissing = 0;
+    private long chunkMissNanos = 0;
+    private long chunkMaxMissNanos = 0;
+    private long chunkBytes = 0;
+
+    // Path searches kept by the recording, only the slow ones with game.jfc
+    private final LatencyHistogram pathMicros = new LatencyHistogram();
+    private long pathExpanded = 0;
+    private long pathLength = 0;
+    private long pathsNotFound = 0;
+
+    // Asset loads in the order they happened
+    private final List<RecordedEvent> assetLoads = new ArrayList<RecordedEvent>();
+
+    // Garbage collections
+    private long gcCount = 0;
+    private long gcPauseNanos = 0;
+    private long gcMaxPauseNanos = 0;
+
+    // CPU samples and allocated bytes by the method at the top of the stack
+    private long sampleCount = 0;
+    private final Map<String, Long> samples = new HashMap<String, Long>();
+    private long allocatedBytes = 0;
+    private final Map<String, Long> allocations = new HashMap<String, Long>();
+
+    public static void main(String[] args) throws IOException {
+        Path file = Path.of(args.length > 0 ? args[0] : "game.jfr");
+
+        FlightRecordingAnalyzer analyzer = new FlightRecordingAnalyzer();
+        analyzer.read(file);
+        analyzer.print(System.out);
+    }
+
+    /**
+     * Adds the events of a recording to the summary.
+     *
+     * @param file The recording
+     * @throws IOException If the recording can't be read
+     */
+    public void read(Path file) throws IOException {
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                add(recording.readEvent());
+            }
+        }
+    }
+
+    public long getTickCount() {
+        return tickMicros.getCount();
+    }
+
+    public long getChunkLoadCount() {
+        return chunkHits + chunkMisses + chunksMissing;
+    }
+
+    public int getAssetLoadCount() {
+        return assetLoads.size();
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Adds an event to the summary. Events the summary doesn't use are ignored.
+     *
+     * @param event The event
+     */
+    public void add(RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+            case "cbl.Tick":
+                long nanos = event.getDuration().toNanos();
+                tickMicros.record(nanos / 1000);
+                slowTicks += nanos > NANOS_PER_TICK ? 1 : 0;
+                chunkSwitches += event.getBoolean("switchedChunk") ? 1 : 0;
+                enemySum += event.getInt("enemies");
+                phaseNanos[0] += event.getLong("playerNanos");
+                phaseNanos[1] += event.getLong("enemyNanos");
+                phaseNanos[2] += event.getLong("projectileNanos");
+                phaseNanos[3] += event.getLong("combatNanos");
+                phaseNanos[4] += event.getLong("regionNanos");
+                break;
+            case "cbl.ChunkLoad":
+                if (!event.getBoolean("found")) {
+                    chunksMissing++;
+                } else if (event.getBoolean("cacheHit")) {
+                    chunkHits++;
+                } else {
+                    long missNanos = event.getDuration().toNanos();
+                    chunkMisses++;
+                    chunkMissNanos += missNanos;
+                    chunkMaxMissNanos = Math.max(chunkMaxMissNanos, missNanos);
+                    chunkBytes += event.getLong("bytes");
+                }
+                break;
+            case "cbl.PathSearch":
+                pathMicros.record(event.getDuration().toNanos() / 1000);
+                pathExpanded += event.getInt("expanded");
+                pathLength += event.getInt("length");
+                pathsNotFound += event.getInt("length") == 0 ? 1 : 0;
+                break;
+            case "cbl.AssetLoad":
+                assetLoads.add(event);
+                break;
+            case "jdk.GarbageCollection":
+                long pause = event.getDuration("sumOfPauses").toNanos();
+                gcCount++;
+                gcPauseNanos += pause;
+                gcMaxPauseNanos = Math.max(gcMaxPauseNanos, pause);
+                break;
+            case "jdk.ExecutionSample":
+                sampleCount++;
+                samples.merge(topMethod(event.getStackTrace()), 1L, Long::sum);
+                break;
+            case "jdk.ObjectAllocationSample":
+                long weight = event.getLong("weight");
+                allocatedBytes += weight;
+                allocations.merge(event.getClass("objectClass").getName() + " in "
+                    + topMethod(event.getStackTrace()), weight, Long::sum);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Prints the summary.
+     *
+     * @param out The stream to print to
+     */
+    public void print(PrintStream out) {
+        long ticks = tickMicros.getCount();
+
+        out.println("Updates");
+        if (ticks == 0) {
+            out.println("  none recorded");
+        } else {
+            out.printf("  %d updates, %d switched chunk, %.1f enemies on average%n",
+                ticks, chunkSwitches, (double) enemySum / ticks);
+            out.printf("  p50 %d us, p99 %d us, max %d us, %d (%.2f%%) longer than one update%n",
+                tickMicros.getPercentile(50), tickMicros.getPercentile(99), tickMicros.getMax(),
+                slowTicks, 100.0 * slowTicks / ticks);
+
+            String[] phases = {"player", "enemies", "projectiles", "combat", "region"};
+            long total = Math.max(1, phaseNanos[0] + phaseNanos[1] + phaseNanos[2] + phaseNanos[3] + phaseNanos[4]);
+            for (int phase = 0; phase < phases.length; phase++) {
+                out.printf("  %-12s %10.1f us/update %6.1f%%%n", phases[phase],
+                    phaseNanos[phase] / 1e3 / ticks, 100.0 * phaseNanos[phase] / total);
+            }
+        }
+
+        out.println("Chunk loads");
+        out.printf("  %d from the library, %d read, %d not found%n", chunkHits, chunkMisses, chunksMissing);
+        if (chunkMisses > 0) {
+            out.printf("  reading took %.1f us on average, %.1f us at most, %d bytes kept%n",
+                chunkMissNanos / 1e3 / chunkMisses, chunkMaxMissNanos / 1e3, chunkBytes);
+        }
+
+        out.println("Path searches recorded");
+        long paths = pathMicros.getCount();
+        if (paths == 0) {
+            out.println("  none");
+        } else {
+            out.printf("  %d, p50 %d us, max %d us, %.1f tiles expanded and path of %.1f tiles on average, %d without path%n",
+                paths, pathMicros.getPercentile(50), pathMicros.getMax(),
+                (double) pathExpanded / paths, (double) pathLength / paths, pathsNotFound);
+        }
+
+        out.println("Asset loads");
+        if (assetLoads.isEmpty()) {
+            out.println("  none");
+        }
+        for (RecordedEvent event : assetLoads) {
+            out.printf("  %-6s %-40s %3d images %9d bytes %10.2f ms%n", event.getString("kind"),
+                event.getString("name"), event.getInt("images"), event.getLong("bytes"),
+                event.getDuration().toNanos() / 1e6);
+        }
+
+        out.println("Garbage collections");
+        out.printf("  %d, %.2f ms paused in total, longest pause %.2f ms%n",
+            gcCount, gcPauseNanos / 1e6, gcMaxPauseNanos / 1e6);
+
+        out.println("CPU samples by method");
+        printTop(out, samples, sampleCount, "samples");
+
+        out.println("Allocations by class and method");
+        printTop(out, allocations, allocatedBytes, "bytes");
+    }
+
+    /**
+     * Prints the keys with the largest values.
+     *
+     * @param out The stream to print to
+     * @param counts The values by key
+     * @param total The sum of the values
+     * @param unit The unit of the values
+     */
+    private static void printTop(PrintStream out, Map<String, Long> counts, long total, String unit) {
+        if (counts.isEmpty()) {
+            out.println("  none");
+            return;
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        for (int n = 0; n < Math.min(TOP_METHODS, entries.size()); n++) {
+            Map.Entry<String, Long> entry = entries.get(n);
+            out.printf("  %5.1f%% %12d %s  %s%n", 100.0 * entry.getValue() / total,
+                entry.getValue(), unit, entry.getKey());
+        }
+    }
+
+    /**
+     * Gets the name of the method at the top of a stack trace.
+     *
+     * @param stackTrace The stack trace, can be null
+     * @return The class and method name
+     */
+    private static String topMethod(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "(unknown)";
+        }
+
+        RecordedFrame frame = stackTrace.getFrames().get(0);
+
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+}
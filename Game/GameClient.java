@@ -0,0 +1,408 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A client of a GameServer without a window. Sends the keys held down and keeps a copy of
+ * what the server sent: the chunk, the player, the enemies in view, the projectiles and the
+ * other players in view.
+ * Used to test the server, e.g. by bots, see LoadGenerator.
+ */
+class GameClient implements BotView {
+    // Bytes buffered for reading from the server at first, grown up to the largest frame when full
+    private static final int INBOUND_BYTES = 1 << 14;
+
+    private final SocketChannel channel;
+    private ByteBuffer inbound = ByteBuffer.allocate(INBOUND_BYTES);
+    private final ByteBuffer outbound = ByteBuffer.allocate(64);
+
+    // Sent by the server in the welcome, 0 until it arrived
+    private int id = 0;
+    private int snapshotInterval = 0;
+    private int viewRadius = 0;
+
+    // The keys last sent, -1 before the first input
+    private int sentInput = -1;
+
+    // The chunk the player is in and its tiles
+    private int chunkX = 0;
+    private int chunkY = 0;
+    private final TileType[][] tiles = new TileType[GamePanel.CHUNKHEIGHT][GamePanel.CHUNKWIDTH];
+    private int chunkCount = 0;
+
+    // The player and the update of the last snapshot
+    private int playerX = 0;
+    private int playerY = 0;
+    private int playerHp = 0;
+    private int tick = 0;
+
+    // The enemies in view by the number the server gave them, with the RemotePlayer.SENT_ values of each enemy
+    private final Map<Integer, int[]> enemies = new HashMap<Integer, int[]>();
+
+    // The owner, X and Y of every projectile in the chunk, see RemotePlayer.PROJECTILE_VALUES
+    private int[] projectiles = new int[0];
+    private int projectileCount = 0;
+
+    // The client id, X, Y and HP of every other player in view, see RemotePlayer.PLAYER_VALUES
+    private int[] players = new int[0];
+    private int playerCount = 0;
+
+    // The positions of the enemies as X, Y pairs for BotView, made again when the enemies changed
+    private int[] enemyPositions = new int[0];
+    private boolean enemiesChanged = false;
+
+    private long bytesReceived = 0;
+    private long bytesSent = 0;
+    private int snapshotCount = 0;
+
+    /**
+     * Connects to a server.
+     *
+     * @param host The name or address of the server
+     * @param port The port of the server
+     * @throws IOException If the server can't be reached
+     */
+    public GameClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public int getViewRadius() {
+        return viewRadius;
+    }
+
+    @Override
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    @Override
+    public int getChunkY() {
+        return chunkY;
+    }
+
+    @Override
+    public TileType getTile(int column, int row) {
+        return tiles[row][column];
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public int getPlayerX() {
+        return playerX;
+    }
+
+    @Override
+    public int getPlayerY() {
+        return playerY;
+    }
+
+    public int getPlayerHp() {
+        return playerHp;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public Map<Integer, int[]> getEnemies() {
+        return enemies;
+    }
+
+    /**
+     * Gets the projectiles of the last snapshot.
+     *
+     * @return The owner, X and Y of every projectile, one after the other
+     */
+    public int[] getProjectiles() {
+        return Arrays.copyOf(projectiles, projectileCount * RemotePlayer.PROJECTILE_VALUES);
+    }
+
+    /**
+     * Gets the other players of the last snapshot.
+     *
+     * @return The client id, X, Y and HP of every other player in view, one after the other
+     */
+    public int[] getPlayers() {
+        return Arrays.copyOf(players, playerCount * RemotePlayer.PLAYER_VALUES);
+    }
+
+    @Override
+    public int getEnemyCount() {
+        updateEnemyPositions();
+
+        return enemyPositions.length / 2;
+    }
+
+    @Override
+    public int getEnemyX(int n) {
+        updateEnemyPositions();
+
+        return enemyPositions[2 * n];
+    }
+
+    @Override
+    public int getEnemyY(int n) {
+        updateEnemyPositions();
+
+        return enemyPositions[2 * n + 1];
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    /**
+     * Sends the keys held down to the server if they changed.
+     *
+     * @param input The keys, see KeyHandler.getInputMask
+     * @throws IOException If the connection failed
+     */
+    public void sendInput(int input) throws IOException {
+        if (input == sentInput) {
+            return;
+        }
+
+        outbound.clear();
+        int start = NetProtocol.beginFrame(outbound, NetProtocol.MSG_INPUT);
+        outbound.put((byte) input);
+        NetProtocol.endFrame(outbound, start);
+        outbound.flip();
+
+        // The message is tiny, so wait until it is written
+        while (outbound.hasRemaining()) {
+            bytesSent += channel.write(outbound);
+        }
+
+        sentInput = input;
+    }
+
+    /**
+     * Reads and applies the messages that have arrived, without waiting for more.
+     *
+     * @return The number of messages read
+     * @throws EOFException If the server closed the connection and every message was read
+     * @throws IOException If the connection failed or a message was invalid
+     */
+    public int poll() throws IOException {
+        // A frame larger than the buffer fills it, so make room for the rest
+        if (!inbound.hasRemaining() && inbound.capacity() < 4 + NetProtocol.MAX_FRAME_BYTES) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(2 * inbound.capacity(), 4 + NetProtocol.MAX_FRAME_BYTES));
+            inbound.flip();
+            larger.put(inbound);
+            inbound = larger;
+        }
+
+        int read = channel.read(inbound);
+        if (read > 0) {
+            bytesReceived += read;
+        }
+
+        inbound.flip();
+        int messages = 0;
+
+        try {
+            int length;
+            while ((length = NetProtocol.completeFrameLength(inbound)) >= 0) {
+                int end = inbound.position() + 4 + length;
+                inbound.getInt();
+
+                applyMessage(inbound.get());
+
+                if (inbound.position() != end) {
+                    throw new IOException("Message of unexpected length");
+                }
+                messages++;
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        inbound.compact();
+
+        if (read < 0 && messages == 0) {
+            throw new EOFException("The server closed the connection");
+        }
+
+        return messages;
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException If closing failed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Applies a message from the server.
+     *
+     * @param type The type of the message, its payload is read from inbound
+     * @throws IOException If the message is invalid
+     */
+    private void applyMessage(byte type) throws IOException {
+        switch (type) {
+            case NetProtocol.MSG_WELCOME:
+                if (inbound.getInt() != NetProtocol.MAGIC || inbound.getInt() != NetProtocol.VERSION) {
+                    throw new IOException("Not a server of protocol version " + NetProtocol.VERSION);
+                }
+                id = inbound.getInt();
+                inbound.getInt();
+                snapshotInterval = inbound.getInt();
+                viewRadius = inbound.getInt();
+                break;
+            case NetProtocol.MSG_CHUNK:
+                chunkX = NetProtocol.getSignedVarint(inbound);
+                chunkY = NetProtocol.getSignedVarint(inbound);
+
+                TileType[] types = TileType.values();
+                for (TileType[] row : tiles) {
+                    for (int column = 0; column < row.length; column++) {
+                        int ordinal = inbound.get();
+                        row[column] = ordinal >= 0 && ordinal < types.length ? types[ordinal] : null;
+                    }
+                }
+
+                // The server sends the enemies of the new chunk again
+                enemies.clear();
+                enemiesChanged = true;
+                chunkCount++;
+                break;
+            case NetProtocol.MSG_SNAPSHOT:
+                applySnapshot();
+                break;
+            default:
+                throw new IOException("Unexpected message " + type + " from the server");
+        }
+    }
+
+    /**
+     * Applies the changes of a snapshot to the player and the enemies, and takes its
+     * projectiles and other players.
+     *
+     * @throws IOException If a record is invalid
+     */
+    private void applySnapshot() throws IOException {
+        tick = NetProtocol.getVarint(inbound);
+        playerX += NetProtocol.getSignedVarint(inbound);
+        playerY += NetProtocol.getSignedVarint(inbound);
+        playerHp = NetProtocol.getVarint(inbound);
+
+        int recordCount = inbound.getInt();
+
+        for (int n = 0; n < recordCount; n++) {
+            byte kind = inbound.get();
+            int id = NetProtocol.getVarint(inbound);
+
+            if (kind == NetProtocol.ENEMY_ENTER) {
+                int[] enemy = new int[5];
+                enemy[RemotePlayer.SENT_TYPE] = NetProtocol.getVarint(inbound);
+                enemy[RemotePlayer.SENT_X] = NetProtocol.getSignedVarint(inbound);
+                enemy[RemotePlayer.SENT_Y] = NetProtocol.getSignedVarint(inbound);
+                enemy[RemotePlayer.SENT_HP] = NetProtocol.getVarint(inbound);
+                enemy[RemotePlayer.SENT_SPRITE] = inbound.get();
+                enemies.put(id, enemy);
+            } else if (kind == NetProtocol.ENEMY_UPDATE) {
+                int[] enemy = enemies.get(id);
+                if (enemy == null) {
+                    throw new IOException("Update of unknown enemy " + id);
+                }
+
+                int changed = inbound.get();
+                if ((changed & NetProtocol.CHANGED_X) != 0) {
+                    enemy[RemotePlayer.SENT_X] += NetProtocol.getSignedVarint(inbound);
+                }
+                if ((changed & NetProtocol.CHANGED_Y) != 0) {
+                    enemy[RemotePlayer.SENT_Y] += NetProtocol.getSignedVarint(inbound);
+                }
+                if ((changed & NetProtocol.CHANGED_HP) != 0) {
+                    enemy[RemotePlayer.SENT_HP] = NetProtocol.getVarint(inbound);
+                }
+                if ((changed & NetProtocol.CHANGED_SPRITE) != 0) {
+                    enemy[RemotePlayer.SENT_SPRITE] = inbound.get();
+                }
+            } else if (kind == NetProtocol.ENEMY_LEAVE) {
+                enemies.remove(id);
+            } else {
+                throw new IOException("Unknown enemy record " + kind);
+            }
+        }
+
+        enemiesChanged |= recordCount > 0;
+
+        projectileCount = NetProtocol.getVarint(inbound);
+        if (projectiles.length < projectileCount * RemotePlayer.PROJECTILE_VALUES) {
+            projectiles = new int[projectileCount * RemotePlayer.PROJECTILE_VALUES];
+        }
+
+        for (int n = 0; n < projectileCount; n++) {
+            int base = n * RemotePlayer.PROJECTILE_VALUES;
+            projectiles[base] = inbound.get();
+            projectiles[base + 1] = NetProtocol.getSignedVarint(inbound);
+            projectiles[base + 2] = NetProtocol.getSignedVarint(inbound);
+        }
+
+        playerCount = inbound.getInt();
+        if (players.length < playerCount * RemotePlayer.PLAYER_VALUES) {
+            players = new int[playerCount * RemotePlayer.PLAYER_VALUES];
+        }
+
+        for (int n = 0; n < playerCount; n++) {
+            int base = n * RemotePlayer.PLAYER_VALUES;
+            players[base] = NetProtocol.getVarint(inbound);
+            players[base + 1] = NetProtocol.getSignedVarint(inbound);
+            players[base + 2] = NetProtocol.getSignedVarint(inbound);
+            players[base + 3] = NetProtocol.getVarint(inbound);
+        }
+
+        snapshotCount++;
+    }
+
+    /**
+     * Makes the positions of the enemies again if they changed since they were last made.
+     */
+    private void updateEnemyPositions() {
+        if (!enemiesChanged) {
+            return;
+        }
+
+        if (enemyPositions.length != 2 * enemies.size()) {
+            enemyPositions = new int[2 * enemies.size()];
+        }
+
+        int n = 0;
+        for (int[] enemy : enemies.values()) {
+            enemyPositions[n++] = enemy[RemotePlayer.SENT_X];
+            enemyPositions[n++] = enemy[RemotePlayer.SENT_Y];
+        }
+
+        enemiesChanged = false;
+    }
+}
@@ -1,7 +1,10 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.*;
 
 /**
@@ -12,26 +15,40 @@ class GamePanel extends JPanel implements Runnable {
     protected static final int CHUNKHEIGHT = 8; // The height in tiles of one chunk
     protected static final int CHUNKWIDTH = 8; // The height in tiles of one chunk
 
+    // Width and height of a projectile in pixels
+    private static final int PROJECTILE_SIZE = 6;
+
+    // Colours of the projectiles of the player and of enemies
+    private static final Color PLAYER_PROJECTILE_COLOR = new Color(80, 160, 255);
+    private static final Color ENEMY_PROJECTILE_COLOR = new Color(230, 60, 40);
+
     private KeyHandler keyHandler;
     private Player player;
     private Thread gameThread;
-    private TileType[][] chunk;
 
-    private Point chunkCoordinates; // The current chunk the player is in, in x and y
-    private String world; // The name of the 'world' the player is in
+    // The world the game is played in
+    private static final String WORLD = "OW";
+
+    // The simulation of the player, chunk and enemies that is drawn by this panel
+    private Simulation simulation;
+
+    // Directory the game is saved in
+    private static final String SAVE_DIRECTORY = "save";
 
-    // Initiate the chunk loader
-    private ChunkLoader chunkLoader = new ChunkLoader();
+    // Snapshot of the simulation made with F5, null if there is none
+    private ByteBuffer quickSave;
 
-    private ShortestPathCalculator pathCalculator;
+    // Records the keys of the session, so it can be replayed when something goes wrong
+    private InputRecorder recorder;
 
-    private boolean gameOver = false;
+    // File in the save directory the recording is written to with F7 and when the game is over
+    private static final String RECORDING_FILE = "last.replay";
 
-    // Map for cached tile images
-    HashMap<TileType, BufferedImage> tileImages = new HashMap<TileType, BufferedImage>();
+    // Map for cached tile images, replaced by the hot reloader when an image file changes
+    Map<TileType, BufferedImage> tileImages = new ConcurrentHashMap<TileType, BufferedImage>();
 
-    // Enemies in chunk
-    ArrayList<Enemy> enemies;
+    // Reloads chunk and asset files changed while the game runs, null if they can't change
+    private HotReloader hotReloader;
 
     /**
      * Initiates GamePanel and adds a Player.
@@ -40,8 +57,10 @@ class GamePanel extends JPanel implements Runnable {
         // Create keyHandler used to receive input from user
         this.keyHandler = new KeyHandler();
 
-        // Initiate player with created KeyHandler and starting position
-        this.player = new Player(188, 188, keyHandler);
+        /* Initiate player with its own KeyHandler and starting position.
+         * The keys held down are copied to it before every update by the recorder,
+         * so the keys can't change in the middle of an update */
+        this.player = new Player(188, 188, new KeyHandler());
 
         // Add KeyListener event to panel
         this.addKeyListener(keyHandler);
@@ -49,59 +68,106 @@ class GamePanel extends JPanel implements Runnable {
         // Set panel to focusable in order to receive input
         this.setFocusable(true);
 
-        // Set player chunk location
-        this.world = "OW";
-        this.chunkCoordinates = new Point(0, 0);
+        // Start the simulation in the starting chunk, or where the player was when the game was saved
+        this.simulation = new Simulation(WORLD, 0, 0, player, openJournal());
+        SimulationMonitor.get().add(simulation);
+        this.recorder = new InputRecorder(simulation, WORLD, 0, InputRecorder.CHECKPOINT_INTERVAL);
 
-        // Load starting chunk
-        initialiseChunk();
+        this.hotReloader = startHotReloader();
     }
 
     /**
-     * Creates and starts the game loop.
+     * Starts reloading the chunk and asset files when they are changed while the game runs.
+     * 
+     * @return The reloader, or null if the files are in a jar or can't be watched
      */
-    public void startThread() {
-        gameThread = new Thread(this);
-        gameThread.start();
+    private HotReloader startHotReloader() {
+        ResourceRoot resources = ResourceRoot.get();
+        if (resources.getDirectory() == null) {
+            return null;
+        }
+
+        try {
+            return new HotReloader(resources);
+        } catch (IOException e) {
+            System.out.println("Unable to watch the chunk and asset files: " + e.getMessage());
+
+            return null;
+        }
     }
 
     /**
-     * Loads in the chunk a player has moved and sets chunk variable accordingly.
-     * If the chunk failed to load, initialiseChunk reverts to the previous chunk and returns false.
+     * Swaps in the chunk and asset files that were changed since the last update.
      */
-    private boolean initialiseChunk() {
-        // Get chunk name using world and chunk location of player
-        String chunkName = world + "_"
-            + (int) chunkCoordinates.getX() + "_" + (int) chunkCoordinates.getY();
-
-        // Load the chunk using the chunk's name
-        TileType[][] newChunk = chunkLoader.loadChunk(chunkName);
+    private void applyReloads() {
+        if (hotReloader != null && hotReloader.applyPending(simulation, tileImages)) {
+            // The recording so far doesn't lead to the changed chunk, so start a new one
+            recorder = new InputRecorder(simulation, WORLD, 0, InputRecorder.CHECKPOINT_INTERVAL);
+        }
+    }
 
-        // If the chunk failed to load, return false
-        if (newChunk == null) {
-            return false;
+    /**
+     * Captures a snapshot of the simulation when F5 was pressed and restores it when F9 was pressed.
+     */
+    private void handleQuickSave() {
+        if (keyHandler.quickSave) {
+            keyHandler.quickSave = false;
+            quickSave = simulation.captureSnapshot();
         }
 
-        // Set the chunk instance variable to the new chunk
-        this.chunk = newChunk;
-
-        // Loop through every tile in the chunk
-        for (int i = 0; i < chunk.length; i++) {
-            for (TileType type : chunk[i]) {
-                /* Check for each tiletype if the image has been cached already,
-                 * if not, load the image and put it in the designated map */
-                if (!tileImages.containsKey(type)) {
-                    Tile tile = new Tile(type);
-                    tileImages.put(type, tile.getTileImage());
-                }
+        if (keyHandler.quickLoad) {
+            keyHandler.quickLoad = false;
+
+            // Read a copy, so the same quick-save can be loaded again
+            if (quickSave != null && simulation.restoreSnapshot(quickSave.duplicate())) {
+                // The recording so far doesn't lead to this state, so start a new one
+                recorder = new InputRecorder(simulation, WORLD, 0, InputRecorder.CHECKPOINT_INTERVAL);
+            } else if (quickSave != null) {
+                System.out.println("Unable to load the quick-save");
             }
         }
 
-        enemies = chunkLoader.loadEnemies(chunkName);
+        if (keyHandler.saveRecording) {
+            keyHandler.saveRecording = false;
+            saveRecording();
+        }
+    }
 
-        pathCalculator = new ShortestPathCalculator(newChunk, player);
+    /**
+     * Writes the recording of the session to the save directory.
+     */
+    private void saveRecording() {
+        try {
+            recorder.write(Paths.get(SAVE_DIRECTORY, RECORDING_FILE));
+        } catch (IOException e) {
+            System.out.println("Unable to save the recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the journal the game is saved in and makes sure it is written when the game closes.
+     * 
+     * @return The journal, or null if it couldn't be opened. The game is then not saved
+     */
+    private WorldJournal openJournal() {
+        try {
+            WorldJournal journal = new WorldJournal(Paths.get(SAVE_DIRECTORY));
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
 
-        return true;
+            return journal;
+        } catch (IOException e) {
+            System.out.println("Unable to load the saved game: " + e.getMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * Creates and starts the game loop.
+     */
+    public void startThread() {
+        gameThread = new Thread(this);
+        gameThread.start();
     }
 
     /**
@@ -110,7 +176,7 @@ class GamePanel extends JPanel implements Runnable {
     public void paint(Graphics g) {
         Graphics2D g2D = (Graphics2D) g;
 
-        if (gameOver) {
+        if (simulation.isGameOver()) {
             g2D.setFont(new Font("Arial", Font.BOLD, 40));
             g2D.drawString("Game Over", 100, 200);
             return;
@@ -122,11 +188,36 @@ class GamePanel extends JPanel implements Runnable {
 
         drawPlayer(g2D);
         drawEnemies(g2D);
+        drawProjectiles(g2D);
 
         drawWallTiles(g2D);
 
         // Shows player hp in the top left corner
         g2D.drawString("Player HP: " + player.getHP(), 10, 10);
+
+        if (keyHandler.debugInfo) {
+            drawDebugInfo(g2D);
+        }
+    }
+
+    /**
+     * Draws information about the simulated chunks below the player HP.
+     * 
+     * @param g2D The graphics2D component to draw with
+     */
+    private void drawDebugInfo(Graphics2D g2D) {
+        ActiveRegion region = simulation.getRegion();
+        int enemyCount = 0;
+
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            enemyCount += region.getResident(n).enemies.size();
+        }
+
+        g2D.drawString("Chunks: " + region.getResidentCount() + " simulated, "
+            + region.getLoadedCount() + " loaded", 10, 25);
+        g2D.drawString("Enemies: " + enemyCount, 10, 40);
+        g2D.drawString(String.format("Update: %.2f ms, %d KB",
+            simulation.getLastTickNanos() / 1e6, region.estimateResidentBytes() / 1024), 10, 55);
     }
 
     /**
@@ -135,15 +226,20 @@ class GamePanel extends JPanel implements Runnable {
      * @param g2D The graphics2D component to draw with 
      */
     private void drawWalkableTiles(Graphics2D g2D) {
-        Tile tile;
+        ChunkTiles chunk = simulation.getChunk();
+
+        for (int i = 0; i < CHUNKHEIGHT; i++) {
+            for (int j = 0; j < CHUNKWIDTH; j++) {
+                TileType type = chunk.getType(j, i);
 
-        for (int i = 0; i < chunk.length; i++) {
-            for (int j = 0; j < chunk[i].length; j++) {
-                tile = new Tile(chunk[i][j]);
+                // Tiles left out of the chunk file, or with a letter that isn't known, are not drawn
+                if (type == null) {
+                    continue;
+                }
 
-                if (!tile.type.isWall) {
+                if (!type.isWall) {
                     // Draw the image of the tile on the coordinates
-                    drawTile(g2D, tileImages.get(tile.type), j * TILESIZE, i * TILESIZE);
+                    drawTile(g2D, getTileImage(type), j * TILESIZE, i * TILESIZE);
                 }
             }
         }
@@ -155,8 +251,48 @@ class GamePanel extends JPanel implements Runnable {
      * @param g2D Graphics2D component to draw with
      */
     private void drawEnemies(Graphics2D g2D) {
-        for (Enemy enemy : enemies) {
-            g2D.drawImage(enemy.getImage(), enemy.getX(), enemy.getY(), null);
+        EnemyStore enemies = simulation.getEnemies();
+
+        for (int i = 0; i < enemies.size; i++) {
+            Enemy type = Enemy.getType(enemies.typeId[i]);
+
+            g2D.drawImage(type.getImage(enemies.sprite[i]), enemies.x[i], enemies.y[i], null);
+        }
+    }
+
+    /**
+     * Draws the projectiles in flight. The projectiles are drawn in one batch per owner,
+     * so the colour only changes once per batch.
+     * 
+     * @param g2D Graphics2D component to draw with
+     */
+    private void drawProjectiles(Graphics2D g2D) {
+        Color previousColor = g2D.getColor();
+
+        drawProjectiles(g2D, ProjectilePool.OWNER_PLAYER, PLAYER_PROJECTILE_COLOR);
+        drawProjectiles(g2D, ProjectilePool.OWNER_ENEMY, ENEMY_PROJECTILE_COLOR);
+
+        g2D.setColor(previousColor);
+    }
+
+    /**
+     * Draws the projectiles of one owner.
+     * 
+     * @param g2D Graphics2D component to draw with
+     * @param owner The owner of the projectiles to draw
+     * @param color The colour to draw the projectiles in
+     */
+    private void drawProjectiles(Graphics2D g2D, byte owner, Color color) {
+        ProjectilePool projectiles = simulation.getProjectiles();
+        g2D.setColor(color);
+
+        for (int i = 0; i < projectiles.size; i++) {
+            if (projectiles.owner[i] != owner) {
+                continue;
+            }
+
+            g2D.fillOval(projectiles.getPixelX(i) - PROJECTILE_SIZE / 2,
+                projectiles.getPixelY(i) - PROJECTILE_SIZE / 2, PROJECTILE_SIZE, PROJECTILE_SIZE);
         }
     }
 
@@ -175,15 +311,20 @@ class GamePanel extends JPanel implements Runnable {
      * @param g2D The graphics2D component to draw with 
      */
     private void drawWallTiles(Graphics2D g2D) {
-        Tile tile;
+        ChunkTiles chunk = simulation.getChunk();
 
-        for (int i = 0; i < chunk.length; i++) {
-            for (int j = 0; j < chunk[i].length; j++) {
-                tile = new Tile(chunk[i][j]);
+        for (int i = 0; i < CHUNKHEIGHT; i++) {
+            for (int j = 0; j < CHUNKWIDTH; j++) {
+                TileType type = chunk.getType(j, i);
 
-                if (tile.type.isWall) {
+                // Tiles left out of the chunk file, or with a letter that isn't known, are not drawn
+                if (type == null) {
+                    continue;
+                }
+
+                if (type.isWall) {
                     // Draw the image of the tile on the coordinates
-                    drawTile(g2D, tileImages.get(tile.type), j * TILESIZE, i * TILESIZE);
+                    drawTile(g2D, getTileImage(type), j * TILESIZE, i * TILESIZE);
                 }
             }
         }
@@ -202,213 +343,36 @@ class GamePanel extends JPanel implements Runnable {
     }
 
     /**
-     * Checks if player is near a chunk border and switches chunk accordingly.
-     */
-    private boolean switchChunk(int playerX, int playerY) {
-        int newChunkX = (int) chunkCoordinates.getX();
-        int newChunkY = (int) chunkCoordinates.getY();
-
-        // Check if player is near the left border of the chunk
-        if (playerX < 5) {
-            // Set new chunk X coordinate
-            newChunkX--;
-
-            // Set the new player location. Player enters from the right.
-            playerX = CHUNKWIDTH * TILESIZE - player.getWidth() - 10;
-
-        // Check if player is near the right border of the chunk
-        } else if (playerX > TILESIZE * CHUNKWIDTH - player.getWidth() - 5) {
-            // Set new chunk X coordinate
-            newChunkX++;
-
-            // Set the new player location. Player enters from the left.
-            playerX = 10;
-
-        // Check if player is near the top border of the chunk
-        } else if (playerY < 5) {
-            // Set new chunk Y coordinate
-            newChunkY++;
-
-            // Set the new player location. Player enters from the bottom.
-            playerY = CHUNKHEIGHT * TILESIZE - player.getHeight() - 10;
-
-        // Check if player is near the bottom border of the chunk
-        } else if (playerY > TILESIZE * CHUNKHEIGHT - player.getHeight() - 5) {
-            // Set new chunk Y coordinate
-            newChunkY--;
-            
-            // Set the new player location. The player enters from the top.
-            playerY = 10;
-
-        // If the player wasn't near a chunk border, return false
-        } else {
-            return false;
-        }
-
-        enterChunk(world, newChunkX, newChunkY, playerX, playerY);
-
-        return true;
-    }
-
-    /**
-     * Enters a new chunk. Has a fail-safe measure in case chunk fails to load.
+     * Gets the image of a tile type. Loads the image and caches it if it hasn't been loaded yet.
      * 
-     * @param world The world the new chunk is in
-     * @param newChunkX The X coordinate of the new chunk
-     * @param newChunkY The Y coordinate of the new chunk
-     * @param newPlayerX The X coordinate the player is placed at after entering new chunk
-     * @param newPlayerY The Y coordinate the player is placed at after entering new chunk
-     */
-    private void enterChunk(
-        String world, int newChunkX, int newChunkY, int newPlayerX, int newPlayerY) {
-
-        // Create a copy of the old chunk coordinates and player coords, in case the new one fails to load 
-        Point oldChunkCoordinates = new Point(chunkCoordinates.getLocation());
-        int oldPlayerX = player.getX();
-        int oldPlayerY = player.getY();
-
-        chunkCoordinates.setLocation(newChunkX, newChunkY);
-
-        // Try to load in the new chunk.
-        if (initialiseChunk()) {
-            /* Set player coordinates accordingly when the chunk was succesfully loaded.
-             * If the chunk wasn't loaded in, we don't change the player's location. */
-            player.setCoordinates(newPlayerX, newPlayerY);
-
-            // If the new player position collides (possible when entering from the edge),
-            // attempt to nudge the player to a nearby valid position before reverting.
-            CollisionCheck cc = new CollisionCheck();
-            if (!cc.canMove(player, player.getX(), player.getY(), this.chunk)) {
-                boolean found = false;
-                // Try small offsets (in pixels) around the target position
-                int maxOffset = 30;
-                int step = 4;
-                for (int r = step; r <= maxOffset && !found; r += step) {
-                    for (int dx = -r; dx <= r && !found; dx += step) {
-                        for (int dy = -r; dy <= r && !found; dy += step) {
-                            int tryX = newPlayerX + dx;
-                            int tryY = newPlayerY + dy;
-                            if (tryX < 0 || tryY < 0) continue;
-                            if (cc.canMove(player, tryX, tryY, this.chunk)) {
-                                player.setCoordinates(tryX, tryY);
-                                found = true;
-                            }
-                        }
-                    }
-                }
-
-                // If no valid nearby position found, revert chunk and player coords
-                if (!found) {
-                    this.chunkCoordinates = oldChunkCoordinates;
-                    player.setCoordinates(oldPlayerX, oldPlayerY);
-                }
-            }
-        } else {
-            // Revert the changes made to chunkCoordinates if loading failed as a fail-safe measure
-            this.chunkCoordinates = oldChunkCoordinates;
-        }
-    }
-
-    /**
-     * Determines whether player can attack an enemy and attacks enemy if possible.
+     * @param type The type of the tile
+     * @return The image of the tile
      */
-    private void attackEnemies() {
-        ArrayList<Enemy> enemiesKilled = new ArrayList<Enemy>();
-        // If the player is unable to attack, return
-        if (!player.canAttack()) {
-            return;
+    private BufferedImage getTileImage(TileType type) {
+        /* Check if the image has been cached already,
+         * if not, load the image and put it in the designated map */
+        if (!tileImages.containsKey(type)) {
+            Tile tile = new Tile(type);
+            tileImages.put(type, tile.getTileImage());
         }
 
-        for (Enemy enemy : enemies) {
-            // If player attack wasn't successful, continue with next enemy
-            if (!player.attack(enemy)) {
-                break;
-            }
-
-            // If the player defeated the enemy, remove it from the ArrayList
-            if (enemy.takeDamage(player.getDamage())) {
-                // Add killed enemy to enemiesKilled List in order to be removed after for loop
-                enemiesKilled.add(enemy);
-            }
-        }
-
-        // Remove killed enemies
-        enemies.removeAll(enemiesKilled);
+        return tileImages.get(type);
     }
 
     /**
      * The game loop. Repeats every one 60th of a second.
      */
     public void run() {
-        // Initiate cooldowns to prevent quickly entering and leaving chunks and reduce CPU load
-        int chunkEnteringCooldown = 0;
-        int pathCalculatorCooldown = 0;
-
-        int playerX;
-        int playerY;
-
-        while (!gameOver) {
+        while (!simulation.isGameOver()) {
             // Redraw the screen
             repaint();
 
-            // Check for movement and change player position
-            player.move(chunk);
-
-            playerX = player.getX();
-            playerY = player.getY();
-
-            /* Check if player has recently switched chunk
-             *   and prevent them from entering a new chunk for a small time if that is the case. */
-            if (chunkEnteringCooldown == 0) {
-                /* Check if player is near a chunk border. If the player has switched chunks,
-                 *   or if there was an attempt to load a new chunk,
-                 *   start the chunk switchting cooldown period. */
-                if (switchChunk(playerX, playerY)) {
-                    chunkEnteringCooldown = 30;
+            // Quick-save, quick-load and swap in changed files between updates
+            handleQuickSave();
+            applyReloads();
 
-                    // Set path calculator cooldown to 0
-                    pathCalculatorCooldown = 0;
-
-                    // As the player is switching chunk, the rest of the loop can be skipped
-                    continue;
-                }
-            } else {
-                chunkEnteringCooldown--;
-            }
-
-            for (Enemy enemy : enemies) {
-                /* Calculate the shortest path to the player
-                 * The enemy will not move for one update while calculating */
-                if (pathCalculatorCooldown == 0) {
-                    // Calculate path
-                    enemy.setPath(pathCalculator.calculateShortestPath(enemy));
-                } else {
-                    // Go to the player following the calculated path
-                    enemy.moveToPlayer(player);
-                }
-
-                enemy.calculateDistancePlayer(
-                    player.getCentreX(), player.getCentreY());
-
-                // If the enemy attacked succesfully
-                if (enemy.attack()) {
-
-                    // Deals damage to the player. If this returned true, the player was defeated.
-                    if (player.takeDamage(enemy.getDamage())) {
-                        gameOver = true;
-                    }
-                }
-            }
-
-            // Have player attack the enemies
-            attackEnemies();
-
-            // Set a cooldown for calculating the paths to reduce CPU load
-            if (pathCalculatorCooldown == 0) {
-                pathCalculatorCooldown = 30;
-            } else {
-                pathCalculatorCooldown--;
-            }
+            // Update the player, chunk and enemies with the keys that are held down
+            recorder.tick(keyHandler.getInputMask());
 
             try {
                 // Sleep every 60th of a second
@@ -420,7 +384,8 @@ class GamePanel extends JPanel implements Runnable {
             }
         }
 
-        // Once the player is defeated, the game loop stops
+        // Once the player is defeated, the game loop stops. Keep the recording of the game
+        saveRecording();
 
         // Repaint the screen one last time to show that the game is over
         repaint();
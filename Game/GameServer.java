@@ -0,0 +1,433 @@
+import java.awt.Point;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Runs the game for players connecting over the network, without a window.
+ * One thread does everything with a Selector: it accepts clients, reads their input,
+ * advances the simulation TICKS_PER_SECOND times per second and writes snapshots to the
+ * clients, see NetProtocol. The server is authoritative, clients only send the keys they
+ * hold down.
+ *
+ * <p>Every client plays in the same world: the server runs one simulation with a player for
+ * every client, which moves with the keys of that client only. A client gets snapshots
+ * around its own player, which show the other players near it. Clients join where the player
+ * the simulation was made with started, and their player leaves the world when they leave.
+ *
+ * <p>Run from the Game folder with "java GameServer [port] [snapshots per second] [view radius]".
+ */
+class GameServer {
+    static final int TICKS_PER_SECOND = 60;
+    private static final long NANOS_PER_TICK = 1_000_000_000L / TICKS_PER_SECOND;
+
+    // Number of updates that may be behind before the server stops catching up
+    private static final int MAX_TICKS_BEHIND = 5;
+
+    private static final int DEFAULT_PORT = 7777;
+    private static final int DEFAULT_SNAPSHOTS_PER_SECOND = 20;
+    private static final int DEFAULT_VIEW_RADIUS = 250;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // The world every client plays in
+    private final Simulation simulation;
+
+    // Where the player of a client starts: the chunks clients start in by turn, and the position in the chunk
+    private final ArrayList<Point> spawnChunks = new ArrayList<Point>();
+    private final int spawnX;
+    private final int spawnY;
+
+    // Number of updates between two snapshots, and the distance from the player within which enemies are sent
+    private final int snapshotInterval;
+    private final int viewRadius;
+
+    private final ArrayList<RemotePlayer> players = new ArrayList<RemotePlayer>();
+    private int nextId = 1;
+
+    private volatile boolean running = true;
+
+    // Number of updates, the time all updates took, and the time the last update took, including the snapshots
+    private volatile long tickCount = 0;
+    private volatile long totalTickNanos = 0;
+    private volatile long lastTickNanos = 0;
+    private long maxTickNanos = 0;
+
+    // The players, resident chunks and simulated enemies after the last update
+    private volatile int simulatedPlayers = 0;
+    private volatile int simulatedChunks = 0;
+    private volatile int simulatedEnemies = 0;
+
+    // Number of updates between two reports of the metrics, 0 to not report
+    private int reportInterval = 0;
+
+    // Number of times a client was ready for writing while nothing was waiting to be written to it
+    private long idleWriteWakeUps = 0;
+
+    /**
+     * Opens the server. Clients can connect once run is called. The player of the simulation
+     * only marks where clients start, it is removed from the simulation.
+     *
+     * @param port The port to listen on, 0 for any free port
+     * @param simulation The world every client plays in
+     * @param snapshotsPerSecond The number of snapshots sent to each client per second
+     * @param viewRadius The distance in pixels from the player within which enemies are sent
+     * @throws IOException If the port can't be opened
+     */
+    public GameServer(int port, Simulation simulation, int snapshotsPerSecond, int viewRadius)
+        throws IOException {
+        this.simulation = simulation;
+        this.snapshotInterval = Math.max(1, TICKS_PER_SECOND / Math.max(1, snapshotsPerSecond));
+        this.viewRadius = viewRadius;
+
+        PlayerState start = simulation.getPlayerState(0);
+        spawnChunks.add(new Point(start.chunkCoordinates));
+        spawnX = start.player.getX();
+        spawnY = start.player.getY();
+        simulation.removePlayer(start);
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int snapshotsPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SNAPSHOTS_PER_SECOND;
+        int viewRadius = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_VIEW_RADIUS;
+
+        GameServer server = new GameServer(port,
+            new Simulation("OW", 0, 0, new Player(188, 188, new KeyHandler())),
+            snapshotsPerSecond, viewRadius);
+        server.setReportInterval(TICKS_PER_SECOND * 5);
+
+        System.out.println("Listening on port " + server.getPort());
+        server.run();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getTotalTickNanos() {
+        return totalTickNanos;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    public int getSimulatedPlayers() {
+        return simulatedPlayers;
+    }
+
+    public int getSimulatedChunks() {
+        return simulatedChunks;
+    }
+
+    public int getSimulatedEnemies() {
+        return simulatedEnemies;
+    }
+
+    public long getIdleWriteWakeUps() {
+        return idleWriteWakeUps;
+    }
+
+    /**
+     * Gets the clients that are connected. Only safe to use once the server has stopped.
+     *
+     * @return The clients
+     */
+    public ArrayList<RemotePlayer> getPlayers() {
+        return players;
+    }
+
+    /**
+     * Spreads the clients over chunks, e.g. to have a load test use as much of the world as
+     * players would: the clients start in the chunks by turn instead of in the chunk the
+     * player of the simulation started in. Must be called before run.
+     *
+     * @param chunks The coordinates of the chunks to start in, which must exist
+     */
+    public void setSpawnChunks(ArrayList<Point> chunks) {
+        spawnChunks.clear();
+        spawnChunks.addAll(chunks);
+    }
+
+    /**
+     * Sets how often the metrics of the clients are printed.
+     *
+     * @param ticks The number of updates between two reports, 0 to not print them
+     */
+    public void setReportInterval(int ticks) {
+        reportInterval = ticks;
+    }
+
+    /**
+     * Stops the server. The thread running the server writes what it still has for the
+     * clients and closes the connections.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the server until it is stopped.
+     *
+     * @throws IOException If the selector fails
+     */
+    public void run() throws IOException {
+        long nextTick = System.nanoTime();
+        SimulationMonitor.get().add(simulation);
+
+        while (running) {
+            long wait = nextTick - System.nanoTime();
+            if (wait >= 1_000_000) {
+                selector.select(wait / 1_000_000);
+            } else {
+                selector.selectNow();
+            }
+
+            handleSelected();
+
+            long now = System.nanoTime();
+            if (now >= nextTick) {
+                tick();
+                nextTick += NANOS_PER_TICK;
+
+                // Don't try to catch up after falling far behind, e.g. after a long GC pause
+                if (now - nextTick > MAX_TICKS_BEHIND * NANOS_PER_TICK) {
+                    nextTick = now;
+                }
+            }
+        }
+
+        close();
+    }
+
+    /**
+     * Prints the bandwidth and the time to write the snapshots of every client.
+     *
+     * @param out The stream to print to
+     */
+    public void printMetrics(PrintStream out) {
+        double seconds = (double) Math.max(1, tickCount) / TICKS_PER_SECOND;
+
+        out.printf("update %d: %d clients, last update %.2f ms, longest %.2f ms%n",
+            tickCount, players.size(), lastTickNanos / 1e6, maxTickNanos / 1e6);
+        out.println("client   sent KB/s  received B/s  snapshots  skipped  compression  avg snapshot us  max snapshot us");
+
+        for (RemotePlayer player : players) {
+            out.printf("%6d %11.1f %13.1f %10d %8d %11.1fx %16.1f %16.1f%n",
+                player.getId(), player.getBytesSent() / 1024.0 / seconds,
+                player.getBytesReceived() / seconds, player.getSnapshotCount(),
+                player.getSkippedSnapshots(), player.getCompressionRatio(),
+                player.getAverageSnapshotNanos() / 1e3, player.getMaxSnapshotNanos() / 1e3);
+        }
+    }
+
+    /**
+     * Accepts new clients and reads from and writes to the clients that are ready.
+     */
+    private void handleSelected() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+
+            RemotePlayer player = (RemotePlayer) key.attachment();
+
+            try {
+                if (key.isReadable() && !player.read()) {
+                    disconnect(player);
+                    continue;
+                }
+
+                if (key.isValid() && key.isWritable()) {
+                    if (!player.hasPending()) {
+                        idleWriteWakeUps++;
+                    }
+
+                    flush(player, key);
+                }
+            } catch (IOException e) {
+                System.out.println("Client " + player.getId() + " disconnected: " + e.getMessage());
+                disconnect(player);
+            }
+        }
+    }
+
+    /**
+     * Accepts a client that is connecting. It joins the world at its current state, with a
+     * player of its own at the start.
+     */
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Point spawn = spawnChunks.get((nextId - 1) % spawnChunks.size());
+            PlayerState state = simulation.addPlayer(
+                new Player(spawnX, spawnY, new KeyHandler()), spawn.x, spawn.y);
+            if (state == null) {
+                System.out.println("Unable to accept a client: the start chunk doesn't exist");
+                channel.close();
+                return;
+            }
+
+            RemotePlayer player = new RemotePlayer(
+                nextId++, channel, simulation, state, snapshotInterval, viewRadius);
+            players.add(player);
+
+            // Only wait for the client to be ready for writing if the welcome doesn't fit at once
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ, player);
+            flush(player, key);
+        } catch (IOException e) {
+            System.out.println("Unable to accept a client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Advances the simulation, every player with the keys held down by its client, and writes
+     * snapshots of it to every client when they are due.
+     */
+    private void tick() {
+        long start = System.nanoTime();
+        tickCount++;
+
+        for (int n = 0; n < players.size(); n++) {
+            RemotePlayer player = players.get(n);
+            player.getPlayerState().player.keyHandler.setInputMask(player.getInput());
+        }
+
+        simulation.tick();
+        simulatedPlayers = simulation.getPlayerCount();
+        simulatedChunks = simulation.getSimulatedChunks();
+        simulatedEnemies = simulation.getSimulatedEnemies();
+
+        if (tickCount % snapshotInterval == 0) {
+            writeSnapshots();
+        }
+
+        lastTickNanos = System.nanoTime() - start;
+        totalTickNanos += lastTickNanos;
+        maxTickNanos = Math.max(maxTickNanos, lastTickNanos);
+
+        if (reportInterval > 0 && tickCount % reportInterval == 0) {
+            printMetrics(System.out);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the simulation to every client.
+     */
+    private void writeSnapshots() {
+        for (int n = players.size() - 1; n >= 0; n--) {
+            RemotePlayer player = players.get(n);
+            player.writeSnapshot(viewRadius, players);
+
+            try {
+                flush(player, player.getChannel().keyFor(selector));
+            } catch (IOException e) {
+                System.out.println("Client " + player.getId() + " disconnected: " + e.getMessage());
+                disconnect(player);
+            }
+        }
+    }
+
+    /**
+     * Writes as much as a client accepts. The server only waits for the client to be ready
+     * for writing while bytes are waiting, otherwise the selector would wake up all the time.
+     *
+     * @param player The client
+     * @param key The key of the client in the selector
+     * @throws IOException If the connection failed
+     */
+    private void flush(RemotePlayer player, SelectionKey key) throws IOException {
+        if (player.flush()) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            // Wait for the client to be ready for the rest
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Closes the connection to a client and removes its player. The world goes on without it.
+     *
+     * @param player The client
+     */
+    private void disconnect(RemotePlayer player) {
+        players.remove(player);
+        simulation.removePlayer(player.getPlayerState());
+
+        try {
+            player.getChannel().close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * Writes what is left for the clients, closes every connection and stops the simulation.
+     */
+    private void close() throws IOException {
+        selector.close();
+        serverChannel.close();
+
+        SimulationMonitor.get().remove(simulation);
+        simulation.release();
+
+        for (RemotePlayer player : players) {
+            SocketChannel channel = player.getChannel();
+
+            try {
+                // The channel is no longer registered, so it can block until everything is written
+                channel.configureBlocking(true);
+                player.flush();
+                channel.shutdownOutput();
+            } catch (IOException e) {
+                System.out.println("Unable to write to client " + player.getId() + ": " + e.getMessage());
+            }
+
+            channel.close();
+        }
+    }
+}
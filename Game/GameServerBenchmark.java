@@ -0,0 +1,283 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Benchmarks of hosting games: a server with clients on this machine ("server") and many games
+ * in one JVM ("sessions").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark server".
+ */
+class GameServerBenchmark {
+    /**
+     * Runs a GameServer with 8 clients on this machine, each steering its own player around at
+     * random for a few seconds, then stops it and checks that every client ends up with exactly
+     * what the server last sent it, that the clients play in one world with a player each and
+     * saw each other, and that the server was never woken up to write to a client without
+     * anything to write. Prints the bandwidth, compression and update time per client.
+     *
+     * @return True if every client matched the server, had its own player, and there were no idle wake-ups
+     */
+    static boolean benchmarkServer() {
+        int clientCount = 8;
+        long runNanos = 5_000_000_000L;
+
+        try {
+            GameServer server = new GameServer(0, Benchmark.createSimulation(500, 42), 20, 250);
+
+            Thread serverThread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    System.out.println("Server failed: " + e.getMessage());
+                }
+            }, "server");
+            serverThread.start();
+
+            GameClient[] clients = new GameClient[clientCount];
+            for (int n = 0; n < clientCount; n++) {
+                clients[n] = new GameClient("localhost", server.getPort());
+            }
+
+            // Hold a random direction for a random time, polling the server in between
+            Random random = new Random(42);
+            int[] directions = {KeyHandler.INPUT_UP, KeyHandler.INPUT_DOWN, KeyHandler.INPUT_LEFT,
+                KeyHandler.INPUT_RIGHT, KeyHandler.INPUT_UP | KeyHandler.INPUT_LEFT,
+                KeyHandler.INPUT_DOWN | KeyHandler.INPUT_RIGHT, 0};
+            long[] changeAt = new long[clientCount];
+
+            // Most projectiles and other players a client was sent in one snapshot
+            int mostProjectiles = 0;
+            int mostPlayers = 0;
+
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < runNanos) {
+                long now = System.nanoTime();
+
+                for (int n = 0; n < clientCount; n++) {
+                    if (now >= changeAt[n]) {
+                        clients[n].sendInput(directions[random.nextInt(directions.length)]
+                            | (random.nextBoolean() ? KeyHandler.INPUT_SPACE : 0)
+                            | (random.nextBoolean() ? KeyHandler.INPUT_SHOOT : 0));
+                        changeAt[n] = now + 200_000_000L + random.nextInt(800) * 1_000_000L;
+                    }
+
+                    clients[n].poll();
+                    mostProjectiles = Math.max(mostProjectiles,
+                        clients[n].getProjectiles().length / RemotePlayer.PROJECTILE_VALUES);
+                    mostPlayers = Math.max(mostPlayers,
+                        clients[n].getPlayers().length / RemotePlayer.PLAYER_VALUES);
+                }
+
+                LockSupport.parkNanos(2_000_000);
+            }
+
+            // Read everything the server still sends while it closes the connections
+            server.stop();
+            boolean[] closed = new boolean[clientCount];
+            int closedCount = 0;
+            while (closedCount < clientCount) {
+                for (int n = 0; n < clientCount; n++) {
+                    if (closed[n]) {
+                        continue;
+                    }
+
+                    try {
+                        clients[n].poll();
+                    } catch (EOFException e) {
+                        closed[n] = true;
+                        closedCount++;
+                        clients[n].close();
+                    }
+                }
+
+                LockSupport.parkNanos(1_000_000);
+            }
+            serverThread.join();
+
+            server.printMetrics(System.out);
+
+            boolean allMatch = true;
+            for (RemotePlayer player : server.getPlayers()) {
+                GameClient client = clients[player.getId() - 1];
+                boolean match = client.getId() == player.getId()
+                    && client.getPlayerX() == player.getSentPlayerX()
+                    && client.getPlayerY() == player.getSentPlayerY()
+                    && client.getPlayerHp() == player.getSentPlayerHp()
+                    && sameEnemies(client.getEnemies(), player.getSentEnemies())
+                    && Arrays.equals(client.getProjectiles(), player.getSentProjectiles())
+                    && Arrays.equals(client.getPlayers(), player.getSentPlayers());
+                allMatch &= match;
+
+                System.out.printf("client %d: %d snapshots, %d chunks, %d enemies in view, %d projectiles, %d players in view, %s%n",
+                    client.getId(), client.getSnapshotCount(), client.getChunkCount(),
+                    client.getEnemies().size(), client.getProjectiles().length / RemotePlayer.PROJECTILE_VALUES,
+                    client.getPlayers().length / RemotePlayer.PLAYER_VALUES,
+                    match ? "matches the server" : "MISMATCH");
+            }
+
+            // The clients play in one world with a player each, steered apart by their own keys
+            boolean sameWorld = true;
+            boolean ownPlayers = server.getSimulation().getPlayerCount() == clientCount;
+            for (GameClient client : clients) {
+                sameWorld &= client.getTick() == clients[0].getTick();
+            }
+
+            int positions = 0;
+            for (int n = 0; n < clientCount; n++) {
+                boolean seen = false;
+                for (int m = 0; m < n; m++) {
+                    seen |= clients[m].getChunkX() == clients[n].getChunkX()
+                        && clients[m].getChunkY() == clients[n].getChunkY()
+                        && clients[m].getPlayerX() == clients[n].getPlayerX()
+                        && clients[m].getPlayerY() == clients[n].getPlayerY();
+                }
+                positions += seen ? 0 : 1;
+            }
+            ownPlayers &= positions > 1;
+            allMatch &= sameWorld && ownPlayers;
+
+            System.out.printf("the clients %s, update %d, %d players in the simulation at %d places, "
+                + "at most %d projectiles and %d other players in a snapshot%n",
+                sameWorld ? "see the same world" : "see DIFFERENT worlds", clients[0].getTick(),
+                server.getSimulation().getPlayerCount(), positions, mostProjectiles, mostPlayers);
+            allMatch &= mostProjectiles > 0 && mostPlayers > 0;
+
+            System.out.printf("woken up %d times to write to a client with nothing to write%n",
+                server.getIdleWriteWakeUps());
+
+            return allMatch && server.getPlayers().size() == clientCount && server.getIdleWriteWakeUps() == 0;
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Server benchmark failed: " + e.getMessage());
+
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a client holds the enemies the server last sent it.
+     *
+     * @param received The enemies of the client by handle
+     * @param sent The enemies the server sent by handle
+     * @return True if both hold the same enemies with the same values
+     */
+    private static boolean sameEnemies(Map<Integer, int[]> received, Map<Integer, int[]> sent) {
+        if (received.size() != sent.size()) {
+            return false;
+        }
+
+        for (Map.Entry<Integer, int[]> entry : sent.entrySet()) {
+            int[] enemy = received.get(entry.getKey());
+            if (enemy == null || !Arrays.equals(enemy, 0, enemy.length, entry.getValue(), 0, enemy.length)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Hosts a growing number of sessions with 20 enemies each in one JVM, one worker per
+     * processor, and measures the session updates per second, the latency of the updates and
+     * the memory per session. Stops at the first number of sessions the workers can't keep
+     * up with: fewer than 95% of the updates done, or a median latency above one update.
+     * The 99th percentile is printed as well, but on a busy machine it also shows other
+     * processes taking the processor.
+     * Exits with status 1 if a chunk was parsed more than once, which means sessions don't share chunks.
+     *
+     * @return True if every chunk was parsed once
+     */
+    static boolean benchmarkSessions() {
+        int[] sessionCounts = {250, 500, 1000, 2000, 4000, 8000};
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        long runNanos = 3_000_000_000L;
+        Random random = new Random(42);
+
+        try {
+            // Warm up before measuring
+            runSessions(200, workerCount, 2_000_000_000L, random, false);
+
+            System.out.println("sessions  updates/s  done  p50 us  p99 us  max us  busy  KB/session");
+
+            for (int sessionCount : sessionCounts) {
+                boolean saturated = runSessions(sessionCount, workerCount, runNanos, random, true);
+
+                if (saturated) {
+                    System.out.println("saturated at " + sessionCount + " sessions on " + workerCount + " workers");
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        ChunkLibrary library = ChunkLibrary.get();
+        boolean shared = library.getLoadCount() == library.size();
+
+        System.out.printf("shared chunks: %d templates, %d KB, parsed %d times: %s%n",
+            library.size(), library.estimateBytes() / 1024, library.getLoadCount(),
+            shared ? "ok" : "PARSED AGAIN");
+
+        return shared;
+    }
+
+    /**
+     * Runs sessions walking around at random on a new host.
+     *
+     * @param sessionCount The number of sessions
+     * @param workerCount The number of workers of the host
+     * @param runNanos How long to run the sessions
+     * @param random The random generator for the keys
+     * @param print True to print a line with the metrics
+     * @return True if the workers couldn't keep up
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    private static boolean runSessions(int sessionCount, int workerCount, long runNanos, Random random,
+        boolean print) throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        SessionHost host = new SessionHost(workerCount);
+        for (int n = 0; n < sessionCount; n++) {
+            host.addSession(Benchmark.createSimulation(20, n));
+        }
+
+        System.gc();
+        long bytesPerSession = (runtime.totalMemory() - runtime.freeMemory() - usedBefore) / sessionCount;
+
+        int[] directions = {KeyHandler.INPUT_UP, KeyHandler.INPUT_DOWN, KeyHandler.INPUT_LEFT,
+            KeyHandler.INPUT_RIGHT, KeyHandler.INPUT_SPACE, 0};
+
+        host.start();
+        long start = System.nanoTime();
+
+        // Every 100 ms a tenth of the sessions change direction
+        while (System.nanoTime() - start < runNanos) {
+            for (int n = 0; n < sessionCount / 10; n++) {
+                GameSession session = host.getSessions().get(random.nextInt(sessionCount));
+                session.setInput(directions[random.nextInt(directions.length)]);
+            }
+
+            LockSupport.parkNanos(100_000_000L);
+        }
+
+        host.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram latency = host.getLatency();
+        double updatesPerSecond = host.getSessionTickCount() / seconds;
+        double done = updatesPerSecond / (sessionCount * SessionHost.TICKS_PER_SECOND);
+        long tickMicros = 1_000_000 / SessionHost.TICKS_PER_SECOND;
+
+        if (print) {
+            System.out.printf("%8d %10.0f %4.0f%% %7d %7d %7d %4.0f%% %11.1f%n",
+                sessionCount, updatesPerSecond, 100 * done, latency.getPercentile(50),
+                latency.getPercentile(99), latency.getMax(), 100 * host.getBusyShare(), bytesPerSession / 1024.0);
+        }
+
+        return done < 0.95 || latency.getPercentile(50) > tickMicros;
+    }
+}
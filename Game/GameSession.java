@@ -0,0 +1,124 @@
+/**
+ * A game hosted by a SessionHost: a simulation without a window and the keys its player holds
+ * down. Updated by one worker of the host; the input may be set from any thread. A bot can
+ * play the session instead, its policy is then asked for the keys before every update.
+ */
+class GameSession {
+    private final int id;
+    private final Simulation simulation;
+
+    // The keys the player holds down, see KeyHandler.getInputMask
+    private volatile int input = 0;
+
+    // The bot playing the session, null if the input is set from outside
+    private volatile BotPolicy policy = null;
+    private final SimulationView view;
+
+    // Set when the session is removed, the worker drops it before its next update
+    private volatile boolean closed = false;
+
+    /* Metrics, written by the worker. The latency of an update is the time from when the
+     * update was due until it was done, so it includes waiting for the sessions before it */
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long tickCount = 0;
+    private long tickNanos = 0;
+    private long maxTickNanos = 0;
+
+    /**
+     * Initiates a session.
+     *
+     * @param id The number of the session
+     * @param simulation The simulation of the session
+     */
+    public GameSession(int id, Simulation simulation) {
+        this.id = id;
+        this.simulation = simulation;
+        this.view = new SimulationView(simulation);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public int getInput() {
+        return input;
+    }
+
+    public void setInput(int newInput) {
+        input = newInput;
+    }
+
+    /**
+     * Lets a bot play the session from the next update on.
+     *
+     * @param newPolicy The policy of the bot, or null to use the input set with setInput
+     */
+    public void setPolicy(BotPolicy newPolicy) {
+        policy = newPolicy;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Removes the session from its host. The simulation isn't updated anymore after the
+     * update that may be running.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getAverageTickNanos() {
+        return tickCount == 0 ? 0 : tickNanos / tickCount;
+    }
+
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    /**
+     * Advances the simulation by one update with the keys the player holds down.
+     *
+     * @param due The time in nanoseconds the update was due
+     */
+    void tick(long due) {
+        long start = System.nanoTime();
+
+        BotPolicy bot = policy;
+        if (bot != null) {
+            input = bot.chooseInput(view);
+        }
+
+        simulation.getPlayer().keyHandler.setInputMask(input);
+        simulation.tick();
+
+        long end = System.nanoTime();
+        tickCount++;
+        tickNanos += end - start;
+        maxTickNanos = Math.max(maxTickNanos, end - start);
+        latency.record((end - due) / 1000);
+    }
+
+    /**
+     * Forgets the metrics. Only called by the worker updating the session.
+     */
+    void clearMetrics() {
+        latency.clear();
+        tickCount = 0;
+        tickNanos = 0;
+        maxTickNanos = 0;
+    }
+}
@@ -0,0 +1,328 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Reloads chunk and asset files that are changed while the game runs, so changes to the
+ * world and the sprites show up without restarting the game.
+ * A background thread watches the chunks and assets folders of the ResourceRoot. Changes are
+ * collected until no file has changed for DEBOUNCE_NANOS, as editors often write a file in
+ * several steps. The changed files are then read and decoded on the background thread, and
+ * the game thread swaps the results in between two updates with applyPending, which only
+ * replaces references so it never makes an update late.
+ *
+ * <p>Changed tiles replace the tiles and walls of the chunk if it is loaded, and the paths and
+ * line of sight calculated over the old walls are forgotten. Changed sprites replace the images
+ * of the player or enemy type. Changed tile images replace the image drawn for the tile type.
+ * Other files, like the enemies of a chunk, are read again the next time they are loaded.
+ */
+class HotReloader {
+    // Time without changes after which the changed files are reloaded
+    static final long DEBOUNCE_NANOS = 150_000_000L;
+
+    // Kinds of reloaded resources
+    private static final int RELOAD_CHUNK = 0;
+    private static final int RELOAD_SPRITE = 1;
+    private static final int RELOAD_TILE_IMAGE = 2;
+
+    /**
+     * A reloaded resource, decoded and waiting to be swapped in.
+     */
+    private static class Reload {
+        final int kind;
+
+        // The name of the chunk or sprite
+        final String name;
+
+        final ChunkTemplate template;
+        final Map<String, BufferedImage> images;
+        final TileType tileType;
+        final BufferedImage tileImage;
+
+        Reload(int kind, String name, ChunkTemplate template, Map<String, BufferedImage> images,
+            TileType tileType, BufferedImage tileImage) {
+            this.kind = kind;
+            this.name = name;
+            this.template = template;
+            this.images = images;
+            this.tileType = tileType;
+            this.tileImage = tileImage;
+        }
+    }
+
+    private final ResourceRoot resources;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    // The folder watched with each key
+    private final Map<WatchKey, Path> watchedFolders = new HashMap<WatchKey, Path>();
+
+    // Resources decoded by the watcher that the game thread hasn't swapped in yet
+    private final ConcurrentLinkedQueue<Reload> pending = new ConcurrentLinkedQueue<Reload>();
+
+    private volatile boolean running = true;
+
+    // Number of resources swapped in, and the longest time applyPending took
+    private long appliedCount = 0;
+    private long maxApplyNanos = 0;
+
+    /**
+     * Starts watching the chunks and assets folders of a resource root.
+     *
+     * @param resources The root to watch, its folder must be on the file system
+     * @throws IOException If the folders can't be watched
+     */
+    public HotReloader(ResourceRoot resources) throws IOException {
+        if (resources.getDirectory() == null) {
+            throw new IOException("Resources in a jar can't change");
+        }
+
+        this.resources = resources;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        for (String folder : ResourceRoot.getIndexedFolders()) {
+            Path path = resources.getDirectory().resolve(folder);
+
+            if (Files.isDirectory(path)) {
+                watchTree(path);
+            }
+        }
+
+        watcher = new Thread(this::runWatcher, "resource-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    public long getMaxApplyNanos() {
+        return maxApplyNanos;
+    }
+
+    /**
+     * Swaps in the resources that have been reloaded since the last call.
+     * Must be called by the game thread between updates.
+     *
+     * @param simulation The simulation to swap reloaded chunks and sprites into
+     * @param tileImages The cached images of the tile types, or null if nothing is drawn
+     * @return True if the tiles of a loaded chunk were replaced, which changes the simulation
+     */
+    public boolean applyPending(Simulation simulation, Map<TileType, BufferedImage> tileImages) {
+        if (pending.isEmpty()) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean changed = false;
+
+        Reload reload;
+        while ((reload = pending.poll()) != null) {
+            switch (reload.kind) {
+                case RELOAD_CHUNK:
+                    changed |= simulation.reloadChunk(reload.template);
+                    break;
+                case RELOAD_SPRITE:
+                    // Entities created from now on get the new images as well
+                    Entity.replaceEntityImages(reload.name, reload.images);
+
+                    if (reload.name.equals(simulation.getPlayer().getClass().getSimpleName())) {
+                        simulation.getPlayer().replaceImages(reload.images);
+                    } else if (EnemyRegistry.get(reload.name) != null) {
+                        EnemyRegistry.get(reload.name).replaceImages(reload.images);
+                    }
+                    break;
+                default:
+                    if (tileImages != null) {
+                        tileImages.put(reload.tileType, reload.tileImage);
+                    }
+                    break;
+            }
+
+            appliedCount++;
+        }
+
+        maxApplyNanos = Math.max(maxApplyNanos, System.nanoTime() - start);
+
+        return changed;
+    }
+
+    /**
+     * Stops watching the folders.
+     */
+    public void close() {
+        running = false;
+
+        try {
+            watchService.close();
+            watcher.join();
+        } catch (IOException e) {
+            System.out.println("Unable to stop watching the resources: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Watches a folder and every folder in it.
+     *
+     * @param folder The folder
+     * @throws IOException If a folder can't be watched
+     */
+    private void watchTree(Path folder) throws IOException {
+        try (Stream<Path> walk = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) walk.filter(Files::isDirectory)::iterator) {
+                WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+                synchronized (watchedFolders) {
+                    watchedFolders.put(key, path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects changed files until nothing has changed for a while, then reloads them.
+     * Runs until the reloader is closed.
+     */
+    private void runWatcher() {
+        Set<String> changed = new LinkedHashSet<String>();
+        long lastChangeNanos = 0;
+
+        try {
+            while (running) {
+                WatchKey key;
+
+                if (changed.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long wait = lastChangeNanos + DEBOUNCE_NANOS - System.nanoTime();
+                    key = wait > 0
+                        ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (key == null) {
+                    reload(changed);
+                    changed.clear();
+                    continue;
+                }
+
+                collectChanges(key, changed);
+                lastChangeNanos = System.nanoTime();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed, stop watching
+        }
+    }
+
+    /**
+     * Adds the files changed in the folder of a key to the set of changed files.
+     * Folders that were created are watched as well, with the files already in them.
+     *
+     * @param key The key of the folder with changes
+     * @param changed The paths of the changed files relative to the root
+     */
+    private void collectChanges(WatchKey key, Set<String> changed) {
+        Path folder;
+        synchronized (watchedFolders) {
+            folder = watchedFolders.get(key);
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                continue;
+            }
+
+            Path path = folder.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    watchTree(path);
+
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(Files::isRegularFile).forEach(file -> changed.add(relative(file)));
+                    }
+                } catch (IOException e) {
+                    System.out.println("Unable to watch " + path + ": " + e.getMessage());
+                }
+            } else {
+                changed.add(relative(path));
+            }
+        }
+
+        if (!key.reset()) {
+            synchronized (watchedFolders) {
+                watchedFolders.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Updates the resource root for changed files and decodes the ones that are swapped in.
+     *
+     * @param changed The paths of the changed files relative to the root
+     */
+    private void reload(Set<String> changed) {
+        Set<String> sprites = new LinkedHashSet<String>();
+
+        for (String path : changed) {
+            resources.invalidate(path);
+        }
+
+        for (String path : changed) {
+            String[] parts = path.split("/");
+
+            if (parts.length == 3 && parts[0].equals("chunks") && parts[2].equals("tiles.txt")) {
+                ChunkTemplate template = ChunkLibrary.get().reload(parts[1]);
+
+                // A deleted chunk stays loaded until the game is started again
+                if (template != null) {
+                    pending.add(new Reload(RELOAD_CHUNK, parts[1], template, null, null, null));
+                }
+            } else if (parts.length == 4 && parts[0].equals("assets") && parts[1].equals("sprites")) {
+                sprites.add(parts[2]);
+            } else {
+                for (TileType type : TileType.values()) {
+                    if (type.image.equals(path) && resources.exists(path)) {
+                        BufferedImage image = new Tile(type).getTileImage();
+
+                        if (image != null) {
+                            pending.add(new Reload(RELOAD_TILE_IMAGE, type.name(), null, null, type, image));
+                        }
+                    }
+                }
+            }
+        }
+
+        for (String sprite : sprites) {
+            Map<String, BufferedImage> images = Entity.loadEntityImages(sprite);
+            pending.add(new Reload(RELOAD_SPRITE, sprite, null, images, null, null));
+        }
+    }
+
+    /**
+     * Makes the path of a file relative to the resource root.
+     *
+     * @param file The file
+     * @return The path relative to the root, with / between folders
+     */
+    private String relative(Path file) {
+        return resources.getDirectory().relativize(file).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Records the input of a simulation, so a session can be replayed with InputReplay.
+ * A snapshot of the simulation is captured when recording starts. After that only the keys
+ * are recorded, and only when they change, together with the number of updates since the
+ * previous record. Every few updates the state hash of the simulation is recorded as a
+ * checkpoint, so a replay can tell when it no longer matches the recording.
+ * The records are compressed when the recording is written.
+ *
+ * <p>Chunks loaded for the first time get the HP of their enemies from the journal of the
+ * game, which isn't part of the snapshot. The HP the journal restores are kept with the
+ * snapshot, so the replay restores chunks it enters the same way.
+ *
+ * <p>The recorder drives the simulation: the keys passed to tick are set on the key handler
+ * of the player before the update, so the recorded keys are exactly the keys the update read.
+ */
+class InputRecorder {
+    // Recordings start with this number and the version of the format
+    static final int MAGIC = 0x4352504C;
+    static final int VERSION = 2;
+
+    // Types of records
+    static final byte RECORD_INPUT = 0;
+    static final byte RECORD_CHECKPOINT = 1;
+
+    // Default number of updates between two checkpoints
+    static final int CHECKPOINT_INTERVAL = 600;
+
+    private final Simulation simulation;
+    private final String world;
+    private final long seed;
+    private final int checkpointInterval;
+
+    // Settings and snapshot of the simulation when recording started
+    private final ByteBuffer settings = ByteBuffer.allocate(Simulation.SETTINGS_BYTES);
+    private final ByteBuffer snapshot;
+
+    // HP of enemies by spawn id that the simulation applies to chunks it loads, see ActiveRegion
+    private final Map<Integer, Integer> restoredEnemyHp;
+
+    // Uncompressed records
+    private byte[] records = new byte[4096];
+    private int recordsLength = 0;
+
+    // Number of recorded updates, and the update of the last record
+    private long tickCount = 0;
+    private long lastRecordTick = 0;
+
+    // Keys of the last update, -1 before the first update so it is always recorded
+    private int lastInput = -1;
+
+    /**
+     * Starts recording a simulation from its current state.
+     *
+     * @param simulation The simulation to record
+     * @param world The name of the world of the simulation
+     * @param seed The seed the scenario of the simulation was made with, 0 if there is none
+     * @param checkpointInterval The number of updates between two checkpoints
+     */
+    public InputRecorder(Simulation simulation, String world, long seed, int checkpointInterval) {
+        this.simulation = simulation;
+        this.world = world;
+        this.seed = seed;
+        this.checkpointInterval = checkpointInterval;
+        this.snapshot = simulation.captureSnapshot();
+
+        Map<Integer, Integer> restored = simulation.getRegion().getRestoredEnemyHp();
+        this.restoredEnemyHp = restored != null ? restored : Collections.<Integer, Integer>emptyMap();
+
+        simulation.writeSettings(settings);
+        settings.flip();
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Gets the number of bytes of the records before compressing them.
+     *
+     * @return The number of bytes
+     */
+    public int getRecordsLength() {
+        return recordsLength;
+    }
+
+    /**
+     * Advances the simulation by one update with the given keys held down.
+     *
+     * @param input The keys held down, see KeyHandler.getInputMask
+     */
+    public void tick(int input) {
+        tickCount++;
+
+        if (input != lastInput) {
+            startRecord(RECORD_INPUT);
+            putByte(input);
+            lastInput = input;
+        }
+
+        simulation.getPlayer().keyHandler.setInputMask(input);
+        simulation.tick();
+
+        if (tickCount % checkpointInterval == 0) {
+            startRecord(RECORD_CHECKPOINT);
+
+            long hash = simulation.stateHash();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                putByte((int) (hash >>> shift));
+            }
+        }
+    }
+
+    /**
+     * Makes the recording with its header, snapshot and compressed records.
+     *
+     * @return The bytes of the recording
+     */
+    public byte[] toBytes() {
+        byte[] worldName = world.getBytes(StandardCharsets.UTF_8);
+
+        // Compress the records
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(records, 0, recordsLength);
+        deflater.finish();
+
+        byte[] compressed = new byte[64 + recordsLength];
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(
+                compressed, compressedLength, compressed.length - compressedLength);
+        }
+        deflater.end();
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+            3 * 4 + worldName.length + 8 + 4 + 8 + Simulation.SETTINGS_BYTES
+            + 4 + snapshot.remaining() + 4 + restoredEnemyHp.size() * 2 * 4 + 2 * 4 + compressedLength);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(worldName.length);
+        buffer.put(worldName);
+        buffer.putLong(seed);
+        buffer.putInt(checkpointInterval);
+        buffer.putLong(tickCount);
+        buffer.put(settings.duplicate());
+
+        buffer.putInt(snapshot.remaining());
+        buffer.put(snapshot.duplicate());
+
+        buffer.putInt(restoredEnemyHp.size());
+        for (Map.Entry<Integer, Integer> entry : restoredEnemyHp.entrySet()) {
+            buffer.putInt(entry.getKey());
+            buffer.putInt(entry.getValue());
+        }
+
+        buffer.putInt(recordsLength);
+        buffer.putInt(compressedLength);
+        buffer.put(compressed, 0, compressedLength);
+
+        return buffer.array();
+    }
+
+    /**
+     * Writes the recording to a file.
+     *
+     * @param file The file to write to
+     * @throws IOException If the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        Files.write(file, toBytes());
+    }
+
+    /**
+     * Starts a record with its type and the number of updates since the previous record.
+     *
+     * @param type The type of the record
+     */
+    private void startRecord(byte type) {
+        putByte(type);
+
+        // Variable length number, 7 bits per byte with the high bit set if more bytes follow
+        long delta = tickCount - lastRecordTick;
+        while (delta >= 0x80) {
+            putByte((int) (delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        putByte((int) delta);
+
+        lastRecordTick = tickCount;
+    }
+
+    /**
+     * Adds a byte to the records, growing them if needed.
+     *
+     * @param value The byte, only the lowest 8 bits are used
+     */
+    private void putByte(int value) {
+        if (recordsLength == records.length) {
+            records = Arrays.copyOf(records, records.length * 2);
+        }
+
+        records[recordsLength] = (byte) value;
+        recordsLength++;
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Replays a recording made by InputRecorder in a new simulation without a window.
+ * The simulation is restored from the snapshot of the recording, after which the recorded keys
+ * are fed back update by update. At every checkpoint the state hash is compared with the
+ * recorded hash, so nondeterminism is found at the first checkpoint after it happens.
+ * Chunks loaded for the first time get the HP of their enemies that the journal of the
+ * recorded game gave them, which are kept in the recording.
+ */
+class InputReplay {
+    private final String world;
+    private final long seed;
+    private final int checkpointInterval;
+    private final long tickCount;
+    private final ByteBuffer settings;
+    private final ByteBuffer snapshot;
+
+    // HP of enemies by spawn id that the journal of the recorded game restored, see InputRecorder
+    private final HashMap<Integer, Integer> restoredEnemyHp;
+
+    // Uncompressed records, see InputRecorder
+    private final byte[] records;
+
+    // Position in the records while replaying, and the type of the next record
+    private int cursor;
+    private byte nextType;
+
+    // Number of checkpoints compared by the last replay
+    private int checkedCount = 0;
+
+    /**
+     * Reads a recording.
+     *
+     * @param data The bytes of the recording
+     * @throws IOException If the data isn't a recording of this version or is damaged
+     */
+    public InputReplay(byte[] data) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            if (buffer.getInt() != InputRecorder.MAGIC || buffer.getInt() != InputRecorder.VERSION) {
+                throw new IOException("Not a recording of version " + InputRecorder.VERSION);
+            }
+
+            byte[] worldName = new byte[buffer.getInt()];
+            buffer.get(worldName);
+            world = new String(worldName, StandardCharsets.UTF_8);
+
+            seed = buffer.getLong();
+            checkpointInterval = buffer.getInt();
+            tickCount = buffer.getLong();
+
+            settings = slice(buffer, Simulation.SETTINGS_BYTES);
+            snapshot = slice(buffer, buffer.getInt());
+
+            int restoredCount = buffer.getInt();
+            if (restoredCount < 0 || restoredCount > buffer.remaining() / 8) {
+                throw new IOException("The recording is cut off");
+            }
+
+            restoredEnemyHp = new HashMap<Integer, Integer>();
+            for (int n = 0; n < restoredCount; n++) {
+                int spawnId = buffer.getInt();
+                restoredEnemyHp.put(spawnId, buffer.getInt());
+            }
+
+            records = new byte[buffer.getInt()];
+            int compressedLength = buffer.getInt();
+
+            // Decompress the records
+            Inflater inflater = new Inflater();
+            inflater.setInput(data, buffer.position(), compressedLength);
+            int length = 0;
+            while (length < records.length && !inflater.finished()) {
+                int inflated = inflater.inflate(records, length, records.length - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("The records of the recording are cut off");
+                }
+                length += inflated;
+            }
+            inflater.end();
+
+            if (length != records.length) {
+                throw new IOException("The records of the recording are cut off");
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("The recording is cut off");
+        } catch (DataFormatException e) {
+            throw new IOException("The records of the recording are damaged: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a recording from a file.
+     *
+     * @param file The file to read
+     * @return The recording
+     * @throws IOException If the file can't be read or isn't a recording
+     */
+    public static InputReplay load(Path file) throws IOException {
+        return new InputReplay(Files.readAllBytes(file));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public int getCheckedCount() {
+        return checkedCount;
+    }
+
+    /**
+     * Creates a simulation in the state the recording started in.
+     *
+     * @return The simulation, or null if the snapshot can't be restored in this world
+     */
+    public Simulation createSimulation() {
+        Simulation simulation = new Simulation(world, 0, 0, new Player(188, 188, new KeyHandler()));
+        simulation.readSettings(settings.duplicate());
+
+        // Set before restoring, so the chunks the snapshot doesn't hold are loaded with them
+        simulation.getRegion().setRestoredEnemyHp(restoredEnemyHp);
+
+        if (!simulation.restoreSnapshot(snapshot.duplicate())) {
+            return null;
+        }
+
+        return simulation;
+    }
+
+    /**
+     * Replays the recording in a new simulation.
+     *
+     * @param ticksPerSecond The number of updates per second, 0 or less to replay as fast as possible
+     * @return The update of the first checkpoint that didn't match, 0 if every checkpoint matched,
+     *     or -1 if the snapshot couldn't be restored
+     */
+    public long replay(int ticksPerSecond) {
+        checkedCount = 0;
+
+        Simulation simulation = createSimulation();
+        if (simulation == null) {
+            return -1;
+        }
+
+        KeyHandler keyHandler = simulation.getPlayer().keyHandler;
+        long nanosPerTick = ticksPerSecond > 0 ? 1_000_000_000L / ticksPerSecond : 0;
+        long start = System.nanoTime();
+
+        cursor = 0;
+        long nextRecordTick = readRecordStart(0);
+        long tick = 0;
+
+        while (tick < tickCount) {
+            tick++;
+
+            // Apply the input and take the checkpoint recorded for this update
+            boolean checkpoint = false;
+            long expectedHash = 0;
+
+            while (nextRecordTick == tick) {
+                if (nextType == InputRecorder.RECORD_INPUT) {
+                    keyHandler.setInputMask(records[cursor]);
+                    cursor++;
+                } else {
+                    checkpoint = true;
+                    for (int n = 0; n < 8; n++) {
+                        expectedHash = expectedHash << 8 | (records[cursor] & 0xFF);
+                        cursor++;
+                    }
+                }
+
+                nextRecordTick = readRecordStart(tick);
+            }
+
+            simulation.tick();
+
+            if (checkpoint) {
+                checkedCount++;
+
+                if (simulation.stateHash() != expectedHash) {
+                    return tick;
+                }
+            }
+
+            // Wait until it is time for the next update
+            if (nanosPerTick > 0) {
+                long due = start + tick * nanosPerTick;
+                while (System.nanoTime() < due) {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Takes the next bytes of a buffer as a buffer of their own.
+     *
+     * @param buffer The buffer to take the bytes from, its position is moved past them
+     * @param length The number of bytes
+     * @return A buffer with the bytes
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer part = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+
+        return part;
+    }
+
+    /**
+     * Reads the type of the next record and the number of updates since the previous record.
+     *
+     * @param previousTick The update of the previous record
+     * @return The update of the next record, or Long.MAX_VALUE if there are no more records
+     */
+    private long readRecordStart(long previousTick) {
+        if (cursor >= records.length) {
+            return Long.MAX_VALUE;
+        }
+
+        nextType = records[cursor];
+        cursor++;
+
+        // Variable length number, see InputRecorder.startRecord
+        long delta = 0;
+        int shift = 0;
+        byte part;
+        do {
+            part = records[cursor];
+            cursor++;
+            delta |= (long) (part & 0x7F) << shift;
+            shift += 7;
+        } while ((part & 0x80) != 0);
+
+        return previousTick + delta;
+    }
+}
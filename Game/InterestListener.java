@@ -0,0 +1,46 @@
+/**
+ * Receives the changes an AreaOfInterest finds for its observer. The values of an entity can
+ * be read from the area during the call, see AreaOfInterest.getX and the other getters.
+ */
+interface InterestListener {
+    /**
+     * Called when a chunk came within the view radius.
+     *
+     * @param chunk The chunk
+     */
+    default void chunkEntered(ChunkState chunk) {
+    }
+
+    /**
+     * Called when a chunk is no longer within the view radius, after its entities left.
+     *
+     * @param chunk The chunk
+     */
+    default void chunkLeft(ChunkState chunk) {
+    }
+
+    /**
+     * Called when an entity came within the view radius.
+     *
+     * @param id The number the area gave the entity, used until it leaves
+     */
+    void entityEntered(int id);
+
+    /**
+     * Called when an entity within the view radius changed.
+     *
+     * @param id The number of the entity
+     * @param changed The values that changed, as NetProtocol.CHANGED_ bits
+     * @param deltaX The change of the X coordinate
+     * @param deltaY The change of the Y coordinate
+     */
+    void entityUpdated(int id, int changed, int deltaX, int deltaY);
+
+    /**
+     * Called when an entity left the view radius or was removed. Its number may be given to
+     * another entity afterwards.
+     *
+     * @param id The number of the entity
+     */
+    void entityLeft(int id);
+}
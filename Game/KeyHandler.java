@@ -10,8 +10,49 @@ public class KeyHandler implements KeyListener {
     public boolean right = false;
     public boolean down = false;
     public boolean space = false;
+    public boolean shoot = false;
     public boolean debugInfo = false;
 
+    // Bits of the input mask, one for each key the simulation reads
+    static final int INPUT_UP = 1;
+    static final int INPUT_DOWN = 1 << 1;
+    static final int INPUT_LEFT = 1 << 2;
+    static final int INPUT_RIGHT = 1 << 3;
+    static final int INPUT_SPACE = 1 << 4;
+    static final int INPUT_SHOOT = 1 << 5;
+
+    // Set when F5 or F9 is pressed, cleared by the game loop once it has saved or loaded
+    public volatile boolean quickSave = false;
+    public volatile boolean quickLoad = false;
+
+    // Set when F7 is pressed, cleared by the game loop once it has saved the recording
+    public volatile boolean saveRecording = false;
+
+    /**
+     * Gets the keys the simulation reads that are held down as one number.
+     * 
+     * @return The input mask, a combination of the INPUT_ bits
+     */
+    public int getInputMask() {
+        return (up ? INPUT_UP : 0) | (down ? INPUT_DOWN : 0)
+            | (left ? INPUT_LEFT : 0) | (right ? INPUT_RIGHT : 0)
+            | (space ? INPUT_SPACE : 0) | (shoot ? INPUT_SHOOT : 0);
+    }
+
+    /**
+     * Sets the keys the simulation reads from an input mask made by getInputMask.
+     * 
+     * @param mask The input mask
+     */
+    public void setInputMask(int mask) {
+        up = (mask & INPUT_UP) != 0;
+        down = (mask & INPUT_DOWN) != 0;
+        left = (mask & INPUT_LEFT) != 0;
+        right = (mask & INPUT_RIGHT) != 0;
+        space = (mask & INPUT_SPACE) != 0;
+        shoot = (mask & INPUT_SHOOT) != 0;
+    }
+
     @Override
     public void keyPressed(KeyEvent e) {
         int key = e.getKeyCode();
@@ -40,6 +81,31 @@ public class KeyHandler implements KeyListener {
         if (key == KeyEvent.VK_SPACE) {
             space = true;
         }
+
+        // If the F key is pressed
+        if (key == KeyEvent.VK_F) {
+            shoot = true;
+        }
+
+        // If the F3 key is pressed, show or hide the debug information
+        if (key == KeyEvent.VK_F3) {
+            debugInfo = !debugInfo;
+        }
+
+        // If the F5 key is pressed, quick-save
+        if (key == KeyEvent.VK_F5) {
+            quickSave = true;
+        }
+
+        // If the F9 key is pressed, load the quick-save
+        if (key == KeyEvent.VK_F9) {
+            quickLoad = true;
+        }
+
+        // If the F7 key is pressed, save the recording of the session
+        if (key == KeyEvent.VK_F7) {
+            saveRecording = true;
+        }
     }
 
     @Override
@@ -70,6 +136,11 @@ public class KeyHandler implements KeyListener {
         if (key == KeyEvent.VK_SPACE) {
             space = false;
         }
+
+        // If the F key was released
+        if (key == KeyEvent.VK_F) {
+            shoot = false;
+        }
     }
 
     @Override
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+/**
+ * Counts durations in buckets, so percentiles of many durations can be found without keeping
+ * them all. Durations are recorded in microseconds. Below 16 us every microsecond has a bucket,
+ * above that every power of two is split into 8 buckets, so a percentile is at most 12.5% below
+ * the real duration. Recording doesn't allocate. Not thread-safe: one thread records, other
+ * threads should only read a copy made by that thread, or accept counts that are slightly off.
+ */
+class LatencyHistogram {
+    // Durations below this have a bucket of their own
+    private static final int LINEAR_BUCKETS = 16;
+
+    // Buckets per power of two above LINEAR_BUCKETS, as a number of bits
+    private static final int SUB_BUCKET_BITS = 3;
+
+    // Largest power of two with buckets, longer durations are counted in the last bucket
+    private static final int MAX_EXPONENT = 40;
+
+    private final long[] counts = new long[bucketFor(1L << MAX_EXPONENT) + 1];
+    private long count = 0;
+    private long max = 0;
+
+    /**
+     * Counts a duration.
+     *
+     * @param micros The duration in microseconds
+     */
+    public void record(long micros) {
+        counts[bucketFor(Math.max(0, micros))]++;
+        count++;
+        max = Math.max(max, micros);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Forgets every duration.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Adds the durations of another histogram to this one.
+     *
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Gets a percentile of the durations.
+     *
+     * @param percentile The percentile, e.g. 99 for the duration 99% of the durations are shorter than
+     * @return The smallest duration of the bucket the percentile is in, in microseconds, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+
+            if (seen >= Math.max(1, rank) && counts[bucket] > 0) {
+                return Math.min(max, lowestIn(bucket));
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the bucket a duration is counted in.
+     *
+     * @param micros The duration in microseconds, 0 or more
+     * @return The index of the bucket
+     */
+    private static int bucketFor(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+
+        return LINEAR_BUCKETS + (exponent - 4 << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * Gets the smallest duration counted in a bucket.
+     *
+     * @param bucket The index of the bucket
+     * @return The duration in microseconds
+     */
+    private static long lowestIn(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = 4 + (bucket - LINEAR_BUCKETS >> SUB_BUCKET_BITS);
+        int subBucket = bucket - LINEAR_BUCKETS & ((1 << SUB_BUCKET_BITS) - 1);
+
+        return (long) ((1 << SUB_BUCKET_BITS) + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
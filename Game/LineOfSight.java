@@ -0,0 +1,229 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers whether one tile of a chunk can be seen from another, i.e. whether the line
+ * between the middles of the tiles doesn't pass through a wall.
+ * Lines are traced tile by tile over the WallMask of the chunk. Results are cached per
+ * chunk: the first query from a tile traces the lines to every tile of the chunk at once
+ * and stores them as one row of bits, so later queries only test a bit.
+ * The results of the last CACHED_CHUNKS chunks are kept, so coming back to a chunk reuses
+ * them. A changed chunk file gets new walls and so a cache of its own.
+ * Queries may be made from several threads at the same time.
+ */
+class LineOfSight {
+    private static final int TILE_COUNT = GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
+
+    // Number of chunks of which the results are kept: the current chunk and the chunks around it
+    static final int CACHED_CHUNKS = 16;
+
+    private WallMask walls;
+
+    // Number of times the walls were changed, also used to find the least recently used cache
+    private int version = 0;
+
+    // The results per chunk, made once and reused for other chunks when they are the least recently used
+    private final ChunkSight[] caches = new ChunkSight[CACHED_CHUNKS];
+
+    // The results for the current walls
+    private ChunkSight current;
+
+    /**
+     * The cached results for the walls of one chunk.
+     */
+    private static class ChunkSight {
+        // The walls the results are for, or null if the cache isn't used yet
+        WallMask walls;
+
+        // The version in which the walls were last set
+        int lastUsed;
+
+        // Per tile, bit n is set if tile n can be seen from it. Only valid if the tile is known
+        final AtomicLongArray visibleRows = new AtomicLongArray(TILE_COUNT);
+
+        // Bit n is set if the row of tile n has been traced for the walls
+        final AtomicLong knownRows = new AtomicLong();
+    }
+
+    /**
+     * Initiates the line of sight without cached results.
+     */
+    public LineOfSight() {
+        for (int c = 0; c < CACHED_CHUNKS; c++) {
+            caches[c] = new ChunkSight();
+        }
+    }
+
+    /**
+     * Sets the walls to trace lines over. The cached results of the walls are used if they
+     * are still kept, otherwise the results of the least recently used walls are forgotten.
+     * Must not be called while other threads are querying.
+     *
+     * @param walls The walls of the chunk
+     */
+    public void setWalls(WallMask walls) {
+        this.walls = walls;
+        version++;
+
+        ChunkSight cache = null;
+        ChunkSight leastRecent = caches[0];
+
+        for (ChunkSight candidate : caches) {
+            if (candidate.walls == walls) {
+                cache = candidate;
+                break;
+            }
+            if (candidate.lastUsed < leastRecent.lastUsed) {
+                leastRecent = candidate;
+            }
+        }
+
+        if (cache == null) {
+            cache = leastRecent;
+            cache.walls = walls;
+            cache.knownRows.set(0);
+        }
+
+        cache.lastUsed = version;
+        current = cache;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Counts the tiles of the current walls of which the lines have been traced and cached.
+     *
+     * @return The number of tiles
+     */
+    public int countKnownTiles() {
+        return Long.bitCount(current.knownRows.get());
+    }
+
+    /**
+     * Checks if a tile can be seen from another tile. Tiles outside the chunk can't be seen.
+     *
+     * @param fromColumn The column of the tile to look from
+     * @param fromRow The row of the tile to look from
+     * @param toColumn The column of the tile to look at
+     * @param toRow The row of the tile to look at
+     * @return True if there is no wall between the tiles
+     */
+    public boolean canSee(int fromColumn, int fromRow, int toColumn, int toRow) {
+        if (!isInChunk(fromColumn, fromRow) || !isInChunk(toColumn, toRow)) {
+            return false;
+        }
+
+        int from = fromRow * GamePanel.CHUNKWIDTH + fromColumn;
+        int to = toRow * GamePanel.CHUNKWIDTH + toColumn;
+
+        // Trace the lines from the tile if that hasn't been done yet for these walls
+        ChunkSight cache = current;
+        if ((cache.knownRows.get() >>> from & 1) == 0) {
+            traceRow(cache, from);
+        }
+
+        return (cache.visibleRows.get(from) >>> to & 1) != 0;
+    }
+
+    /**
+     * Traces the line between the middles of two tiles without using the cache.
+     * Every tile the line passes is checked, including both tiles next to a corner
+     * the line passes exactly through, and the tiles at both ends. The result is the same
+     * in both directions.
+     *
+     * @param fromColumn The column of the tile to look from
+     * @param fromRow The row of the tile to look from
+     * @param toColumn The column of the tile to look at
+     * @param toRow The row of the tile to look at
+     * @return True if there is no wall between the tiles
+     */
+    public boolean traceLine(int fromColumn, int fromRow, int toColumn, int toRow) {
+        int stepsX = Math.abs(toColumn - fromColumn);
+        int stepsY = Math.abs(toRow - fromRow);
+        int directionX = Integer.signum(toColumn - fromColumn);
+        int directionY = Integer.signum(toRow - fromRow);
+
+        int column = fromColumn;
+        int row = fromRow;
+
+        if (walls.isWall(column, row)) {
+            return false;
+        }
+
+        // Number of tile borders crossed along each axis so far
+        int crossedX = 0;
+        int crossedY = 0;
+
+        while (crossedX < stepsX || crossedY < stepsY) {
+            /* The line crosses border n along X at (2n + 1) / (2 * stepsX) of its length,
+             * compare the next border along each axis without dividing */
+            long nextX = (2L * crossedX + 1) * stepsY;
+            long nextY = (2L * crossedY + 1) * stepsX;
+
+            if (crossedY == stepsY || (crossedX < stepsX && nextX < nextY)) {
+                column += directionX;
+                crossedX++;
+            } else if (crossedX == stepsX || nextY < nextX) {
+                row += directionY;
+                crossedY++;
+            } else {
+                // The line passes exactly through a corner, it is blocked by a wall on either side
+                if (walls.isWall(column + directionX, row) || walls.isWall(column, row + directionY)) {
+                    return false;
+                }
+
+                column += directionX;
+                row += directionY;
+                crossedX++;
+                crossedY++;
+            }
+
+            if (walls.isWall(column, row)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Traces the lines from a tile to every tile of the chunk and caches them.
+     * Threads tracing the same row at the same time write the same bits.
+     *
+     * @param cache The cache of the current walls
+     * @param from The tile to trace from
+     */
+    private void traceRow(ChunkSight cache, int from) {
+        int fromColumn = from % GamePanel.CHUNKWIDTH;
+        int fromRow = from / GamePanel.CHUNKWIDTH;
+        long row = 0;
+
+        for (int to = 0; to < TILE_COUNT; to++) {
+            if (traceLine(fromColumn, fromRow, to % GamePanel.CHUNKWIDTH, to / GamePanel.CHUNKWIDTH)) {
+                row |= 1L << to;
+            }
+        }
+
+        // Store the row before marking it as known, so other threads never read an unfinished row
+        cache.visibleRows.set(from, row);
+
+        long known;
+        do {
+            known = cache.knownRows.get();
+        } while (!cache.knownRows.compareAndSet(known, known | 1L << from));
+    }
+
+    /**
+     * Checks if a tile is inside the chunk.
+     *
+     * @param column The column of the tile
+     * @param row The row of the tile
+     * @return True if the tile is inside the chunk
+     */
+    private boolean isInChunk(int column, int row) {
+        return column >= 0 && column < GamePanel.CHUNKWIDTH
+            && row >= 0 && row < GamePanel.CHUNKHEIGHT;
+    }
+}
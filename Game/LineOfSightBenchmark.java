@@ -0,0 +1,113 @@
+import java.util.Random;
+
+/**
+ * Benchmarks of line of sight queries and their cache ("sight").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark sight".
+ */
+class LineOfSightBenchmark {
+    /**
+     * Measures line of sight queries in a chunk with many walls, with and without the cache,
+     * and the time to fill the cache for a chunk. Also checks that the cache gives the same
+     * answer as tracing for every pair of tiles, that coming back to a chunk reuses its results
+     * and that only the results of the last LineOfSight.CACHED_CHUNKS chunks are kept.
+     *
+     * @return True if the cache gives the same answers as tracing and is reused
+     */
+    static boolean benchmarkSight() {
+        int queries = 1000000;
+        int tiles = GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
+
+        WallMask walls = new WallMask(new ChunkLoader().loadChunk("OW_0_-1"));
+        LineOfSight lineOfSight = new LineOfSight();
+        Random random = new Random(42);
+
+        // Random pairs of tiles, packed as from * tiles + to
+        int[] pairs = new int[queries];
+        for (int q = 0; q < queries; q++) {
+            pairs[q] = random.nextInt(tiles * tiles);
+        }
+
+        long visible = 0;
+        long fillNanos = 0;
+        long cachedNanos = 0;
+        long tracedNanos = 0;
+
+        for (int round = 0; round < 5; round++) {
+            // Fill the whole cache of a chunk that wasn't seen before
+            lineOfSight = new LineOfSight();
+            long start = System.nanoTime();
+            lineOfSight.setWalls(walls);
+            for (int from = 0; from < tiles; from++) {
+                lineOfSight.canSee(from % GamePanel.CHUNKWIDTH, from / GamePanel.CHUNKWIDTH, 0, 0);
+            }
+            fillNanos = System.nanoTime() - start;
+
+            visible = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                int from = pairs[q] / tiles;
+                int to = pairs[q] % tiles;
+                if (lineOfSight.canSee(from % GamePanel.CHUNKWIDTH, from / GamePanel.CHUNKWIDTH,
+                    to % GamePanel.CHUNKWIDTH, to / GamePanel.CHUNKWIDTH)) {
+                    visible++;
+                }
+            }
+            cachedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                int from = pairs[q] / tiles;
+                int to = pairs[q] % tiles;
+                if (lineOfSight.traceLine(from % GamePanel.CHUNKWIDTH, from / GamePanel.CHUNKWIDTH,
+                    to % GamePanel.CHUNKWIDTH, to / GamePanel.CHUNKWIDTH)) {
+                    visible--;
+                }
+            }
+            tracedNanos = System.nanoTime() - start;
+        }
+
+        // Compare the cache with tracing, and the line from a to b with the line from b to a
+        int mismatches = 0;
+        int asymmetric = 0;
+        for (int from = 0; from < tiles; from++) {
+            for (int to = 0; to < tiles; to++) {
+                int fromColumn = from % GamePanel.CHUNKWIDTH;
+                int fromRow = from / GamePanel.CHUNKWIDTH;
+                int toColumn = to % GamePanel.CHUNKWIDTH;
+                int toRow = to / GamePanel.CHUNKWIDTH;
+
+                boolean cached = lineOfSight.canSee(fromColumn, fromRow, toColumn, toRow);
+                if (cached != lineOfSight.traceLine(fromColumn, fromRow, toColumn, toRow)) {
+                    mismatches++;
+                }
+                if (cached != lineOfSight.canSee(toColumn, toRow, fromColumn, fromRow)) {
+                    asymmetric++;
+                }
+            }
+        }
+
+        System.out.printf("fill cache %d ns, cached %.1f ns/query, traced %.1f ns/query%n",
+            fillNanos, (double) cachedNanos / queries, (double) tracedNanos / queries);
+        System.out.printf("%d mismatches with tracing, %d asymmetric pairs, %s%n",
+            mismatches, asymmetric, visible == 0 ? "same results" : "DIFFERENT results");
+
+        // Go to other chunks and come back, the results of the first chunk should still be there
+        WallMask other = new WallMask(new ChunkLoader().loadChunk("OW_0_0"));
+        lineOfSight.setWalls(other);
+        lineOfSight.canSee(0, 0, 1, 1);
+        lineOfSight.setWalls(walls);
+        int reused = lineOfSight.countKnownTiles();
+
+        // Visit more chunks than are kept, the first chunk is then forgotten
+        for (int c = 0; c < LineOfSight.CACHED_CHUNKS; c++) {
+            lineOfSight.setWalls(new WallMask(new ChunkLoader().loadChunk("OW_0_0")));
+        }
+        lineOfSight.setWalls(walls);
+        int forgotten = tiles - lineOfSight.countKnownTiles();
+
+        System.out.printf("coming back to a chunk: %d of %d tiles cached, after %d other chunks: %d forgotten%n",
+            reused, tiles, LineOfSight.CACHED_CHUNKS, forgotten);
+
+        return mismatches == 0 && asymmetric == 0 && visible == 0 && reused == tiles && forgotten == tiles;
+    }
+}
@@ -0,0 +1,528 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.awt.Point;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Finds how many players the game can handle by adding bots step by step until the server
+ * can't keep up. Bots play in one of three ways:
+ * local: every bot is a GameSession on a SessionHost in this JVM;
+ * loopback: a GameServer runs in this JVM and every bot connects to it over the network;
+ * host:port: every bot connects to a GameServer that already runs, e.g. on another machine.
+ *
+ * <p>For every step it prints the share of the updates done, how busy the server was, the
+ * median and 99th percentile latency, the garbage collections, the heap and the bandwidth.
+ * Locally the latency is the time from when an update was due until it was done; over the
+ * network it is the time between two snapshots arriving at a bot. The server of a host:port
+ * run can't be measured, so only what the bots see is printed.
+ *
+ * <p>Over the network every bot has a player of its own on the server, so the world the
+ * server simulates should grow with the bots. A loopback server runs a generated world of
+ * WORLD_SIZE by WORLD_SIZE chunks with four enemies each and spreads the bots over its chunks,
+ * like players all over a world. Every step also prints the world the server simulates: the
+ * players, resident chunks and simulated enemies of a loopback server. For a host:port run
+ * only what the bots see can be counted: the places the bots are at stand for the players
+ * and the chunks they are in for the chunks. The result is only given as the number of bots
+ * the server can handle if the world grew from the first step to the last step that kept
+ * up, and over loopback if the server had one player per bot.
+ *
+ * <p>Run from the Game folder with
+ * "java LoadGenerator [local|loopback|host:port] [random|chase|explore|mix] [bots per step] [seconds per step] [max bots]".
+ */
+class LoadGenerator {
+    private static final long NANOS_PER_TICK = 1_000_000_000L / GameServer.TICKS_PER_SECOND;
+
+    // Share of the updates or snapshots below which the server is saturated
+    private static final double MIN_DONE = 0.95;
+
+    private static final String[] MIXED_POLICIES = {"random", "chase", "explore"};
+
+    // Time the bots play after being added before measuring, so they are connected and started
+    private static final long SETTLE_NANOS = 1_000_000_000L;
+
+    // Chunks in each direction of the world of a loopback server
+    private static final int WORLD_SIZE = 32;
+
+    // Values of the world the bots play in, see measureWorld
+    private static final int WORLD_PLAYERS = 0;
+    private static final int WORLD_CHUNKS = 1;
+    private static final int WORLD_ENEMIES = 2;
+
+    // Garbage collection pauses since the last step, written by the threads sending the notifications
+    private static long gcCount = 0;
+    private static long gcPauseMillis = 0;
+    private static long maxGcPauseMillis = 0;
+
+    private final String mode;
+    private final String policy;
+
+    // Only one of them is used, depending on the mode
+    private SessionHost host = null;
+    private GameServer server = null;
+    private Thread serverThread = null;
+    private final ArrayList<GameClient> clients = new ArrayList<GameClient>();
+    private final ArrayList<BotPolicy> clientPolicies = new ArrayList<BotPolicy>();
+
+    private int botCount = 0;
+
+    // The world measured at the end of the last step, see measureWorld
+    private int[] world = null;
+
+    /**
+     * Initiates a load generator without bots.
+     *
+     * @param mode local, loopback or host:port
+     * @param policy The policy of the bots, or mix to use every policy in turn
+     */
+    public LoadGenerator(String mode, String policy) {
+        this.mode = mode;
+        this.policy = policy;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String mode = args.length > 0 ? args[0] : "local";
+        String policy = args.length > 1 ? args[1] : "mix";
+        int botsPerStep = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int secondsPerStep = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int maxBots = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+
+        if (!policy.equals("mix") && BotPolicy.forName(policy, 0) == null) {
+            System.out.println("Unknown policy \"" + policy + "\", use random, chase, explore or mix");
+            return;
+        }
+
+        watchGarbageCollections();
+
+        LoadGenerator generator = new LoadGenerator(mode, policy);
+        generator.start();
+
+        System.out.println("  bots  done  busy  p50 ms  p99 ms  GCs  GC ms  max GC ms  heap MB  down KB/s  up KB/s"
+            + "  players  chunks  enemies");
+
+        int lastGood = 0;
+        boolean saturated = false;
+        int[] firstWorld = null;
+        int[] lastGoodWorld = null;
+
+        while (generator.botCount + botsPerStep <= maxBots) {
+            generator.addBots(botsPerStep);
+
+            boolean keptUp = generator.runStep(secondsPerStep * 1_000_000_000L);
+            if (firstWorld == null) {
+                firstWorld = generator.world;
+            }
+
+            if (!keptUp) {
+                saturated = true;
+                break;
+            }
+
+            lastGood = generator.botCount;
+            lastGoodWorld = generator.world;
+        }
+
+        generator.stop();
+
+        String notGrown = generator.checkWorldGrew(firstWorld, lastGoodWorld, lastGood);
+        if (notGrown != null) {
+            System.out.println("no capacity found: " + notGrown);
+        } else if (saturated) {
+            System.out.println("saturated at " + generator.botCount + " bots, the last step that kept up had "
+                + lastGood + " bots");
+        } else {
+            System.out.println("kept up with " + lastGood + " bots, increase the max to find the saturation point");
+        }
+
+        if (notGrown == null && lastGoodWorld != null) {
+            System.out.println("the world grew with the bots from " + firstWorld[WORLD_CHUNKS] + " to "
+                + lastGoodWorld[WORLD_CHUNKS] + " chunks" + (lastGoodWorld[WORLD_ENEMIES] >= 0
+                    ? " and from " + firstWorld[WORLD_ENEMIES] + " to " + lastGoodWorld[WORLD_ENEMIES] + " enemies" : ""));
+        }
+    }
+
+    /**
+     * Starts the host or server the bots play on.
+     *
+     * @throws IOException If the server can't be opened
+     */
+    public void start() throws IOException {
+        if (mode.equals("local")) {
+            host = new SessionHost(Runtime.getRuntime().availableProcessors());
+            host.start();
+        } else if (mode.equals("loopback")) {
+            Path world = ActiveRegionBenchmark.createExploreWorld(WORLD_SIZE);
+            ResourceRoot.use(world);
+
+            // The world lies to the right of and below the first chunk
+            ArrayList<Point> chunks = new ArrayList<Point>();
+            for (int y = 0; y > -WORLD_SIZE; y--) {
+                for (int x = 0; x < WORLD_SIZE; x++) {
+                    chunks.add(new Point(x, y));
+                }
+            }
+
+            server = new GameServer(0, new Simulation("EXPLORE", 0, 0, new Player(175, 175, new KeyHandler())), 20, 250);
+            server.setSpawnChunks(chunks);
+
+            serverThread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    System.out.println("Server failed: " + e.getMessage());
+                }
+            }, "server");
+            serverThread.start();
+        }
+    }
+
+    /**
+     * Stops the bots and the host or server.
+     *
+     * @throws InterruptedException If interrupted while waiting for the host or server
+     * @throws IOException If closing a connection failed
+     */
+    public void stop() throws InterruptedException, IOException {
+        if (host != null) {
+            host.stop();
+        }
+
+        if (server != null) {
+            server.stop();
+        }
+
+        // Read what the server still sends until it closes the connection, so it can finish writing
+        boolean[] closed = new boolean[clients.size()];
+        int closedCount = server != null ? 0 : clients.size();
+        while (closedCount < clients.size()) {
+            for (int n = 0; n < clients.size(); n++) {
+                if (closed[n]) {
+                    continue;
+                }
+
+                try {
+                    clients.get(n).poll();
+                } catch (IOException e) {
+                    closed[n] = true;
+                    closedCount++;
+                }
+            }
+
+            LockSupport.parkNanos(1_000_000);
+        }
+
+        for (GameClient client : clients) {
+            client.close();
+        }
+
+        if (serverThread != null) {
+            serverThread.join();
+        }
+    }
+
+    /**
+     * Adds bots.
+     *
+     * @param count The number of bots to add
+     * @throws IOException If a bot can't connect
+     */
+    public void addBots(int count) throws IOException {
+        for (int n = 0; n < count; n++) {
+            BotPolicy bot = createPolicy(botCount);
+
+            if (host != null) {
+                host.addSession(createSimulation()).setPolicy(bot);
+            } else {
+                String address = server != null ? "localhost:" + server.getPort() : mode;
+                int separator = address.lastIndexOf(':');
+
+                clients.add(new GameClient(address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1))));
+                clientPolicies.add(bot);
+            }
+
+            botCount++;
+        }
+    }
+
+    /**
+     * Lets the bots play for a while and prints the metrics of that time. The bots play for
+     * SETTLE_NANOS before that, which isn't measured.
+     *
+     * @param runNanos How long to let the bots play while measuring
+     * @return False if the server couldn't keep up
+     * @throws IOException If the connection of a bot failed
+     */
+    public boolean runStep(long runNanos) throws IOException {
+        if (host != null) {
+            LockSupport.parkNanos(SETTLE_NANOS);
+        } else {
+            driveClients(SETTLE_NANOS, null);
+        }
+
+        synchronized (LoadGenerator.class) {
+            gcCount = 0;
+            gcPauseMillis = 0;
+            maxGcPauseMillis = 0;
+        }
+
+        long start = System.nanoTime();
+        double done;
+        double busy = Double.NaN;
+        LatencyHistogram latency;
+        long bytesDown = 0;
+        long bytesUp = 0;
+
+        if (host != null) {
+            host.resetMetrics();
+            LockSupport.parkNanos(runNanos);
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            done = host.getSessionTickCount() / seconds / botCount / SessionHost.TICKS_PER_SECOND;
+            busy = host.getBusyShare();
+            latency = host.getLatency();
+        } else {
+            long ticksBefore = server != null ? server.getTickCount() : 0;
+            long tickNanosBefore = server != null ? server.getTotalTickNanos() : 0;
+
+            latency = new LatencyHistogram();
+            int[] snapshotsBefore = new int[clients.size()];
+            long[] bytesDownBefore = new long[clients.size()];
+            long[] bytesUpBefore = new long[clients.size()];
+            for (int n = 0; n < clients.size(); n++) {
+                snapshotsBefore[n] = clients.get(n).getSnapshotCount();
+                bytesDownBefore[n] = clients.get(n).getBytesReceived();
+                bytesUpBefore[n] = clients.get(n).getBytesSent();
+            }
+
+            driveClients(runNanos, latency);
+
+            int snapshots = 0;
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            for (int n = 0; n < clients.size(); n++) {
+                GameClient client = clients.get(n);
+                snapshots += client.getSnapshotCount() - snapshotsBefore[n];
+                bytesDown += client.getBytesReceived() - bytesDownBefore[n];
+                bytesUp += client.getBytesSent() - bytesUpBefore[n];
+            }
+
+            int interval = Math.max(1, clients.get(0).getSnapshotInterval());
+            double expectedSnapshots = seconds * botCount * GameServer.TICKS_PER_SECOND / interval;
+            done = snapshots / expectedSnapshots;
+
+            if (server != null) {
+                long ticks = server.getTickCount() - ticksBefore;
+                done = Math.min(done, ticks / seconds / GameServer.TICKS_PER_SECOND);
+                busy = (server.getTotalTickNanos() - tickNanosBefore) / 1e9 / seconds;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        long gcs;
+        long gcMillis;
+        long maxGcMillis;
+        synchronized (LoadGenerator.class) {
+            gcs = gcCount;
+            gcMillis = gcPauseMillis;
+            maxGcMillis = maxGcPauseMillis;
+        }
+
+        // Bots in this JVM don't use the network, and every one of them has a world of its own
+        boolean network = host == null;
+        world = measureWorld();
+
+        System.out.printf("%6d %4.0f%% %5s %7.1f %7.1f %4d %6d %10d %8d %10s %8s %8s %7s %8s%n",
+            botCount, 100 * done, Double.isNaN(busy) ? "-" : String.format("%.0f%%", 100 * busy),
+            latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+            gcs, gcMillis, maxGcMillis, heapBytes / (1024 * 1024),
+            network ? String.format("%.1f", bytesDown / 1024.0 / seconds) : "-",
+            network ? String.format("%.1f", bytesUp / 1024.0 / seconds) : "-",
+            worldValue(WORLD_PLAYERS), worldValue(WORLD_CHUNKS), worldValue(WORLD_ENEMIES));
+
+        // Locally an update should be done within its own update, over the network snapshots may be one late
+        long maxMedianMicros = host != null ? NANOS_PER_TICK / 1000
+            : 2 * NANOS_PER_TICK / 1000 * Math.max(1, clients.get(0).getSnapshotInterval());
+
+        return done >= MIN_DONE && latency.getPercentile(50) <= maxMedianMicros;
+    }
+
+    /**
+     * Measures the world the bots play in over the network. A loopback server is asked for
+     * its players, resident chunks and simulated enemies. The server of a host:port run can't
+     * be asked, so the places the bots are at are counted as the players and the chunks they
+     * are in as the chunks, which is less than the server has if bots share a place or a
+     * chunk, and the enemies are unknown.
+     *
+     * @return The WORLD_ values, -1 if unknown, or null for bots in this JVM
+     */
+    private int[] measureWorld() {
+        if (host != null) {
+            return null;
+        }
+
+        if (server != null) {
+            return new int[] {server.getSimulatedPlayers(), server.getSimulatedChunks(),
+                server.getSimulatedEnemies()};
+        }
+
+        HashSet<List<Integer>> places = new HashSet<List<Integer>>();
+        HashSet<List<Integer>> chunks = new HashSet<List<Integer>>();
+        for (GameClient client : clients) {
+            places.add(Arrays.asList(client.getChunkX(), client.getChunkY(), client.getPlayerX(), client.getPlayerY()));
+            chunks.add(Arrays.asList(client.getChunkX(), client.getChunkY()));
+        }
+
+        return new int[] {places.size(), chunks.size(), -1};
+    }
+
+    /**
+     * Formats a value of the world measured at the end of the last step.
+     *
+     * @param value WORLD_PLAYERS, WORLD_CHUNKS or WORLD_ENEMIES
+     * @return The value, or "-" if it is unknown
+     */
+    private String worldValue(int value) {
+        return world == null || world[value] < 0 ? "-" : String.valueOf(world[value]);
+    }
+
+    /**
+     * Checks if the world the server simulates grew with the bots, so the steps measured the
+     * load of more players and not the same world sent to more clients. Bots in this JVM have
+     * a world each, so it always grows.
+     *
+     * @param first The world of the first step
+     * @param last The world of the last step that kept up
+     * @param bots The number of bots of the last step that kept up
+     * @return Why the world didn't grow, or null if it did
+     */
+    private String checkWorldGrew(int[] first, int[] last, int bots) {
+        if (host != null) {
+            return null;
+        }
+
+        if (last == null || first == last) {
+            return "at least two steps need to keep up to see whether the world grows with the bots";
+        }
+
+        if (server != null && last[WORLD_PLAYERS] != bots) {
+            return "the server had " + last[WORLD_PLAYERS] + " players for " + bots + " bots";
+        }
+
+        if (server == null && bots > 1 && last[WORLD_PLAYERS] < 2) {
+            return "every bot was at the same place, so they may share one player";
+        }
+
+        if (last[WORLD_CHUNKS] <= first[WORLD_CHUNKS]
+            || (last[WORLD_ENEMIES] >= 0 && last[WORLD_ENEMIES] <= first[WORLD_ENEMIES])) {
+            return "the world didn't grow with the bots: " + first[WORLD_CHUNKS] + " to " + last[WORLD_CHUNKS]
+                + " chunks" + (last[WORLD_ENEMIES] >= 0
+                    ? ", " + first[WORLD_ENEMIES] + " to " + last[WORLD_ENEMIES] + " enemies" : "");
+        }
+
+        return null;
+    }
+
+    /**
+     * Lets the bots connected over the network play: they read what the server sent and
+     * choose their keys as often as the server updates.
+     *
+     * @param runNanos How long to let the bots play
+     * @param latency The histogram to count the time between two snapshots of a bot in, or null
+     * @throws IOException If the connection of a bot failed
+     */
+    private void driveClients(long runNanos, LatencyHistogram latency) throws IOException {
+        long[] lastSnapshotAt = new long[clients.size()];
+        long start = System.nanoTime();
+        long nextTick = start;
+
+        while (System.nanoTime() - start < runNanos) {
+            for (int n = 0; n < clients.size(); n++) {
+                GameClient client = clients.get(n);
+                int before = client.getSnapshotCount();
+
+                client.poll();
+                client.sendInput(clientPolicies.get(n).chooseInput(client));
+
+                if (latency != null && client.getSnapshotCount() != before) {
+                    long now = System.nanoTime();
+
+                    if (lastSnapshotAt[n] != 0) {
+                        latency.record((now - lastSnapshotAt[n]) / 1000);
+                    }
+                    lastSnapshotAt[n] = now;
+                }
+            }
+
+            nextTick += NANOS_PER_TICK;
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Creates the policy of a bot.
+     *
+     * @param number The number of the bot, also the seed of its random choices
+     * @return The policy
+     */
+    private BotPolicy createPolicy(int number) {
+        String name = policy.equals("mix") ? MIXED_POLICIES[number % MIXED_POLICIES.length] : policy;
+
+        return BotPolicy.forName(name, number);
+    }
+
+    /**
+     * Creates the simulation of a bot in this JVM in the starting chunk.
+     *
+     * @return The simulation
+     */
+    private static Simulation createSimulation() {
+        return new Simulation("OW", 0, 0, new Player(188, 188, new KeyHandler()));
+    }
+
+    /**
+     * Counts the garbage collection pauses from now on, by listening to the notifications
+     * the collectors send after every collection. Concurrent cycles don't pause the game and
+     * are left out.
+     */
+    private static void watchGarbageCollections() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+
+            ((NotificationEmitter) collector).addNotificationListener((Notification notification, Object handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+
+                GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                if (info.getGcName().contains("Concurrent")) {
+                    return;
+                }
+
+                long pause = info.getGcInfo().getDuration();
+                synchronized (LoadGenerator.class) {
+                    gcCount++;
+                    gcPauseMillis += pause;
+                    maxGcPauseMillis = Math.max(maxGcPauseMillis, pause);
+                }
+            }, null, null);
+        }
+    }
+}
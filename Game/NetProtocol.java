@@ -0,0 +1,178 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The messages sent between GameServer and GameClient over TCP, and helpers to encode them.
+ * Every message is a frame: the length of the rest of the frame as an int, the type of the
+ * message as a byte and the payload. Numbers in payloads are variable length, 7 bits per
+ * byte with the high bit set if more bytes follow, and signed numbers are zigzag encoded
+ * first, so small changes take one byte.
+ *
+ * <p>Clients send the keys they hold down when they change. The server sends a welcome,
+ * the tiles of the chunk of the player whenever they change, and snapshots. Every client
+ * has a player of its own in the same world. A snapshot holds the player of the client, the
+ * changes to the enemies in view since the previous snapshot sent to the same client (enemies
+ * that came into view, changed, or left the view), every projectile of the player and the
+ * other players in view. Enemies and players of the chunks next to the chunk of the player
+ * are in view when they are close enough, with positions relative to the chunk of the player. As TCP delivers every
+ * snapshot in order, the previous snapshot is always the one the client has.
+ */
+class NetProtocol {
+    // Welcomes start with this number and the version of the protocol
+    static final int MAGIC = 0x43424C4E;
+    static final int VERSION = 3;
+
+    // Message sent by clients, payload: the input mask, see KeyHandler.getInputMask
+    static final byte MSG_INPUT = 1;
+
+    /* Messages sent by the server. Welcome: magic, version, client id, updates per second,
+     * updates between snapshots and view radius as ints. Chunk: chunk X and Y, then the
+     * ordinal of the tile type of every tile, row by row. Snapshot: update number, change of
+     * player X and Y, player HP, number of enemy records and the records, then the number of
+     * projectiles and the owner byte (see ProjectilePool), X and Y of every projectile, then
+     * the number of other players as an int and the client id, X, Y and HP of every one */
+    static final byte MSG_WELCOME = 10;
+    static final byte MSG_CHUNK = 11;
+    static final byte MSG_SNAPSHOT = 12;
+
+    /* Kinds of enemy records in a snapshot, each followed by the number the server gave the
+     * enemy when it came into view, see AreaOfInterest.
+     * Enter: type id, X, Y, HP and sprite. Update: a byte with a CHANGED_ bit per changed
+     * value, then the change of X and Y, the new HP and the new sprite, if changed.
+     * Leave: nothing */
+    static final byte ENEMY_ENTER = 0;
+    static final byte ENEMY_UPDATE = 1;
+    static final byte ENEMY_LEAVE = 2;
+
+    static final int CHANGED_X = 1;
+    static final int CHANGED_Y = 1 << 1;
+    static final int CHANGED_HP = 1 << 2;
+    static final int CHANGED_SPRITE = 1 << 3;
+
+    // Bytes before the payload of a frame: the length and the type
+    static final int FRAME_HEADER_BYTES = 5;
+
+    // Largest frame that is accepted
+    static final int MAX_FRAME_BYTES = 1 << 20;
+
+    // Most bytes an enemy record can take
+    static final int MAX_ENEMY_RECORD_BYTES = 1 + 5 + 1 + 3 * 5 + 5 + 1;
+
+    /**
+     * Starts a frame by leaving room for its length and writing its type.
+     *
+     * @param buffer The buffer to write the frame to
+     * @param type The type of the message
+     * @return The position of the frame, to pass to endFrame
+     */
+    static int beginFrame(ByteBuffer buffer, byte type) {
+        int start = buffer.position();
+        buffer.putInt(0);
+        buffer.put(type);
+
+        return start;
+    }
+
+    /**
+     * Ends a frame by writing its length.
+     *
+     * @param buffer The buffer with the frame
+     * @param start The position returned by beginFrame
+     */
+    static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+    /**
+     * Checks whether a buffer holds a whole frame at its position.
+     *
+     * @param buffer The buffer, in read mode
+     * @return The length of the frame after its length, or -1 if the frame isn't complete
+     * @throws IllegalStateException If the frame is larger than MAX_FRAME_BYTES
+     */
+    static int completeFrameLength(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return -1;
+        }
+
+        int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > MAX_FRAME_BYTES) {
+            throw new IllegalStateException("Invalid frame length " + length);
+        }
+
+        return buffer.remaining() >= 4 + length ? length : -1;
+    }
+
+    /**
+     * Writes a number of 0 or more in as few bytes as possible.
+     *
+     * @param buffer The buffer to write to
+     * @param value The number
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a number written by putVarint.
+     *
+     * @param buffer The buffer to read from
+     * @return The number
+     */
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte part;
+
+        do {
+            part = buffer.get();
+            value |= (part & 0x7F) << shift;
+            shift += 7;
+        } while ((part & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Writes a number that can be negative in as few bytes as possible.
+     *
+     * @param buffer The buffer to write to
+     * @param value The number
+     */
+    static void putSignedVarint(ByteBuffer buffer, int value) {
+        putVarint(buffer, value << 1 ^ value >> 31);
+    }
+
+    /**
+     * Reads a number written by putSignedVarint.
+     *
+     * @param buffer The buffer to read from
+     * @return The number
+     */
+    static int getSignedVarint(ByteBuffer buffer) {
+        int value = getVarint(buffer);
+
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * Gets the number of bytes putSignedVarint writes for a number.
+     *
+     * @param value The number
+     * @return The number of bytes
+     */
+    static int signedVarintBytes(int value) {
+        int zigzag = value << 1 ^ value >> 31;
+        int bytes = 1;
+
+        while ((zigzag & ~0x7F) != 0) {
+            zigzag >>>= 7;
+            bytes++;
+        }
+
+        return bytes;
+    }
+}
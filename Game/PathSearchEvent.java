@@ -0,0 +1,24 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of calculating the path of an enemy to the player, see
+ * ShortestPathCalculator.
+ */
+@Name("cbl.PathSearch")
+@Label("Path Search")
+@Category({"CBL Game", "Simulation"})
+@Description("Calculating the shortest path of an enemy to the player")
+@StackTrace(false)
+class PathSearchEvent extends jdk.jfr.Event {
+    @Label("Expanded Tiles")
+    @Description("Number of tiles taken from the queue before the player was reached")
+    int expanded;
+
+    @Label("Path Length")
+    @Description("Number of tiles in the path, 0 if there is no path")
+    int length;
+}
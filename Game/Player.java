@@ -1,3 +1,5 @@
+import java.nio.ByteBuffer;
+
 /**
  * Player class handles the movement of the player.
  */
@@ -5,6 +7,14 @@ class Player extends Entity {
     KeyHandler keyHandler;
 
     private int attackCooldown = 0;
+    private int shootCooldown = 0;
+
+    // Speed of the projectiles the player fires in pixels per update
+    static final int PROJECTILE_SPEED = 6;
+
+    // The direction the player last moved in, projectiles are fired in this direction
+    private int facingX = 1;
+    private int facingY = 0;
 
     private CollisionCheck collisionChecker = new CollisionCheck();
 
@@ -43,15 +53,76 @@ class Player extends Entity {
         return true;
     }
 
+    /**
+     * Determines if a player can fire a projectile.
+     * 
+     * @return True if the player fires a projectile, else false
+     */
+    public boolean canShoot() {
+        // Check if the shoot cooldown is still active
+        if (shootCooldown > 0) {
+            shootCooldown--;
+            return false;
+        }
+
+        if (!keyHandler.shoot) {
+            return false;
+        }
+
+        shootCooldown = 30;
+
+        this.switchSprite("attacking", 10);
+
+        return true;
+    }
+
+    @Override
+    int snapshotBytes() {
+        return super.snapshotBytes() + 2 * 4 + 2;
+    }
+
+    /**
+     * Writes the state of the player, including its cooldowns and facing direction, to a snapshot.
+     * 
+     * @param buffer The buffer to write to
+     */
+    @Override
+    void writeState(ByteBuffer buffer) {
+        super.writeState(buffer);
+
+        buffer.putInt(attackCooldown);
+        buffer.putInt(shootCooldown);
+        buffer.put((byte) facingX);
+        buffer.put((byte) facingY);
+    }
+
+    @Override
+    void readState(ByteBuffer buffer) {
+        super.readState(buffer);
+
+        attackCooldown = buffer.getInt();
+        shootCooldown = buffer.getInt();
+        facingX = buffer.get();
+        facingY = buffer.get();
+    }
+
+    public int getFacingX() {
+        return facingX;
+    }
+
+    public int getFacingY() {
+        return facingY;
+    }
+
     /**
      * Lets player attack an enemy.
      *  
-     * @param enemy The enemy to attack
+     * @param distanceSquared The squared distance of the enemy to attack to the player
      * @return True if the attack was succesful, false if not
      */
-    public boolean attack(Enemy enemy) {
+    public boolean attack(long distanceSquared) {
         // If the player is not in range for the player to 'reach' the enemy, return false
-        if (enemy.getDistanceToPlayer() > this.getAttackRange()) {
+        if (distanceSquared > (long) this.getAttackRange() * this.getAttackRange()) {
             return false;
         }
         
@@ -74,9 +145,9 @@ class Player extends Entity {
      * If there are no keys being hold in either the X or Y direction, 
      *  the player slows down in that direction.
      * 
-     * @param chunk The chunk the player is in
+     * @param walls The walls of the chunk the player is in
      */
-    public void move(TileType[][] chunk) {
+    public void move(WallMask walls) {
         // The x and y coordinate of the player after moving
         int newX;
         int newY;
@@ -115,18 +186,31 @@ class Player extends Entity {
         velocityX = this.getVelocityX();
         velocityY = this.getVelocityY();
 
-        newX = this.getX() + velocityX;
-        newY = this.getY() + velocityY;
+        // Face the direction of the movement keys that are held
+        int directionX = keyHandler.left ? -1 : keyHandler.right ? 1 : 0;
+        int directionY = keyHandler.up ? -1 : keyHandler.down ? 1 : 0;
+        if (directionX != 0 || directionY != 0) {
+            facingX = directionX;
+            facingY = directionY;
+        }
 
-        // Check if movement isn't illegal
-        if (collisionChecker.canMove(this, newX, newY, chunk)) {
-            this.setX(newX);
-            this.setY(newY);
-        } else {
-            // Set velocity in both directions to 0 in order to prevent illegal movement
+        /* Move along each axis separately, so the player slides along a wall
+         * instead of stopping when moving diagonally into it */
+        newX = collisionChecker.sweepX(
+            this.getX(), this.getY(), this.getWidth(), this.getHeight(), velocityX, walls);
+        newY = collisionChecker.sweepY(
+            newX, this.getY(), this.getWidth(), this.getHeight(), velocityY, walls);
+
+        // Set velocity to 0 in a direction that was blocked in order to prevent illegal movement
+        if (newX != this.getX() + velocityX) {
             this.setVelocityX(0);
+        }
+        if (newY != this.getY() + velocityY) {
             this.setVelocityY(0);
         }
+
+        this.setX(newX);
+        this.setY(newY);
     }
 
     /**
@@ -0,0 +1,49 @@
+import java.awt.Point;
+
+/**
+ * A player in a Simulation, with the chunk it is in and the projectiles flying around it.
+ * A simulation can have several players, e.g. one for every client of a GameServer.
+ * Every player has projectiles of its own: the ones it fired and the ones enemies fired at it,
+ * which only hit that player. They are cleared when the player enters another chunk.
+ */
+class PlayerState {
+    final Player player;
+
+    // The chunk the player is in, by coordinates and its state once it is loaded
+    final Point chunkCoordinates;
+    ChunkState chunk;
+
+    final ProjectilePool projectiles;
+
+    // Cooldown to prevent quickly entering and leaving chunks
+    int chunkEnteringCooldown = 0;
+
+    // Whether the player entered another chunk in this update, the rest of its update is skipped
+    boolean switchedChunk = false;
+
+    /**
+     * Initiates the state of a player that hasn't entered its chunk yet.
+     *
+     * @param player The player
+     * @param chunkX The X coordinate of the chunk of the player
+     * @param chunkY The Y coordinate of the chunk of the player
+     * @param maxProjectiles The number of projectiles that can be in flight around the player
+     */
+    public PlayerState(Player player, int chunkX, int chunkY, int maxProjectiles) {
+        this.player = player;
+        this.chunkCoordinates = new Point(chunkX, chunkY);
+        this.projectiles = new ProjectilePool(maxProjectiles);
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public ChunkState getChunk() {
+        return chunk;
+    }
+
+    public ProjectilePool getProjectiles() {
+        return projectiles;
+    }
+}
@@ -0,0 +1,382 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of the projectiles (arrows, spells) flying through a chunk.
+ * The state of every projectile is kept in arrays that are created once,
+ * so firing and updating projectiles doesn't allocate anything.
+ * When the pool is full, new projectiles are not fired.
+ */
+class ProjectilePool {
+    // Who fired a projectile. Projectiles of the player hit enemies, those of enemies hit the player
+    static final byte OWNER_PLAYER = 0;
+    static final byte OWNER_ENEMY = 1;
+
+    // Positions and velocities are in 1/SUBPIXELS pixels, so slow diagonal projectiles still move
+    static final int SUBPIXELS = 16;
+
+    // Maximum distance of the centre of an entity to a projectile for the projectile to hit it
+    static final int HIT_RADIUS = 16;
+
+    // Maximum speed in pixels per update
+    static final int MAX_SPEED = GamePanel.TILESIZE / 2;
+
+    // Number of updates a projectile flies before it disappears
+    static final int LIFETIME = 120;
+
+    int size = 0;
+
+    int[] x;
+    int[] y;
+    int[] velocityX;
+    int[] velocityY;
+    int[] damage;
+    int[] ticksLeft;
+    byte[] owner;
+
+    // Follows the flight of a projectile over the tiles it crosses
+    private final CollisionCheck collisionChecker = new CollisionCheck();
+
+    /**
+     * Initiates an empty pool.
+     *
+     * @param capacity The maximum number of projectiles in flight
+     */
+    public ProjectilePool(int capacity) {
+        x = new int[capacity];
+        y = new int[capacity];
+        velocityX = new int[capacity];
+        velocityY = new int[capacity];
+        damage = new int[capacity];
+        ticksLeft = new int[capacity];
+        owner = new byte[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * Gets the X coordinate of a projectile in pixels.
+     *
+     * @param i The index of the projectile
+     * @return The X coordinate
+     */
+    public int getPixelX(int i) {
+        return x[i] / SUBPIXELS;
+    }
+
+    /**
+     * Gets the Y coordinate of a projectile in pixels.
+     *
+     * @param i The index of the projectile
+     * @return The Y coordinate
+     */
+    public int getPixelY(int i) {
+        return y[i] / SUBPIXELS;
+    }
+
+    /**
+     * Fires a projectile from a location in a direction.
+     *
+     * @param projectileOwner OWNER_PLAYER or OWNER_ENEMY
+     * @param startX The X coordinate to fire from in pixels
+     * @param startY The Y coordinate to fire from in pixels
+     * @param directionX The X component of the direction, of any length
+     * @param directionY The Y component of the direction, of any length
+     * @param speed The speed in pixels per update, capped at MAX_SPEED
+     * @param projectileDamage The damage the projectile deals when it hits
+     * @return The index of the projectile, or -1 if the pool is full or there is no direction
+     */
+    public int fire(byte projectileOwner, int startX, int startY,
+        int directionX, int directionY, int speed, int projectileDamage) {
+
+        if (size == x.length || (directionX == 0 && directionY == 0)) {
+            return -1;
+        }
+
+        // Scale the direction to the speed
+        double length = Math.sqrt((double) directionX * directionX + (double) directionY * directionY);
+        double scale = Math.min(speed, MAX_SPEED) * SUBPIXELS / length;
+
+        int i = size;
+        size++;
+
+        x[i] = startX * SUBPIXELS;
+        y[i] = startY * SUBPIXELS;
+        velocityX[i] = (int) Math.round(directionX * scale);
+        velocityY[i] = (int) Math.round(directionY * scale);
+        damage[i] = projectileDamage;
+        ticksLeft[i] = LIFETIME;
+        owner[i] = projectileOwner;
+
+        return i;
+    }
+
+    /**
+     * Removes the projectile at an index by moving the last projectile into its place.
+     *
+     * @param i The index of the projectile to remove
+     */
+    public void remove(int i) {
+        size--;
+
+        if (i != size) {
+            x[i] = x[size];
+            y[i] = y[size];
+            velocityX[i] = velocityX[size];
+            velocityY[i] = velocityY[size];
+            damage[i] = damage[size];
+            ticksLeft[i] = ticksLeft[size];
+            owner[i] = owner[size];
+        }
+    }
+
+    /**
+     * Removes every projectile.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets the number of bytes writeState writes.
+     *
+     * @return The number of bytes
+     */
+    public int snapshotBytes() {
+        return 4 + size * (6 * 4 + 1);
+    }
+
+    /**
+     * Writes every projectile in flight to a snapshot.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(size);
+
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(x[i]);
+            buffer.putInt(y[i]);
+            buffer.putInt(velocityX[i]);
+            buffer.putInt(velocityY[i]);
+            buffer.putInt(damage[i]);
+            buffer.putInt(ticksLeft[i]);
+            buffer.put(owner[i]);
+        }
+    }
+
+    /**
+     * Checks that a buffer holds a state written by writeState and moves the buffer past it.
+     *
+     * @param buffer The buffer to read from
+     * @return True if the state can be read, false if it is cut off or its count is negative
+     */
+    static boolean checkState(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return false;
+        }
+
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / (6 * 4 + 1)) {
+            return false;
+        }
+
+        buffer.position(buffer.position() + count * (6 * 4 + 1));
+
+        return true;
+    }
+
+    /**
+     * Replaces the projectiles with those written by writeState.
+     * Projectiles that don't fit in the pool are skipped.
+     *
+     * @param buffer The buffer to read from
+     */
+    public void readState(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        size = Math.min(count, x.length);
+
+        for (int i = 0; i < count; i++) {
+            if (i >= x.length) {
+                buffer.position(buffer.position() + 6 * 4 + 1);
+                continue;
+            }
+
+            x[i] = buffer.getInt();
+            y[i] = buffer.getInt();
+            velocityX[i] = buffer.getInt();
+            velocityY[i] = buffer.getInt();
+            damage[i] = buffer.getInt();
+            ticksLeft[i] = buffer.getInt();
+            owner[i] = buffer.get();
+        }
+    }
+
+    /**
+     * Moves every projectile and lets it hit whatever it flies into.
+     * A projectile disappears when it hits a wall, leaves the chunk, runs out of time
+     * or hits an entity. Enemies killed by a projectile are removed from the store.
+     * The whole flight of an update is checked, from the old position to the new one, so a
+     * fast projectile can't pass through a wall corner or an entity between two updates.
+     * An entity is hit if its centre is within HIT_RADIUS of the flight before any wall.
+     *
+     * @param walls The walls of the chunk
+     * @param enemies The enemies that projectiles of the player can hit
+     * @param player The player that projectiles of enemies can hit
+     * @return True if the player was defeated by a projectile, false if not
+     */
+    public boolean update(WallMask walls, EnemyStore enemies, Player player) {
+        boolean playerDefeated = false;
+        long hitRadiusSquared = (long) HIT_RADIUS * HIT_RADIUS;
+
+        int i = 0;
+        while (i < size) {
+            int fromX = getPixelX(i);
+            int fromY = getPixelY(i);
+
+            x[i] += velocityX[i];
+            y[i] += velocityY[i];
+            ticksLeft[i]--;
+
+            int pixelX = getPixelX(i);
+            int pixelY = getPixelY(i);
+
+            // The flight ends at the first wall it crosses
+            int parts = collisionChecker.traceLine(fromX, fromY, pixelX, pixelY, walls);
+            boolean hitWall = parts < CollisionCheck.LINE_PARTS;
+            int toX = fromX + (pixelX - fromX) * parts / CollisionCheck.LINE_PARTS;
+            int toY = fromY + (pixelY - fromY) * parts / CollisionCheck.LINE_PARTS;
+
+            boolean gone;
+
+            if (owner[i] == OWNER_PLAYER) {
+                gone = hitEnemy(i, enemies, fromX, fromY, toX, toY);
+            } else {
+                gone = distanceToFlight(player.getCentreX(), player.getCentreY(), fromX, fromY, toX, toY)
+                    <= hitRadiusSquared;
+
+                if (gone) {
+                    // Deals damage to the player. If this returned true, the player was defeated
+                    if (player.takeDamage(damage[i])) {
+                        playerDefeated = true;
+                    }
+                }
+            }
+
+            gone |= hitWall || ticksLeft[i] <= 0
+                || x[i] < 0 || pixelX >= GameRenderer.SCREENWIDTH
+                || y[i] < 0 || pixelY >= GameRenderer.SCREENHEIGHT;
+
+            /* The last projectile is moved into the place of a removed one and hasn't been
+             * updated yet, so only go to the next index if nothing was removed */
+            if (gone) {
+                remove(i);
+            } else {
+                i++;
+            }
+        }
+
+        return playerDefeated;
+    }
+
+    /**
+     * Lets a projectile of the player hit the first enemy along its flight. Enemies hit at the
+     * same point of the flight go by lowest index, so the same enemy is hit no matter the
+     * order of the grid.
+     *
+     * @param i The index of the projectile
+     * @param enemies The store with the enemies
+     * @param fromX The X coordinate in pixels where the flight starts
+     * @param fromY The Y coordinate in pixels where the flight starts
+     * @param toX The X coordinate in pixels where the flight ends
+     * @param toY The Y coordinate in pixels where the flight ends
+     * @return True if an enemy was hit, false if not
+     */
+    private boolean hitEnemy(int i, EnemyStore enemies, int fromX, int fromY, int toX, int toY) {
+        // Every enemy near the flight is within this radius of its middle
+        int halfLengthX = Math.abs(toX - fromX) / 2 + 1;
+        int halfLengthY = Math.abs(toY - fromY) / 2 + 1;
+        int radius = HIT_RADIUS + (int) Math.ceil(Math.sqrt(
+            (double) halfLengthX * halfLengthX + (double) halfLengthY * halfLengthY));
+
+        int nearby = enemies.grid.queryRadius((fromX + toX) / 2, (fromY + toY) / 2, radius);
+        long hitRadiusSquared = (long) HIT_RADIUS * HIT_RADIUS;
+        long lengthX = toX - fromX;
+        long lengthY = toY - fromY;
+
+        int target = -1;
+        long targetAlong = 0;
+
+        for (int n = 0; n < nearby; n++) {
+            int id = enemies.grid.results[n];
+            int centreX = enemies.centreX(id);
+            int centreY = enemies.centreY(id);
+
+            if (distanceToFlight(centreX, centreY, fromX, fromY, toX, toY) > hitRadiusSquared) {
+                continue;
+            }
+
+            // How far along the flight the enemy is, to hit the first one
+            long along = Math.max(0, (centreX - fromX) * lengthX + (centreY - fromY) * lengthY);
+
+            if (target < 0 || along < targetAlong || (along == targetAlong && id < target)) {
+                target = id;
+                targetAlong = along;
+            }
+        }
+
+        if (target < 0) {
+            return false;
+        }
+
+        if (Enemy.getType(enemies.typeId[target]).takeDamage(enemies, target, damage[i])) {
+            enemies.remove(target);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the squared distance from a point to the flight of a projectile in one update.
+     *
+     * @param pointX The X coordinate of the point
+     * @param pointY The Y coordinate of the point
+     * @param fromX The X coordinate where the flight starts
+     * @param fromY The Y coordinate where the flight starts
+     * @param toX The X coordinate where the flight ends
+     * @param toY The Y coordinate where the flight ends
+     * @return The squared distance in pixels
+     */
+    static long distanceToFlight(int pointX, int pointY, int fromX, int fromY, int toX, int toY) {
+        long lengthX = toX - fromX;
+        long lengthY = toY - fromY;
+        long offsetX = pointX - fromX;
+        long offsetY = pointY - fromY;
+
+        long along = offsetX * lengthX + offsetY * lengthY;
+        long lengthSquared = lengthX * lengthX + lengthY * lengthY;
+
+        // The point is before the start or the flight has no length
+        if (along <= 0 || lengthSquared == 0) {
+            return offsetX * offsetX + offsetY * offsetY;
+        }
+
+        // The point is past the end
+        if (along >= lengthSquared) {
+            long endX = pointX - toX;
+            long endY = pointY - toY;
+
+            return endX * endX + endY * endY;
+        }
+
+        // The point is beside the flight: the cross product squared over the length squared
+        long cross = offsetX * lengthY - offsetY * lengthX;
+
+        return (cross * cross + lengthSquared - 1) / lengthSquared;
+    }
+}
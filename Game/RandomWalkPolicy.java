@@ -0,0 +1,39 @@
+import java.util.Random;
+
+/**
+ * Walks in a random direction for a random time, then picks another, sometimes attacking.
+ */
+class RandomWalkPolicy implements BotPolicy {
+    // The directions to walk in, including standing still
+    private static final int[] DIRECTIONS = {
+        KeyHandler.INPUT_UP, KeyHandler.INPUT_DOWN, KeyHandler.INPUT_LEFT, KeyHandler.INPUT_RIGHT,
+        KeyHandler.INPUT_UP | KeyHandler.INPUT_LEFT, KeyHandler.INPUT_UP | KeyHandler.INPUT_RIGHT,
+        KeyHandler.INPUT_DOWN | KeyHandler.INPUT_LEFT, KeyHandler.INPUT_DOWN | KeyHandler.INPUT_RIGHT, 0};
+
+    // Most number of choices a direction is held
+    private static final int MAX_HELD = 90;
+
+    private final Random random;
+    private int input = 0;
+    private int held = 0;
+
+    public RandomWalkPolicy(long seed) {
+        random = new Random(seed);
+    }
+
+    @Override
+    public int chooseInput(BotView view) {
+        if (held == 0) {
+            input = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+
+            if (random.nextInt(4) == 0) {
+                input |= KeyHandler.INPUT_SPACE;
+            }
+
+            held = 1 + random.nextInt(MAX_HELD);
+        }
+        held--;
+
+        return input;
+    }
+}
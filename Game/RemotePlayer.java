@@ -0,0 +1,512 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A client connected to a GameServer, playing its own player in the simulation the server
+ * runs for every client. Reads the input of the client and writes snapshots around its player.
+ * An AreaOfInterest keeps the enemies last sent to the client, so a snapshot only holds
+ * what changed near the player. Projectiles and the other players move every update, so
+ * every snapshot holds all of them that are in view. Only used by the thread of the server.
+ */
+class RemotePlayer implements InterestListener {
+    // Bytes buffered for reading from and writing to the client
+    private static final int INBOUND_BYTES = 4096;
+    private static final int OUTBOUND_BYTES = 1 << 18;
+
+    // Bytes of a chunk message
+    private static final int CHUNK_FRAME_BYTES = NetProtocol.FRAME_HEADER_BYTES + 2 * 5
+        + GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
+
+    // Values sent per projectile: its owner, X and Y
+    static final int PROJECTILE_VALUES = 3;
+
+    // Most bytes a projectile takes in a snapshot
+    private static final int MAX_PROJECTILE_BYTES = 1 + 2 * 5;
+
+    // Values sent per other player: its client number, X, Y and HP
+    static final int PLAYER_VALUES = 4;
+
+    // Most bytes another player takes in a snapshot
+    private static final int MAX_PLAYER_BYTES = 4 * 5;
+
+    private static final int CHUNK_PIXEL_WIDTH = GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+    private static final int CHUNK_PIXEL_HEIGHT = GamePanel.CHUNKHEIGHT * GamePanel.TILESIZE;
+
+    // Values of an enemy sent to the client, as returned by getSentEnemies
+    static final int SENT_TYPE = 0;
+    static final int SENT_X = 1;
+    static final int SENT_Y = 2;
+    static final int SENT_HP = 3;
+    static final int SENT_SPRITE = 4;
+
+    private final int id;
+    private final SocketChannel channel;
+    private final Simulation simulation;
+
+    // The player of the client in the simulation
+    private final PlayerState state;
+
+    private final ByteBuffer inbound = ByteBuffer.allocate(INBOUND_BYTES);
+
+    // Bytes waiting to be written to the client, in write mode
+    private final ByteBuffer outbound = ByteBuffer.allocate(OUTBOUND_BYTES);
+
+    // The keys the client holds down
+    private int input = 0;
+
+    // The chunk and tiles last sent to the client
+    private ChunkState sentChunk = null;
+    private ChunkTiles sentTiles = null;
+
+    // The player last sent to the client
+    private int sentPlayerX = 0;
+    private int sentPlayerY = 0;
+    private int sentPlayerHp = 0;
+
+    // The enemies last sent to the client
+    private final AreaOfInterest interest = new AreaOfInterest(0);
+
+    // The projectiles last sent to the client, PROJECTILE_VALUES per projectile
+    private int[] sentProjectiles = new int[0];
+    private int sentProjectileCount = 0;
+
+    // The other players last sent to the client, PLAYER_VALUES per player
+    private int[] sentPlayers = new int[0];
+    private int sentPlayerCount = 0;
+
+    // Number of snapshots written to the client, and of records in the snapshot being written
+    private int snapshotCount = 0;
+    private int recordCount = 0;
+
+    // Metrics
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+    private long fullSnapshotBytes = 0;
+    private long snapshotBytes = 0;
+    private int skippedSnapshots = 0;
+    private long snapshotNanos = 0;
+    private long maxSnapshotNanos = 0;
+
+    /**
+     * Initiates a connected client and welcomes it.
+     *
+     * @param id The number of the client
+     * @param channel The connection to the client, non-blocking
+     * @param simulation The simulation every client plays in
+     * @param state The player of the client, added to the simulation for it
+     * @param snapshotInterval The number of updates between two snapshots
+     * @param viewRadius The distance in pixels from the player within which enemies are sent
+     */
+    public RemotePlayer(int id, SocketChannel channel, Simulation simulation, PlayerState state,
+        int snapshotInterval, int viewRadius) {
+        this.id = id;
+        this.channel = channel;
+        this.simulation = simulation;
+        this.state = state;
+
+        int start = NetProtocol.beginFrame(outbound, NetProtocol.MSG_WELCOME);
+        outbound.putInt(NetProtocol.MAGIC);
+        outbound.putInt(NetProtocol.VERSION);
+        outbound.putInt(id);
+        outbound.putInt(GameServer.TICKS_PER_SECOND);
+        outbound.putInt(snapshotInterval);
+        outbound.putInt(viewRadius);
+        NetProtocol.endFrame(outbound, start);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public PlayerState getPlayerState() {
+        return state;
+    }
+
+    /**
+     * Gets the keys the client holds down.
+     *
+     * @return The keys, see KeyHandler.getInputMask
+     */
+    public int getInput() {
+        return input;
+    }
+
+    /**
+     * Gets the enemies last sent to the client.
+     *
+     * @return The SENT_ values of the enemies by the number they were sent with
+     */
+    public Map<Integer, int[]> getSentEnemies() {
+        Map<Integer, int[]> sent = new HashMap<Integer, int[]>();
+
+        for (int n = 0; n < interest.size(); n++) {
+            int id = interest.getId(n);
+            sent.put(id, new int[] {interest.getType(id), interest.getX(id), interest.getY(id),
+                interest.getHp(id), interest.getSprite(id)});
+        }
+
+        return sent;
+    }
+
+    public int getSentPlayerX() {
+        return sentPlayerX;
+    }
+
+    public int getSentPlayerY() {
+        return sentPlayerY;
+    }
+
+    public int getSentPlayerHp() {
+        return sentPlayerHp;
+    }
+
+    /**
+     * Gets the projectiles last sent to the client.
+     *
+     * @return The owner, X and Y of every projectile, one after the other
+     */
+    public int[] getSentProjectiles() {
+        return Arrays.copyOf(sentProjectiles, sentProjectileCount * PROJECTILE_VALUES);
+    }
+
+    /**
+     * Gets the other players last sent to the client.
+     *
+     * @return The client number, X, Y and HP of every other player, one after the other
+     */
+    public int[] getSentPlayers() {
+        return Arrays.copyOf(sentPlayers, sentPlayerCount * PLAYER_VALUES);
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public int getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    public int getSkippedSnapshots() {
+        return skippedSnapshots;
+    }
+
+    /**
+     * Gets how much smaller the snapshots were than snapshots with every enemy in view.
+     *
+     * @return The bytes of the full snapshots divided by the bytes sent in snapshots
+     */
+    public double getCompressionRatio() {
+        return snapshotBytes == 0 ? 1 : (double) fullSnapshotBytes / snapshotBytes;
+    }
+
+    public long getAverageSnapshotNanos() {
+        return snapshotCount == 0 ? 0 : snapshotNanos / snapshotCount;
+    }
+
+    public long getMaxSnapshotNanos() {
+        return maxSnapshotNanos;
+    }
+
+    /**
+     * Reads the messages the client sent.
+     *
+     * @return False if the client closed the connection
+     * @throws IOException If the connection failed or the client sent an invalid message
+     */
+    public boolean read() throws IOException {
+        int read = channel.read(inbound);
+        if (read < 0) {
+            return false;
+        }
+        bytesReceived += read;
+
+        inbound.flip();
+
+        try {
+            int length;
+            while ((length = NetProtocol.completeFrameLength(inbound)) >= 0) {
+                int end = inbound.position() + 4 + length;
+                inbound.getInt();
+
+                byte type = inbound.get();
+                if (type != NetProtocol.MSG_INPUT || length != 2) {
+                    throw new IOException("Unexpected message " + type + " from client " + id);
+                }
+
+                input = inbound.get();
+                inbound.position(end);
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        inbound.compact();
+
+        return true;
+    }
+
+    /**
+     * Writes a snapshot around the player of the client, preceded by the tiles of its chunk if
+     * they changed. The snapshot is skipped if the client hasn't read enough of the earlier
+     * messages to make room for it. As the area of interest isn't updated for the skipped
+     * snapshot, the next snapshot holds its changes.
+     *
+     * @param viewRadius The distance in pixels from the player within which enemies and other players are sent
+     * @param clients Every client of the server, including this one
+     */
+    public void writeSnapshot(int viewRadius, ArrayList<RemotePlayer> clients) {
+        long begin = System.nanoTime();
+        ActiveRegion region = simulation.getRegion();
+        ChunkState current = state.chunk;
+        Player player = state.player;
+        ProjectilePool projectiles = state.projectiles;
+
+        // Every enemy near the player can enter, and every enemy sent before can leave
+        int maxRecords = interest.size();
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            ChunkState chunk = region.getResident(n);
+
+            if (Math.abs(chunk.chunkX - current.chunkX) <= 1 && Math.abs(chunk.chunkY - current.chunkY) <= 1) {
+                maxRecords += chunk.enemies.size;
+            }
+        }
+
+        int maxBytes = CHUNK_FRAME_BYTES + NetProtocol.FRAME_HEADER_BYTES + 4 * 5 + 4
+            + maxRecords * NetProtocol.MAX_ENEMY_RECORD_BYTES
+            + 5 + projectiles.size() * MAX_PROJECTILE_BYTES
+            + 4 + clients.size() * MAX_PLAYER_BYTES;
+        if (outbound.remaining() < maxBytes) {
+            skippedSnapshots++;
+            return;
+        }
+
+        // The client forgets the enemies when it gets a chunk, so they enter again
+        if (current != sentChunk || current.tiles != sentTiles) {
+            writeChunk(current);
+            interest.clear();
+        }
+
+        snapshotCount++;
+
+        int start = NetProtocol.beginFrame(outbound, NetProtocol.MSG_SNAPSHOT);
+        NetProtocol.putVarint(outbound, (int) simulation.getTickCount());
+        NetProtocol.putSignedVarint(outbound, player.getX() - sentPlayerX);
+        NetProtocol.putSignedVarint(outbound, player.getY() - sentPlayerY);
+        NetProtocol.putVarint(outbound, Math.max(0, player.getHP()));
+        sentPlayerX = player.getX();
+        sentPlayerY = player.getY();
+        sentPlayerHp = Math.max(0, player.getHP());
+
+        int countPosition = outbound.position();
+        outbound.putInt(0);
+        recordCount = 0;
+        int fullBytes = outbound.position() - start;
+
+        interest.setRadius(viewRadius);
+        interest.update(region, current, player.getCentreX(), player.getCentreY(), this);
+
+        // A snapshot without deltas would hold every enemy in view
+        for (int n = 0; n < interest.size(); n++) {
+            int id = interest.getId(n);
+            fullBytes += 2 + 5 + NetProtocol.signedVarintBytes(interest.getX(id))
+                + NetProtocol.signedVarintBytes(interest.getY(id)) + 2 + 1;
+        }
+
+        outbound.putInt(countPosition, recordCount);
+        int projectileStart = outbound.position();
+        writeProjectiles(projectiles);
+        writePlayers(clients, viewRadius);
+        fullBytes += outbound.position() - projectileStart;
+        NetProtocol.endFrame(outbound, start);
+
+        snapshotBytes += outbound.position() - start;
+        fullSnapshotBytes += fullBytes;
+
+        long elapsed = System.nanoTime() - begin;
+        snapshotNanos += elapsed;
+        maxSnapshotNanos = Math.max(maxSnapshotNanos, elapsed);
+    }
+
+    /**
+     * Writes every projectile in the chunk of the player to the snapshot.
+     *
+     * @param projectiles The projectiles of the simulation
+     */
+    private void writeProjectiles(ProjectilePool projectiles) {
+        int count = projectiles.size();
+        NetProtocol.putVarint(outbound, count);
+
+        if (sentProjectiles.length < count * PROJECTILE_VALUES) {
+            sentProjectiles = new int[count * PROJECTILE_VALUES];
+        }
+
+        for (int i = 0; i < count; i++) {
+            int base = i * PROJECTILE_VALUES;
+            sentProjectiles[base] = projectiles.owner[i];
+            sentProjectiles[base + 1] = projectiles.getPixelX(i);
+            sentProjectiles[base + 2] = projectiles.getPixelY(i);
+
+            outbound.put(projectiles.owner[i]);
+            NetProtocol.putSignedVarint(outbound, sentProjectiles[base + 1]);
+            NetProtocol.putSignedVarint(outbound, sentProjectiles[base + 2]);
+        }
+
+        sentProjectileCount = count;
+    }
+
+    /**
+     * Writes the other players within the view radius of the player to the snapshot, with
+     * their position relative to the chunk of the player like the enemies.
+     *
+     * @param clients Every client of the server, including this one
+     * @param viewRadius The distance in pixels from the player within which other players are sent
+     */
+    private void writePlayers(ArrayList<RemotePlayer> clients, int viewRadius) {
+        int countPosition = outbound.position();
+        outbound.putInt(0);
+        int count = 0;
+
+        if (sentPlayers.length < clients.size() * PLAYER_VALUES) {
+            sentPlayers = new int[clients.size() * PLAYER_VALUES];
+        }
+
+        ChunkState current = state.chunk;
+        long radiusSquared = (long) viewRadius * viewRadius;
+
+        for (int n = 0; n < clients.size(); n++) {
+            PlayerState other = clients.get(n).state;
+            if (other == state || other.chunk == null) {
+                continue;
+            }
+
+            // Chunk Y grows upwards, so the chunk above is at negative Y
+            int offsetX = (other.chunk.chunkX - current.chunkX) * CHUNK_PIXEL_WIDTH;
+            int offsetY = -(other.chunk.chunkY - current.chunkY) * CHUNK_PIXEL_HEIGHT;
+            long distanceX = other.player.getCentreX() + offsetX - state.player.getCentreX();
+            long distanceY = other.player.getCentreY() + offsetY - state.player.getCentreY();
+
+            if (distanceX * distanceX + distanceY * distanceY > radiusSquared) {
+                continue;
+            }
+
+            int base = count * PLAYER_VALUES;
+            sentPlayers[base] = clients.get(n).id;
+            sentPlayers[base + 1] = other.player.getX() + offsetX;
+            sentPlayers[base + 2] = other.player.getY() + offsetY;
+            sentPlayers[base + 3] = Math.max(0, other.player.getHP());
+
+            NetProtocol.putVarint(outbound, sentPlayers[base]);
+            NetProtocol.putSignedVarint(outbound, sentPlayers[base + 1]);
+            NetProtocol.putSignedVarint(outbound, sentPlayers[base + 2]);
+            NetProtocol.putVarint(outbound, sentPlayers[base + 3]);
+            count++;
+        }
+
+        outbound.putInt(countPosition, count);
+        sentPlayerCount = count;
+    }
+
+    @Override
+    public void entityEntered(int id) {
+        outbound.put(NetProtocol.ENEMY_ENTER);
+        NetProtocol.putVarint(outbound, id);
+        NetProtocol.putVarint(outbound, interest.getType(id));
+        NetProtocol.putSignedVarint(outbound, interest.getX(id));
+        NetProtocol.putSignedVarint(outbound, interest.getY(id));
+        NetProtocol.putVarint(outbound, interest.getHp(id));
+        outbound.put(interest.getSprite(id));
+        recordCount++;
+    }
+
+    @Override
+    public void entityUpdated(int id, int changed, int deltaX, int deltaY) {
+        outbound.put(NetProtocol.ENEMY_UPDATE);
+        NetProtocol.putVarint(outbound, id);
+        outbound.put((byte) changed);
+
+        if ((changed & NetProtocol.CHANGED_X) != 0) {
+            NetProtocol.putSignedVarint(outbound, deltaX);
+        }
+        if ((changed & NetProtocol.CHANGED_Y) != 0) {
+            NetProtocol.putSignedVarint(outbound, deltaY);
+        }
+        if ((changed & NetProtocol.CHANGED_HP) != 0) {
+            NetProtocol.putVarint(outbound, interest.getHp(id));
+        }
+        if ((changed & NetProtocol.CHANGED_SPRITE) != 0) {
+            outbound.put(interest.getSprite(id));
+        }
+        recordCount++;
+    }
+
+    @Override
+    public void entityLeft(int id) {
+        outbound.put(NetProtocol.ENEMY_LEAVE);
+        NetProtocol.putVarint(outbound, id);
+        recordCount++;
+    }
+
+    /**
+     * Checks if bytes are waiting to be written to the client.
+     *
+     * @return True if bytes are waiting
+     */
+    public boolean hasPending() {
+        return outbound.position() > 0;
+    }
+
+    /**
+     * Writes as much of the buffered messages to the client as it accepts.
+     *
+     * @return True if everything was written, false if some bytes are still waiting
+     * @throws IOException If the connection failed
+     */
+    public boolean flush() throws IOException {
+        outbound.flip();
+        bytesSent += channel.write(outbound);
+        outbound.compact();
+
+        return outbound.position() == 0;
+    }
+
+    /**
+     * Writes the tiles of the chunk of the player.
+     *
+     * @param chunk The chunk
+     */
+    private void writeChunk(ChunkState chunk) {
+        int start = NetProtocol.beginFrame(outbound, NetProtocol.MSG_CHUNK);
+        NetProtocol.putSignedVarint(outbound, chunk.chunkX);
+        NetProtocol.putSignedVarint(outbound, chunk.chunkY);
+
+        ChunkTiles tiles = chunk.tiles;
+        for (int row = 0; row < GamePanel.CHUNKHEIGHT; row++) {
+            for (int column = 0; column < GamePanel.CHUNKWIDTH; column++) {
+                TileType tile = tiles.getType(column, row);
+                outbound.put((byte) (tile == null ? -1 : tile.ordinal()));
+            }
+        }
+
+        NetProtocol.endFrame(outbound, start);
+
+        sentChunk = chunk;
+        sentTiles = tiles;
+    }
+}
@@ -0,0 +1,411 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the chunk and asset files of the game. The folder with the chunks and assets folders is
+ * looked for once, by checking the working directory and up to 6 parents and then the folders
+ * directly in the working directory, so the game can be started from an IDE or a terminal.
+ * If there is no such folder, they are read from the jar the game is packaged in.
+ *
+ * <p>Every file in the chunks and assets folders is indexed when the root is found, so checking
+ * whether a file exists or listing a folder doesn't touch the file system. A file is read the
+ * first time it is opened and kept in memory, so loading an asset again doesn't read its file.
+ * Chunk files are opened with openOnce and not kept, as the TileStore and ActiveRegion keep
+ * what was read from them, and keeping them would grow the heap with every chunk visited.
+ * HotReloader tells the root when files change, so they are read again.
+ */
+class ResourceRoot {
+    // The folders that are indexed, relative to the root
+    private static final String[] INDEXED_FOLDERS = {"chunks", "assets"};
+
+    // Number of parents of the working directory that are checked for the folders
+    private static final int PARENT_SEARCH_DEPTH = 6;
+
+    private static volatile ResourceRoot instance = null;
+
+    // The folder with the chunks and assets folders, or null if they are read from a jar
+    private final Path directory;
+
+    // Every indexed file by its path relative to the root, e.g. chunks/OW_0_0/tiles.txt
+    private final Set<String> files = ConcurrentHashMap.newKeySet();
+
+    /* The names of the files directly in each indexed folder, by the path of the folder.
+     * The lists are not changed once they are in the map, a changed folder gets a new list */
+    private final Map<String, List<String>> folders = new ConcurrentHashMap<String, List<String>>();
+
+    // The contents of the files that have been read, by path
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
+
+    // Number of times a file was read from the file system or the jar
+    private volatile long readCount = 0;
+
+    /**
+     * Indexes the files of a root.
+     *
+     * @param directory The folder with the chunks and assets folders, or null to use the jar
+     * @param jar The jar with the chunks and assets folders, used when directory is null
+     */
+    private ResourceRoot(Path directory, File jar) {
+        this.directory = directory;
+
+        if (directory != null) {
+            indexDirectory();
+        } else if (jar != null) {
+            indexJar(jar);
+        }
+
+        // Make the lists of files unmodifiable, so they can be handed out
+        for (Map.Entry<String, List<String>> folder : folders.entrySet()) {
+            Collections.sort(folder.getValue());
+            folder.setValue(Collections.unmodifiableList(folder.getValue()));
+        }
+    }
+
+    /**
+     * Gets the root of the resources of the game, finding and indexing it the first time.
+     *
+     * @return The root
+     */
+    public static ResourceRoot get() {
+        ResourceRoot root = instance;
+
+        if (root == null) {
+            synchronized (ResourceRoot.class) {
+                root = instance;
+
+                if (root == null) {
+                    root = locate();
+                    instance = root;
+                }
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * Reads the resources from another folder from now on, e.g. a copy to change them in.
+     * Files that were already loaded are not loaded again.
+     *
+     * @param directory The folder with the chunks and assets folders
+     * @return The new root
+     */
+    public static synchronized ResourceRoot use(Path directory) {
+        instance = new ResourceRoot(directory, null);
+
+        return instance;
+    }
+
+    /**
+     * Gets the folder the resources are read from.
+     *
+     * @return The folder, or null if the resources are read from a jar
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the number of files that have been read from the file system or the jar.
+     *
+     * @return The number of reads
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Checks whether a file exists.
+     *
+     * @param path The path of the file relative to the root, e.g. chunks/OW_0_0/tiles.txt
+     * @return True if the file exists
+     */
+    public boolean exists(String path) {
+        return files.contains(path);
+    }
+
+    /**
+     * Lists the files directly in a folder.
+     *
+     * @param folder The path of the folder relative to the root, e.g. assets/sprites/Player
+     * @return The names of the files, ordered by name, empty if the folder doesn't exist
+     */
+    public List<String> list(String folder) {
+        return folders.getOrDefault(folder, Collections.emptyList());
+    }
+
+    /**
+     * Gets the folders that are indexed, relative to the root.
+     *
+     * @return The names of the folders
+     */
+    public static String[] getIndexedFolders() {
+        return INDEXED_FOLDERS.clone();
+    }
+
+    /**
+     * Updates the index for a file that was created, changed or deleted, and forgets its
+     * contents, so it is read again the next time it is opened.
+     * Does nothing for resources read from a jar, as those can't change.
+     *
+     * @param path The path of the file relative to the root
+     */
+    public void invalidate(String path) {
+        if (directory == null || !isIndexed(path)) {
+            return;
+        }
+
+        contents.remove(path);
+
+        boolean exists = Files.isRegularFile(directory.resolve(path));
+        boolean indexed = files.contains(path);
+
+        if (exists == indexed) {
+            return;
+        }
+
+        // The file was created or deleted, update the list of its folder
+        int slash = path.lastIndexOf('/');
+        String folder = path.substring(0, slash);
+        String name = path.substring(slash + 1);
+
+        synchronized (folders) {
+            ArrayList<String> names = new ArrayList<String>(list(folder));
+
+            if (exists) {
+                files.add(path);
+                names.add(name);
+                Collections.sort(names);
+            } else {
+                files.remove(path);
+                names.remove(name);
+            }
+
+            folders.put(folder, Collections.unmodifiableList(names));
+        }
+    }
+
+    /**
+     * Opens a file. The file is read into memory the first time it is opened.
+     *
+     * @param path The path of the file relative to the root
+     * @return A stream with the contents of the file
+     * @throws FileNotFoundException If the file doesn't exist
+     * @throws IOException If the file can't be read
+     */
+    public InputStream open(String path) throws IOException {
+        return new ByteArrayInputStream(read(path));
+    }
+
+    /**
+     * Opens a file without keeping its contents in memory, for files that are read again when
+     * they are needed instead, like the tiles of chunks that gave up their slot in the TileStore.
+     * Contents kept by an earlier open are forgotten. Files of a jar are kept, as they are all
+     * read when it is indexed.
+     *
+     * @param path The path of the file relative to the root
+     * @return A stream with the contents of the file
+     * @throws FileNotFoundException If the file doesn't exist
+     * @throws IOException If the file can't be read
+     */
+    public InputStream openOnce(String path) throws IOException {
+        if (directory == null) {
+            return open(path);
+        }
+
+        byte[] content = contents.remove(path);
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+
+        if (!files.contains(path)) {
+            throw new FileNotFoundException(path);
+        }
+
+        content = Files.readAllBytes(directory.resolve(path));
+        readCount++;
+
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * Gets the contents of a file. The file is read into memory the first time.
+     *
+     * @param path The path of the file relative to the root
+     * @return The contents of the file, which must not be changed
+     * @throws FileNotFoundException If the file doesn't exist
+     * @throws IOException If the file can't be read
+     */
+    public byte[] read(String path) throws IOException {
+        byte[] content = contents.get(path);
+        if (content != null) {
+            return content;
+        }
+
+        if (!files.contains(path) || directory == null) {
+            throw new FileNotFoundException(path);
+        }
+
+        // The files of a jar are all read when it is indexed
+        content = Files.readAllBytes(directory.resolve(path));
+        readCount++;
+        contents.put(path, content);
+
+        return content;
+    }
+
+    /**
+     * Finds the root. Checks the working directory and its parents, then the folders in
+     * the working directory, then the jar the game is running from.
+     *
+     * @return The root, without files if the resources couldn't be found
+     */
+    private static ResourceRoot locate() {
+        File start = new File(System.getProperty("user.dir"));
+
+        // Check the working directory and its parents
+        File current = start;
+        for (int i = 0; i <= PARENT_SEARCH_DEPTH && current != null; i++) {
+            if (isRoot(current)) {
+                return new ResourceRoot(current.toPath(), null);
+            }
+            current = current.getParentFile();
+        }
+
+        // Check the folders directly in the working directory
+        File[] children = start.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory() && isRoot(child)) {
+                    return new ResourceRoot(child.toPath(), null);
+                }
+            }
+        }
+
+        // Check where the classes were loaded from, a folder or a jar
+        try {
+            File codeSource = new File(
+                ResourceRoot.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+            if (codeSource.isDirectory() && isRoot(codeSource)) {
+                return new ResourceRoot(codeSource.toPath(), null);
+            }
+
+            if (codeSource.isFile()) {
+                return new ResourceRoot(null, codeSource);
+            }
+        } catch (Exception e) {
+            // No code source, e.g. when the classes are loaded by a custom class loader
+        }
+
+        System.err.println("Unable to find the chunks and assets folders from " + start.getAbsolutePath());
+        return new ResourceRoot(null, null);
+    }
+
+    /**
+     * Checks whether a folder has a chunks or assets folder.
+     *
+     * @param folder The folder to check
+     * @return True if the folder has one of the indexed folders
+     */
+    private static boolean isRoot(File folder) {
+        for (String indexed : INDEXED_FOLDERS) {
+            if (new File(folder, indexed).isDirectory()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds every file in the indexed folders of the root folder to the index.
+     */
+    private void indexDirectory() {
+        for (String indexed : INDEXED_FOLDERS) {
+            Path folder = directory.resolve(indexed);
+            if (!Files.isDirectory(folder)) {
+                continue;
+            }
+
+            try (Stream<Path> walk = Files.walk(folder)) {
+                walk.filter(Files::isRegularFile).forEach(file ->
+                    addFile(directory.relativize(file).toString().replace(File.separatorChar, '/')));
+            } catch (IOException e) {
+                System.err.println("Unable to index " + folder + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Adds every file in the indexed folders of a jar to the index and reads them.
+     *
+     * @param jar The jar
+     */
+    private void indexJar(File jar) {
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String path = entry.getName();
+
+                if (entry.isDirectory() || !isIndexed(path)) {
+                    continue;
+                }
+
+                try (InputStream input = zip.getInputStream(entry)) {
+                    contents.put(path, input.readAllBytes());
+                    readCount++;
+                }
+                addFile(path);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to index " + jar + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether a path is in one of the indexed folders.
+     *
+     * @param path The path relative to the root
+     * @return True if the path is in an indexed folder
+     */
+    private static boolean isIndexed(String path) {
+        for (String indexed : INDEXED_FOLDERS) {
+            if (path.startsWith(indexed + "/")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds a file to the index and to the list of its folder.
+     *
+     * @param path The path of the file relative to the root, with / between folders
+     */
+    private void addFile(String path) {
+        files.add(path);
+
+        int slash = path.lastIndexOf('/');
+        folders.computeIfAbsent(path.substring(0, slash), folder -> new ArrayList<String>())
+            .add(path.substring(slash + 1));
+    }
+}
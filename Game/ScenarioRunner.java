@@ -0,0 +1,563 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Runs end-to-end scenarios of the simulation without a window and compares them to a baseline,
+ * so a change that makes the game slower fails the run. Every scenario plays a canned world
+ * from the chunks folder with fixed input for a fixed number of updates and measures:
+ * updates per second, the 99th percentile update time, the bytes allocated per update and
+ * the peak heap. Every scenario first runs a few times without measuring, so the code is
+ * compiled, and is then measured a number of times of which the median of each metric is kept.
+ *
+ * <p>The baseline is kept in two files in the baseline folder. baseline.txt holds the metrics
+ * that don't depend on the speed of the machine (bytes per update, peak heap, chunks entered)
+ * and is committed. timings.txt holds the updates per second and p99 update time, which
+ * only mean something on the machine they were measured on, so it is not committed: save one
+ * on the machine that runs the comparison. Without it only baseline.txt is compared.
+ *
+ * <p>Scenarios: open-field (2000 enemies in the FIELD world, walking up and down),
+ * maze (the enemies of MAZE_0_0 finding their way through the maze to the player), border-walk (walking in
+ * circles over the borders of FIELD chunks, so chunks are entered all the time),
+ * swarm (10000 enemies around the player in the start of the world) and ping-pong
+ * (walking back and forth over one chunk border as fast as the game allows).
+ *
+ * <p>Run from the Game folder with
+ * "java ScenarioRunner [all|scenario] [compare|save] [baseline folder] [allowed regression %]".
+ * compare fails with status 1 if the median of a metric is worse than the baseline by more than
+ * the allowed regression and the best run is worse than the baseline as well, so one slow run
+ * doesn't fail it. save writes the results as the new baseline.
+ */
+class ScenarioRunner {
+    private static final String DEFAULT_BASELINE_FOLDER = "scenarios";
+    private static final String BASELINE_FILE = "baseline.txt";
+    private static final String TIMINGS_FILE = "timings.txt";
+    private static final double DEFAULT_ALLOWED_REGRESSION = 20;
+
+    // Updates run before measuring, so the code is compiled and the buffers have grown
+    private static final int WARMUP_TICKS = 600;
+
+    // Number of times every scenario is run before measuring, the results are thrown away
+    private static final int WARMUP_RUNS = 1;
+
+    // Number of times every scenario is measured. Odd, so the median is one of the runs
+    private static final int REPEATS = 5;
+
+    /* Differences that are always allowed, as small values vary more than the allowed share:
+     * the update time is measured in buckets, allocations vary with the JIT, and the
+     * peak heap depends on when the garbage collector runs */
+    private static final long P99_SLACK_MICROS = 50;
+    private static final long ALLOCATION_SLACK_BYTES = 64;
+    private static final long HEAP_SLACK_BYTES = 16L << 20;
+
+    // Used to measure the bytes allocated by this thread
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Scenario[] SCENARIOS = {
+        new Scenario("open-field", "FIELD", 175, 175, 2000, 3000,
+            tick -> tick % 40 < 20 ? KeyHandler.INPUT_UP : KeyHandler.INPUT_DOWN),
+        new Scenario("maze", "MAZE", 175, 175, 0, 20000, tick -> 0).chasing(),
+        new Scenario("border-walk", "FIELD", 175, 175, 0, 10000, ScenarioRunner::walkInCircles),
+        new Scenario("swarm", "OW", 188, 188, 10000, 600,
+            tick -> tick % 40 < 20 ? KeyHandler.INPUT_UP : KeyHandler.INPUT_DOWN),
+        new Scenario("ping-pong", "FIELD", 330, 175, 0, 20000,
+            tick -> tick % 80 < 40 ? KeyHandler.INPUT_RIGHT : KeyHandler.INPUT_LEFT),
+    };
+
+    /**
+     * A canned world, the input of the player and the number of updates to measure.
+     */
+    private static class Scenario {
+        final String name;
+        final String world;
+        final int playerX;
+        final int playerY;
+        final int extraEnemies;
+        final int ticks;
+        final IntUnaryOperator input;
+
+        // True if the enemies chase the player from the start, also when they can't see the player
+        boolean chasing = false;
+
+        /**
+         * Initiates a scenario.
+         *
+         * @param name The name to run it by
+         * @param world The world, its chunks are in the chunks folder
+         * @param playerX The X coordinate the player starts at in chunk 0, 0
+         * @param playerY The Y coordinate the player starts at
+         * @param extraEnemies The number of enemies added to the start chunk besides the ones in its files
+         * @param ticks The number of updates to measure
+         * @param input The input mask of the player for every update, see KeyHandler.getInputMask
+         */
+        Scenario(String name, String world, int playerX, int playerY, int extraEnemies, int ticks,
+            IntUnaryOperator input) {
+            this.name = name;
+            this.world = world;
+            this.playerX = playerX;
+            this.playerY = playerY;
+            this.extraEnemies = extraEnemies;
+            this.ticks = ticks;
+            this.input = input;
+        }
+
+        /**
+         * Lets the enemies chase the player from the start.
+         *
+         * @return This scenario
+         */
+        Scenario chasing() {
+            chasing = true;
+
+            return this;
+        }
+    }
+
+    /**
+     * The measurements of a scenario.
+     */
+    private static class Result {
+        double ticksPerSecond;
+        long p99Micros;
+        double bytesPerTick;
+        long peakHeapBytes;
+        long chunksEntered;
+
+        /**
+         * Gets the median of every metric of runs of the same scenario.
+         *
+         * @param runs The runs
+         * @return The medians
+         */
+        static Result median(Result[] runs) {
+            double[] ticksPerSecond = new double[runs.length];
+            double[] p99Micros = new double[runs.length];
+            double[] bytesPerTick = new double[runs.length];
+            double[] peakHeapBytes = new double[runs.length];
+
+            for (int i = 0; i < runs.length; i++) {
+                ticksPerSecond[i] = runs[i].ticksPerSecond;
+                p99Micros[i] = runs[i].p99Micros;
+                bytesPerTick[i] = runs[i].bytesPerTick;
+                peakHeapBytes[i] = runs[i].peakHeapBytes;
+            }
+
+            Result median = new Result();
+            median.ticksPerSecond = median(ticksPerSecond);
+            median.p99Micros = (long) median(p99Micros);
+            median.bytesPerTick = median(bytesPerTick);
+            median.peakHeapBytes = (long) median(peakHeapBytes);
+            median.chunksEntered = runs[0].chunksEntered;
+
+            return median;
+        }
+
+        /**
+         * Gets the best value of every metric of runs of the same scenario.
+         *
+         * @param runs The runs
+         * @return The best values
+         */
+        static Result best(Result[] runs) {
+            Result best = new Result();
+            best.ticksPerSecond = runs[0].ticksPerSecond;
+            best.p99Micros = runs[0].p99Micros;
+            best.bytesPerTick = runs[0].bytesPerTick;
+            best.peakHeapBytes = runs[0].peakHeapBytes;
+            best.chunksEntered = runs[0].chunksEntered;
+
+            for (Result run : runs) {
+                best.ticksPerSecond = Math.max(best.ticksPerSecond, run.ticksPerSecond);
+                best.p99Micros = Math.min(best.p99Micros, run.p99Micros);
+                best.bytesPerTick = Math.min(best.bytesPerTick, run.bytesPerTick);
+                best.peakHeapBytes = Math.min(best.peakHeapBytes, run.peakHeapBytes);
+            }
+
+            return best;
+        }
+
+        /**
+         * Gets the median of values.
+         *
+         * @param values The values, an odd number of them. Sorted in place
+         * @return The median
+         */
+        private static double median(double[] values) {
+            Arrays.sort(values);
+
+            return values[values.length / 2];
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String name = args.length > 0 ? args[0] : "all";
+        String mode = args.length > 1 ? args[1] : "compare";
+        Path folder = Path.of(args.length > 2 ? args[2] : DEFAULT_BASELINE_FOLDER);
+        Path baselineFile = folder.resolve(BASELINE_FILE);
+        Path timingsFile = folder.resolve(TIMINGS_FILE);
+        double allowedRegression = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_ALLOWED_REGRESSION;
+
+        Map<String, Result> results = new HashMap<String, Result>();
+        Map<String, Result> bestResults = new HashMap<String, Result>();
+        List<String> order = new ArrayList<String>();
+
+        System.out.println("Median of " + REPEATS + " runs after " + WARMUP_RUNS + " warm-up run(s)");
+        System.out.println("scenario      updates/s  p99 us  bytes/update  peak heap MB  chunks entered"
+            + "  updates/s range");
+
+        for (Scenario scenario : SCENARIOS) {
+            if (!name.equals("all") && !name.equals(scenario.name)) {
+                continue;
+            }
+
+            for (int warmup = 0; warmup < WARMUP_RUNS; warmup++) {
+                run(scenario);
+            }
+
+            Result[] runs = new Result[REPEATS];
+            double slowest = Double.MAX_VALUE;
+            for (int repeat = 0; repeat < REPEATS; repeat++) {
+                runs[repeat] = run(scenario);
+                slowest = Math.min(slowest, runs[repeat].ticksPerSecond);
+            }
+
+            Result result = Result.median(runs);
+            Result best = Result.best(runs);
+            results.put(scenario.name, result);
+            bestResults.put(scenario.name, best);
+            order.add(scenario.name);
+
+            System.out.printf("%-12s %10.0f %7d %13.1f %13.1f %15d  %.0f - %.0f%n", scenario.name,
+                result.ticksPerSecond, result.p99Micros, result.bytesPerTick,
+                result.peakHeapBytes / 1048576.0, result.chunksEntered, slowest, best.ticksPerSecond);
+        }
+
+        if (order.isEmpty()) {
+            System.out.println("Unknown scenario \"" + name + "\"");
+            System.exit(1);
+        }
+
+        if (mode.equals("save")) {
+            // Keep the baselines of the scenarios that weren't run
+            Map<String, Result> baseline = readBaseline(baselineFile, timingsFile);
+            baseline.putAll(results);
+            writeBaseline(baselineFile, timingsFile, baseline);
+            System.out.println("Saved the baseline to " + baselineFile + " and " + timingsFile);
+
+            return;
+        }
+
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile + ", run with save to make one");
+
+            return;
+        }
+
+        boolean timings = Files.exists(timingsFile);
+        if (!timings) {
+            System.out.println("No timings of this machine at " + timingsFile
+                + ", only comparing allocations and heap. Run with save to measure them");
+        }
+
+        if (!compare(readBaseline(baselineFile, timingsFile), results, bestResults, order, allowedRegression, timings)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a scenario in a new simulation.
+     *
+     * @param scenario The scenario
+     * @return The measurements
+     */
+    private static Result run(Scenario scenario) {
+        KeyHandler keyHandler = new KeyHandler();
+        Simulation simulation = new Simulation(scenario.world, 0, 0,
+            new Player(scenario.playerX, scenario.playerY, keyHandler));
+        spawnEnemies(simulation, scenario.extraEnemies, new Random(42));
+
+        if (scenario.chasing) {
+            EnemyStore enemies = simulation.getEnemies();
+            for (int i = 0; i < enemies.size; i++) {
+                enemies.aggro[i] = true;
+            }
+        }
+
+        int tick = 0;
+        for (; tick < WARMUP_TICKS; tick++) {
+            keyHandler.setInputMask(scenario.input.applyAsInt(tick));
+            simulation.tick();
+        }
+
+        // Start from a clean heap, so the peak doesn't include garbage of earlier scenarios
+        System.gc();
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+                pool.resetPeakUsage();
+            }
+        }
+
+        LatencyHistogram tickMicros = new LatencyHistogram();
+        ChunkState chunk = simulation.getRegion().getCurrent();
+        long chunksEntered = 0;
+
+        long allocatedBefore = THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+
+        for (int end = tick + scenario.ticks; tick < end; tick++) {
+            keyHandler.setInputMask(scenario.input.applyAsInt(tick));
+            simulation.tick();
+            tickMicros.record(simulation.getLastTickNanos() / 1000);
+
+            if (simulation.getRegion().getCurrent() != chunk) {
+                chunk = simulation.getRegion().getCurrent();
+                chunksEntered++;
+            }
+        }
+
+        long nanos = System.nanoTime() - start;
+        long allocated = THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+
+        Result result = new Result();
+        result.ticksPerSecond = scenario.ticks * 1e9 / nanos;
+        result.p99Micros = tickMicros.getPercentile(99);
+        result.bytesPerTick = (double) allocated / scenario.ticks;
+        result.chunksEntered = chunksEntered;
+
+        for (MemoryPoolMXBean pool : heapPools) {
+            result.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+
+        return result;
+    }
+
+    /**
+     * Compares results to the baseline and prints every metric that got worse than allowed.
+     * A timing only regressed if its median got worse than allowed and the best run is worse
+     * than the baseline as well, so a few runs slowed down by other work don't fail the comparison.
+     *
+     * @param baseline The results of the baseline by scenario
+     * @param results The medians of this run by scenario
+     * @param bestResults The best values of this run by scenario
+     * @param order The scenarios that were run, in order
+     * @param allowedRegression The share in percent a metric may get worse
+     * @param timings True if the baseline has timings of this machine to compare to
+     * @return True if no metric got worse than allowed
+     */
+    private static boolean compare(Map<String, Result> baseline, Map<String, Result> results,
+        Map<String, Result> bestResults, List<String> order, double allowedRegression, boolean timings) {
+        double allowed = allowedRegression / 100;
+        int regressions = 0;
+
+        System.out.printf("%nCompared to the baseline, allowing %.0f%% regression:%n", allowedRegression);
+
+        for (String name : order) {
+            Result base = baseline.get(name);
+            Result now = results.get(name);
+            Result best = bestResults.get(name);
+
+            if (base == null) {
+                System.out.println(name + ": not in the baseline");
+                continue;
+            }
+
+            // Scenarios in baseline.txt that weren't timed on this machine have no timings
+            if (timings && base.ticksPerSecond > 0) {
+                regressions += check(name, "updates/s", base.ticksPerSecond, now.ticksPerSecond,
+                    now.ticksPerSecond < base.ticksPerSecond * (1 - allowed)
+                        && best.ticksPerSecond < base.ticksPerSecond);
+                regressions += check(name, "p99 us", base.p99Micros, now.p99Micros,
+                    now.p99Micros > base.p99Micros * (1 + allowed) + P99_SLACK_MICROS
+                        && best.p99Micros > base.p99Micros);
+            }
+            regressions += check(name, "bytes/update", base.bytesPerTick, now.bytesPerTick,
+                now.bytesPerTick > base.bytesPerTick * (1 + allowed) + ALLOCATION_SLACK_BYTES);
+            regressions += check(name, "peak heap MB", base.peakHeapBytes / 1048576.0, now.peakHeapBytes / 1048576.0,
+                now.peakHeapBytes > base.peakHeapBytes * (1 + allowed) + HEAP_SLACK_BYTES);
+        }
+
+        System.out.println(regressions == 0 ? "no regressions" : regressions + " REGRESSIONS");
+
+        return regressions == 0;
+    }
+
+    /**
+     * Prints a metric of a scenario compared to the baseline.
+     *
+     * @param scenario The name of the scenario
+     * @param metric The name of the metric
+     * @param base The value in the baseline
+     * @param now The value of this run
+     * @param regressed Whether the value got worse than allowed
+     * @return 1 if the value regressed, 0 otherwise
+     */
+    private static int check(String scenario, String metric, double base, double now, boolean regressed) {
+        System.out.printf("%-12s %-13s %12.1f -> %12.1f %+7.1f%% %s%n", scenario, metric, base, now,
+            base == 0 ? 0 : 100 * (now - base) / base, regressed ? "REGRESSED" : "ok");
+
+        return regressed ? 1 : 0;
+    }
+
+    /**
+     * Reads a baseline written by writeBaseline. Files that don't exist are skipped.
+     *
+     * @param file The file with the metrics that don't depend on the machine
+     * @param timingsFile The file with the timings of this machine
+     * @return The results by scenario, without timings for scenarios not in the timings file
+     * @throws IOException If a file can't be read or is invalid
+     */
+    private static Map<String, Result> readBaseline(Path file, Path timingsFile) throws IOException {
+        Map<String, Result> baseline = new HashMap<String, Result>();
+
+        for (String[] parts : readLines(file, 4)) {
+            Result result = new Result();
+            result.bytesPerTick = Double.parseDouble(parts[1]);
+            result.peakHeapBytes = Long.parseLong(parts[2]);
+            result.chunksEntered = Long.parseLong(parts[3]);
+            baseline.put(parts[0], result);
+        }
+
+        for (String[] parts : readLines(timingsFile, 3)) {
+            Result result = baseline.get(parts[0]);
+            if (result != null) {
+                result.ticksPerSecond = Double.parseDouble(parts[1]);
+                result.p99Micros = Long.parseLong(parts[2]);
+            }
+        }
+
+        return baseline;
+    }
+
+    /**
+     * Reads the lines of a baseline file that aren't empty or comments, split on whitespace.
+     *
+     * @param file The file, skipped if it doesn't exist
+     * @param values The number of values every line must have
+     * @return The values of every line
+     * @throws IOException If the file can't be read or a line doesn't have the number of values
+     */
+    private static List<String[]> readLines(Path file, int values) throws IOException {
+        List<String[]> lines = new ArrayList<String[]>();
+        if (!Files.exists(file)) {
+            return lines;
+        }
+
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = line.split("\\s+");
+            if (parts.length != values) {
+                throw new IOException("Invalid baseline line \"" + line + "\" in " + file);
+            }
+            lines.add(parts);
+        }
+
+        return lines;
+    }
+
+    /**
+     * Writes results as a baseline, one scenario per line in the order of SCENARIOS.
+     * The timings go to a separate file, as they only apply to this machine.
+     *
+     * @param file The file for the metrics that don't depend on the machine
+     * @param timingsFile The file for the timings
+     * @param baseline The results by scenario
+     * @throws IOException If a file can't be written
+     */
+    private static void writeBaseline(Path file, Path timingsFile, Map<String, Result> baseline) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        lines.add("# Results of ScenarioRunner, compared to by \"java ScenarioRunner all compare\".");
+        lines.add("# Only metrics that don't depend on the speed of the machine, the timings are in " + TIMINGS_FILE + ".");
+        lines.add("# scenario bytes/update peak-heap-bytes chunks-entered");
+
+        List<String> timingLines = new ArrayList<String>();
+        timingLines.add("# Timings of ScenarioRunner on this machine, medians of " + REPEATS + " runs.");
+        timingLines.add("# Not committed: they only mean something on the machine that measured them.");
+        timingLines.add("# scenario updates/s p99-us");
+
+        for (Scenario scenario : SCENARIOS) {
+            Result result = baseline.get(scenario.name);
+            if (result == null) {
+                continue;
+            }
+
+            lines.add(String.format("%s %.1f %d %d", scenario.name,
+                result.bytesPerTick, result.peakHeapBytes, result.chunksEntered));
+
+            if (result.ticksPerSecond > 0) {
+                timingLines.add(String.format("%s %.1f %d", scenario.name, result.ticksPerSecond, result.p99Micros));
+            }
+        }
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        Files.write(timingsFile, timingLines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the input of the border-walk scenario: walking a square around the corner of four
+     * chunks, so every side of the square crosses a border.
+     *
+     * @param tick The number of the update
+     * @return The input mask
+     */
+    private static int walkInCircles(int tick) {
+        switch (tick / 90 % 4) {
+            case 0:
+                return KeyHandler.INPUT_RIGHT;
+            case 1:
+                return KeyHandler.INPUT_DOWN;
+            case 2:
+                return KeyHandler.INPUT_LEFT;
+            default:
+                return KeyHandler.INPUT_UP;
+        }
+    }
+
+    /**
+     * Adds goblins and sword enemies at random places on the walkable tiles of the current chunk.
+     *
+     * @param simulation The simulation
+     * @param count The number of enemies to add
+     * @param random The random generator for the enemy positions
+     */
+    private static void spawnEnemies(Simulation simulation, int count, Random random) {
+        Enemy[] types = {EnemyRegistry.get("GoblinEnemy"), EnemyRegistry.get("SwordEnemy")};
+        ChunkTiles chunk = simulation.getChunk();
+
+        for (int n = 0; n < count;) {
+            int row = random.nextInt(GamePanel.CHUNKHEIGHT);
+            int column = random.nextInt(GamePanel.CHUNKWIDTH);
+
+            if (chunk.isWall(column, row)) {
+                continue;
+            }
+
+            Enemy type = types[n % types.length];
+            type.spawn(simulation.getEnemies(),
+                column * GamePanel.TILESIZE + random.nextInt(GamePanel.TILESIZE - type.getWidth()),
+                row * GamePanel.TILESIZE + random.nextInt(GamePanel.TILESIZE - type.getHeight()));
+            n++;
+        }
+    }
+}
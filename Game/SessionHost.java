@@ -0,0 +1,330 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many independent games in one JVM, each a GameSession with a simulation and no window.
+ * A few worker threads are shared by all sessions: every session belongs to one worker, and
+ * every TICKS_PER_SECOND-th of a second each worker updates all its sessions one after another.
+ * A session doesn't need threads of its own, unlike a GamePanel with its game thread, so
+ * thousands of sessions fit in one JVM. Chunks and sprites are loaded once for all sessions,
+ * see ChunkLibrary and Entity.getEntityImages.
+ *
+ * <p>Sessions are spread over the workers by their number of sessions. A worker that can't
+ * update its sessions in time falls behind, which shows in the latency of the sessions, and
+ * skips updates when it is more than MAX_TICKS_BEHIND updates behind.
+ */
+class SessionHost {
+    static final int TICKS_PER_SECOND = 60;
+    private static final long NANOS_PER_TICK = 1_000_000_000L / TICKS_PER_SECOND;
+
+    // Number of updates a worker may be behind before it skips updates
+    private static final int MAX_TICKS_BEHIND = 5;
+
+    /**
+     * A thread that updates its part of the sessions.
+     */
+    private static class Worker extends Thread {
+        private final SessionHost host;
+
+        private final ArrayList<GameSession> sessions = new ArrayList<GameSession>();
+
+        // Sessions added by other threads, taken over at the start of the next update
+        private final ConcurrentLinkedQueue<GameSession> added = new ConcurrentLinkedQueue<GameSession>();
+
+        // Number of sessions of the worker, including the ones it hasn't taken over yet
+        private volatile int sessionCount = 0;
+
+        private volatile boolean running = true;
+
+        // Number of times the metrics were reset that the worker has seen
+        private int seenResets = 0;
+
+        // Metrics
+        private volatile long tickCount = 0;
+        private volatile long sessionTickCount = 0;
+        private volatile long busyNanos = 0;
+        private volatile long skippedTicks = 0;
+
+        Worker(SessionHost host, int number) {
+            super("session-worker-" + number);
+            this.host = host;
+            setDaemon(true);
+        }
+
+        void add(GameSession session) {
+            sessionCount++;
+            added.add(session);
+        }
+
+        /**
+         * Forgets the metrics of the worker and its sessions.
+         */
+        private void clearMetrics() {
+            for (GameSession session : sessions) {
+                session.clearMetrics();
+            }
+
+            tickCount = 0;
+            sessionTickCount = 0;
+            busyNanos = 0;
+            skippedTicks = 0;
+        }
+
+        @Override
+        public void run() {
+            long nextTick = System.nanoTime();
+
+            while (running) {
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                GameSession session;
+                while ((session = added.poll()) != null) {
+                    sessions.add(session);
+                }
+
+                int resets = host.resetCount;
+                if (resets != seenResets) {
+                    seenResets = resets;
+                    clearMetrics();
+                }
+
+                long start = System.nanoTime();
+                int updated = 0;
+
+                for (int n = sessions.size() - 1; n >= 0; n--) {
+                    session = sessions.get(n);
+
+                    if (session.isClosed()) {
+                        // Let other chunks take the slots of its tiles
+                        session.getSimulation().release();
+
+                        // Swap with the last session, the order of the sessions doesn't matter
+                        sessions.set(n, sessions.get(sessions.size() - 1));
+                        sessions.remove(sessions.size() - 1);
+                        sessionCount--;
+                        continue;
+                    }
+
+                    session.tick(nextTick);
+                    updated++;
+                }
+
+                long end = System.nanoTime();
+                tickCount++;
+                sessionTickCount += updated;
+                busyNanos += end - start;
+
+                nextTick += NANOS_PER_TICK;
+                if (end - nextTick > MAX_TICKS_BEHIND * NANOS_PER_TICK) {
+                    long behind = (end - nextTick) / NANOS_PER_TICK;
+                    skippedTicks += behind;
+                    nextTick += behind * NANOS_PER_TICK;
+                }
+            }
+        }
+    }
+
+    private final Worker[] workers;
+
+    // Number of times resetMetrics was called, the workers reset when they see it changed
+    private volatile int resetCount = 0;
+
+    private int nextId = 1;
+    private final ArrayList<GameSession> sessions = new ArrayList<GameSession>();
+
+    // When the workers were started, for the rates in the metrics
+    private long startNanos = 0;
+
+    /**
+     * Initiates a host. The workers start when start is called.
+     *
+     * @param workerCount The number of threads updating the sessions, e.g. the number of processors
+     */
+    public SessionHost(int workerCount) {
+        workers = new Worker[Math.max(1, workerCount)];
+
+        for (int n = 0; n < workers.length; n++) {
+            workers[n] = new Worker(this, n + 1);
+        }
+    }
+
+    /**
+     * Starts updating the sessions.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops updating the sessions and waits for the workers to finish their update.
+     * The metrics can be read exactly afterwards. The sessions are no longer monitored,
+     * see SimulationMonitor.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+
+        for (Worker worker : workers) {
+            worker.join();
+        }
+
+        for (GameSession session : sessions) {
+            SimulationMonitor.get().remove(session.getSimulation());
+            session.getSimulation().release();
+        }
+    }
+
+    /**
+     * Forgets the metrics of the workers and the sessions, e.g. to measure from now on.
+     * The workers forget them at the start of their next update.
+     */
+    public void resetMetrics() {
+        startNanos = System.nanoTime();
+        resetCount++;
+    }
+
+    /**
+     * Adds a session to the worker with the fewest sessions. It is updated from the next update on.
+     * Only called by the thread controlling the host.
+     *
+     * @param simulation The simulation of the session
+     * @return The session
+     */
+    public GameSession addSession(Simulation simulation) {
+        GameSession session = new GameSession(nextId++, simulation);
+
+        Worker least = workers[0];
+        for (Worker worker : workers) {
+            if (worker.sessionCount < least.sessionCount) {
+                least = worker;
+            }
+        }
+
+        least.add(session);
+        sessions.add(session);
+        SimulationMonitor.get().add(simulation);
+
+        return session;
+    }
+
+    /**
+     * Removes a session. Only called by the thread controlling the host.
+     *
+     * @param session The session
+     */
+    public void removeSession(GameSession session) {
+        session.close();
+        sessions.remove(session);
+        SimulationMonitor.get().remove(session.getSimulation());
+    }
+
+    /**
+     * Gets the sessions that were added and not removed.
+     *
+     * @return The sessions
+     */
+    public ArrayList<GameSession> getSessions() {
+        return sessions;
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Gets the number of session updates done so far by all workers.
+     *
+     * @return The number of updates
+     */
+    public long getSessionTickCount() {
+        long count = 0;
+
+        for (Worker worker : workers) {
+            count += worker.sessionTickCount;
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of updates the workers skipped because they were too far behind.
+     *
+     * @return The number of skipped updates
+     */
+    public long getSkippedTicks() {
+        long count = 0;
+
+        for (Worker worker : workers) {
+            count += worker.skippedTicks;
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the share of the time the workers were updating sessions since they started.
+     *
+     * @return The average share of all workers, from 0 to 1
+     */
+    public double getBusyShare() {
+        long elapsed = Math.max(1, System.nanoTime() - startNanos);
+        long busy = 0;
+
+        for (Worker worker : workers) {
+            busy += worker.busyNanos;
+        }
+
+        return (double) busy / elapsed / workers.length;
+    }
+
+    /**
+     * Gets the latencies of the updates of all sessions. Exact once the host has stopped,
+     * while it runs the counts may be slightly off.
+     *
+     * @return A new histogram with the latencies of every session
+     */
+    public LatencyHistogram getLatency() {
+        LatencyHistogram latency = new LatencyHistogram();
+
+        for (GameSession session : sessions) {
+            latency.add(session.getLatency());
+        }
+
+        return latency;
+    }
+
+    /**
+     * Prints the number of sessions, the updates per second and the latency of the updates.
+     *
+     * @param out The stream to print to
+     */
+    public void printMetrics(PrintStream out) {
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        LatencyHistogram latency = getLatency();
+
+        out.printf("%d sessions on %d workers: %.0f session updates/s (%.0f%% of %d), workers busy %.0f%%, "
+            + "%d updates skipped%n",
+            sessions.size(), workers.length, getSessionTickCount() / seconds,
+            100.0 * getSessionTickCount() / seconds / Math.max(1, sessions.size()) / TICKS_PER_SECOND,
+            sessions.size() * TICKS_PER_SECOND, 100 * getBusyShare(), getSkippedTicks());
+        out.printf("update latency: p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+            latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9),
+            latency.getMax());
+        out.printf("shared chunks: %d templates, %d KB, parsed %d times%n",
+            ChunkLibrary.get().size(), ChunkLibrary.get().estimateBytes() / 1024,
+            ChunkLibrary.get().getLoadCount());
+    }
+}
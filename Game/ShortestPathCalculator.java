@@ -1,124 +1,253 @@
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 /**
  * Calculates ShortestPath for an enemy to the player using Dijkstra's algorithm.
+ * Tiles are numbered row * CHUNKWIDTH + column. All working arrays are created once,
+ * so a calculation doesn't allocate anything. A calculator can only do one calculation
+ * at a time, so every thread needs its own calculator.
  */
 class ShortestPathCalculator {
-    // Current chunk the player is in
-    TileType[][] chunk;
+    private static final int TILE_COUNT = GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
 
-    // Tiles the algorithm has or hasn't visited
-    ArrayList<Node> visited = new ArrayList<>();
+    // Marks a tile without a previous tile on its path
+    private static final int NONE = -1;
 
-    // Minimal height and width of chunk coordinates
-    int minHeight;
-    int minWidth;
+    // Walls of the chunk the player is in
+    private WallMask walls;
 
-    // Maximum height and width of chunk coordinates
-    int maxHeight;
-    int maxWidth;
+    // The player instance
+    private Player player;
 
-    // Enemy starting tile in chunk and starting coordinates
-    Point startingPoint;
-    Point enemyStartingCoordinates;
+    // Enemy starting tile in chunk and the coordinates of the centre of the enemy
+    private int startColumn;
+    private int startRow;
+    private int enemyCentreX;
+    private int enemyCentreY;
 
-    // The player instance
-    Player player;
+    // Player tile in chunk
+    private int playerColumn;
+    private int playerRow;
+
+    // Distance of each tile to the starting tile and the tile before it on the shortest path
+    private final int[] distance = new int[TILE_COUNT];
+    private final int[] previous = new int[TILE_COUNT];
+
+    // Tiles the algorithm has visited
+    private final boolean[] visited = new boolean[TILE_COUNT];
+
+    /* Priority queue as a binary heap. Each entry holds the distance in the high bits
+     * and the tile in the low bits, so entries with equal distance are ordered by tile.
+     * Every tile is added at most once for each of its 4 neighbours and once as start */
+    private final long[] queue = new long[TILE_COUNT * 4 + 1];
+    private int queueSize;
+
+    // Number of tiles taken from the queue by the last calculation
+    private int expanded;
+
+    // Number of calculations and tiles taken from the queue so far, read by other threads,
+    // which may see slightly old counts
+    private long searchCount = 0;
+    private long expandedCount = 0;
+
+    // Flight recorder event of a calculation, reused so calculations don't allocate
+    private final PathSearchEvent event = new PathSearchEvent();
 
     /**
      * Initiates ShortestPathCalculator.
-     * 
-     * @param chunk The chunk the player is in
+     *
+     * @param player The player to calculate paths to
+     */
+    public ShortestPathCalculator(Player player) {
+        this.player = player;
+    }
+
+    /**
+     * Sets the player to calculate paths to, e.g. the player an enemy chases when there are
+     * several players in the chunk.
+     *
+     * @param newPlayer The player
      */
-    public ShortestPathCalculator(TileType[][] chunk, Player player) {
-        this.chunk = chunk;
+    public void setPlayer(Player newPlayer) {
+        player = newPlayer;
+    }
 
-        // Minimum and maximum height of the chunk
-        this.minHeight = 0;
-        this.minWidth = 0;
-        this.maxHeight = GamePanel.CHUNKHEIGHT;
-        this.maxWidth = GamePanel.CHUNKWIDTH;
+    public long getSearchCount() {
+        return searchCount;
+    }
 
-        this.player = player;
+    public long getExpandedCount() {
+        return expandedCount;
     }
 
     /**
-     * Sets-up the nodes for the algorithm by calculating distance between them.
-     * 
-     * @return Array with the ready-to-use nodes
+     * Sets the chunk to calculate paths in.
+     *
+     * @param walls The walls of the chunk the player is in
      */
-    private Node[][] createNodes() {
-        // Initialise the nodes array
-        Node[][] nodes = new Node[chunk.length][chunk[0].length];
-
-        // Create a new node for each tile
-        for (int i = 0; i < chunk.length; i++) {
-            for (int j = 0; j < chunk[i].length; j++) {
-                // Create node instance with row and column
-                nodes[i][j] = new Node(i, j);
-            }
+    public void setWalls(WallMask walls) {
+        this.walls = walls;
+    }
+
+    /**
+     * Calculates the shortest path from the enemy to the player tile.
+     * The path starts with the tile after the tile of the enemy and ends with the player tile.
+     * The calculation is recorded as a PathSearchEvent when the flight recorder records it.
+     *
+     * @param centreX The X coordinate of the centre of the enemy
+     * @param centreY The Y coordinate of the centre of the enemy
+     * @param path Array to write the tiles of the path to
+     * @param offset Index in path of the first tile
+     * @return The number of tiles in the path, 0 if there is no path
+     */
+    public int calculateShortestPath(int centreX, int centreY, short[] path, int offset) {
+        event.begin();
+
+        expanded = 0;
+        int length = search(centreX, centreY, path, offset);
+
+        // Only this thread writes the counts
+        searchCount++;
+        expandedCount += expanded;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.expanded = expanded;
+            event.length = length;
+            event.commit();
+        }
+
+        return length;
+    }
+
+    /**
+     * Calculates the shortest path from the enemy to the player tile, see calculateShortestPath.
+     *
+     * @param centreX The X coordinate of the centre of the enemy
+     * @param centreY The Y coordinate of the centre of the enemy
+     * @param path Array to write the tiles of the path to
+     * @param offset Index in path of the first tile
+     * @return The number of tiles in the path, 0 if there is no path
+     */
+    private int search(int centreX, int centreY, short[] path, int offset) {
+        /* As attacking is based on the centre of the entity,
+         * it is best to calculate distance from the centre as well */
+        enemyCentreX = centreX;
+        enemyCentreY = centreY;
+        startColumn = centreX / GamePanel.TILESIZE;
+        startRow = centreY / GamePanel.TILESIZE;
+
+        playerColumn = player.getCentreTileX();
+        playerRow = player.getCentreTileY();
+
+        if (!isWalkable(startRow, startColumn) || !isWalkable(playerRow, playerColumn)) {
+            return 0;
         }
 
-        // Loop through every tile in the chunk
-        for (int i = 0; i < chunk.length; i++) {
-            for (int j = 0; j < chunk[i].length; j++) {
-                // Wall tiles are unwalkable, so stop calculating when we arrive at one
-                if (chunk[i][j].isWall) {
-                    continue;
-                }
-
-                /* Check if tile above exists (isn't out of bounds) 
-                / and that it isn't a wall */
-                if (i - 1 >= minWidth && !(chunk[i - 1][j].isWall)) {
-                    // Calculate distance of tile (or enemy) to upper neighbour
-                    int distance = calculateNodeDistance(i, j, i - 1, j);
-
-                    // Add neighbouring chunk to node
-                    nodes[i][j].addAdjecentNode(nodes[i - 1][j], distance);
-                }
-
-                /* Check if tile beneath exists. Last index of chunk tile is maxWidth - 1
-                 * The tile should also not be a wall */
-                if (i + 1 < maxWidth && !(chunk[i + 1][j].isWall)) {
-                    // Calculate distance of tile (or enemy) to lower neighbour
-                    int distance = calculateNodeDistance(i, j, i + 1, j);
-
-                    // Add neighbouring tile to the node
-                    nodes[i][j].addAdjecentNode(nodes[i + 1][j], distance);
-                }
-
-                // Check if tile to the left exists and that it isn't a wall
-                if (j - 1 >= minHeight && !(chunk[i][j - 1].isWall)) {
-                    // Calculate distance of tile (or enemy) to left neighbour
-                    int distance = calculateNodeDistance(i, j, i, j - 1);
-
-                    // Add neighbouring tile to the node
-                    nodes[i][j].addAdjecentNode(nodes[i][j - 1], distance);
-                }
-
-                // Check if tile to the right exists and that isn't a wall
-                if (j + 1 < maxHeight && !(chunk[i][j + 1].isWall)) {
-                    // Calculate distance of tile (or enemy) to right neighbour
-                    int distance = calculateNodeDistance(i, j, i, j + 1);
-
-                    // Add neighbouring tile to the node
-                    nodes[i][j].addAdjecentNode(nodes[i][j + 1], distance);
-                }
+        int start = startRow * GamePanel.CHUNKWIDTH + startColumn;
+        int target = playerRow * GamePanel.CHUNKWIDTH + playerColumn;
+
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        Arrays.fill(previous, NONE);
+        Arrays.fill(visited, false);
+        queueSize = 0;
+
+        // Set distance to tile of enemy to 0 and add it to the queue
+        distance[start] = 0;
+        push(start, 0);
+
+        while (queueSize > 0) {
+            // Get the tile with the shortest distance to the starting tile
+            int tile = poll();
+
+            if (visited[tile]) {
+                /* The distances for this tile have already been determined,
+                 * continue to the next queue entry */
+                continue;
+            }
+
+            visited[tile] = true;
+            expanded++;
+
+            if (tile == target) {
+                // The shortest path to the player has been found
+                break;
             }
+
+            int row = tile / GamePanel.CHUNKWIDTH;
+            int column = tile % GamePanel.CHUNKWIDTH;
+
+            // Check the neighbours above, beneath, to the left and to the right
+            relax(row, column, row - 1, column);
+            relax(row, column, row + 1, column);
+            relax(row, column, row, column - 1);
+            relax(row, column, row, column + 1);
+        }
+
+        if (start == target || previous[target] == NONE) {
+            return 0;
+        }
+
+        // Count the tiles on the path, without the tile of the enemy
+        int length = 0;
+        for (int tile = target; tile != start; tile = previous[tile]) {
+            length++;
+        }
+
+        // Write the path backwards, starting with the player tile
+        int index = offset + length - 1;
+        for (int tile = target; tile != start; tile = previous[tile]) {
+            path[index] = (short) tile;
+            index--;
+        }
+
+        return length;
+    }
+
+    /**
+     * Updates the distance of a neighbouring tile if the path through a tile is shorter.
+     *
+     * @param row row of tile
+     * @param column column of tile
+     * @param newRow row of new (the neighbouring) tile
+     * @param newColumn column of new (the neighbouring) tile
+     */
+    private void relax(int row, int column, int newRow, int newColumn) {
+        // Check if the tile exists (isn't out of bounds) and that it isn't a wall
+        if (!isWalkable(newRow, newColumn)) {
+            return;
+        }
+
+        int tile = row * GamePanel.CHUNKWIDTH + column;
+        int newTile = newRow * GamePanel.CHUNKWIDTH + newColumn;
+
+        // Calculate new distance between tile and starting tile
+        int newDistance = distance[tile] + calculateNodeDistance(row, column, newRow, newColumn);
+
+        // If the distance is shorter than the known distance to the tile
+        if (newDistance < distance[newTile]) {
+            distance[newTile] = newDistance;
+            previous[newTile] = tile;
+
+            push(newTile, newDistance);
         }
+    }
 
-        return nodes;
+    /**
+     * Checks if a tile is inside the chunk and isn't a wall.
+     *
+     * @param row row of tile
+     * @param column column of tile
+     * @return True if an enemy can walk on the tile
+     */
+    private boolean isWalkable(int row, int column) {
+        return row >= 0 && row < GamePanel.CHUNKHEIGHT && column >= 0
+            && column < GamePanel.CHUNKWIDTH && !walls.isWall(column, row);
     }
 
     /**
      * Calculates distance between tile and tile.
      * or between tile and enemy/player if enemy/player is in tile neighbouring the tile.
-     * 
+     *
      * @param row row of tile
      * @param column column of tile
      * @param newRow row of new (the neighbouring) tile
@@ -126,27 +255,22 @@ class ShortestPathCalculator {
      * @return The calculated distance as described
      */
     private int calculateNodeDistance(int row, int column, int newRow, int newColumn) {
-        int distance;
         int distanceX;
         int distanceY;
 
         /* When the tile to calculate the distance between the neighbours of
          *   is the tile the enemy is in,
          * calculate the distance between the enemy and the middle of the neighbouring tile(s) */
-        if (column == startingPoint.getX() && row == startingPoint.getY()) {
+        if (column == startColumn && row == startRow) {
             // Calculate x and y distance between tile and enemy
-            distanceX = (int) Math.abs(
-                enemyStartingCoordinates.getX() - GamePanel.TILESIZE * newColumn);
-            distanceY = (int) Math.abs(
-                enemyStartingCoordinates.getY() - GamePanel.TILESIZE * newRow);
+            distanceX = Math.abs(enemyCentreX - GamePanel.TILESIZE * newColumn);
+            distanceY = Math.abs(enemyCentreY - GamePanel.TILESIZE * newRow);
 
         // Check if the tile is the player tile
-        } else if (
-            newColumn == player.getCentreTile().getX() && newRow == player.getCentreTile().getY()) {
-
+        } else if (newColumn == playerColumn && newRow == playerRow) {
             // Set distance x and y to the distance between the centre of the old tile to the player
-            distanceX = (int) Math.abs(player.getX() - GamePanel.TILESIZE * column);
-            distanceY = (int) Math.abs(player.getY() - GamePanel.TILESIZE * row);
+            distanceX = Math.abs(player.getX() - GamePanel.TILESIZE * column);
+            distanceY = Math.abs(player.getY() - GamePanel.TILESIZE * row);
 
         } else {
             // Return the distance between the middle of 2 tiles (in total the Tilesize)
@@ -154,96 +278,68 @@ class ShortestPathCalculator {
         }
 
         // Calculate distance between enemy and neighbouring tile using the distance formula
-        distance = Math.round((long) Math.sqrt(distanceX * distanceX + distanceY * distanceY));
-        return distance;
+        return (int) Math.sqrt(distanceX * distanceX + distanceY * distanceY);
     }
 
     /**
-     * Calculates the shortest path from the enemy to the player tile.
-     * 
-     * @param enemy Instance of enemy
-     * @return LinkedList with the path to follow
+     * Adds a tile to the priority queue.
+     *
+     * @param tile The tile
+     * @param tileDistance The distance of the tile to the starting tile
      */
-    public LinkedList<Node> calculateShortestPath(Enemy enemy) {
-        // Create comparator for the priority queue, based on distance to starting tile
-        Comparator<Node> nodeComparator = Comparator.comparing(Node::getDistance);
-
-        // Initialise priority queue used for calculating shortest path
-        PriorityQueue<Node> pq = new PriorityQueue<>(nodeComparator);
-
-        /* As attacking is based on the centre of the entity,
-         * it is best to calculate distance from the centre as well */
-        startingPoint = enemy.getCentreTile();
-        enemyStartingCoordinates = new Point(enemy.getCentreX(), enemy.getCentreY());
+    private void push(int tile, int tileDistance) {
+        long entry = ((long) tileDistance << 32) | tile;
 
-        Point playerTile = player.getCentreTile();
+        // Move the entry up until its parent is smaller
+        int index = queueSize;
+        queueSize++;
 
-        // Create nodes for the calculation
-        Node[][] nodes;
-        nodes = createNodes();
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (queue[parent] <= entry) {
+                break;
+            }
 
-        // Set distance to node of enemy to 0
-        (nodes[(int) startingPoint.getY()][(int) startingPoint.getX()]).setDistance(0);
+            queue[index] = queue[parent];
+            index = parent;
+        }
 
-        // Add starting node to the priority queue
-        pq.add(nodes[(int) startingPoint.getY()][(int) startingPoint.getX()]);
+        queue[index] = entry;
+    }
 
-        while (!pq.isEmpty()) {
-            // Get the node with the shortest distance to the tile
-            Node currentNode = pq.poll();
+    /**
+     * Removes the tile with the shortest distance from the priority queue.
+     *
+     * @return The tile
+     */
+    private int poll() {
+        long first = queue[0];
+
+        queueSize--;
+        long last = queue[queueSize];
+
+        // Move the last entry down from the top until its children are larger
+        int index = 0;
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= queueSize) {
+                break;
+            }
 
-            if (visited.contains(currentNode)) {
-                /* The distances for this node have already been determined,
-                 * continue to the next queue entry */
-                continue;
+            if (child + 1 < queueSize && queue[child + 1] < queue[child]) {
+                child++;
             }
 
-            // Add this node to the visited array list
-            visited.add(currentNode);
-
-            // Loop over each neighbour of node
-            for (Map.Entry<Node, Integer> neighbourInfo : currentNode.adjecentNodes.entrySet()) {
-                // Calculate new distance between tile and starting tile
-                int newDistance = neighbourInfo.getValue() + currentNode.getDistance();
-
-                /* If the distance between the new tile is shorter than 
-                 * the known distance to the tile */
-                if (newDistance < (neighbourInfo.getKey().getDistance())) {
-                    // Set the distance of the tile to the newly calculated distance
-                    neighbourInfo.getKey().setDistance(newDistance);;
-
-                    // Set the new path to get to the node
-                    LinkedList<Node> newPath = currentNode.getPath();
-                    newPath.add(currentNode);
-
-                    // Set shortest path to neighbour tile
-                    neighbourInfo.getKey().setPath(newPath);
-                }
-
-                // Check if the neighbour tile is the tile that the player is on
-                if (neighbourInfo.getKey().column == playerTile.getX() 
-                    && neighbourInfo.getKey().row == playerTile.getY()) {
-                    /* The shortest path to the player has been found,
-                     * there's no need to continue calculating anymore */
-                    break;
-                }
-
-                // Add neighbour tile to priority queue
-                pq.add(neighbourInfo.getKey());
+            if (last <= queue[child]) {
+                break;
             }
-        }
 
-        // Get the path to the node the player is on (Y = row, X = column, so [y][x])
-        LinkedList<Node> neededPath = (nodes[(int) player.getCentreTile().getY()]
-            [(int) player.getCentreTile().getX()]).getPath();
+            queue[index] = queue[child];
+            index = child;
+        }
 
-        // Add player node to path
-        neededPath.add(nodes[(int) player.getCentreTile().getY()]
-            [(int) player.getCentreTile().getX()]);
+        queue[index] = last;
 
-        // Remove first tile as the enemy is already on it
-        neededPath.removeFirst();
-        
-        return neededPath;
+        return (int) first;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1423 @@
+import java.awt.Point;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The game simulation. Holds the player, the chunk the player is in, its enemies
+ * and the projectiles flying through it, and advances them one update at a time. Does not draw anything,
+ * so it can also be run without a window (e.g. for benchmarks).
+ * The chunks around the current chunk are kept loaded and simulated at a lower rate by an ActiveRegion.
+ *
+ * <p>A game has one player. A GameServer adds a player for every client with addPlayer, in the
+ * same world: the chunks of every player are simulated every update, and their enemies chase
+ * the closest player in their chunk. The getters, snapshots, the state hash of a recording and
+ * the journal are about the first player.
+ */
+class Simulation {
+    // The players, see addPlayer
+    private final ArrayList<PlayerState> players = new ArrayList<PlayerState>();
+
+    /* The player being updated, see select. Between updates the first player, so the getters
+     * return the player of a game with one player */
+    private PlayerState selected;
+    private Player player;
+
+    // The tiles of the chunk of the player, pinned in the TileStore while the chunk is resident
+    private ChunkTiles chunk;
+
+    // The walls of the chunk, built once when the chunk is loaded
+    private WallMask walls;
+
+    private Point chunkCoordinates; // The chunk the player is in, in x and y
+    private String world; // The name of the 'world' the player is in
+
+    // The loaded chunks, the current chunk and the chunks around it are simulated
+    private ActiveRegion region;
+
+    // Path calculator of each thread, as a calculator can only do one calculation at a time
+    private ThreadLocal<ShortestPathCalculator> pathCalculators;
+
+    // Every path calculator made by pathCalculators, to count their calculations
+    private final ArrayList<ShortestPathCalculator> allPathCalculators = new ArrayList<ShortestPathCalculator>();
+
+    // Pool that runs the decide phase of the enemies on several threads, null to use one thread
+    private ForkJoinPool pool;
+
+    // Number of enemies a task of the pool decides for at most
+    private static final int ENEMIES_PER_TASK = 512;
+
+    // Enemies in chunk, stored in the state of the chunk so they are kept when the player leaves
+    private EnemyStore enemies;
+
+    // Maximum number of projectiles in flight around a player
+    private static final int MAX_PROJECTILES = 4096;
+
+    // Projectiles around the player
+    private ProjectilePool projectiles;
+
+    // The players in the chunk whose enemies are moving, which the enemies chase, see selectChunkPlayers
+    private Player[] chunkPlayers = new Player[4];
+    private int chunkPlayerCount = 0;
+
+    // The chunks with a player, given to the region when a player enters a chunk, joins or leaves
+    private final ArrayList<ChunkState> occupiedChunks = new ArrayList<ChunkState>();
+
+    private CollisionCheck collisionChecker = new CollisionCheck();
+
+    // Whether enemies can see the player, enemies only chase and attack the player they see
+    private LineOfSight lineOfSight = new LineOfSight();
+
+    private CrowdSeparation crowdSeparation = new CrowdSeparation();
+    private boolean crowdSeparationEnabled = true;
+
+    // Whether a player was defeated, which ends a game with one player
+    private boolean gameOver = false;
+
+    // Decides which enemies think in an update, to reduce CPU load
+    private AiScheduler aiScheduler = new AiScheduler();
+
+    // The number of updates since the simulation started
+    private long tickCount = 0;
+
+    // How long the last update took in nanoseconds
+    private long lastTickNanos = 0;
+
+    // Flight recorder event of the update, reused so updates don't allocate
+    private final TickEvent tickEvent = new TickEvent();
+
+    // Phases of an update, see getPhaseNanos
+    static final int PHASE_PLAYER = 0;
+    static final int PHASE_ENEMIES = 1;
+    static final int PHASE_PROJECTILES = 2;
+    static final int PHASE_COMBAT = 3;
+    static final int PHASE_REGION = 4;
+    static final int PHASE_COUNT = 5;
+
+    /* Totals for monitoring, read by other threads, see SimulationMonitor: the updates run
+     * (unlike tickCount not reset by restoring a snapshot), their time and the time of each
+     * phase. And the chunks simulated and their enemies after the last update */
+    private long ticksRun = 0;
+    private long totalTickNanos = 0;
+    private final long[] phaseNanos = new long[PHASE_COUNT];
+    private int simulatedChunks = 0;
+    private int simulatedEnemies = 0;
+
+    // Journal the player and the enemies are saved in, null to not save the game
+    private WorldJournal journal;
+
+    // Number of updates between two saves of the player
+    private static final int PLAYER_SAVE_INTERVAL = 60;
+
+    // Number of bytes writeSettings writes
+    static final int SETTINGS_BYTES = 4 * 4 + 2;
+
+    // Snapshots start with this number and the version of the format
+    private static final int SNAPSHOT_MAGIC = 0x43534E50;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * Initiates the simulation and loads the starting chunk.
+     *
+     * @param world The name of the world the player starts in
+     * @param chunkX The X coordinate of the starting chunk
+     * @param chunkY The Y coordinate of the starting chunk
+     * @param player The player
+     */
+    public Simulation(String world, int chunkX, int chunkY, Player player) {
+        this(world, chunkX, chunkY, player, null);
+    }
+
+    /**
+     * Initiates the simulation and loads the starting chunk. If a living player was saved
+     * in the journal, the player continues from the saved chunk and position instead.
+     *
+     * @param world The name of the world the player starts in
+     * @param chunkX The X coordinate of the starting chunk
+     * @param chunkY The Y coordinate of the starting chunk
+     * @param player The player
+     * @param journal The journal to restore and save the game with, or null
+     */
+    public Simulation(String world, int chunkX, int chunkY, Player player, WorldJournal journal) {
+        this.journal = journal;
+
+        if (journal != null && journal.hasRestoredPlayer()) {
+            chunkX = journal.getRestoredChunkX();
+            chunkY = journal.getRestoredChunkY();
+            journal.restorePlayer(player);
+        }
+
+        // Path calculators are reused for every chunk
+        this.pathCalculators = ThreadLocal.withInitial(() -> {
+            ShortestPathCalculator calculator = new ShortestPathCalculator(player);
+            synchronized (allPathCalculators) {
+                allPathCalculators.add(calculator);
+            }
+            return calculator;
+        });
+
+        // Set player chunk location
+        this.world = world;
+        this.region = new ActiveRegion(world, journal);
+
+        PlayerState first = new PlayerState(player, chunkX, chunkY, MAX_PROJECTILES);
+        players.add(first);
+        select(first);
+
+        // Load starting chunk
+        initialiseChunk();
+    }
+
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     * Gets a player with the chunk it is in and its projectiles.
+     *
+     * @param n A number from 0 up to the number of players, 0 for the first player
+     * @return The player
+     */
+    public PlayerState getPlayerState(int n) {
+        return players.get(n);
+    }
+
+    /**
+     * Adds a player, e.g. for a client that joins a GameServer. The player keeps its position
+     * and starts in the given chunk, and the chunks around it become resident.
+     * Must be called between updates.
+     *
+     * @param newPlayer The player
+     * @param chunkX The X coordinate of the chunk the player starts in
+     * @param chunkY The Y coordinate of the chunk the player starts in
+     * @return The state of the player, or null if the chunk doesn't exist
+     */
+    public PlayerState addPlayer(Player newPlayer, int chunkX, int chunkY) {
+        PlayerState state = new PlayerState(newPlayer, chunkX, chunkY, MAX_PROJECTILES);
+        players.add(state);
+        select(state);
+
+        boolean entered = initialiseChunk();
+        if (!entered) {
+            players.remove(state);
+        }
+
+        selectFirst();
+
+        return entered ? state : null;
+    }
+
+    /**
+     * Removes a player, e.g. for a client that left a GameServer. Chunks that are no longer
+     * within the radius of a player stop being simulated. Must be called between updates.
+     *
+     * @param state The state of the player, as returned by addPlayer
+     */
+    public void removePlayer(PlayerState state) {
+        if (players.remove(state)) {
+            updateOccupied();
+            selectFirst();
+        }
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public ChunkTiles getChunk() {
+        return chunk;
+    }
+
+    public WallMask getWalls() {
+        return walls;
+    }
+
+    public EnemyStore getEnemies() {
+        return enemies;
+    }
+
+    public ProjectilePool getProjectiles() {
+        return projectiles;
+    }
+
+    public LineOfSight getLineOfSight() {
+        return lineOfSight;
+    }
+
+    public AiScheduler getAiScheduler() {
+        return aiScheduler;
+    }
+
+    public ActiveRegion getRegion() {
+        return region;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public long getTicksRun() {
+        return ticksRun;
+    }
+
+    public long getTotalTickNanos() {
+        return totalTickNanos;
+    }
+
+    /**
+     * Gets the time spent in a phase of the updates so far.
+     *
+     * @param phase One of the PHASE_ values
+     * @return The time in nanoseconds
+     */
+    public long getPhaseNanos(int phase) {
+        return phaseNanos[phase];
+    }
+
+    public int getSimulatedChunks() {
+        return simulatedChunks;
+    }
+
+    public int getSimulatedEnemies() {
+        return simulatedEnemies;
+    }
+
+    /**
+     * Gets the number of paths calculated so far, by any thread.
+     *
+     * @return The number of calculations
+     */
+    public long getPathSearchCount() {
+        long count = 0;
+
+        synchronized (allPathCalculators) {
+            for (ShortestPathCalculator calculator : allPathCalculators) {
+                count += calculator.getSearchCount();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of tiles taken from the queue by the path calculations so far.
+     *
+     * @return The number of tiles
+     */
+    public long getExpandedTileCount() {
+        long count = 0;
+
+        synchronized (allPathCalculators) {
+            for (ShortestPathCalculator calculator : allPathCalculators) {
+                count += calculator.getExpandedCount();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Sets the number of threads used to decide where enemies move.
+     * The result of an update is the same for any number of threads.
+     * 
+     * @param threads The number of threads, 1 to use only the thread calling tick
+     */
+    public void setParallelism(int threads) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Sets whether overlapping enemies are pushed apart.
+     * 
+     * @param enabled True to push overlapping enemies apart
+     */
+    public void setCrowdSeparation(boolean enabled) {
+        crowdSeparationEnabled = enabled;
+    }
+
+    public boolean isCrowdSeparationEnabled() {
+        return crowdSeparationEnabled;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Unpins the tiles of the chunks around the players, so the TileStore can give their slots
+     * to other chunks once the simulation is no longer used.
+     */
+    public void release() {
+        region.release();
+    }
+
+    /**
+     * Sets the number of chunks around the current chunk that are kept loaded and simulated,
+     * in each direction.
+     *
+     * @param radius The radius, 0 to only simulate the current chunk
+     */
+    public void setActiveRadius(int radius) {
+        region.setRadius(radius);
+    }
+
+    /**
+     * Replaces the tiles of a chunk whose file was changed while the game runs. Enemies in the
+     * chunk forget their paths, which were calculated over the old walls, and calculate new ones
+     * when their path is due. A chunk that wasn't found before is looked for again.
+     * Must be called between updates.
+     *
+     * @param template The template with the new tiles of the chunk
+     * @return True if a loaded chunk was changed
+     */
+    public boolean reloadChunk(ChunkTemplate template) {
+        String name = template.name;
+        ChunkState state = region.findLoaded(name);
+
+        if (state == null) {
+            // The chunk may have been created, so it is found the next time it is needed
+            String[] parts = name.split("_");
+
+            if (parts.length == 3 && parts[0].equals(world)) {
+                try {
+                    region.forgetMissing(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                } catch (NumberFormatException e) {
+                    // Not a chunk of this world
+                }
+            }
+
+            return false;
+        }
+
+        state.replaceTiles(template);
+
+        EnemyStore chunkEnemies = state.enemies;
+        for (int i = 0; i < chunkEnemies.size; i++) {
+            chunkEnemies.pathLength[i] = 0;
+            chunkEnemies.pathCursor[i] = 0;
+        }
+
+        if (selected != null && state == selected.chunk) {
+            setChunk(state);
+        }
+
+        return true;
+    }
+
+    /**
+     * Loads in the chunk a player has moved and sets chunk variable accordingly.
+     * A chunk that was loaded before is continued with the enemies it had.
+     * If the chunk failed to load, initialiseChunk returns false.
+     */
+    private boolean initialiseChunk() {
+        // Enter the chunk using the chunk location of player
+        ChunkState state = region.getChunk(
+            (int) chunkCoordinates.getX(), (int) chunkCoordinates.getY());
+
+        // If the chunk failed to load, return false
+        if (state == null) {
+            return false;
+        }
+
+        // Set the chunk instance variables to the new chunk
+        selected.chunk = state;
+        setChunk(state);
+
+        // Projectiles are only simulated in the chunk of the player
+        projectiles.clear();
+
+        updateOccupied();
+
+        return true;
+    }
+
+    /**
+     * Makes the region keep the chunks around the chunks with a player resident.
+     */
+    private void updateOccupied() {
+        occupiedChunks.clear();
+
+        for (int n = 0; n < players.size(); n++) {
+            ChunkState state = players.get(n).chunk;
+
+            if (state != null && !occupiedChunks.contains(state)) {
+                occupiedChunks.add(state);
+            }
+        }
+
+        region.setOccupied(occupiedChunks);
+    }
+
+    /**
+     * Makes a player the player being updated: the methods of the update use its chunk,
+     * the enemies of the chunk and its projectiles.
+     *
+     * @param state The player, or null if there are no players
+     */
+    private void select(PlayerState state) {
+        selected = state;
+
+        if (state == null) {
+            player = null;
+            chunkCoordinates = null;
+            projectiles = null;
+            chunk = null;
+            walls = null;
+            enemies = null;
+            return;
+        }
+
+        player = state.player;
+        chunkCoordinates = state.chunkCoordinates;
+        projectiles = state.projectiles;
+
+        if (state.chunk != null) {
+            setChunk(state.chunk);
+        }
+    }
+
+    /**
+     * Makes the first player the player being updated, as it is between updates.
+     */
+    private void selectFirst() {
+        select(players.isEmpty() ? null : players.get(0));
+    }
+
+    /**
+     * Makes a chunk the chunk being updated.
+     *
+     * @param state The chunk
+     */
+    private void setChunk(ChunkState state) {
+        chunk = state.tiles;
+        enemies = state.enemies;
+
+        // The line of sight keeps the results of the walls it had, so only tell it when they change
+        if (walls != state.walls) {
+            walls = state.walls;
+            lineOfSight.setWalls(walls);
+        }
+    }
+
+    /**
+     * Checks if player is near a chunk border and switches chunk accordingly.
+     * Returns true if the player tried to enter another chunk, even if the border couldn't be passed.
+     */
+    private boolean switchChunk(int playerX, int playerY) {
+        int newChunkX = (int) chunkCoordinates.getX();
+        int newChunkY = (int) chunkCoordinates.getY();
+
+        // The edge of the new chunk the player enters through, and the position along it
+        int edge;
+        int along;
+
+        // Check if player is near the left border of the chunk
+        if (playerX < 5) {
+            // Set new chunk X coordinate
+            newChunkX--;
+
+            // Player enters from the right, at the same height
+            edge = ChunkEntries.EDGE_RIGHT;
+            along = playerY;
+
+        // Check if player is near the right border of the chunk
+        } else if (playerX > GamePanel.TILESIZE * GamePanel.CHUNKWIDTH - player.getWidth() - 5) {
+            // Set new chunk X coordinate
+            newChunkX++;
+
+            // Player enters from the left
+            edge = ChunkEntries.EDGE_LEFT;
+            along = playerY;
+
+        // Check if player is near the top border of the chunk
+        } else if (playerY < 5) {
+            // Set new chunk Y coordinate
+            newChunkY++;
+
+            // Player enters from the bottom
+            edge = ChunkEntries.EDGE_BOTTOM;
+            along = playerX;
+
+        // Check if player is near the bottom border of the chunk
+        } else if (playerY > GamePanel.TILESIZE * GamePanel.CHUNKHEIGHT - player.getHeight() - 5) {
+            // Set new chunk Y coordinate
+            newChunkY--;
+
+            // The player enters from the top
+            edge = ChunkEntries.EDGE_TOP;
+            along = playerX;
+
+        // If the player wasn't near a chunk border, return false
+        } else {
+            return false;
+        }
+
+        enterChunk(newChunkX, newChunkY, edge, along);
+
+        return true;
+    }
+
+    /**
+     * Enters a new chunk through one of its edges. The entry table of the chunk tells where
+     * the player can stand near the place the player crosses the border. If the chunk doesn't
+     * exist or the player can't stand anywhere near that place, nothing is changed.
+     *
+     * @param newChunkX The X coordinate of the new chunk
+     * @param newChunkY The Y coordinate of the new chunk
+     * @param edge The edge of the new chunk the player enters through, see ChunkEntries
+     * @param along The position of the player along the edge
+     * @return True if the player entered the chunk
+     */
+    private boolean enterChunk(int newChunkX, int newChunkY, int edge, int along) {
+        /* The chunks around the current chunk are already loaded by the region, and chunks
+         * that don't exist are known from the index of the resources, so this only reads
+         * a file when no chunks around the current chunk are simulated */
+        ChunkState target = region.getChunk(newChunkX, newChunkY);
+        if (target == null) {
+            return false;
+        }
+
+        ChunkEntries entries = target.getEntries(player.getWidth(), player.getHeight());
+        int entry = entries.find(edge, along);
+
+        // The border is blocked on the other side, stay in the current chunk
+        if (entry < 0) {
+            return false;
+        }
+
+        chunkCoordinates.setLocation(newChunkX, newChunkY);
+        initialiseChunk();
+
+        player.setCoordinates(entries.getX(edge, entry), entries.getY(edge, entry));
+
+        return true;
+    }
+
+    /**
+     * Determines whether player can attack the enemies near the player and attacks them if possible.
+     * 
+     * @param nearby The number of enemies near the player, their indices are in the grid results
+     */
+    private void attackEnemies(int nearby) {
+        // If the player is unable to attack, return
+        if (!player.canAttack()) {
+            return;
+        }
+
+        int[] nearbyEnemies = enemies.grid.results;
+        int playerCentreX = player.getCentreX();
+        int playerCentreY = player.getCentreY();
+
+        for (int n = 0; n < nearby; n++) {
+            int i = nearbyEnemies[n];
+
+            // If player attack wasn't successful, continue with next enemy
+            if (!player.attack(enemies.grid.distanceSquared(i, playerCentreX, playerCentreY))) {
+                continue;
+            }
+
+            Enemy.getType(enemies.typeId[i]).takeDamage(enemies, i, player.getDamage());
+        }
+
+        /* Remove killed enemies after the loop. The indices are sorted, so walk backwards
+         * so that swap-remove only moves enemies that have already been checked */
+        for (int n = nearby - 1; n >= 0; n--) {
+            int i = nearbyEnemies[n];
+
+            if (enemies.hp[i] <= 0) {
+                enemies.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Moves the enemies and counts down their sprite timers.
+     * First overlapping enemies are found, so they can be pushed apart while moving.
+     * Then every enemy that thinks this update decides where to move, which may run on
+     * several threads as enemies only change their own state.
+     * Then the moves are applied in index order.
+     */
+    private void moveEnemies() {
+        scheduleEnemies();
+
+        // Find overlapping enemies, which are pushed apart while moving
+        if (crowdSeparationEnabled) {
+            crowdSeparation.separate(enemies, collisionChecker);
+        }
+
+        if (pool == null || enemies.size <= ENEMIES_PER_TASK) {
+            decideEnemies(0, enemies.size);
+        } else {
+            pool.invoke(new DecideTask(0, enemies.size));
+        }
+
+        for (int i = 0; i < enemies.size; i++) {
+            // Enemies that didn't move keep their place in the grid
+            if (enemies.nextX[i] != enemies.x[i] || enemies.nextY[i] != enemies.y[i]) {
+                enemies.setPosition(i, enemies.nextX[i], enemies.nextY[i]);
+            }
+        }
+    }
+
+    /**
+     * Collects the players in the chunk of the player being updated, which the enemies of the
+     * chunk chase. Players that entered the chunk in this update are left out.
+     */
+    private void selectChunkPlayers() {
+        chunkPlayerCount = 0;
+
+        for (int n = 0; n < players.size(); n++) {
+            PlayerState state = players.get(n);
+
+            if (!state.switchedChunk && state.chunk == selected.chunk) {
+                if (chunkPlayerCount == chunkPlayers.length) {
+                    chunkPlayers = Arrays.copyOf(chunkPlayers, chunkPlayerCount * 2);
+                }
+
+                chunkPlayers[chunkPlayerCount] = state.player;
+                chunkPlayerCount++;
+            }
+        }
+    }
+
+    /**
+     * Finds the player an enemy chases: the closest of the players in its chunk.
+     *
+     * @param i The index of the enemy
+     * @return The player
+     */
+    private Player targetOf(int i) {
+        Player target = chunkPlayers[0];
+
+        if (chunkPlayerCount > 1) {
+            long closest = enemies.grid.distanceSquared(i, target.getCentreX(), target.getCentreY());
+
+            for (int n = 1; n < chunkPlayerCount; n++) {
+                long distanceSquared = enemies.grid.distanceSquared(
+                    i, chunkPlayers[n].getCentreX(), chunkPlayers[n].getCentreY());
+
+                if (distanceSquared < closest) {
+                    closest = distanceSquared;
+                    target = chunkPlayers[n];
+                }
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Decides which enemies think this update, using the distance of each enemy to the player it chases.
+     * Puts the number of updates since an enemy last thought in thinkElapsed, or 0 if
+     * the enemy doesn't think this update.
+     */
+    private void scheduleEnemies() {
+        for (int i = 0; i < enemies.size; i++) {
+            Player target = targetOf(i);
+            int period = aiScheduler.periodFor(
+                enemies.grid.distanceSquared(i, target.getCentreX(), target.getCentreY()));
+
+            if (aiScheduler.isDue(enemies.slotOf(i), period, tickCount)) {
+                enemies.thinkElapsed[i] = (int) Math.min(period, tickCount - enemies.lastThinkTick[i]);
+            } else {
+                enemies.thinkElapsed[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Checks if an enemy can see a player, from the tile of its centre to the tile of the centre
+     * of the player.
+     * 
+     * @param i The index of the enemy
+     * @param target The player
+     * @return True if there is no wall between the enemy and the player
+     */
+    private boolean canSeePlayer(int i, Player target) {
+        return lineOfSight.canSee(
+            enemies.centreX(i) / GamePanel.TILESIZE, enemies.centreY(i) / GamePanel.TILESIZE,
+            target.getCentreTileX(), target.getCentreTileY());
+    }
+
+    /**
+     * Lets a range of enemies decide where to move.
+     * Only enemies that think this update (see scheduleEnemies) do something, the others stay put.
+     * Enemies that haven't seen the player they chase yet stand still until they do.
+     * 
+     * @param from The index of the first enemy
+     * @param to The index after the last enemy
+     */
+    private void decideEnemies(int from, int to) {
+        ShortestPathCalculator pathCalculator = pathCalculators.get();
+        pathCalculator.setWalls(walls);
+
+        for (int i = from; i < to; i++) {
+            // Enemies stay put unless they decide to move
+            enemies.nextX[i] = enemies.x[i];
+            enemies.nextY[i] = enemies.y[i];
+
+            int elapsed = enemies.thinkElapsed[i];
+            if (elapsed == 0) {
+                continue;
+            }
+
+            long lastTick = enemies.lastThinkTick[i];
+            enemies.lastThinkTick[i] = tickCount;
+
+            Enemy type = Enemy.getType(enemies.typeId[i]);
+            type.updateSprite(enemies, i, elapsed);
+            Player target = targetOf(i);
+
+            // An enemy that just spotted the player calculates its path right away
+            boolean spotted = false;
+
+            if (!enemies.aggro[i]) {
+                if (!canSeePlayer(i, target)) {
+                    continue;
+                }
+
+                enemies.aggro[i] = true;
+                spotted = true;
+            }
+
+            /* Calculate the shortest path to the player
+             * The enemy will not move for one update while calculating */
+            if (spotted || aiScheduler.isPathDue(enemies.slotOf(i), lastTick, tickCount)) {
+                pathCalculator.setPlayer(target);
+                enemies.calculatePath(i, pathCalculator);
+            } else {
+                // Go to the player following the calculated path
+                type.decideMove(enemies, i, target, walls, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Lets the enemies near the player that can see the player attack the player.
+     * Ranged enemies fire a projectile at the player instead of dealing damage directly.
+     * 
+     * @param nearby The number of enemies near the player, their indices are in the grid results
+     */
+    private void attackPlayer(int nearby) {
+        int[] nearbyEnemies = enemies.grid.results;
+        int playerCentreX = player.getCentreX();
+        int playerCentreY = player.getCentreY();
+
+        for (int n = 0; n < nearby; n++) {
+            int i = nearbyEnemies[n];
+            Enemy type = Enemy.getType(enemies.typeId[i]);
+
+            long distanceSquared = enemies.grid.distanceSquared(i, playerCentreX, playerCentreY);
+
+            // Enemies can't attack through walls
+            if (distanceSquared > (long) type.getAttackRange() * type.getAttackRange()
+                || !canSeePlayer(i, player)) {
+                continue;
+            }
+
+            // If the enemy attacked succesfully
+            if (type.attack(enemies, i, distanceSquared, tickCount)) {
+                if (type.isRanged()) {
+                    projectiles.fire(ProjectilePool.OWNER_ENEMY,
+                        enemies.centreX(i), enemies.centreY(i),
+                        playerCentreX - enemies.centreX(i), playerCentreY - enemies.centreY(i),
+                        type.getProjectileSpeed(), type.getDamage());
+
+                // Deals damage to the player. If this returned true, the player was defeated.
+                } else if (player.takeDamage(type.getDamage())) {
+                    gameOver = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the simulation by one update. The update and its phases are recorded as a
+     * TickEvent when the flight recorder records it.
+     */
+    public void tick() {
+        TickEvent event = tickEvent;
+        event.begin();
+
+        long start = System.nanoTime();
+        tickCount++;
+
+        // Move the players, a player that is switching chunk skips the rest of its update
+        boolean everySwitched = !players.isEmpty();
+        for (int n = 0; n < players.size(); n++) {
+            select(players.get(n));
+            selected.switchedChunk = movePlayer();
+            everySwitched &= selected.switchedChunk;
+        }
+
+        if (everySwitched) {
+            selectFirst();
+
+            // As every player is switching chunk, the rest of the update can be skipped
+            lastTickNanos = System.nanoTime() - start;
+            recordTick(lastTickNanos, 0, 0, 0, 0);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.tick = tickCount;
+                event.enemies = enemies.size();
+                event.switchedChunk = true;
+                event.playerNanos = lastTickNanos;
+                event.enemyNanos = 0;
+                event.projectileNanos = 0;
+                event.combatNanos = 0;
+                event.regionNanos = 0;
+                event.commit();
+            }
+            return;
+        }
+
+        long playerDone = System.nanoTime();
+
+        // The enemies of every chunk with a player move once, chasing the players in the chunk
+        for (int n = 0; n < players.size(); n++) {
+            if (movesEnemies(n)) {
+                select(players.get(n));
+                selectChunkPlayers();
+                moveEnemies();
+            }
+        }
+
+        long enemiesDone = System.nanoTime();
+
+        // Move the projectiles of every player, which may hit the player or enemies
+        for (int n = 0; n < players.size(); n++) {
+            if (!players.get(n).switchedChunk) {
+                select(players.get(n));
+
+                if (projectiles.update(walls, enemies, player)) {
+                    gameOver = true;
+                }
+            }
+        }
+
+        long projectilesDone = System.nanoTime();
+
+        for (int n = 0; n < players.size(); n++) {
+            if (!players.get(n).switchedChunk) {
+                select(players.get(n));
+                fight();
+            }
+        }
+
+        long combatDone = System.nanoTime();
+
+        // Simulate the chunks around the chunks with a player
+        region.updateRing(players, tickCount);
+        selectFirst();
+
+        if (tickCount % PLAYER_SAVE_INTERVAL == 0) {
+            savePlayer();
+        }
+
+        long end = System.nanoTime();
+        lastTickNanos = end - start;
+        recordTick(playerDone - start, enemiesDone - playerDone, projectilesDone - enemiesDone,
+            combatDone - projectilesDone, end - combatDone);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.tick = tickCount;
+            event.enemies = enemies != null ? enemies.size() : 0;
+            event.switchedChunk = false;
+            event.playerNanos = playerDone - start;
+            event.enemyNanos = enemiesDone - playerDone;
+            event.projectileNanos = projectilesDone - enemiesDone;
+            event.combatNanos = combatDone - projectilesDone;
+            event.regionNanos = end - combatDone;
+            event.commit();
+        }
+    }
+
+    /**
+     * Moves the player being updated, and switches chunk if the player is near a border.
+     *
+     * @return True if the player tried to enter another chunk, even if the border couldn't be passed
+     */
+    private boolean movePlayer() {
+        // Check for movement and change player position
+        player.move(walls);
+        player.updateSprite();
+
+        /* Check if player has recently switched chunk
+         *   and prevent them from entering a new chunk for a small time if that is the case. */
+        if (selected.chunkEnteringCooldown == 0) {
+            /* Check if player is near a chunk border. If the player has switched chunks,
+             *   or if there was an attempt to load a new chunk,
+             *   start the chunk switchting cooldown period. */
+            if (switchChunk(player.getX(), player.getY())) {
+                selected.chunkEnteringCooldown = 30;
+
+                if (selected == players.get(0)) {
+                    savePlayer();
+                }
+
+                return true;
+            }
+        } else {
+            selected.chunkEnteringCooldown--;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a player moves the enemies of its chunk in this update: the first player in the
+     * chunk that isn't switching chunk, so the enemies of a chunk move once.
+     *
+     * @param n The number of the player
+     * @return True if the player moves the enemies
+     */
+    private boolean movesEnemies(int n) {
+        PlayerState state = players.get(n);
+        if (state.switchedChunk || state.chunk == null) {
+            return false;
+        }
+
+        for (int m = 0; m < n; m++) {
+            PlayerState other = players.get(m);
+
+            if (!other.switchedChunk && other.chunk == state.chunk) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Lets the enemies near the player being updated and the player attack each other,
+     * and lets the player shoot.
+     */
+    private void fight() {
+        /* Only enemies within attack range of the player can attack or be attacked.
+         * Sort them by index so they are handled in the same order every time */
+        int nearby = enemies.grid.queryRadius(player.getCentreX(), player.getCentreY(),
+            Math.max(Enemy.getMaxAttackRange(), player.getAttackRange()));
+        enemies.grid.sortResults(nearby);
+
+        attackPlayer(nearby);
+
+        // Have player attack the enemies
+        attackEnemies(nearby);
+
+        // Have player fire a projectile in the direction they are facing
+        if (player.canShoot()) {
+            projectiles.fire(ProjectilePool.OWNER_PLAYER, player.getCentreX(), player.getCentreY(),
+                player.getFacingX(), player.getFacingY(), Player.PROJECTILE_SPEED, player.getDamage());
+        }
+    }
+
+    /**
+     * Adds an update to the totals for monitoring.
+     *
+     * @param playerNanos The time of moving the player and checking the chunk borders
+     * @param enemyNanos The time of moving the enemies
+     * @param projectileNanos The time of moving the projectiles
+     * @param combatNanos The time of the attacks
+     * @param regionNanos The time of simulating the chunks around the current chunk
+     */
+    private void recordTick(long playerNanos, long enemyNanos, long projectileNanos,
+        long combatNanos, long regionNanos) {
+        ticksRun++;
+        totalTickNanos += lastTickNanos;
+        phaseNanos[PHASE_PLAYER] += playerNanos;
+        phaseNanos[PHASE_ENEMIES] += enemyNanos;
+        phaseNanos[PHASE_PROJECTILES] += projectileNanos;
+        phaseNanos[PHASE_COMBAT] += combatNanos;
+        phaseNanos[PHASE_REGION] += regionNanos;
+
+        int enemyCount = 0;
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            enemyCount += region.getResident(n).enemies.size;
+        }
+
+        simulatedChunks = region.getResidentCount();
+        simulatedEnemies = enemyCount;
+    }
+
+    /**
+     * Records the chunk, position and HP of the first player in the journal, if there is one.
+     * A defeated player isn't saved, so the next game starts from the beginning.
+     */
+    private void savePlayer() {
+        if (journal == null || gameOver || players.isEmpty()) {
+            return;
+        }
+
+        PlayerState first = players.get(0);
+        journal.recordPlayer((int) first.chunkCoordinates.getX(), (int) first.chunkCoordinates.getY(), first.player);
+    }
+
+    /**
+     * Writes the settings that change the outcome of an update: the active radius, crowd
+     * separation and the AI scheduler. The number of threads doesn't change the outcome.
+     * 
+     * @param buffer The buffer to write to
+     */
+    public void writeSettings(ByteBuffer buffer) {
+        buffer.putInt(region.getRadius());
+        buffer.put((byte) (crowdSeparationEnabled ? 1 : 0));
+        buffer.put((byte) (aiScheduler.isEnabled() ? 1 : 0));
+        buffer.putInt(aiScheduler.getNearRadius());
+        buffer.putInt(aiScheduler.getMiddleRadius());
+        buffer.putInt(aiScheduler.getPathInterval());
+    }
+
+    /**
+     * Reads the settings written by writeSettings.
+     * 
+     * @param buffer The buffer to read from
+     */
+    public void readSettings(ByteBuffer buffer) {
+        setActiveRadius(buffer.getInt());
+        crowdSeparationEnabled = buffer.get() != 0;
+        aiScheduler.setEnabled(buffer.get() != 0);
+
+        int nearRadius = buffer.getInt();
+        aiScheduler.setBandRadii(nearRadius, buffer.getInt());
+        aiScheduler.setPathInterval(buffer.getInt());
+    }
+
+    /**
+     * Captures the state of the simulation in a snapshot, e.g. for a quick-save.
+     * The snapshot holds the first player, its projectiles, the chunk the player is in and
+     * the enemies of every loaded and evicted chunk. Settings like the number of threads are not part
+     * of the state. Other players are not part of it either, see restoreSnapshot.
+     * 
+     * @return A buffer with the snapshot, ready to be read
+     */
+    public ByteBuffer captureSnapshot() {
+        int typeCount = Enemy.getTypeCount();
+        byte[][] typeNames = new byte[typeCount][];
+
+        // Header, type table, update counters, chunk coordinates and the number of chunks
+        int bytes = 4 * 4 + 8 + 4 + 1 + 2 * 4 + 4;
+        for (int type = 0; type < typeCount; type++) {
+            typeNames[type] = Enemy.getType(type).getName().getBytes(StandardCharsets.UTF_8);
+            bytes += 4 + typeNames[type].length;
+        }
+
+        ArrayList<ChunkState> chunks = region.getLoadedChunks();
+        ArrayList<Point> evictedChunks = region.getEvictedChunks();
+
+        bytes += player.snapshotBytes() + projectiles.snapshotBytes();
+        for (ChunkState state : chunks) {
+            bytes += 2 * 4 + 8 + state.enemies.snapshotBytes();
+        }
+        for (Point coordinates : evictedChunks) {
+            bytes += 2 * 4 + region.getEvictedState(coordinates).length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(SNAPSHOT_VERSION);
+
+        // Enemy types are stored by name, as type ids depend on the order types were created in
+        buffer.putInt(typeCount);
+        for (byte[] name : typeNames) {
+            buffer.putInt(name.length);
+            buffer.put(name);
+        }
+
+        buffer.putLong(tickCount);
+        buffer.putInt(selected.chunkEnteringCooldown);
+        buffer.put((byte) (gameOver ? 1 : 0));
+        buffer.putInt((int) chunkCoordinates.getX());
+        buffer.putInt((int) chunkCoordinates.getY());
+
+        // The coordinates of every chunk come before the state, so they can be checked before restoring
+        buffer.putInt(chunks.size() + evictedChunks.size());
+        for (ChunkState state : chunks) {
+            buffer.putInt(state.chunkX);
+            buffer.putInt(state.chunkY);
+        }
+        for (Point coordinates : evictedChunks) {
+            buffer.putInt(coordinates.x);
+            buffer.putInt(coordinates.y);
+        }
+
+        player.writeState(buffer);
+        projectiles.writeState(buffer);
+
+        for (ChunkState state : chunks) {
+            buffer.putLong(state.lastUpdateTick);
+            state.enemies.writeState(buffer);
+        }
+
+        // Evicted chunks keep their state in the same form
+        for (Point coordinates : evictedChunks) {
+            buffer.put(region.getEvictedState(coordinates));
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Restores the state captured by captureSnapshot. Nothing is changed if the snapshot
+     * has another format, is cut off or corrupt, or refers to enemy types or chunks that
+     * don't exist: the whole snapshot is checked before anything is restored.
+     * Chunks that were loaded after the snapshot was captured are loaded from their files again.
+     * Only a simulation with one player can be restored, as the snapshot holds one player.
+     * 
+     * @param buffer The buffer with the snapshot, it is read from its position
+     * @return True if the snapshot was restored, false if not
+     */
+    public boolean restoreSnapshot(ByteBuffer buffer) {
+        int[] typeIds;
+        long newTickCount;
+        int newChunkEnteringCooldown;
+        boolean newGameOver;
+        int newChunkX;
+        int newChunkY;
+        int[] savedChunks;
+
+        // Where the player, the projectiles and the chunks start, they are read once checked
+        int playerStart;
+        int projectilesStart;
+        int chunksStart;
+
+        if (players.size() != 1) {
+            return false;
+        }
+
+        try {
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+
+            int typeCount = buffer.getInt();
+            if (typeCount < 0 || typeCount > buffer.remaining() / 4) {
+                return false;
+            }
+
+            typeIds = new int[typeCount];
+            for (int type = 0; type < typeIds.length; type++) {
+                int nameLength = buffer.getInt();
+                if (nameLength < 0 || nameLength > buffer.remaining()) {
+                    return false;
+                }
+
+                byte[] name = new byte[nameLength];
+                buffer.get(name);
+
+                Enemy enemyType = EnemyRegistry.get(new String(name, StandardCharsets.UTF_8));
+                if (enemyType == null) {
+                    return false;
+                }
+
+                typeIds[type] = enemyType.getTypeId();
+            }
+
+            newTickCount = buffer.getLong();
+            newChunkEnteringCooldown = buffer.getInt();
+            newGameOver = buffer.get() != 0;
+            newChunkX = buffer.getInt();
+            newChunkY = buffer.getInt();
+
+            int chunkCount = buffer.getInt();
+            if (chunkCount < 0 || chunkCount > buffer.remaining() / (2 * 4)) {
+                return false;
+            }
+
+            savedChunks = new int[2 * chunkCount];
+            for (int n = 0; n < savedChunks.length; n++) {
+                savedChunks[n] = buffer.getInt();
+            }
+
+            playerStart = buffer.position();
+            if (buffer.remaining() < player.snapshotBytes()) {
+                return false;
+            }
+            buffer.position(playerStart + player.snapshotBytes());
+
+            projectilesStart = buffer.position();
+            if (!ProjectilePool.checkState(buffer)) {
+                return false;
+            }
+
+            chunksStart = buffer.position();
+            for (int n = 0; n < chunkCount; n++) {
+                buffer.getLong();
+
+                if (!EnemyStore.checkState(buffer, typeIds.length)) {
+                    return false;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+
+        // Check that every chunk exists before changing anything
+        if (!region.exists(newChunkX, newChunkY)) {
+            return false;
+        }
+        for (int n = 0; n < savedChunks.length; n += 2) {
+            if (!region.exists(savedChunks[n], savedChunks[n + 1])) {
+                return false;
+            }
+        }
+
+        int end = buffer.position();
+
+        ChunkState[] chunks = new ChunkState[savedChunks.length / 2];
+        for (int n = 0; n < chunks.length; n++) {
+            chunks[n] = region.getChunk(savedChunks[2 * n], savedChunks[2 * n + 1]);
+
+            // Only if the chunk file was deleted since it was checked
+            if (chunks[n] == null) {
+                return false;
+            }
+        }
+
+        region.unloadExcept(chunks);
+
+        tickCount = newTickCount;
+        selected.chunkEnteringCooldown = newChunkEnteringCooldown;
+        gameOver = newGameOver;
+
+        buffer.position(playerStart);
+        player.readState(buffer);
+
+        // The chunks get their state before entering, as entering evicts the chunks left longest ago
+        buffer.position(chunksStart);
+        for (ChunkState state : chunks) {
+            state.lastUpdateTick = buffer.getLong();
+            state.enemies.readState(buffer, typeIds);
+        }
+
+        // Enter the chunk of the player, which also clears the projectiles
+        chunkCoordinates.setLocation(newChunkX, newChunkY);
+        initialiseChunk();
+
+        buffer.position(projectilesStart);
+        projectiles.readState(buffer);
+
+        buffer.position(end);
+
+        return true;
+    }
+
+    /**
+     * Calculates a hash of the state of the players, the enemies of the resident chunks
+     * and the projectiles.
+     * Two simulations with the same hash are (almost certainly) in the same state.
+     * 
+     * @return The hash
+     */
+    public long stateHash() {
+        long hash = tickCount;
+
+        for (int n = 0; n < players.size(); n++) {
+            Player other = players.get(n).player;
+
+            hash = hash * 31 + other.getX();
+            hash = hash * 31 + other.getY();
+            hash = hash * 31 + other.getVelocityX();
+            hash = hash * 31 + other.getVelocityY();
+            hash = hash * 31 + other.getHP();
+        }
+
+        for (int n = 0; n < region.getResidentCount(); n++) {
+            ChunkState state = region.getResident(n);
+
+            hash = hash * 31 + state.chunkX;
+            hash = hash * 31 + state.chunkY;
+            hash = hashEnemies(hash, state.enemies);
+        }
+
+        for (int n = 0; n < players.size(); n++) {
+            ProjectilePool pool = players.get(n).projectiles;
+
+            hash = hash * 31 + pool.size;
+
+            for (int i = 0; i < pool.size; i++) {
+                hash = hash * 31 + pool.owner[i];
+                hash = hash * 31 + pool.x[i];
+                hash = hash * 31 + pool.y[i];
+                hash = hash * 31 + pool.velocityX[i];
+                hash = hash * 31 + pool.velocityY[i];
+                hash = hash * 31 + pool.damage[i];
+                hash = hash * 31 + pool.ticksLeft[i];
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Adds the state of the enemies in a store to a hash.
+     * 
+     * @param hash The hash so far
+     * @param enemies The store with the enemies
+     * @return The new hash
+     */
+    private static long hashEnemies(long hash, EnemyStore enemies) {
+        hash = hash * 31 + enemies.size;
+
+        for (int i = 0; i < enemies.size; i++) {
+            hash = hash * 31 + enemies.handle[i];
+            hash = hash * 31 + enemies.typeId[i];
+            hash = hash * 31 + enemies.x[i];
+            hash = hash * 31 + enemies.y[i];
+            hash = hash * 31 + enemies.velocityX[i];
+            hash = hash * 31 + enemies.velocityY[i];
+            hash = hash * 31 + enemies.hp[i];
+            hash = hash * 31 + enemies.attackReadyTick[i];
+            hash = hash * 31 + enemies.lastThinkTick[i];
+            hash = hash * 31 + (enemies.aggro[i] ? 1 : 0);
+            hash = hash * 31 + enemies.sprite[i];
+            hash = hash * 31 + enemies.spriteTimer[i];
+            hash = hash * 31 + enemies.pathCursor[i];
+            hash = hash * 31 + enemies.pathLength[i];
+        }
+
+        return hash;
+    }
+
+    /**
+     * Task that lets a range of enemies decide where to move,
+     * splitting the range in halves until it is small enough.
+     */
+    private class DecideTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        DecideTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ENEMIES_PER_TASK) {
+                decideEnemies(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new DecideTask(from, middle), new DecideTask(middle, to));
+        }
+    }
+}
\ No newline at end of file
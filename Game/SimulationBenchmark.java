@@ -0,0 +1,234 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks of updating a simulation: the number of enemies ("enemies"), threads
+ * ("parallel"), far enemies thinking less often ("lod") and the bytes allocated per update
+ * ("allocation").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark enemies".
+ */
+class SimulationBenchmark {
+    // Average number of bytes an update may allocate before the allocation benchmark fails
+    private static final long ALLOCATION_BUDGET_PER_TICK = 0;
+
+    /**
+     * Measures the update time of the simulation for a growing number of enemies.
+     */
+    static void benchmarkEnemies() {
+        int[] enemyCounts = {1000, 5000, 10000, 20000, 50000};
+
+        System.out.println("enemies    ns/tick     ns/enemy   store bytes");
+
+        for (int enemyCount : enemyCounts) {
+            Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+
+            long nanosPerTick = Benchmark.measureTicks(simulation);
+
+            System.out.printf("%7d %10d %12.1f %13d%n",
+                enemyCount, nanosPerTick, (double) nanosPerTick / enemyCount,
+                simulation.getEnemies().estimateBytes());
+        }
+    }
+
+    /**
+     * Measures the update time of the simulation for 1 up to the number of available processors
+     * threads, and checks that every number of threads ends in the same state. With more than
+     * one processor, the most threads must also be faster than one thread. With one processor
+     * the speed-up can't be measured, so only the state is checked.
+     *
+     * @return True if every number of threads ended in the same state and, with more than one
+     *     processor, the most threads were faster than one
+     */
+    static boolean benchmarkParallel() {
+        int enemyCount = 20000;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int maxThreads = Math.max(2, processors);
+
+        System.out.println("threads    ns/tick  speed-up  same state");
+
+        long sequentialNanos = 0;
+        long sequentialHash = 0;
+        double lastSpeedUp = 0;
+        boolean allSame = true;
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+            simulation.setParallelism(threads);
+
+            long nanosPerTick = Benchmark.measureTicks(simulation);
+            long hash = simulation.stateHash();
+            simulation.setParallelism(1);
+
+            if (threads == 1) {
+                sequentialNanos = nanosPerTick;
+                sequentialHash = hash;
+            }
+
+            lastSpeedUp = (double) sequentialNanos / nanosPerTick;
+            allSame &= hash == sequentialHash;
+
+            System.out.printf("%7d %10d %9.2f %11s%n",
+                threads, nanosPerTick, lastSpeedUp, hash == sequentialHash);
+
+            // Also measure the exact number of available processors
+            if (threads < maxThreads && threads * 2 > maxThreads) {
+                threads = maxThreads / 2;
+            }
+        }
+
+        boolean faster = true;
+        if (processors == 1) {
+            System.out.println("speed-up not checked: only 1 processor is available");
+        } else {
+            faster = lastSpeedUp > 1;
+            System.out.printf("speed-up with %d threads: %.2f %s%n",
+                maxThreads, lastSpeedUp, faster ? "ok" : "SLOWER THAN 1 THREAD");
+        }
+
+        System.out.println(allSame ? "every number of threads ended in the same state" : "MISMATCH");
+
+        return allSame && faster;
+    }
+
+    /**
+     * Measures the average and slowest update for 5k to 50k enemies, with enemies far from
+     * the player thinking less often and with every enemy thinking every update.
+     * Enemies crowd around the player after a while, after which every enemy is near,
+     * so the updates are measured while the enemies are still spread over the chunk:
+     * a fresh simulation is measured from its second update (in the first update every
+     * enemy spots the player and calculates its path).
+     *
+     * @return True if the enemies that stay think once every period while others are removed
+     */
+    static boolean benchmarkLevelOfDetail() {
+        int[] enemyCounts = {5000, 20000, 50000};
+        int measuredTicks = 60;
+
+        System.out.println("enemies  level of detail    ns/tick  slowest ns/tick  thinks/tick");
+
+        for (int enemyCount : enemyCounts) {
+            for (boolean enabled : new boolean[] {false, true}) {
+                // Warm up on another simulation, as the enemies of this one would crowd together
+                Simulation warmup = Benchmark.createSimulation(enemyCount, 7);
+                warmup.getAiScheduler().setEnabled(enabled);
+                for (int tick = 0; tick < Benchmark.WARMUP_TICKS; tick++) {
+                    warmup.tick();
+                }
+
+                Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+                simulation.getAiScheduler().setEnabled(enabled);
+                EnemyStore enemies = simulation.getEnemies();
+                simulation.tick();
+
+                long total = 0;
+                long slowest = 0;
+                long thinks = 0;
+                for (int tick = 0; tick < measuredTicks; tick++) {
+                    long start = System.nanoTime();
+                    simulation.tick();
+                    long nanos = System.nanoTime() - start;
+
+                    total += nanos;
+                    slowest = Math.max(slowest, nanos);
+
+                    for (int i = 0; i < enemies.size(); i++) {
+                        if (enemies.thinkElapsed[i] > 0) {
+                            thinks++;
+                        }
+                    }
+                }
+
+                System.out.printf("%7d %16s %10d %16d %12d%n",
+                    enemyCount, enabled ? "on" : "off", total / measuredTicks, slowest,
+                    thinks / measuredTicks);
+            }
+        }
+
+        return checkThinkPeriods();
+    }
+
+    /**
+     * Removes random enemies from a store while scheduling far enemies, and checks that every
+     * enemy that stays still thinks exactly once every AiScheduler.FAR_PERIOD updates, even
+     * though removing enemies moves others to another index.
+     *
+     * @return True if no enemy thought too early or too late
+     */
+    private static boolean checkThinkPeriods() {
+        AiScheduler scheduler = new AiScheduler();
+        EnemyStore enemies = new EnemyStore();
+        Random random = new Random(5);
+        int period = AiScheduler.FAR_PERIOD;
+
+        for (int n = 0; n < 1000; n++) {
+            enemies.add(0, n % 300, n / 300, 1);
+        }
+
+        // The last update each enemy thought, by handle
+        Map<Integer, Long> lastThinks = new HashMap<Integer, Long>();
+        int wrongPeriods = 0;
+
+        for (long tick = 0; tick < 400; tick++) {
+            for (int i = 0; i < enemies.size(); i++) {
+                if (scheduler.isDue(enemies.slotOf(i), period, tick)) {
+                    Long last = lastThinks.put(enemies.handle[i], tick);
+
+                    if (last != null && tick - last != period) {
+                        wrongPeriods++;
+                    }
+                }
+            }
+
+            enemies.remove(random.nextInt(enemies.size()));
+        }
+
+        System.out.printf("%d enemies thought too early or too late while others were removed%n",
+            wrongPeriods);
+
+        return wrongPeriods == 0;
+    }
+
+    /**
+     * Measures the bytes allocated by the update thread while the player walks and attacks
+     * between enemies, some of which fire projectiles. Fails when an update allocates more than ALLOCATION_BUDGET_PER_TICK
+     * on average, so allocations that creep into the update are noticed.
+     *
+     * @return True if the allocations stayed within the budget
+     */
+    static boolean benchmarkAllocation() {
+        Simulation simulation = Benchmark.createSimulation(2000, 42);
+        KeyHandler keyHandler = simulation.getPlayer().keyHandler;
+        keyHandler.space = true;
+        keyHandler.shoot = true;
+
+        // Add archers in the corners, so projectiles are fired at the player as well
+        Enemy archer = EnemyRegistry.get("ArcherEnemy");
+        for (int i = 0; i < 20; i++) {
+            archer.spawn(simulation.getEnemies(), 60 + i % 2 * 260, 60 + i / 2 % 2 * 260);
+        }
+
+        // Walk up and down for a while so all buffers have grown to their final size
+        int ticks = 0;
+        for (; ticks < Benchmark.WARMUP_TICKS * 5; ticks++) {
+            Benchmark.walkUpAndDown(keyHandler, ticks);
+            simulation.tick();
+        }
+
+        long before = Benchmark.allocatedBytes();
+        for (int end = ticks + Benchmark.MEASURED_TICKS * 5; ticks < end; ticks++) {
+            Benchmark.walkUpAndDown(keyHandler, ticks);
+            simulation.tick();
+        }
+        long allocated = Benchmark.allocatedBytes() - before;
+
+        double bytesPerTick = (double) allocated / (Benchmark.MEASURED_TICKS * 5);
+        boolean withinBudget = bytesPerTick <= ALLOCATION_BUDGET_PER_TICK;
+
+        System.out.printf("allocated %d bytes in %d updates, %.2f bytes/tick (budget %d): %s%n",
+            allocated, Benchmark.MEASURED_TICKS * 5, bytesPerTick, ALLOCATION_BUDGET_PER_TICK,
+            withinBudget ? "ok" : "FAILED");
+
+        return withinBudget;
+    }
+}
@@ -0,0 +1,372 @@
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Watches the simulations of the JVM for JMX, so a running game or server can be monitored
+ * and tuned with e.g. jconsole without attaching a profiler. Registers itself as
+ * CBLGame:type=Simulations and the ChunkLibrary as CBLGame:type=ChunkLibrary the first
+ * time it is used.
+ *
+ * <p>Whoever runs simulations adds them and removes them when they stop. A thread sums the
+ * totals of the simulations once per second, and the rates are the differences between
+ * those sums. Simulations are read while other threads update them, so the values can be
+ * slightly old, but reading never slows an update down.
+ */
+class SimulationMonitor implements SimulationMonitorMBean {
+    private static SimulationMonitor instance = null;
+
+    // Number of seconds the rolling rates are measured over
+    private static final int WINDOW_SECONDS = 60;
+    private static final long SAMPLE_MILLIS = 1000;
+
+    // The totals summed every second
+    private static final int TICKS = 0;
+    private static final int TICK_NANOS = 1;
+    private static final int PHASE_NANOS = 2;
+    private static final int PATH_SEARCHES = PHASE_NANOS + Simulation.PHASE_COUNT;
+    private static final int EXPANDED_TILES = PATH_SEARCHES + 1;
+    private static final int ALLOCATED_BYTES = EXPANDED_TILES + 1;
+    private static final int TOTAL_COUNT = ALLOCATED_BYTES + 1;
+
+    // Used to measure the bytes allocated by the threads
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Set<Simulation> simulations = Collections.newSetFromMap(
+        new ConcurrentHashMap<Simulation, Boolean>());
+
+    // Totals of the simulations that were removed, so the sums don't drop when one is removed
+    private final long[] removedTotals = new long[TOTAL_COUNT];
+
+    // The sums of the last WINDOW_SECONDS + 1 seconds in a ring, with the time they were made
+    private final long[][] history = new long[WINDOW_SECONDS + 1][TOTAL_COUNT];
+    private final long[] sampleTimes = new long[WINDOW_SECONDS + 1];
+    private long sampleCount = 0;
+
+    // The settings given over JMX, applied to every simulation once one was given
+    private final AiScheduler settings = new AiScheduler();
+    private boolean tuned = false;
+
+    private SimulationMonitor() {
+    }
+
+    /**
+     * Gets the monitor of the JVM, registering it with JMX and starting to sample the first
+     * time.
+     *
+     * @return The monitor
+     */
+    public static synchronized SimulationMonitor get() {
+        if (instance == null) {
+            instance = new SimulationMonitor();
+            instance.start();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Starts monitoring a simulation. If settings were given over JMX, they are applied to it.
+     *
+     * @param simulation The simulation
+     */
+    public synchronized void add(Simulation simulation) {
+        if (tuned) {
+            applySettings(simulation);
+        }
+
+        simulations.add(simulation);
+    }
+
+    /**
+     * Stops monitoring a simulation. What it did so far is still counted in the rolling rates.
+     *
+     * @param simulation The simulation
+     */
+    public synchronized void remove(Simulation simulation) {
+        if (simulations.remove(simulation)) {
+            addTotals(simulation, removedTotals);
+        }
+    }
+
+    @Override
+    public int getSimulationCount() {
+        return simulations.size();
+    }
+
+    @Override
+    public double getTickRate() {
+        return rate(TICKS, 1);
+    }
+
+    @Override
+    public double getRollingTickRate() {
+        return rate(TICKS, WINDOW_SECONDS);
+    }
+
+    @Override
+    public double getTickRatePerSimulation() {
+        int count = simulations.size();
+
+        return count == 0 ? 0 : getTickRate() / count;
+    }
+
+    @Override
+    public double getAverageTickMicros() {
+        return perTick(TICK_NANOS) / 1e3;
+    }
+
+    @Override
+    public double getPlayerPhaseMicros() {
+        return perTick(PHASE_NANOS + Simulation.PHASE_PLAYER) / 1e3;
+    }
+
+    @Override
+    public double getEnemyPhaseMicros() {
+        return perTick(PHASE_NANOS + Simulation.PHASE_ENEMIES) / 1e3;
+    }
+
+    @Override
+    public double getProjectilePhaseMicros() {
+        return perTick(PHASE_NANOS + Simulation.PHASE_PROJECTILES) / 1e3;
+    }
+
+    @Override
+    public double getCombatPhaseMicros() {
+        return perTick(PHASE_NANOS + Simulation.PHASE_COMBAT) / 1e3;
+    }
+
+    @Override
+    public double getRegionPhaseMicros() {
+        return perTick(PHASE_NANOS + Simulation.PHASE_REGION) / 1e3;
+    }
+
+    @Override
+    public long getEnemyCount() {
+        long count = 0;
+
+        for (Simulation simulation : simulations) {
+            count += simulation.getSimulatedEnemies();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getActiveChunkCount() {
+        long count = 0;
+
+        for (Simulation simulation : simulations) {
+            count += simulation.getSimulatedChunks();
+        }
+
+        return count;
+    }
+
+    @Override
+    public double getPathSearchRate() {
+        return rate(PATH_SEARCHES, 1);
+    }
+
+    @Override
+    public synchronized double getAverageExpandedTiles() {
+        long searches = difference(PATH_SEARCHES, 1);
+
+        return searches == 0 ? 0 : (double) difference(EXPANDED_TILES, 1) / searches;
+    }
+
+    @Override
+    public double getAllocationRate() {
+        return rate(ALLOCATED_BYTES, 1);
+    }
+
+    @Override
+    public synchronized int getPathInterval() {
+        return settings.getPathInterval();
+    }
+
+    @Override
+    public synchronized void setPathInterval(int pathInterval) {
+        settings.setPathInterval(pathInterval);
+        applySettings();
+    }
+
+    @Override
+    public synchronized int getNearRadius() {
+        return settings.getNearRadius();
+    }
+
+    @Override
+    public synchronized void setNearRadius(int nearRadius) {
+        settings.setBandRadii(nearRadius, settings.getMiddleRadius());
+        applySettings();
+    }
+
+    @Override
+    public synchronized int getMiddleRadius() {
+        return settings.getMiddleRadius();
+    }
+
+    @Override
+    public synchronized void setMiddleRadius(int middleRadius) {
+        settings.setBandRadii(Math.min(settings.getNearRadius(), middleRadius), middleRadius);
+        applySettings();
+    }
+
+    @Override
+    public synchronized boolean isLevelOfDetailEnabled() {
+        return settings.isEnabled();
+    }
+
+    @Override
+    public synchronized void setLevelOfDetailEnabled(boolean enabled) {
+        settings.setEnabled(enabled);
+        applySettings();
+    }
+
+    /**
+     * Sums the totals of the simulations now. Called every second by the thread of the monitor.
+     */
+    synchronized void sample() {
+        int slot = (int) (sampleCount % history.length);
+        long[] totals = history[slot];
+
+        System.arraycopy(removedTotals, 0, totals, 0, TOTAL_COUNT);
+        for (Simulation simulation : simulations) {
+            addTotals(simulation, totals);
+        }
+
+        long allocated = 0;
+        for (long bytes : THREAD_BEAN.getThreadAllocatedBytes(THREAD_BEAN.getAllThreadIds())) {
+            allocated += Math.max(0, bytes);
+        }
+        totals[ALLOCATED_BYTES] = allocated;
+
+        sampleTimes[slot] = System.nanoTime();
+        sampleCount++;
+    }
+
+    /**
+     * Registers the monitor and the chunk library with JMX and starts the thread that samples
+     * the simulations.
+     */
+    private void start() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            server.registerMBean(this, new ObjectName("CBLGame:type=Simulations"));
+            server.registerMBean(ChunkLibrary.get(), new ObjectName("CBLGame:type=ChunkLibrary"));
+        } catch (JMException e) {
+            System.out.println("Unable to register the monitor with JMX: " + e.getMessage());
+        }
+
+        Thread thread = new Thread(() -> {
+            while (true) {
+                sample();
+
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "simulation-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds the totals of a simulation to sums.
+     *
+     * @param simulation The simulation
+     * @param totals The sums, indexed by the total
+     */
+    private static void addTotals(Simulation simulation, long[] totals) {
+        totals[TICKS] += simulation.getTicksRun();
+        totals[TICK_NANOS] += simulation.getTotalTickNanos();
+        for (int phase = 0; phase < Simulation.PHASE_COUNT; phase++) {
+            totals[PHASE_NANOS + phase] += simulation.getPhaseNanos(phase);
+        }
+        totals[PATH_SEARCHES] += simulation.getPathSearchCount();
+        totals[EXPANDED_TILES] += simulation.getExpandedTileCount();
+    }
+
+    /**
+     * Gets how much a total grew over the last seconds.
+     *
+     * @param total The total
+     * @param seconds The number of seconds, at most WINDOW_SECONDS
+     * @return The growth, 0 before two samples were made
+     */
+    private synchronized long difference(int total, int seconds) {
+        if (sampleCount < 2) {
+            return 0;
+        }
+
+        long back = Math.min(seconds, sampleCount - 1);
+        long[] last = history[(int) ((sampleCount - 1) % history.length)];
+        long[] first = history[(int) ((sampleCount - 1 - back) % history.length)];
+
+        // Threads that ended take their allocations with them, so a total can drop
+        return Math.max(0, last[total] - first[total]);
+    }
+
+    /**
+     * Gets how fast a total grew per second over the last seconds.
+     *
+     * @param total The total
+     * @param seconds The number of seconds, at most WINDOW_SECONDS
+     * @return The growth per second
+     */
+    private synchronized double rate(int total, int seconds) {
+        if (sampleCount < 2) {
+            return 0;
+        }
+
+        long back = Math.min(seconds, sampleCount - 1);
+        long nanos = sampleTimes[(int) ((sampleCount - 1) % history.length)]
+            - sampleTimes[(int) ((sampleCount - 1 - back) % history.length)];
+
+        return nanos <= 0 ? 0 : difference(total, seconds) * 1e9 / nanos;
+    }
+
+    /**
+     * Gets how much a total grew per update in the last second.
+     *
+     * @param total The total
+     * @return The growth per update, 0 without updates
+     */
+    private synchronized double perTick(int total) {
+        long ticks = difference(TICKS, 1);
+
+        return ticks == 0 ? 0 : (double) difference(total, 1) / ticks;
+    }
+
+    /**
+     * Applies the settings to every simulation.
+     */
+    private void applySettings() {
+        tuned = true;
+
+        for (Simulation simulation : simulations) {
+            applySettings(simulation);
+        }
+    }
+
+    /**
+     * Applies the settings to a simulation. AiScheduler can be changed from any thread.
+     *
+     * @param simulation The simulation
+     */
+    private void applySettings(Simulation simulation) {
+        AiScheduler scheduler = simulation.getAiScheduler();
+        scheduler.setPathInterval(settings.getPathInterval());
+        scheduler.setBandRadii(settings.getNearRadius(), settings.getMiddleRadius());
+        scheduler.setEnabled(settings.isEnabled());
+    }
+}
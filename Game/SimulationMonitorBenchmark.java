@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Benchmarks of watching simulations: recording flight recorder events ("jfr") and the MBeans
+ * ("jmx").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark jfr".
+ */
+class SimulationMonitorBenchmark {
+    /**
+     * Measures the update time with and without the flight recorder recording the events of
+     * game.jfc, taking the fastest of a few rounds of each as the machine may be busy with
+     * other work. Then records a new simulation and summarises the recording with
+     * FlightRecordingAnalyzer. A chunk, a sprite and a tile are loaded while recording, so
+     * every kind of event of the game is recorded.
+     *
+     * @return True if the recording holds every update and the loads
+     */
+    static boolean benchmarkFlightRecording() {
+        int enemyCount = 5000;
+
+        try {
+            Configuration configuration = Configuration.create(Path.of("game.jfc"));
+
+            Simulation measured = Benchmark.createSimulation(enemyCount, 42);
+            Benchmark.measureTicks(measured);
+
+            long offNanos = Long.MAX_VALUE;
+            long onNanos = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                offNanos = Math.min(offNanos, timeTicks(measured, Benchmark.MEASURED_TICKS));
+
+                try (Recording recording = new Recording(configuration)) {
+                    recording.start();
+                    onNanos = Math.min(onNanos, timeTicks(measured, Benchmark.MEASURED_TICKS));
+                }
+            }
+
+            Recording recording = new Recording(configuration);
+            recording.start();
+
+            Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+            Benchmark.measureTicks(simulation);
+
+            ChunkLibrary.get().reload("OW_0_0");
+            Entity.loadEntityImages("GoblinEnemy");
+            new Tile(TileType.values()[0]).getTileImage();
+
+            recording.stop();
+
+            Path file = Files.createTempFile("benchmark", ".jfr");
+            recording.dump(file);
+            recording.close();
+
+            FlightRecordingAnalyzer analyzer = new FlightRecordingAnalyzer();
+            analyzer.read(file);
+            long fileBytes = Files.size(file);
+            Files.delete(file);
+
+            analyzer.print(System.out);
+            System.out.println();
+            System.out.printf("%d enemies: %d ns/tick without recording, %d ns/tick recording (%+.1f%%), %d bytes in the recording%n",
+                enemyCount, offNanos, onNanos, 100.0 * (onNanos - offNanos) / offNanos, fileBytes);
+
+            boolean complete = analyzer.getTickCount() == Benchmark.WARMUP_TICKS + Benchmark.MEASURED_TICKS
+                && analyzer.getChunkLoadCount() > 0 && analyzer.getAssetLoadCount() >= 2;
+            System.out.println(complete ? "every update and load was recorded" : "EVENTS MISSING");
+
+            return complete;
+        } catch (IOException | ParseException e) {
+            System.out.println("Unable to record: " + e.getMessage());
+
+            return false;
+        }
+    }
+
+    /**
+     * Measures the average time of an update, without warming up.
+     *
+     * @param simulation The simulation to update
+     * @param ticks The number of updates to run
+     * @return The average time of one update in nanoseconds
+     */
+    private static long timeTicks(Simulation simulation, int ticks) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            simulation.tick();
+        }
+
+        return (System.nanoTime() - start) / ticks;
+    }
+
+    /**
+     * Updates 4 simulations with 500 enemies each for a few seconds while the SimulationMonitor
+     * watches them, then prints every attribute of the MBeans as JMX clients see them.
+     * Changes the path interval over JMX and checks that every simulation got it.
+     *
+     * @return True if the attributes match the simulations and the setting was applied
+     */
+    static boolean benchmarkMonitor() {
+        SimulationMonitor monitor = SimulationMonitor.get();
+        Simulation[] simulations = new Simulation[4];
+
+        for (int n = 0; n < simulations.length; n++) {
+            simulations[n] = Benchmark.createSimulation(500, n);
+            monitor.add(simulations[n]);
+        }
+
+        // Update for a few samples of the monitor
+        long end = System.nanoTime() + 3_500_000_000L;
+        while (System.nanoTime() < end) {
+            for (Simulation simulation : simulations) {
+                simulation.tick();
+            }
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName simulationsName = new ObjectName("CBLGame:type=Simulations");
+            ObjectName libraryName = new ObjectName("CBLGame:type=ChunkLibrary");
+
+            for (ObjectName name : new ObjectName[] {simulationsName, libraryName}) {
+                System.out.println(name);
+                for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes()) {
+                    System.out.printf("  %-26s %s%n", attribute.getName(),
+                        server.getAttribute(name, attribute.getName()));
+                }
+            }
+
+            long enemies = 0;
+            for (Simulation simulation : simulations) {
+                enemies += simulation.getSimulatedEnemies();
+            }
+
+            boolean match = (Integer) server.getAttribute(simulationsName, "SimulationCount") == simulations.length
+                && (Long) server.getAttribute(simulationsName, "EnemyCount") == enemies
+                && (Double) server.getAttribute(simulationsName, "TickRate") > 0
+                && (Double) server.getAttribute(simulationsName, "PathSearchRate") > 0
+                && (Long) server.getAttribute(libraryName, "RequestCount") > 0;
+
+            server.setAttribute(simulationsName, new Attribute("PathInterval", 10));
+            for (Simulation simulation : simulations) {
+                match &= simulation.getAiScheduler().getPathInterval() == 10;
+            }
+
+            for (Simulation simulation : simulations) {
+                monitor.remove(simulation);
+            }
+            match &= monitor.getSimulationCount() == 0;
+
+            System.out.println(match ? "attributes match the simulations" : "MISMATCH");
+
+            return match;
+        } catch (JMException e) {
+            System.out.println("Unable to read the MBeans: " + e.getMessage());
+
+            return false;
+        }
+    }
+}
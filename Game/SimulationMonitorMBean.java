@@ -0,0 +1,121 @@
+/**
+ * The metrics and settings of the simulations of the JVM shown over JMX, as
+ * CBLGame:type=Simulations. Rates are per second over the last second, or over the last
+ * minute for the rolling rate. Times are averages per update over the last second.
+ * Setting a value changes every simulation, including the ones added later. The settings
+ * change the outcome of updates, so a replay recorded while they are changed doesn't match.
+ */
+public interface SimulationMonitorMBean {
+    /**
+     * Gets the number of simulations being monitored.
+     *
+     * @return The number of simulations
+     */
+    int getSimulationCount();
+
+    /**
+     * Gets the number of updates of all simulations together in the last second.
+     *
+     * @return The updates per second
+     */
+    double getTickRate();
+
+    /**
+     * Gets the number of updates of all simulations together per second over the last minute.
+     *
+     * @return The updates per second
+     */
+    double getRollingTickRate();
+
+    /**
+     * Gets the number of updates per simulation in the last second, 60 if they keep up.
+     *
+     * @return The updates per second of a simulation, 0 without simulations
+     */
+    double getTickRatePerSimulation();
+
+    double getAverageTickMicros();
+
+    double getPlayerPhaseMicros();
+
+    double getEnemyPhaseMicros();
+
+    double getProjectilePhaseMicros();
+
+    double getCombatPhaseMicros();
+
+    double getRegionPhaseMicros();
+
+    /**
+     * Gets the number of enemies in the chunks simulated by all simulations.
+     *
+     * @return The number of enemies
+     */
+    long getEnemyCount();
+
+    /**
+     * Gets the number of chunks simulated by all simulations.
+     *
+     * @return The number of chunks
+     */
+    long getActiveChunkCount();
+
+    /**
+     * Gets the number of paths calculated by all simulations in the last second.
+     *
+     * @return The path calculations per second
+     */
+    double getPathSearchRate();
+
+    /**
+     * Gets the average number of tiles a path calculation took from its queue in the last second.
+     *
+     * @return The tiles per calculation, 0 without calculations
+     */
+    double getAverageExpandedTiles();
+
+    /**
+     * Gets the bytes allocated by the threads of the JVM in the last second. Threads that
+     * ended during the second are not counted.
+     *
+     * @return The bytes per second
+     */
+    double getAllocationRate();
+
+    int getPathInterval();
+
+    /**
+     * Sets the number of updates between two path calculations of an enemy.
+     *
+     * @param pathInterval The number of updates, at least 1
+     */
+    void setPathInterval(int pathInterval);
+
+    int getNearRadius();
+
+    /**
+     * Sets the distance to the player within which enemies think every update.
+     *
+     * @param nearRadius The distance in pixels
+     */
+    void setNearRadius(int nearRadius);
+
+    int getMiddleRadius();
+
+    /**
+     * Sets the distance to the player within which enemies think every other update.
+     * Enemies further away think every 4 updates.
+     *
+     * @param middleRadius The distance in pixels
+     */
+    void setMiddleRadius(int middleRadius);
+
+    boolean isLevelOfDetailEnabled();
+
+    /**
+     * Sets whether enemies far from the player think less often.
+     *
+     * @param enabled False to let every enemy think every update
+     */
+    void setLevelOfDetailEnabled(boolean enabled);
+}
@@ -0,0 +1,50 @@
+/**
+ * What a bot in the same JVM sees of its simulation: everything in the chunk of the player.
+ */
+class SimulationView implements BotView {
+    private final Simulation simulation;
+
+    public SimulationView(Simulation simulation) {
+        this.simulation = simulation;
+    }
+
+    @Override
+    public int getPlayerX() {
+        return simulation.getPlayer().getX();
+    }
+
+    @Override
+    public int getPlayerY() {
+        return simulation.getPlayer().getY();
+    }
+
+    @Override
+    public int getChunkX() {
+        return simulation.getRegion().getCurrent().chunkX;
+    }
+
+    @Override
+    public int getChunkY() {
+        return simulation.getRegion().getCurrent().chunkY;
+    }
+
+    @Override
+    public TileType getTile(int column, int row) {
+        return simulation.getChunk().getType(column, row);
+    }
+
+    @Override
+    public int getEnemyCount() {
+        return simulation.getEnemies().size;
+    }
+
+    @Override
+    public int getEnemyX(int n) {
+        return simulation.getEnemies().x[n];
+    }
+
+    @Override
+    public int getEnemyY(int n) {
+        return simulation.getEnemies().y[n];
+    }
+}
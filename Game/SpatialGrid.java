@@ -0,0 +1,293 @@
+import java.util.Arrays;
+
+/**
+ * Uniform grid that buckets points by cell, used to find entities near a location
+ * without checking every entity. Points are referred to by an id (e.g. an index in an
+ * EnemyStore). Cells are hashed into a fixed number of buckets, so the grid works for
+ * any coordinates. Each bucket is a linked list stored in arrays.
+ */
+class SpatialGrid {
+    // Marks the end of a list or an id that isn't in the grid
+    private static final int NONE = -1;
+
+    // Width and height of a cell in pixels
+    private final int cellSize;
+
+    private final int bucketMask;
+    private final int[] bucketHead;
+
+    // Per id: the cell and bucket it is in, its position and its neighbours in the bucket list
+    private int[] cellX;
+    private int[] cellY;
+    private int[] bucket;
+    private int[] pointX;
+    private int[] pointY;
+    private int[] next;
+    private int[] previous;
+
+    // Ids found by the last query
+    int[] results = new int[64];
+
+    // One bit per id, used to sort the results without allocating
+    private long[] resultMarks = new long[0];
+
+    /**
+     * Initiates an empty grid.
+     *
+     * @param cellSize Width and height of a cell in pixels
+     * @param bucketCount Number of buckets, rounded up to a power of two
+     * @param capacity Number of ids the grid can hold before growing
+     */
+    public SpatialGrid(int cellSize, int bucketCount, int capacity) {
+        this.cellSize = cellSize;
+
+        int buckets = Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1;
+        this.bucketMask = buckets - 1;
+        this.bucketHead = new int[buckets];
+        Arrays.fill(bucketHead, NONE);
+
+        cellX = new int[0];
+        cellY = new int[0];
+        bucket = new int[0];
+        pointX = new int[0];
+        pointY = new int[0];
+        next = new int[0];
+        previous = new int[0];
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Makes sure the grid can hold ids up to a capacity.
+     *
+     * @param capacity The number of ids
+     */
+    public void ensureCapacity(int capacity) {
+        int oldCapacity = bucket.length;
+        if (capacity <= oldCapacity) {
+            return;
+        }
+
+        cellX = Arrays.copyOf(cellX, capacity);
+        cellY = Arrays.copyOf(cellY, capacity);
+        bucket = Arrays.copyOf(bucket, capacity);
+        pointX = Arrays.copyOf(pointX, capacity);
+        pointY = Arrays.copyOf(pointY, capacity);
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        Arrays.fill(bucket, oldCapacity, capacity, NONE);
+
+        resultMarks = Arrays.copyOf(resultMarks, (capacity + 63) / 64);
+    }
+
+    /**
+     * Estimates the number of bytes used by the arrays of the grid.
+     *
+     * @return The estimated number of bytes
+     */
+    public long estimateBytes() {
+        // 7 int arrays per id, the bucket heads, the results and the result marks
+        return 7L * 4 * bucket.length + 4L * bucketHead.length
+            + 4L * results.length + 8L * resultMarks.length;
+    }
+
+    /**
+     * Adds a point to the grid.
+     *
+     * @param id The id of the point, which must not be in the grid yet
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of the point
+     */
+    public void insert(int id, int x, int y) {
+        pointX[id] = x;
+        pointY[id] = y;
+        cellX[id] = Math.floorDiv(x, cellSize);
+        cellY[id] = Math.floorDiv(y, cellSize);
+        link(id, bucketOf(cellX[id], cellY[id]));
+    }
+
+    /**
+     * Moves a point. The point only changes bucket if it moved to another cell.
+     *
+     * @param id The id of the point
+     * @param x The new X coordinate of the point
+     * @param y The new Y coordinate of the point
+     */
+    public void update(int id, int x, int y) {
+        pointX[id] = x;
+        pointY[id] = y;
+
+        int newCellX = Math.floorDiv(x, cellSize);
+        int newCellY = Math.floorDiv(y, cellSize);
+
+        if (newCellX == cellX[id] && newCellY == cellY[id]) {
+            return;
+        }
+
+        cellX[id] = newCellX;
+        cellY[id] = newCellY;
+
+        int newBucket = bucketOf(newCellX, newCellY);
+        if (newBucket != bucket[id]) {
+            unlink(id);
+            link(id, newBucket);
+        }
+    }
+
+    /**
+     * Removes a point from the grid.
+     *
+     * @param id The id of the point
+     */
+    public void remove(int id) {
+        unlink(id);
+        bucket[id] = NONE;
+    }
+
+    /**
+     * Gives a point in the grid another id, e.g. when an EnemyStore moves an enemy to another index.
+     *
+     * @param from The current id of the point
+     * @param to The new id, which must not be in the grid
+     */
+    public void changeId(int from, int to) {
+        insert(to, pointX[from], pointY[from]);
+        remove(from);
+    }
+
+    /**
+     * Finds all points within a radius of a location. The ids are put in results.
+     *
+     * @param x The X coordinate of the centre of the search
+     * @param y The Y coordinate of the centre of the search
+     * @param radius The maximum distance of a point to the centre
+     * @return The number of ids put in results
+     */
+    public int queryRadius(int x, int y, int radius) {
+        int count = 0;
+        long radiusSquared = (long) radius * radius;
+
+        int minCellX = Math.floorDiv(x - radius, cellSize);
+        int maxCellX = Math.floorDiv(x + radius, cellSize);
+        int minCellY = Math.floorDiv(y - radius, cellSize);
+        int maxCellY = Math.floorDiv(y + radius, cellSize);
+
+        for (int cy = minCellY; cy <= maxCellY; cy++) {
+            for (int cx = minCellX; cx <= maxCellX; cx++) {
+                for (int id = bucketHead[bucketOf(cx, cy)]; id != NONE; id = next[id]) {
+                    // Other cells can share the bucket, so skip points of other cells
+                    if (cellX[id] != cx || cellY[id] != cy) {
+                        continue;
+                    }
+
+                    if (distanceSquared(id, x, y) > radiusSquared) {
+                        continue;
+                    }
+
+                    if (count == results.length) {
+                        results = Arrays.copyOf(results, count * 2);
+                    }
+                    results[count] = id;
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Sorts the ids of the last query from low to high.
+     * Sets a bit for every id and reads the bits back in order, so it takes time
+     * proportional to the number of results plus the range of ids divided by 64.
+     *
+     * @param count The number of ids in results
+     */
+    public void sortResults(int count) {
+        if (count < 2) {
+            return;
+        }
+
+        int minWord = Integer.MAX_VALUE;
+        int maxWord = 0;
+
+        for (int n = 0; n < count; n++) {
+            int word = results[n] >>> 6;
+            resultMarks[word] |= 1L << results[n];
+
+            minWord = Math.min(minWord, word);
+            maxWord = Math.max(maxWord, word);
+        }
+
+        int n = 0;
+        for (int word = minWord; word <= maxWord; word++) {
+            long bits = resultMarks[word];
+            resultMarks[word] = 0;
+
+            while (bits != 0) {
+                results[n] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                n++;
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Calculates the squared distance of a point to a location.
+     *
+     * @param id The id of the point
+     * @param x The X coordinate of the location
+     * @param y The Y coordinate of the location
+     * @return The squared distance
+     */
+    public long distanceSquared(int id, int x, int y) {
+        long distanceX = pointX[id] - x;
+        long distanceY = pointY[id] - y;
+
+        return distanceX * distanceX + distanceY * distanceY;
+    }
+
+    /**
+     * Gets the bucket of a cell.
+     *
+     * @param cx The X coordinate of the cell
+     * @param cy The Y coordinate of the cell
+     * @return The index of the bucket
+     */
+    private int bucketOf(int cx, int cy) {
+        return (cx * 73856093 ^ cy * 19349663) & bucketMask;
+    }
+
+    /**
+     * Adds an id to the front of the list of a bucket.
+     *
+     * @param id The id
+     * @param newBucket The bucket
+     */
+    private void link(int id, int newBucket) {
+        bucket[id] = newBucket;
+        previous[id] = NONE;
+        next[id] = bucketHead[newBucket];
+
+        if (next[id] != NONE) {
+            previous[next[id]] = id;
+        }
+        bucketHead[newBucket] = id;
+    }
+
+    /**
+     * Removes an id from the list of its bucket.
+     *
+     * @param id The id
+     */
+    private void unlink(int id) {
+        if (previous[id] != NONE) {
+            next[previous[id]] = next[id];
+        } else {
+            bucketHead[bucket[id]] = next[id];
+        }
+
+        if (next[id] != NONE) {
+            previous[next[id]] = previous[id];
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Benchmarks of the spatial grid: radius queries ("grid") and areas of interest ("interest").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark grid".
+ */
+class SpatialGridBenchmark {
+    /**
+     * Measures radius queries on the spatial grid against checking every point,
+     * for a growing number of points spread over a growing area with the same density.
+     */
+    static void benchmarkGrid() {
+        int[] pointCounts = {1000, 10000, 100000, 1000000};
+        int queries = 100000;
+        int radius = 50;
+
+        System.out.println(" points  grid ns/query  scan ns/query  found/query");
+
+        for (int pointCount : pointCounts) {
+            // Keep on average one point per tile
+            int side = (int) Math.sqrt(pointCount) * GamePanel.TILESIZE;
+
+            Random random = new Random(42);
+            int[] pointX = new int[pointCount];
+            int[] pointY = new int[pointCount];
+            SpatialGrid grid = new SpatialGrid(GamePanel.TILESIZE, pointCount, pointCount);
+
+            for (int i = 0; i < pointCount; i++) {
+                pointX[i] = random.nextInt(side);
+                pointY[i] = random.nextInt(side);
+                grid.insert(i, pointX[i], pointY[i]);
+            }
+
+            long found = 0;
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                found += grid.queryRadius(random.nextInt(side), random.nextInt(side), radius);
+            }
+            long gridNanos = (System.nanoTime() - start) / queries;
+
+            // Checking every point is slow, so run fewer queries
+            int scanQueries = Math.max(10, queries / (pointCount / 1000));
+            start = System.nanoTime();
+            for (int q = 0; q < scanQueries; q++) {
+                int x = random.nextInt(side);
+                int y = random.nextInt(side);
+
+                for (int i = 0; i < pointCount; i++) {
+                    long distanceX = pointX[i] - x;
+                    long distanceY = pointY[i] - y;
+                    if (distanceX * distanceX + distanceY * distanceY <= (long) radius * radius) {
+                        found++;
+                    }
+                }
+            }
+            long scanNanos = (System.nanoTime() - start) / scanQueries;
+
+            System.out.printf("%7d %14d %14d %12.1f%n",
+                pointCount, gridNanos, scanNanos, (double) found / (queries + scanQueries));
+        }
+    }
+
+    /**
+     * Measures updating the areas of interest of 100 observers walking around a chunk with
+     * a growing number of enemies, compared to checking the distance of every enemy for every
+     * observer. The view radius shrinks as the enemies get denser, so about as many enemies
+     * are in view each time. Checks afterwards that every area holds exactly the enemies within
+     * its radius. Prints the bytes allocated per update, which only come from arrays growing
+     * to the most enemies an area has had in view.
+     *
+     * @return True if every area matched the enemies within its radius
+     */
+    static boolean benchmarkInterest() {
+        int[] enemyCounts = {1000, 5000, 20000, 50000};
+        int observerCount = 100;
+        int rounds = 60;
+        int chunkPixels = GamePanel.CHUNKWIDTH * GamePanel.TILESIZE;
+        boolean allMatch = true;
+
+        // Counts the changes, as a listener sending them would have to
+        long[] events = new long[3];
+        InterestListener counter = new InterestListener() {
+            @Override
+            public void entityEntered(int id) {
+                events[0]++;
+            }
+
+            @Override
+            public void entityUpdated(int id, int changed, int deltaX, int deltaY) {
+                events[1]++;
+            }
+
+            @Override
+            public void entityLeft(int id) {
+                events[2]++;
+            }
+        };
+
+        System.out.println("enemies  radius  in view  changes/update  area ns/update  scan ns/update  bytes/update  matches");
+
+        for (int enemyCount : enemyCounts) {
+            int radius = (int) (64 * Math.sqrt(1000.0 / enemyCount));
+
+            Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+            ActiveRegion region = simulation.getRegion();
+            EnemyStore enemies = simulation.getEnemies();
+            Random random = new Random(42);
+
+            AreaOfInterest[] areas = new AreaOfInterest[observerCount];
+            int[] observerX = new int[observerCount];
+            int[] observerY = new int[observerCount];
+            for (int n = 0; n < observerCount; n++) {
+                areas[n] = new AreaOfInterest(radius);
+                observerX[n] = radius + random.nextInt(chunkPixels - 2 * radius);
+                observerY[n] = radius + random.nextInt(chunkPixels - 2 * radius);
+            }
+
+            long areaNanos = 0;
+            long scanNanos = 0;
+            long inView = 0;
+            long allocated = 0;
+            Arrays.fill(events, 0);
+
+            for (int round = 0; round < rounds; round++) {
+                simulation.tick();
+
+                // Observers drift a few pixels per update
+                for (int n = 0; n < observerCount; n++) {
+                    observerX[n] = Math.max(radius, Math.min(chunkPixels - radius, observerX[n] + random.nextInt(9) - 4));
+                    observerY[n] = Math.max(radius, Math.min(chunkPixels - radius, observerY[n] + random.nextInt(9) - 4));
+                }
+
+                long allocatedBefore = Benchmark.allocatedBytes();
+                long start = System.nanoTime();
+                for (int n = 0; n < observerCount; n++) {
+                    areas[n].update(region, region.getCurrent(), observerX[n], observerY[n], counter);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                // The first rounds fill the areas and grow their arrays
+                if (round >= rounds / 2) {
+                    areaNanos += elapsed;
+                    allocated += Benchmark.allocatedBytes() - allocatedBefore;
+                }
+
+                start = System.nanoTime();
+                long found = 0;
+                for (int n = 0; n < observerCount; n++) {
+                    for (int i = 0; i < enemies.size; i++) {
+                        long distanceX = enemies.centreX(i) - observerX[n];
+                        long distanceY = enemies.centreY(i) - observerY[n];
+                        if (distanceX * distanceX + distanceY * distanceY <= (long) radius * radius) {
+                            found++;
+                        }
+                    }
+                }
+                if (round >= rounds / 2) {
+                    scanNanos += System.nanoTime() - start;
+                    inView += found;
+                }
+            }
+
+            boolean match = true;
+            for (int n = 0; n < observerCount; n++) {
+                match &= matchesEnemiesInView(areas[n], enemies, observerX[n], observerY[n], radius);
+            }
+            allMatch &= match;
+
+            long measured = (long) observerCount * (rounds - rounds / 2);
+            System.out.printf("%7d %7d %8.1f %15.1f %15d %15d %13.1f %8s%n",
+                enemyCount, radius, (double) inView / measured,
+                (double) (events[0] + events[1] + events[2]) / rounds / observerCount,
+                areaNanos / measured, scanNanos / measured, (double) allocated / measured, match);
+        }
+
+        return allMatch;
+    }
+
+    /**
+     * Checks that an area of interest holds exactly the enemies of a store within its radius,
+     * with their current values.
+     *
+     * @param area The area, updated for the observer
+     * @param enemies The enemies of the chunk of the observer
+     * @param observerX The X coordinate of the observer
+     * @param observerY The Y coordinate of the observer
+     * @param radius The view radius
+     * @return True if the area holds the same enemies
+     */
+    private static boolean matchesEnemiesInView(AreaOfInterest area, EnemyStore enemies,
+        int observerX, int observerY, int radius) {
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < enemies.size; i++) {
+            long distanceX = enemies.centreX(i) - observerX;
+            long distanceY = enemies.centreY(i) - observerY;
+
+            if (distanceX * distanceX + distanceY * distanceY <= (long) radius * radius) {
+                expected.add(enemies.typeId[i] + "," + enemies.x[i] + "," + enemies.y[i] + ","
+                    + Math.max(0, enemies.hp[i]) + "," + enemies.sprite[i]);
+            }
+        }
+
+        ArrayList<String> actual = new ArrayList<String>();
+        for (int n = 0; n < area.size(); n++) {
+            int id = area.getId(n);
+            actual.add(area.getType(id) + "," + area.getX(id) + "," + area.getY(id) + ","
+                + area.getHp(id) + "," + area.getSprite(id));
+        }
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+
+        return expected.equals(actual);
+    }
+}
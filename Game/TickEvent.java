@@ -0,0 +1,50 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of one update of a simulation, from its start to its end, with the
+ * time each phase of the update took. Enabled in game.jfc, summarised by FlightRecordingAnalyzer.
+ */
+@Name("cbl.Tick")
+@Label("Update")
+@Category({"CBL Game", "Simulation"})
+@Description("One update of a simulation and the time of each phase")
+@StackTrace(false)
+class TickEvent extends jdk.jfr.Event {
+    @Label("Update Number")
+    long tick;
+
+    @Label("Enemies")
+    int enemies;
+
+    @Label("Switched Chunk")
+    boolean switchedChunk;
+
+    @Label("Player")
+    @Description("Moving the player and checking the chunk borders")
+    @Timespan(Timespan.NANOSECONDS)
+    long playerNanos;
+
+    @Label("Enemies")
+    @Description("Deciding and applying the moves of the enemies of the current chunk")
+    @Timespan(Timespan.NANOSECONDS)
+    long enemyNanos;
+
+    @Label("Projectiles")
+    @Timespan(Timespan.NANOSECONDS)
+    long projectileNanos;
+
+    @Label("Combat")
+    @Description("Enemies attacking the player and the player attacking enemies")
+    @Timespan(Timespan.NANOSECONDS)
+    long combatNanos;
+
+    @Label("Region")
+    @Description("Simulating the chunks around the current chunk")
+    @Timespan(Timespan.NANOSECONDS)
+    long regionNanos;
+}
@@ -1,5 +1,4 @@
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import javax.imageio.ImageIO;
 
@@ -20,19 +19,32 @@ class Tile {
     }
 
     /**
-     * Gets the image of the tile.
+     * Gets the image of the tile. Recorded as an AssetLoadEvent when the flight recorder
+     * records it.
      * 
      * @return The BufferedImage texture of the tile
      */
     public BufferedImage getTileImage() {
+        AssetLoadEvent event = new AssetLoadEvent();
+        event.begin();
+
         BufferedImage image;
 
         try {
-            image = ImageIO.read(new File(type.image));
+            image = ImageIO.read(ResourceRoot.get().open(type.image));
         } catch (IOException e) {
             // Unable to load in image, return null
             System.out.println(e);
-            return null;
+            image = null;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = AssetLoadEvent.KIND_TILE;
+            event.name = type.image;
+            event.images = image != null ? 1 : 0;
+            event.bytes = image != null ? 4L * image.getWidth() * image.getHeight() : 0;
+            event.commit();
         }
 
         return image;
@@ -0,0 +1,548 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * Holds the tiles and walls of chunks outside the heap, shared by every simulation in the JVM.
+ * The tiles are kept in slots of direct buffers (pages), added as they are needed up to a
+ * maximum. A page table finds the slot of a chunk by its world, coordinates and revision.
+ * Pinned chunks keep their slot. When every page is full, the slot of the chunk that was
+ * unpinned longest ago is given to the new chunk, and the old chunk is paged in from its file
+ * again when it is pinned the next time. The store keeps no objects per chunk, so its heap
+ * is the same few arrays however much of the world is resident.
+ *
+ * <p>A revision replaced because its file changed is retired: if it is paged in, its tiles
+ * are copied into its handle, so it is never paged in from the newer file. A chunk whose file
+ * changed or was removed while it had given up its slot can't get its tiles back; it is paged
+ * in with the tiles of the file, or with no tiles, and this is reported and counted. Used from any thread: chunk
+ * files are read outside the lock of the store, and handles are pointed at their slot
+ * through one volatile reference, so readers don't need the lock.
+ */
+class TileStore {
+    // Bytes of a chunk: the walls, then one byte per tile, see ChunkTiles
+    static final int SLOT_BYTES = WallMask.BYTES + GamePanel.CHUNKWIDTH * GamePanel.CHUNKHEIGHT;
+
+    // Chunks per page, so a page is 16 KB
+    static final int SLOTS_PER_PAGE = 128;
+
+    // Pages of the store of the JVM: 8192 chunks in 1 MB
+    static final int DEFAULT_MAX_PAGES = 64;
+
+    private static final TileStore instance =
+        new TileStore(DEFAULT_MAX_PAGES, new ChunkLoader()::loadChunk);
+
+    // The tiles of a chunk whose file is gone
+    private static final TileType[][] NO_TILES = new TileType[GamePanel.CHUNKHEIGHT][GamePanel.CHUNKWIDTH];
+
+    // Reads the tiles of a chunk by its name, to page in a chunk that gave up its slot
+    private final Function<String, TileType[][]> source;
+
+    private final ByteBuffer[] pages;
+    private int pageCount = 0;
+
+    // The key of the chunk in every slot that is used, and how often it is pinned
+    private final long[] slotKeys;
+    private final int[] pins;
+
+    // Unpinned chunks from the one unpinned longest ago to the one unpinned last, linked by slot
+    private final int[] older;
+    private final int[] newer;
+    private int oldest = -1;
+    private int newest = -1;
+
+    // Slots of added pages that are free
+    private final int[] freeSlots;
+    private int freeCount = 0;
+
+    // The page table: open addressing from the key of a chunk to its slot, -1 if empty
+    private final long[] tableKeys;
+    private final int[] tableSlots;
+    private final int tableMask;
+
+    // Numbers given to worlds for the keys, and the revision given to the next chunk added
+    private final HashMap<String, Integer> worlds = new HashMap<String, Integer>();
+    private int revision = 0;
+
+    // Metrics
+    private long pinCount = 0;
+    private long pageInCount = 0;
+    private long evictionCount = 0;
+    private long stalePageInCount = 0;
+
+    /**
+     * Initiates an empty store. Its pages are added when they are needed.
+     *
+     * @param maxPages The most pages the store holds
+     * @param source Reads the tiles of a chunk by its name, or gives null if it doesn't exist
+     */
+    TileStore(int maxPages, Function<String, TileType[][]> source) {
+        this.source = source;
+
+        int maxSlots = maxPages * SLOTS_PER_PAGE;
+        pages = new ByteBuffer[maxPages];
+        slotKeys = new long[maxSlots];
+        pins = new int[maxSlots];
+        older = new int[maxSlots];
+        newer = new int[maxSlots];
+        freeSlots = new int[maxSlots];
+
+        // At most half of the table is used, so probes stay short
+        int tableSize = Integer.highestOneBit(Math.max(2, maxSlots)) * 4;
+        tableKeys = new long[tableSize];
+        tableSlots = new int[tableSize];
+        tableMask = tableSize - 1;
+        Arrays.fill(tableSlots, -1);
+    }
+
+    /**
+     * Gets the store of the JVM.
+     *
+     * @return The store
+     */
+    public static TileStore get() {
+        return instance;
+    }
+
+    public int getSlotCount() {
+        return slotKeys.length;
+    }
+
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Gets the number of bytes of the pages, which are outside the heap.
+     *
+     * @return The number of bytes
+     */
+    public synchronized long getOffHeapBytes() {
+        return (long) pageCount * SLOTS_PER_PAGE * SLOT_BYTES;
+    }
+
+    /**
+     * Gets the number of chunks in the store.
+     *
+     * @return The number of chunks, pinned or not
+     */
+    public synchronized int getChunkCount() {
+        return pageCount * SLOTS_PER_PAGE - freeCount;
+    }
+
+    public synchronized long getPinCount() {
+        return pinCount;
+    }
+
+    /**
+     * Gets the number of times a chunk was pinned after it gave up its slot, so its file was read again.
+     *
+     * @return The number of page ins
+     */
+    public synchronized long getPageInCount() {
+        return pageInCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the number of times a chunk was paged in from a file that changed or was removed
+     * since the chunk was added, so it didn't get its own tiles back.
+     *
+     * @return The number of page ins
+     */
+    public synchronized long getStalePageInCount() {
+        return stalePageInCount;
+    }
+
+    /**
+     * Puts the tiles of a chunk in the store. The chunk isn't pinned. Adding a chunk again,
+     * e.g. because its file changed, gives a new handle with a new revision, and the old
+     * handle keeps its tiles.
+     *
+     * @param name The name of the chunk, e.g. OW_0_0
+     * @param tiles The tiles of the chunk
+     * @return The handle to read the tiles through
+     * @throws IllegalArgumentException If the name isn't a world and two coordinates
+     * @throws IllegalStateException If every slot is pinned
+     */
+    public synchronized ChunkTiles add(String name, TileType[][] tiles) {
+        // Revisions wrap around, so skip one a revision of the chunk in the store still has
+        long key = key(name, revision);
+        while (find(key) >= 0) {
+            revision = (revision + 1) & 0xFF;
+            key = key(name, revision);
+        }
+        revision = (revision + 1) & 0xFF;
+
+        ChunkTiles handle = new ChunkTiles(this, name, key);
+
+        int slot = allocate();
+        write(handle, slot, tiles != null ? tiles : NO_TILES);
+        handle.checksum = checksum(slot);
+        linkNewest(slot);
+
+        return handle;
+    }
+
+    /**
+     * Retires a revision of a chunk that was replaced or removed because its file changed.
+     * If its tiles are paged in they are copied into the handle, so simulations that still
+     * have the revision get its own tiles when it is paged in again, not those of the file.
+     *
+     * @param handle The handle of the revision
+     */
+    public synchronized void retire(ChunkTiles handle) {
+        int slot = find(handle.key);
+
+        if (slot >= 0 && handle.retiredTiles == null) {
+            byte[] copy = new byte[SLOT_BYTES];
+            pages[slot / SLOTS_PER_PAGE].get(slot % SLOTS_PER_PAGE * SLOT_BYTES, copy, 0, SLOT_BYTES);
+            handle.retiredTiles = copy;
+        }
+    }
+
+    /**
+     * Keeps the tiles of a chunk in the store until they are unpinned as often, paging them in
+     * if they gave up their slot: from the copy of a retired revision, or else from the chunk
+     * file. The file is read without holding the lock of the store, so other threads can use
+     * the store meanwhile. A file that changed or is gone since the chunk was added is reported
+     * and counted, see getStalePageInCount.
+     *
+     * @param handle The handle of the chunk
+     * @throws IllegalStateException If every slot is pinned
+     */
+    public void pin(ChunkTiles handle) {
+        if (pinPagedIn(handle)) {
+            return;
+        }
+
+        byte[] retiredTiles;
+        synchronized (this) {
+            retiredTiles = handle.retiredTiles;
+        }
+
+        TileType[][] tiles = retiredTiles == null ? source.apply(handle.name) : null;
+
+        synchronized (this) {
+            // Another thread may have paged the chunk in while the file was read
+            if (pinPagedIn(handle)) {
+                return;
+            }
+
+            int slot = allocate();
+
+            if (retiredTiles != null) {
+                pages[slot / SLOTS_PER_PAGE].put(slot % SLOTS_PER_PAGE * SLOT_BYTES, retiredTiles, 0, SLOT_BYTES);
+                point(handle, slot);
+            } else if (tiles == null) {
+                write(handle, slot, NO_TILES);
+                stalePageInCount++;
+                System.out.println("The file of chunk " + handle.name + " is gone, it is paged in without tiles");
+            } else {
+                write(handle, slot, tiles);
+
+                if (checksum(slot) != handle.checksum) {
+                    stalePageInCount++;
+                    System.out.println("The file of chunk " + handle.name
+                        + " changed since it was loaded, it is paged in with the tiles of the file");
+                }
+            }
+            pageInCount++;
+
+            pins[slot]++;
+            pinCount++;
+        }
+    }
+
+    /**
+     * Pins the tiles of a chunk if they are in the store.
+     *
+     * @param handle The handle of the chunk
+     * @return True if they were pinned, false if they have to be paged in
+     */
+    private synchronized boolean pinPagedIn(ChunkTiles handle) {
+        int slot = find(handle.key);
+
+        if (slot < 0) {
+            return false;
+        }
+
+        if (pins[slot] == 0) {
+            unlink(slot);
+        }
+
+        pins[slot]++;
+        pinCount++;
+
+        return true;
+    }
+
+    /**
+     * Undoes one pin of the tiles of a chunk. Once nothing pins them, their slot can be given
+     * to another chunk.
+     *
+     * @param handle The handle of the chunk
+     * @throws IllegalStateException If the chunk isn't pinned
+     */
+    public synchronized void unpin(ChunkTiles handle) {
+        int slot = find(handle.key);
+
+        if (slot < 0 || pins[slot] == 0) {
+            throw new IllegalStateException("Chunk " + handle.name + " isn't pinned");
+        }
+
+        pins[slot]--;
+
+        if (pins[slot] == 0) {
+            linkNewest(slot);
+        }
+    }
+
+    /**
+     * Checks if the tiles of a chunk are in the store.
+     *
+     * @param handle The handle of the chunk
+     * @return True if they are paged in
+     */
+    public synchronized boolean isPagedIn(ChunkTiles handle) {
+        return find(handle.key) >= 0;
+    }
+
+    /**
+     * Makes the key of a chunk in the page table: 12 bits for the world, 8 for the revision
+     * and 22 for each coordinate.
+     *
+     * @param name The name of the chunk, e.g. OW_0_0
+     * @param chunkRevision The revision of the chunk
+     * @return The key
+     * @throws IllegalArgumentException If the name isn't a world and two coordinates
+     */
+    private long key(String name, int chunkRevision) {
+        int second = name.lastIndexOf('_');
+        int first = second > 0 ? name.lastIndexOf('_', second - 1) : -1;
+
+        if (first <= 0) {
+            throw new IllegalArgumentException("Not the name of a chunk: " + name);
+        }
+
+        int chunkX;
+        int chunkY;
+        try {
+            chunkX = Integer.parseInt(name.substring(first + 1, second));
+            chunkY = Integer.parseInt(name.substring(second + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not the name of a chunk: " + name);
+        }
+
+        String world = name.substring(0, first);
+        Integer worldId = worlds.get(world);
+        if (worldId == null) {
+            worldId = worlds.size();
+            worlds.put(world, worldId);
+        }
+
+        return (long) (worldId & 0xFFF) << 52 | (long) chunkRevision << 44
+            | (chunkX & 0x3FFFFFL) << 22 | chunkY & 0x3FFFFFL;
+    }
+
+    /**
+     * Gets a free slot, adding a page if there are none or else taking the slot of the chunk
+     * unpinned longest ago.
+     *
+     * @return The slot
+     * @throws IllegalStateException If every slot is pinned
+     */
+    private int allocate() {
+        if (freeCount == 0 && pageCount < pages.length) {
+            pages[pageCount] = ByteBuffer.allocateDirect(SLOTS_PER_PAGE * SLOT_BYTES)
+                .order(ByteOrder.nativeOrder());
+
+            // Push in reverse, so the slots are used in order
+            for (int n = SLOTS_PER_PAGE - 1; n >= 0; n--) {
+                freeSlots[freeCount++] = pageCount * SLOTS_PER_PAGE + n;
+            }
+            pageCount++;
+        }
+
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+
+        if (oldest < 0) {
+            throw new IllegalStateException("Every one of the " + slotKeys.length + " chunk slots is pinned");
+        }
+
+        int slot = oldest;
+        unlink(slot);
+        remove(slotKeys[slot]);
+        evictionCount++;
+
+        return slot;
+    }
+
+    /**
+     * Writes the tiles of a chunk to a slot and points the handle and the page table at it.
+     *
+     * @param handle The handle of the chunk
+     * @param slot The slot, free
+     * @param tiles The tiles
+     */
+    private void write(ChunkTiles handle, int slot, TileType[][] tiles) {
+        ByteBuffer page = pages[slot / SLOTS_PER_PAGE];
+        int offset = slot % SLOTS_PER_PAGE * SLOT_BYTES;
+
+        WallMask.writeRows(tiles, page, offset);
+
+        int position = offset + WallMask.BYTES;
+        for (int row = 0; row < GamePanel.CHUNKHEIGHT; row++) {
+            for (int column = 0; column < GamePanel.CHUNKWIDTH; column++) {
+                TileType type = tiles[row][column];
+                page.put(position++, (byte) (type == null ? 0 : type.ordinal() + 1));
+            }
+        }
+
+        point(handle, slot);
+    }
+
+    /**
+     * Points the handle and the page table at a slot that holds the tiles of the chunk.
+     * The handle is pointed at a new view of the slot after the tiles are written, so a reader
+     * that sees the view sees the tiles. The views of pinned chunks never change, as their
+     * slots aren't given away.
+     *
+     * @param handle The handle of the chunk
+     * @param slot The slot
+     */
+    private void point(ChunkTiles handle, int slot) {
+        handle.rows = pages[slot / SLOTS_PER_PAGE].slice(slot % SLOTS_PER_PAGE * SLOT_BYTES, SLOT_BYTES)
+            .order(ByteOrder.nativeOrder());
+        slotKeys[slot] = handle.key;
+        pins[slot] = 0;
+        insert(handle.key, slot);
+    }
+
+    /**
+     * Calculates a checksum of the walls and tiles in a slot.
+     *
+     * @param slot The slot
+     * @return The checksum
+     */
+    private long checksum(int slot) {
+        ByteBuffer page = pages[slot / SLOTS_PER_PAGE];
+        int offset = slot % SLOTS_PER_PAGE * SLOT_BYTES;
+        long sum = 0;
+
+        for (int n = 0; n < SLOT_BYTES; n += 8) {
+            sum = (sum + page.getLong(offset + n)) * 0x9E3779B97F4A7C15L;
+        }
+
+        return sum;
+    }
+
+    /**
+     * Adds an unpinned slot as the one unpinned last.
+     *
+     * @param slot The slot
+     */
+    private void linkNewest(int slot) {
+        older[slot] = newest;
+        newer[slot] = -1;
+
+        if (newest >= 0) {
+            newer[newest] = slot;
+        } else {
+            oldest = slot;
+        }
+        newest = slot;
+    }
+
+    /**
+     * Takes a slot out of the unpinned slots.
+     *
+     * @param slot The slot
+     */
+    private void unlink(int slot) {
+        if (older[slot] >= 0) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+
+        if (newer[slot] >= 0) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+    }
+
+    /**
+     * Finds the slot of a key in the page table.
+     *
+     * @param key The key
+     * @return The slot, or -1 if the key isn't in the table
+     */
+    private int find(long key) {
+        for (int n = hash(key); tableSlots[n] >= 0; n = (n + 1) & tableMask) {
+            if (tableKeys[n] == key) {
+                return tableSlots[n];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds a key that isn't in the page table yet.
+     *
+     * @param key The key
+     * @param slot The slot of the key
+     */
+    private void insert(long key, int slot) {
+        int n = hash(key);
+        while (tableSlots[n] >= 0) {
+            n = (n + 1) & tableMask;
+        }
+
+        tableKeys[n] = key;
+        tableSlots[n] = slot;
+    }
+
+    /**
+     * Removes a key from the page table, moving the keys after it back so they are still found.
+     *
+     * @param key The key
+     */
+    private void remove(long key) {
+        int hole = hash(key);
+        while (tableKeys[hole] != key || tableSlots[hole] < 0) {
+            hole = (hole + 1) & tableMask;
+        }
+        tableSlots[hole] = -1;
+
+        for (int n = (hole + 1) & tableMask; tableSlots[n] >= 0; n = (n + 1) & tableMask) {
+            int home = hash(tableKeys[n]);
+
+            // A key can move to the hole if the hole lies between its home and where it is
+            if (((n - home) & tableMask) >= ((n - hole) & tableMask)) {
+                tableKeys[hole] = tableKeys[n];
+                tableSlots[hole] = tableSlots[n];
+                tableSlots[n] = -1;
+                hole = n;
+            }
+        }
+    }
+
+    /**
+     * Gets the first place in the page table to look for a key.
+     *
+     * @param key The key
+     * @return The place
+     */
+    private int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & tableMask;
+    }
+}
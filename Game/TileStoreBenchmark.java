@@ -0,0 +1,291 @@
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of the tile store: the heap taken by its chunks, paging chunks in and pinning
+ * chunks from several threads ("tiles").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark tiles".
+ */
+class TileStoreBenchmark {
+    /**
+     * Puts 1k to 100k generated chunks in a tile store, more than it holds, and compares the
+     * heap they take with keeping their tiles in arrays. The store only keeps the handles of
+     * 500 chunks on the heap, to pin them again. Then pins chunks that may have
+     * given up their slot and checks that they have the right tiles, and checks that a store
+     * whose slots are all pinned refuses more chunks until one is unpinned. Then lets
+     * threads pin chunks at the same time.
+     *
+     * @return True if every chunk had the right tiles and the full store behaved
+     */
+    static boolean benchmarkTiles() {
+        int[] chunkCounts = {1000, 10000, 100000};
+        int keptCount = 500;
+        Runtime runtime = Runtime.getRuntime();
+        boolean allRight = true;
+
+        System.out.println(" chunks  arrays KB  store KB  off-heap KB  evictions  page ins  ns/pin  ns/page in  right");
+
+        for (int chunkCount : chunkCounts) {
+            // The tiles kept on the heap, as without the store
+            Benchmark.settleHeap();
+            long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+            TileType[][][] arrays = new TileType[chunkCount][][];
+            for (int n = 0; n < chunkCount; n++) {
+                arrays[n] = generateChunk(generatedChunkName(n));
+            }
+
+            Benchmark.settleHeap();
+            long arrayBytes = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+            Reference.reachabilityFence(arrays);
+            arrays = null;
+
+            // The same tiles in a store, keeping the handles of a few chunks to pin them again
+            TileStore store = new TileStore(TileStore.DEFAULT_MAX_PAGES, TileStoreBenchmark::generateChunk);
+            ChunkTiles[] kept = new ChunkTiles[keptCount];
+
+            Benchmark.settleHeap();
+            usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+            for (int n = 0; n < chunkCount; n++) {
+                String name = generatedChunkName(n);
+                ChunkTiles tiles = store.add(name, generateChunk(name));
+
+                if (n % (chunkCount / keptCount) == 0) {
+                    kept[n / (chunkCount / keptCount)] = tiles;
+                }
+            }
+
+            Benchmark.settleHeap();
+            long storeBytes = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+
+            // Pinning chunks that are in the store
+            ChunkTiles last = kept[keptCount - 1];
+            int pinRepetitions = 1_000_000;
+            long start = System.nanoTime();
+            for (int n = 0; n < pinRepetitions; n++) {
+                last.pin();
+                last.unpin();
+            }
+            long pinNanos = (System.nanoTime() - start) / pinRepetitions;
+
+            // Pinning the kept chunks, the first ones gave up their slot if the store was full
+            long pageIns = store.getPageInCount();
+            start = System.nanoTime();
+            boolean right = true;
+            for (ChunkTiles tiles : kept) {
+                tiles.pin();
+                right &= hasTiles(tiles, generateChunk(tiles.name));
+                tiles.unpin();
+            }
+            long keptNanos = System.nanoTime() - start;
+            pageIns = store.getPageInCount() - pageIns;
+            allRight &= right;
+
+            System.out.printf("%7d %10d %9d %12d %10d %9d %7d %11s %6b%n",
+                chunkCount, arrayBytes / 1024, storeBytes / 1024, store.getOffHeapBytes() / 1024,
+                store.getEvictionCount(), pageIns, pinNanos,
+                pageIns > 0 ? String.valueOf(keptNanos / pageIns) : "-", right);
+        }
+
+        // A store of one page with every slot pinned
+        TileStore small = new TileStore(1, TileStoreBenchmark::generateChunk);
+        ChunkTiles[] pinned = new ChunkTiles[TileStore.SLOTS_PER_PAGE];
+        for (int n = 0; n < pinned.length; n++) {
+            String name = generatedChunkName(n);
+            pinned[n] = small.add(name, generateChunk(name));
+            pinned[n].pin();
+        }
+
+        String extra = generatedChunkName(pinned.length);
+        boolean refused = false;
+        try {
+            small.add(extra, generateChunk(extra));
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+
+        pinned[7].unpin();
+        ChunkTiles added = small.add(extra, generateChunk(extra));
+        boolean evicted = !pinned[7].isPagedIn() && added.isPagedIn() && pinned[8].isPagedIn()
+            && hasTiles(added, generateChunk(extra)) && hasTiles(pinned[8], generateChunk(pinned[8].name));
+
+        System.out.printf("full store: refused while pinned: %b, gave the unpinned slot to the new chunk: %b%n",
+            refused, evicted);
+
+        return allRight && refused && evicted & checkConcurrentPins() & checkRevisions();
+    }
+
+    /**
+     * Lets a few threads pin, read and unpin chunks of a store of one page at the same time, so
+     * chunks are paged in and give up their slot while other threads read theirs.
+     *
+     * @return True if every chunk read had the right tiles
+     */
+    private static boolean checkConcurrentPins() {
+        TileStore store = new TileStore(1, TileStoreBenchmark::generateChunk);
+        ChunkTiles[] chunks = new ChunkTiles[TileStore.SLOTS_PER_PAGE * 3];
+        TileType[][][] expected = new TileType[chunks.length][][];
+
+        for (int n = 0; n < chunks.length; n++) {
+            String name = generatedChunkName(n);
+            expected[n] = generateChunk(name);
+            chunks[n] = store.add(name, expected[n]);
+        }
+
+        int pinsPerThread = 20000;
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            Random random = new Random(t);
+
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < pinsPerThread; i++) {
+                    int n = random.nextInt(chunks.length);
+
+                    chunks[n].pin();
+                    if (!hasTiles(chunks[n], expected[n])) {
+                        wrong.incrementAndGet();
+                    }
+                    chunks[n].unpin();
+                }
+            });
+            threads[t].start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+
+        System.out.printf("concurrent pins: %d chunks read by %d threads, %d page ins, %d with wrong tiles%n",
+            threads.length * pinsPerThread, threads.length, store.getPageInCount(), wrong.get());
+
+        return wrong.get() == 0;
+    }
+
+    /**
+     * Replaces and removes chunk files while their chunks are in the store, evicts the chunks
+     * and pins them again. Retired revisions must get their own tiles back, not those of the
+     * new file or none, and chunks whose file changed or is gone must be counted.
+     *
+     * @return If every chunk had the tiles it should have
+     */
+    private static boolean checkRevisions() {
+        Map<String, TileType[][]> files = new HashMap<String, TileType[][]>();
+        TileStore store = new TileStore(1, files::get);
+        String[] names = { "REV_0_0", "REV_1_0", "REV_2_0", "REV_3_0" };
+        TileType[][][] original = new TileType[names.length][][];
+        ChunkTiles[] chunks = new ChunkTiles[names.length];
+
+        for (int n = 0; n < names.length; n++) {
+            original[n] = generateChunk(generatedChunkName(n));
+            files.put(names[n], original[n]);
+            chunks[n] = store.add(names[n], original[n]);
+        }
+
+        // Hot reloads: the first file is replaced and the second removed, their revisions retired
+        TileType[][] replacement = generateChunk(generatedChunkName(names.length));
+        files.put(names[0], replacement);
+        ChunkTiles replaced = store.add(names[0], replacement);
+        chunks[0].retire();
+        files.remove(names[1]);
+        chunks[1].retire();
+
+        // Files that change or are removed without a reload
+        TileType[][] changed = generateChunk(generatedChunkName(names.length + 1));
+        files.put(names[2], changed);
+        files.remove(names[3]);
+
+        for (int n = 0; n < TileStore.SLOTS_PER_PAGE; n++) {
+            String name = generatedChunkName(100 + n);
+            store.add(name, generateChunk(name));
+        }
+
+        boolean evicted = !replaced.isPagedIn();
+        for (ChunkTiles chunk : chunks) {
+            evicted &= !chunk.isPagedIn();
+        }
+
+        TileType[][][] expected = { original[0], original[1], changed, new TileType[GamePanel.CHUNKHEIGHT][GamePanel.CHUNKWIDTH] };
+        boolean right = true;
+
+        for (int n = 0; n < chunks.length; n++) {
+            chunks[n].pin();
+            right &= hasTiles(chunks[n], expected[n]);
+            chunks[n].unpin();
+        }
+
+        replaced.pin();
+        right &= hasTiles(replaced, replacement);
+        replaced.unpin();
+
+        System.out.printf("revisions: evicted %b, right tiles %b, %d stale page ins%n",
+            evicted, right, store.getStalePageInCount());
+
+        return evicted && right && store.getStalePageInCount() == 2;
+    }
+
+    /**
+     * Names a chunk of a generated world of 500 chunks wide.
+     *
+     * @param n The number of the chunk
+     * @return The name
+     */
+    private static String generatedChunkName(int n) {
+        return "GEN_" + (n % 500 - 250) + "_" + (n / 500 - 100);
+    }
+
+    /**
+     * Generates the tiles of a chunk from its name, the same every time: mostly grass and
+     * cobblestone, some walls and a few tiles left out.
+     *
+     * @param name The name of the chunk
+     * @return The tiles
+     */
+    private static TileType[][] generateChunk(String name) {
+        Random random = new Random(name.hashCode());
+        TileType[][] tiles = new TileType[GamePanel.CHUNKHEIGHT][GamePanel.CHUNKWIDTH];
+
+        for (TileType[] row : tiles) {
+            for (int column = 0; column < row.length; column++) {
+                int roll = random.nextInt(100);
+                row[column] = roll < 20 ? TileType.Wall : roll < 60 ? TileType.Cobblestone
+                    : roll < 98 ? TileType.Grass : null;
+            }
+        }
+
+        return tiles;
+    }
+
+    /**
+     * Checks that a pinned chunk has the expected tiles and walls.
+     *
+     * @param tiles The chunk
+     * @param expected The expected tiles
+     * @return True if every tile and wall matches
+     */
+    private static boolean hasTiles(ChunkTiles tiles, TileType[][] expected) {
+        for (int row = 0; row < GamePanel.CHUNKHEIGHT; row++) {
+            for (int column = 0; column < GamePanel.CHUNKWIDTH; column++) {
+                TileType type = expected[row][column];
+
+                if (tiles.getType(column, row) != type
+                    || tiles.isWall(column, row) != (type != null && type.isWall)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The wall tiles of a chunk as one bit per tile. Built once when a chunk is loaded,
+ * so collision checks test bits instead of looking up tile types.
+ * Each row of the chunk is one long, with bit n set if the tile in column n is a wall.
+ * The rows are read from a buffer: a view of the slot of the chunk in the TileStore for the
+ * chunks of a world (see ChunkTiles), or a buffer of its own for a mask built from tiles.
+ */
+class WallMask {
+    // Bytes of the rows of a chunk
+    static final int BYTES = 8 * GamePanel.CHUNKHEIGHT;
+
+    /* The rows, from the start of the buffer. Set by TileStore when the tiles are paged in, as one
+     * reference, so a reader on another thread never sees the buffer of one slot with the position of another */
+    volatile ByteBuffer rows;
+
+    /**
+     * Initiates a mask without rows, for ChunkTiles.
+     */
+    WallMask() {
+    }
+
+    /**
+     * Builds the mask of a chunk in a buffer of its own.
+     *
+     * @param chunk The tiles of the chunk
+     */
+    public WallMask(TileType[][] chunk) {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES).order(ByteOrder.nativeOrder());
+        writeRows(chunk, buffer, 0);
+        rows = buffer;
+    }
+
+    /**
+     * Writes the rows of the walls of a chunk to a buffer.
+     *
+     * @param chunk The tiles of the chunk, or null for a chunk without walls
+     * @param buffer The buffer to write to
+     * @param offset The position of the first row
+     */
+    static void writeRows(TileType[][] chunk, ByteBuffer buffer, int offset) {
+        for (int row = 0; row < GamePanel.CHUNKHEIGHT; row++) {
+            long bits = 0;
+
+            for (int column = 0; chunk != null && column < GamePanel.CHUNKWIDTH; column++) {
+                TileType type = chunk[row][column];
+
+                if (type != null && type.isWall) {
+                    bits |= 1L << column;
+                }
+            }
+
+            buffer.putLong(offset + 8 * row, bits);
+        }
+    }
+
+    /**
+     * Checks if a tile is a wall. Tiles outside the chunk are not walls.
+     *
+     * @param column The column of the tile
+     * @param row The row of the tile
+     * @return True if the tile is a wall
+     */
+    public boolean isWall(int column, int row) {
+        if (row < 0 || row >= GamePanel.CHUNKHEIGHT
+            || column < 0 || column >= GamePanel.CHUNKWIDTH) {
+            return false;
+        }
+
+        return (getRow(row) >>> column & 1) != 0;
+    }
+
+    /**
+     * Checks if any tile in a rectangle of tiles is a wall.
+     * The rectangle is clamped to the chunk.
+     *
+     * @param left The column of the left tiles
+     * @param top The row of the top tiles
+     * @param right The column of the right tiles
+     * @param bottom The row of the bottom tiles
+     * @return True if any of the tiles is a wall
+     */
+    public boolean anyWall(int left, int top, int right, int bottom) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(GamePanel.CHUNKWIDTH - 1, right);
+        bottom = Math.min(GamePanel.CHUNKHEIGHT - 1, bottom);
+
+        if (left > right) {
+            return false;
+        }
+
+        // Bits of the columns left up to and including right
+        long columns = (-1L >>> (63 - right + left)) << left;
+
+        for (int row = top; row <= bottom; row++) {
+            if ((getRow(row) & columns) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the walls of a row of the chunk.
+     *
+     * @param row The row
+     * @return The bits of the row, bit n is set if the tile in column n is a wall
+     */
+    public long getRow(int row) {
+        return rows.getLong(8 * row);
+    }
+}
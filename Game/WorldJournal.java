@@ -0,0 +1,538 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Saves the changes made to the world, so they are kept when the game is started again.
+ * The HP of enemies loaded from chunk files (0 if killed) and the state of the player
+ * are appended as records to a journal file. The game thread only puts records in a queue
+ * of fixed size, a background thread writes them to the journal in batches. When the
+ * journal grows too large, the last record of every enemy and of the player is written to
+ * a snapshot file and the journal is emptied, so loading stays fast after long sessions.
+ * Records hold absolute values, so replaying a record twice does no harm.
+ */
+class WorldJournal {
+    // Types of records
+    static final byte RECORD_ENEMY_HP = 1;
+    static final byte RECORD_PLAYER = 2;
+
+    // Journal and snapshot files start with this number and the version of the format
+    private static final int MAGIC = 0x434A524E;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+
+    // Size of a record in a file in bytes, including its type
+    private static final int ENEMY_HP_BYTES = 1 + 2 * 4;
+    private static final int PLAYER_BYTES = 1 + 5 * 4;
+
+    // Ints per record in the queue: the type and up to five values
+    private static final int QUEUE_INTS = 6;
+
+    // Number of records the queue can hold, when it is full new records are dropped
+    static final int QUEUE_CAPACITY = 1 << 15;
+
+    // Time the writer waits for more records before writing a batch
+    static final long FLUSH_INTERVAL_NANOS = 100_000_000L;
+
+    // Number of records in the queue at which the writer is woken up before the interval is over
+    private static final int WAKE_UP_RECORDS = QUEUE_CAPACITY / 2;
+
+    // Size in bytes of the journal at which it is compacted into the snapshot
+    static final long COMPACT_BYTES = 1024 * 1024;
+
+    private final Path journalPath;
+    private final Path snapshotPath;
+
+    // Records waiting to be written. Filled by the game thread, emptied by the writer
+    private final int[] queue;
+    private final int queueMask;
+    private volatile long written = 0;
+    private volatile long read = 0;
+
+    // Whether the writer was woken up for the records in the queue. Set by the game thread, cleared by the writer
+    private volatile boolean wakeUpSignalled = false;
+
+    // Number of records dropped because the queue was full, only used by the game thread
+    private long dropped = 0;
+
+    // State loaded when the journal was opened, only used by the game thread
+    private final HashMap<Integer, Integer> restoredEnemyHp;
+    private final int[] restoredPlayer;
+
+    // Last record of every enemy and of the player, only used by the writer
+    private final HashMap<Integer, Integer> savedEnemyHp = new HashMap<Integer, Integer>();
+    private int[] savedPlayer;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private long journalBytes;
+
+    // Whether the journal is forced to the disk after every batch, or only when compacting and closing
+    private volatile boolean syncEachBatch = true;
+
+    private volatile boolean running = true;
+    private volatile int compactionCount = 0;
+    private volatile long bytesWritten = 0;
+
+    private final Thread writer;
+
+    /**
+     * Opens the journal in a directory, loads the saved state and starts the writer.
+     *
+     * @param directory The directory with the journal and snapshot files, created if needed
+     * @throws IOException If the files can't be read or written
+     */
+    public WorldJournal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        journalPath = directory.resolve("journal.bin");
+        snapshotPath = directory.resolve("snapshot.bin");
+
+        queue = new int[QUEUE_CAPACITY * QUEUE_INTS];
+        queueMask = QUEUE_CAPACITY - 1;
+
+        // Replay the snapshot and then the newer records of the journal
+        readRecords(snapshotPath);
+        long validBytes = readRecords(journalPath);
+
+        restoredEnemyHp = new HashMap<Integer, Integer>(savedEnemyHp);
+        restoredPlayer = savedPlayer == null ? null : savedPlayer.clone();
+
+        channel = FileChannel.open(journalPath,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (validBytes < HEADER_BYTES) {
+            // New journal
+            channel.truncate(0);
+            writeHeader(channel);
+            journalBytes = HEADER_BYTES;
+        } else {
+            // Drop a record that was only partly written when the game stopped
+            channel.truncate(validBytes);
+            journalBytes = validBytes;
+        }
+
+        channel.position(journalBytes);
+
+        writer = new Thread(this::runWriter, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Makes the spawn id of an enemy loaded from a chunk file.
+     * Chunk coordinates from -512 to 511 and up to 4095 enemies per chunk are supported.
+     *
+     * @param chunkX The X coordinate of the chunk the enemy is loaded from
+     * @param chunkY The Y coordinate of the chunk the enemy is loaded from
+     * @param number The number of the enemy in the chunk file, starting at 1
+     * @return The spawn id, never 0
+     */
+    static int spawnId(int chunkX, int chunkY, int number) {
+        return (chunkX & 0x3FF) << 22 | (chunkY & 0x3FF) << 12 | number & 0xFFF;
+    }
+
+    public void setSyncEachBatch(boolean newSyncEachBatch) {
+        syncEachBatch = newSyncEachBatch;
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public int getCompactionCount() {
+        return compactionCount;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getRestoredEnemyCount() {
+        return restoredEnemyHp.size();
+    }
+
+    /**
+     * Gets the number of records in the queue that the writer hasn't written yet.
+     *
+     * @return The number of records
+     */
+    public long getPendingCount() {
+        return written - read;
+    }
+
+    /**
+     * Records the HP of an enemy. Doesn't block or allocate, the record is dropped if the
+     * queue is full. Must only be called from the game thread.
+     *
+     * @param spawnId The spawn id of the enemy
+     * @param hp The HP of the enemy, 0 if it was killed
+     */
+    public void recordEnemyHp(int spawnId, int hp) {
+        long position = written;
+        if (position - read >= QUEUE_CAPACITY) {
+            dropped++;
+            return;
+        }
+
+        int base = (int) (position & queueMask) * QUEUE_INTS;
+        queue[base] = RECORD_ENEMY_HP;
+        queue[base + 1] = spawnId;
+        queue[base + 2] = hp;
+
+        // Publish the record to the writer after filling it in
+        written = position + 1;
+        wakeUpIfFilling(position);
+    }
+
+    /**
+     * Records the state of the player. Doesn't block or allocate, the record is dropped if the
+     * queue is full. Must only be called from the game thread.
+     *
+     * @param chunkX The X coordinate of the chunk the player is in
+     * @param chunkY The Y coordinate of the chunk the player is in
+     * @param player The player
+     */
+    public void recordPlayer(int chunkX, int chunkY, Player player) {
+        long position = written;
+        if (position - read >= QUEUE_CAPACITY) {
+            dropped++;
+            return;
+        }
+
+        int base = (int) (position & queueMask) * QUEUE_INTS;
+        queue[base] = RECORD_PLAYER;
+        queue[base + 1] = chunkX;
+        queue[base + 2] = chunkY;
+        queue[base + 3] = player.getX();
+        queue[base + 4] = player.getY();
+        queue[base + 5] = player.getHP();
+
+        written = position + 1;
+        wakeUpIfFilling(position);
+    }
+
+    /**
+     * Wakes up the writer when the queue is half full or more, so a burst of records
+     * isn't dropped while the writer waits. The writer is woken up once until it has
+     * emptied the queue, so records added while it writes wake it up again.
+     *
+     * @param position The position of the record that was just added
+     */
+    private void wakeUpIfFilling(long position) {
+        if (position - read >= WAKE_UP_RECORDS && !wakeUpSignalled) {
+            wakeUpSignalled = true;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Checks if a living player was saved.
+     *
+     * @return True if the player can be restored
+     */
+    public boolean hasRestoredPlayer() {
+        return restoredPlayer != null && restoredPlayer[4] > 0;
+    }
+
+    public int getRestoredChunkX() {
+        return restoredPlayer[0];
+    }
+
+    public int getRestoredChunkY() {
+        return restoredPlayer[1];
+    }
+
+    /**
+     * Moves the player to the saved position and gives it the saved HP.
+     *
+     * @param player The player
+     */
+    public void restorePlayer(Player player) {
+        player.setCoordinates(restoredPlayer[2], restoredPlayer[3]);
+        player.setHP(restoredPlayer[4]);
+    }
+
+    /**
+     * Gets the saved HP of the enemies by spawn id, as loaded when the journal was opened.
+     * It doesn't change while the game runs, so a recording can keep it to restore chunks
+     * the same way when it is replayed.
+     *
+     * @return The HP by spawn id, not to be changed
+     */
+    public Map<Integer, Integer> getRestoredEnemyHp() {
+        return Collections.unmodifiableMap(restoredEnemyHp);
+    }
+
+    /**
+     * Applies the saved HP to the enemies of a freshly loaded chunk and removes
+     * the enemies that were killed.
+     *
+     * @param enemies The store with the enemies, with their spawn ids set
+     */
+    public void restore(EnemyStore enemies) {
+        restore(enemies, restoredEnemyHp);
+    }
+
+    /**
+     * Applies saved HP to the enemies of a freshly loaded chunk and removes the enemies
+     * that were killed.
+     *
+     * @param enemies The store with the enemies, with their spawn ids set
+     * @param restoredEnemyHp The HP by spawn id, 0 or less if killed
+     */
+    static void restore(EnemyStore enemies, Map<Integer, Integer> restoredEnemyHp) {
+        // Walk backwards, so enemies moved into the place of a removed enemy were already restored
+        for (int i = enemies.size - 1; i >= 0; i--) {
+            Integer hp = restoredEnemyHp.get(enemies.spawnId[i]);
+
+            if (hp == null) {
+                continue;
+            }
+
+            if (hp <= 0) {
+                enemies.remove(i);
+            } else {
+                enemies.hp[i] = hp;
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining records, forces the journal to the disk and stops the writer.
+     * Blocks until the writer has stopped.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes batches of records until the journal is closed.
+     */
+    private void runWriter() {
+        try {
+            while (true) {
+                boolean stopping = !running;
+
+                if (drainQueue() > 0) {
+                    if (syncEachBatch) {
+                        channel.force(false);
+                    }
+
+                    if (journalBytes >= COMPACT_BYTES) {
+                        compact();
+                    }
+                } else if (stopping) {
+                    break;
+                } else {
+                    // Wait for more records, so they are written in one batch
+                    LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+                }
+            }
+
+            channel.force(false);
+        } catch (IOException e) {
+            System.out.println("Unable to save the game: " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Unable to close the journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the records in the queue to the journal and remembers the last record
+     * of every enemy and of the player.
+     *
+     * @return The number of records written
+     * @throws IOException If the journal can't be written
+     */
+    private int drainQueue() throws IOException {
+        long end = written;
+        long position = read;
+
+        for (; position < end; position++) {
+            int base = (int) (position & queueMask) * QUEUE_INTS;
+
+            if (buffer.remaining() < PLAYER_BYTES) {
+                writeBuffer(channel);
+            }
+
+            buffer.put((byte) queue[base]);
+
+            if (queue[base] == RECORD_ENEMY_HP) {
+                buffer.putInt(queue[base + 1]);
+                buffer.putInt(queue[base + 2]);
+                savedEnemyHp.put(queue[base + 1], queue[base + 2]);
+            } else {
+                int[] player = new int[5];
+                for (int n = 0; n < 5; n++) {
+                    player[n] = queue[base + 1 + n];
+                    buffer.putInt(player[n]);
+                }
+                savedPlayer = player;
+            }
+        }
+
+        // The records have been copied, so the game thread may reuse their place
+        int count = (int) (end - read);
+        read = end;
+
+        // Records added from now on wake up the writer again
+        wakeUpSignalled = false;
+
+        writeBuffer(channel);
+
+        return count;
+    }
+
+    /**
+     * Writes the last record of every enemy and of the player to a new snapshot and empties
+     * the journal. The snapshot replaces the old one at once, so there is always a complete
+     * snapshot on the disk. If the game stops before the journal is emptied, its records
+     * are replayed over the new snapshot, which gives the same state.
+     *
+     * @throws IOException If the snapshot or the journal can't be written
+     */
+    private void compact() throws IOException {
+        Path temporaryPath = snapshotPath.resolveSibling("snapshot.tmp");
+
+        try (FileChannel snapshot = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            writeHeader(snapshot);
+
+            if (savedPlayer != null) {
+                buffer.put(RECORD_PLAYER);
+                for (int value : savedPlayer) {
+                    buffer.putInt(value);
+                }
+            }
+
+            for (Map.Entry<Integer, Integer> entry : savedEnemyHp.entrySet()) {
+                if (buffer.remaining() < ENEMY_HP_BYTES) {
+                    writeBuffer(snapshot);
+                }
+
+                buffer.put(RECORD_ENEMY_HP);
+                buffer.putInt(entry.getKey());
+                buffer.putInt(entry.getValue());
+            }
+
+            writeBuffer(snapshot);
+            snapshot.force(true);
+        }
+
+        Files.move(temporaryPath, snapshotPath,
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Keep only the header of the journal
+        channel.truncate(HEADER_BYTES);
+        channel.position(HEADER_BYTES);
+        channel.force(false);
+        journalBytes = HEADER_BYTES;
+
+        compactionCount++;
+    }
+
+    /**
+     * Writes the bytes in the buffer to a file and empties the buffer.
+     *
+     * @param target The file to write to
+     * @throws IOException If the file can't be written
+     */
+    private void writeBuffer(FileChannel target) throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+
+        buffer.clear();
+        bytesWritten += length;
+
+        if (target == channel) {
+            journalBytes += length;
+        }
+    }
+
+    /**
+     * Writes the header of a journal or snapshot file.
+     *
+     * @param target The file to write to
+     * @throws IOException If the file can't be written
+     */
+    private void writeHeader(FileChannel target) throws IOException {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        writeBuffer(target);
+    }
+
+    /**
+     * Replays the records of a journal or snapshot file into the saved state.
+     * Stops at a record that was only partly written.
+     *
+     * @param file The file to read
+     * @return The number of bytes up to the end of the last complete record, 0 if there is no file
+     * @throws IOException If the file can't be read or isn't a journal of this version
+     */
+    private long readRecords(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (data.remaining() < HEADER_BYTES) {
+            return 0;
+        }
+
+        if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+            throw new IOException(file + " is not a journal of version " + VERSION);
+        }
+
+        int complete = data.position();
+
+        try {
+            while (data.hasRemaining()) {
+                byte type = data.get();
+
+                if (type == RECORD_ENEMY_HP) {
+                    int spawnId = data.getInt();
+                    savedEnemyHp.put(spawnId, data.getInt());
+                } else if (type == RECORD_PLAYER) {
+                    int[] player = new int[5];
+                    for (int n = 0; n < 5; n++) {
+                        player[n] = data.getInt();
+                    }
+                    savedPlayer = player;
+                } else {
+                    throw new IOException("Unknown record type " + type + " in " + file);
+                }
+
+                complete = data.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // The last record was only partly written, ignore it
+        }
+
+        return complete;
+    }
+}
@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of saving the game: the save journal ("journal"), recording and replaying sessions
+ * ("replay") and snapshots ("snapshot").
+ * Run from the Game folder through Benchmark, e.g. "java Benchmark journal".
+ */
+class WorldJournalBenchmark {
+    /**
+     * Measures saving a long session to the journal: the time and allocations of recording
+     * on the game thread, the size of the files after compaction and the time to load them.
+     * Records are made in bursts of 2000 per update with a short pause between updates,
+     * for 50k different enemies. Then checks that the writer is woken up by every burst that
+     * fills half the queue, instead of waiting for the flush interval.
+     *
+     * @return True if every burst was written before the flush interval was over
+     */
+    static boolean benchmarkJournal() {
+        int updates = 500;
+        int recordsPerUpdate = 2000;
+        int enemyCount = 50000;
+
+        try {
+            Path directory = Files.createTempDirectory("journal");
+            Random random = new Random(42);
+
+            WorldJournal journal = new WorldJournal(directory);
+            Player player = new Player(188, 188, new KeyHandler());
+
+            long recordNanos = 0;
+            long allocated = 0;
+            for (int update = 0; update < updates; update++) {
+                long before = Benchmark.allocatedBytes();
+                long start = System.nanoTime();
+
+                for (int n = 0; n < recordsPerUpdate; n++) {
+                    journal.recordEnemyHp(WorldJournal.spawnId(0, 0, 1) + random.nextInt(enemyCount),
+                        random.nextInt(10));
+                }
+                journal.recordPlayer(0, 0, player);
+
+                recordNanos += System.nanoTime() - start;
+                allocated += Benchmark.allocatedBytes() - before;
+
+                Thread.sleep(2);
+            }
+
+            long start = System.nanoTime();
+            journal.close();
+            long closeNanos = System.nanoTime() - start;
+
+            long records = (long) updates * (recordsPerUpdate + 1);
+            System.out.printf("recorded %d records, %.1f ns/record, %d bytes allocated, %d dropped%n",
+                records, (double) recordNanos / records, allocated, journal.getDroppedCount());
+            System.out.printf("wrote %d KB, %d compactions, files on disk %d KB, close took %.2f ms%n",
+                journal.getBytesWritten() / 1024, journal.getCompactionCount(),
+                directorySize(directory) / 1024, closeNanos / 1e6);
+
+            start = System.nanoTime();
+            WorldJournal loaded = new WorldJournal(directory);
+            long loadNanos = System.nanoTime() - start;
+
+            System.out.printf("loaded %d enemies in %.2f ms%n",
+                loaded.getRestoredEnemyCount(), loadNanos / 1e6);
+
+            // Bursts of records that just fill half the queue, waiting for the writer after each
+            int bursts = 5;
+            int late = 0;
+            long slowestNanos = 0;
+            for (int burst = 0; burst < bursts; burst++) {
+                for (int n = 0; n <= WorldJournal.QUEUE_CAPACITY / 2; n++) {
+                    loaded.recordEnemyHp(WorldJournal.spawnId(0, 0, 1) + n % enemyCount, 1);
+                }
+
+                start = System.nanoTime();
+                while (loaded.getPendingCount() > 0
+                    && System.nanoTime() - start < 2 * WorldJournal.FLUSH_INTERVAL_NANOS) {
+                    Thread.sleep(1);
+                }
+
+                long waitNanos = System.nanoTime() - start;
+                slowestNanos = Math.max(slowestNanos, waitNanos);
+                if (waitNanos >= WorldJournal.FLUSH_INTERVAL_NANOS / 2) {
+                    late++;
+                }
+            }
+            loaded.close();
+
+            System.out.printf("%d bursts filling half the queue: slowest written after %.2f ms, %d waited for the interval%n",
+                bursts, slowestNanos / 1e6, late);
+
+            Benchmark.deleteDirectory(directory);
+
+            return late == 0;
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Journal benchmark failed: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the total size of the files in a directory.
+     *
+     * @param directory The directory
+     * @return The size in bytes
+     * @throws IOException If the directory can't be read
+     */
+    private static long directorySize(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Records an hour of play with random keys and replays it as fast as possible, checking
+     * the state at every checkpoint. Replays a recording file instead if one is given,
+     * e.g. the last.replay the game writes. After recording one, checks a recording that
+     * walks into chunks whose enemies were saved in a journal.
+     *
+     * @param file The recording to replay, or null to record one
+     * @return True if every checkpoint matched
+     */
+    static boolean benchmarkReplay(String file) {
+        try {
+            InputReplay replay;
+
+            if (file != null) {
+                replay = InputReplay.load(Path.of(file));
+            } else {
+                int ticks = 60 * 60 * 60;
+
+                Simulation simulation = Benchmark.createSimulation(50, 42);
+                InputRecorder recorder = new InputRecorder(
+                    simulation, "OW", 42, InputRecorder.CHECKPOINT_INTERVAL);
+
+                // Hold a random combination of keys for a random number of updates
+                Random random = new Random(42);
+                int input = 0;
+                int held = 0;
+
+                long start = System.nanoTime();
+                for (int tick = 0; tick < ticks; tick++) {
+                    if (held == 0) {
+                        input = random.nextInt(1 << 6);
+                        held = 1 + random.nextInt(60);
+                    }
+                    held--;
+
+                    recorder.tick(input);
+                }
+                long recordNanos = System.nanoTime() - start;
+
+                byte[] data = recorder.toBytes();
+                System.out.printf("recorded %d updates in %.2f s, %d bytes of records, %d bytes compressed%n",
+                    ticks, recordNanos / 1e9, recorder.getRecordsLength(), data.length);
+
+                replay = new InputReplay(data);
+            }
+
+            long start = System.nanoTime();
+            long mismatch = replay.replay(0);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("replayed %d updates (%.1f minutes of play) in %.2f s, %d checkpoints: %s%n",
+                replay.getTickCount(), replay.getTickCount() / 60.0 / 60, seconds,
+                replay.getCheckedCount(),
+                mismatch == 0 ? "all match" : mismatch < 0 ? "UNABLE TO RESTORE"
+                    : "MISMATCH at update " + mismatch);
+
+            return mismatch == 0 && (file != null || checkJournalReplay());
+        } catch (IOException e) {
+            System.out.println("Unable to read the recording: " + e.getMessage());
+
+            return false;
+        }
+    }
+
+    /**
+     * Records a walk through a world whose journal killed one enemy and wounded another in a
+     * chunk the walk enters, and replays it. The chunk is loaded for the first time during the
+     * recording, so the replay only matches if it restores the enemies like the journal did.
+     *
+     * @return True if the journal changed the chunk and every checkpoint matched
+     */
+    private static boolean checkJournalReplay() {
+        Path world;
+        Path saves;
+        try {
+            world = ActiveRegionBenchmark.createExploreWorld(4);
+            saves = Files.createTempDirectory("journal");
+        } catch (IOException e) {
+            System.out.println("Unable to create the world: " + e.getMessage());
+            return false;
+        }
+
+        ResourceRoot.use(world);
+
+        try {
+            WorldJournal journal = new WorldJournal(saves);
+            journal.recordEnemyHp(WorldJournal.spawnId(2, 0, 1), 0);
+            journal.recordEnemyHp(WorldJournal.spawnId(2, 0, 2), 1);
+            journal.close();
+
+            journal = new WorldJournal(saves);
+            Simulation simulation = new Simulation("EXPLORE", 0, 0, new Player(175, 175, new KeyHandler()), journal);
+            InputRecorder recorder = new InputRecorder(simulation, "EXPLORE", 0, 10);
+
+            // Walk right from chunk 0 into chunk 2, which is loaded when chunk 1 is entered
+            for (int tick = 0; tick < 600 && simulation.getRegion().getCurrent().chunkX < 2; tick++) {
+                recorder.tick(KeyHandler.INPUT_RIGHT);
+            }
+            for (int tick = 0; tick < 60; tick++) {
+                recorder.tick(0);
+            }
+
+            ChunkState restored = simulation.getRegion().getCurrent();
+            boolean entered = restored.chunkX == 2 && restored.enemies.size() == 3;
+            journal.close();
+
+            InputReplay replay = new InputReplay(recorder.toBytes());
+            long mismatch = replay.replay(0);
+
+            System.out.printf("walked into chunk %d with %d of 4 enemies left by the journal, replay: %s%n",
+                restored.chunkX, restored.enemies.size(),
+                mismatch == 0 ? "all match" : mismatch < 0 ? "UNABLE TO RESTORE" : "MISMATCH at update " + mismatch);
+
+            return entered && mismatch == 0;
+        } catch (IOException e) {
+            System.out.println("Unable to replay the walk: " + e.getMessage());
+
+            return false;
+        } finally {
+            try {
+                Benchmark.deleteDirectory(world);
+                Benchmark.deleteDirectory(saves);
+            } catch (IOException e) {
+                System.out.println("Unable to delete the world: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Measures capturing and restoring snapshots of simulations with a growing number of
+     * enemies, and checks that a simulation restored from a snapshot continues exactly like
+     * the original did. Then checks that cut off and corrupt snapshots are refused without
+     * changing the simulation.
+     *
+     * @return True if every restored simulation ended in the same state as the original and
+     *     every refused snapshot left the simulation as it was
+     */
+    static boolean benchmarkSnapshot() {
+        int[] enemyCounts = {20, 200, 2000, 20000};
+        int repetitions = 1000;
+        int checkedTicks = 100;
+        boolean allSame = true;
+
+        System.out.println("enemies     bytes  capture ns  restore ns  same state");
+
+        for (int enemyCount : enemyCounts) {
+            Simulation simulation = Benchmark.createSimulation(enemyCount, 42);
+            KeyHandler keyHandler = simulation.getPlayer().keyHandler;
+            keyHandler.space = true;
+            keyHandler.shoot = true;
+
+            // Let the enemies find paths and the player fire projectiles first
+            for (int tick = 0; tick < Benchmark.WARMUP_TICKS; tick++) {
+                Benchmark.walkUpAndDown(keyHandler, tick);
+                simulation.tick();
+            }
+
+            ByteBuffer snapshot = simulation.captureSnapshot();
+
+            // Let the original run on, then run on from the snapshot, both should end in the same state
+            long[] hashes = new long[2];
+            for (int run = 0; run < 2; run++) {
+                if (run == 1) {
+                    simulation.restoreSnapshot(snapshot.duplicate());
+                }
+
+                for (int tick = 0; tick < checkedTicks; tick++) {
+                    Benchmark.walkUpAndDown(keyHandler, tick);
+                    simulation.tick();
+                }
+
+                hashes[run] = simulation.stateHash();
+            }
+
+            // Warm up before measuring
+            for (int n = 0; n < repetitions; n++) {
+                simulation.restoreSnapshot(simulation.captureSnapshot());
+            }
+
+            long start = System.nanoTime();
+            for (int n = 0; n < repetitions; n++) {
+                snapshot = simulation.captureSnapshot();
+            }
+            long captureNanos = (System.nanoTime() - start) / repetitions;
+
+            start = System.nanoTime();
+            for (int n = 0; n < repetitions; n++) {
+                simulation.restoreSnapshot(snapshot.duplicate());
+            }
+            long restoreNanos = (System.nanoTime() - start) / repetitions;
+
+            boolean same = hashes[0] == hashes[1];
+            allSame &= same;
+
+            System.out.printf("%7d %9d %11d %11d %11s%n",
+                enemyCount, snapshot.remaining(), captureNanos, restoreNanos, same);
+        }
+
+        return allSame & checkCorruptSnapshots();
+    }
+
+    /**
+     * Restores every cut off version of a snapshot, and the snapshot with -1 written at
+     * every position, into the simulation it was captured from. A snapshot that is refused
+     * must leave the simulation as it was; one that is accepted is undone by restoring the
+     * original. Nothing may throw.
+     *
+     * @return True if every refused snapshot left the simulation unchanged
+     */
+    private static boolean checkCorruptSnapshots() {
+        Simulation simulation = Benchmark.createSimulation(20, 42);
+        KeyHandler keyHandler = simulation.getPlayer().keyHandler;
+        keyHandler.shoot = true;
+
+        for (int tick = 0; tick < Benchmark.WARMUP_TICKS; tick++) {
+            Benchmark.walkUpAndDown(keyHandler, tick);
+            simulation.tick();
+        }
+
+        ByteBuffer original = simulation.captureSnapshot();
+        int length = original.remaining();
+        int refused = 0;
+        int changed = 0;
+        int accepted = 0;
+
+        for (int n = 0; n < 2 * length; n++) {
+            ByteBuffer corrupt;
+            if (n < length) {
+                corrupt = original.duplicate();
+                corrupt.limit(n);
+            } else {
+                corrupt = ByteBuffer.allocate(length);
+                corrupt.put(original.duplicate()).flip();
+                corrupt.putInt(Math.min(n - length, length - 4), -1);
+            }
+
+            if (simulation.restoreSnapshot(corrupt)) {
+                accepted++;
+                simulation.restoreSnapshot(original.duplicate());
+            } else {
+                refused++;
+                if (!simulation.captureSnapshot().equals(original)) {
+                    changed++;
+                    simulation.restoreSnapshot(original.duplicate());
+                }
+            }
+        }
+
+        System.out.printf("corrupt snapshots: %d refused, %d accepted, %d refused but changed the simulation%n",
+            refused, accepted, changed);
+
+        return changed == 0;
+    }
+}